@@ -0,0 +1,680 @@
+package org.jnbt.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a {@code <Name>NbtCodec} for every type annotated with {@code @org.jnbt.NbtRecord}.
+ *
+ * <p>The generated codecs are plain straight-line code: one {@code tag.put(key, value)} per field
+ * when serializing and one typed getter per field when deserializing, using the primitive
+ * overloads wherever the field type allows it.</p>
+ *
+ * <p>Codecs also implement the streaming {@code read(NbtReader)} and {@code write(T, NbtWriter)}
+ * methods: fields are written with the typed writer calls, and read back by switching on the entry
+ * name, skipping unknown keys and values of an unexpected type.</p>
+ *
+ * <p>Codecs agree with {@code NbtMapper} on the same input: fields declared by superclasses come
+ * first, and fields whose key is missing or holds a tag of another type keep their initial value
+ * when assigned, or are passed as zero or null to the constructor.</p>
+ */
+@SupportedAnnotationTypes(NbtRecordProcessor.ANNOTATION)
+public final class NbtRecordProcessor extends AbstractProcessor {
+
+    static final String ANNOTATION = "org.jnbt.NbtRecord";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(ANNOTATION);
+        if (annotation == null) {
+            return false;
+        }
+        for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+            try {
+                generate(element);
+            } catch (ProcessingException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.getMessage(), e.element);
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to write codec: " + e.getMessage(), element);
+            }
+        }
+        return true;
+    }
+
+    private void generate(Element element) throws IOException {
+        if (!(element.getKind() == ElementKind.CLASS || isRecord(element))) {
+            throw new ProcessingException(element, "@NbtRecord can only be applied to classes and records");
+        }
+        TypeElement type = (TypeElement) element;
+        if (!type.getTypeParameters().isEmpty()) {
+            throw new ProcessingException(type, "@NbtRecord types cannot be generic");
+        }
+        if (type.getModifiers().contains(Modifier.PRIVATE)) {
+            throw new ProcessingException(type, "@NbtRecord types cannot be private");
+        }
+
+        List<Property> properties = new ArrayList<>();
+        for (VariableElement field : fields(type)) {
+            properties.add(new Property(field, getter(type, field)));
+        }
+
+        ExecutableElement constructor = allArgsConstructor(type, properties);
+        boolean useSetters = false;
+        if (!isRecord(type) && noArgsConstructor(type)) {
+            try {
+                for (Property property : properties) {
+                    property.setter = setter(type, property.field);
+                }
+                useSetters = true;
+            } catch (ProcessingException e) {
+                if (constructor == null) {
+                    throw e;
+                }
+            }
+        } else if (constructor == null) {
+            throw new ProcessingException(type, "@NbtRecord types need a no-argument constructor or a constructor taking every field in declaration order");
+        }
+
+        String packageName = packageOf(type).getQualifiedName().toString();
+        String typeName = sourceName(type);
+        String codecName = codecName(type);
+        String qualifiedCodec = packageName.isEmpty() ? codecName : packageName + "." + codecName;
+
+        StringBuilder out = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            out.append("package ").append(packageName).append(";\n\n");
+        }
+        out.append("// Generated by ").append(getClass().getName()).append(", do not edit.\n");
+        out.append("public final class ").append(codecName)
+                .append(" implements org.jnbt.NbtSerializer<").append(typeName)
+                .append(">, org.jnbt.NbtDeserializer<").append(typeName).append("> {\n\n");
+        out.append("    public static final ").append(codecName).append(" INSTANCE = new ").append(codecName).append("();\n\n");
+        out.append("    private ").append(codecName).append("() {\n\n    }\n\n");
+
+        out.append("    @Override\n");
+        out.append("    public void apply(").append(typeName).append(" value, org.jnbt.CompoundTag tag) {\n");
+        for (Property property : properties) {
+            mapping(property.field).write(out, key(property), property.getter);
+        }
+        out.append("    }\n\n");
+
+        out.append("    @Override\n");
+        out.append("    public ").append(typeName).append(" apply(org.jnbt.CompoundTag tag) {\n");
+        declare(out, typeName, properties, useSetters);
+        for (Property property : properties) {
+            mapping(property.field).read(out, key(property), property.local(), useSetters ? property.setter : null);
+        }
+        construct(out, typeName, properties, useSetters);
+        out.append("    }\n\n");
+
+        out.append("    @Override\n");
+        out.append("    public void write(").append(typeName).append(" value, org.jnbt.NbtWriter writer) throws java.io.IOException {\n");
+        out.append("        writer.beginCompound();\n");
+        for (Property property : properties) {
+            mapping(property.field).writeStream(out, key(property), property.getter);
+        }
+        out.append("        writer.endCompound();\n");
+        out.append("    }\n\n");
+
+        out.append("    @Override\n");
+        out.append("    public ").append(typeName).append(" read(org.jnbt.NbtReader reader) throws java.io.IOException {\n");
+        declare(out, typeName, properties, useSetters);
+        out.append("        reader.beginCompound();\n");
+        out.append("        while (reader.hasNext()) {\n");
+        out.append("            switch (reader.nextName()) {\n");
+        for (Property property : properties) {
+            mapping(property.field).readStream(out, key(property), property.local(), useSetters ? property.setter : null);
+        }
+        out.append("                default:\n");
+        out.append("                    break;\n");
+        out.append("            }\n");
+        out.append("            reader.skipValue();\n");
+        out.append("        }\n");
+        out.append("        reader.endCompound();\n");
+        construct(out, typeName, properties, useSetters);
+        out.append("    }\n");
+        if (properties.stream().anyMatch(property -> isEnum(property.field))) {
+            out.append("\n");
+            out.append("    private static <E extends java.lang.Enum<E>> E constant(java.lang.Class<E> type, java.lang.String name) {\n");
+            out.append("        for (E constant : type.getEnumConstants()) {\n");
+            out.append("            if (constant.name().equals(name)) {\n");
+            out.append("                return constant;\n");
+            out.append("            }\n");
+            out.append("        }\n");
+            out.append("        return null;\n");
+            out.append("    }\n");
+        }
+        out.append("}\n");
+
+        try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedCodec, type).openWriter()) {
+            writer.write(out.toString());
+        }
+    }
+
+    /*
+     * Starts a read: with setters the instance is created first so that fields whose key is missing
+     * keep their initial value, otherwise every constructor argument starts at zero or null.
+     */
+    private void declare(StringBuilder out, String typeName, List<Property> properties, boolean useSetters) {
+        if (useSetters) {
+            out.append("        ").append(typeName).append(" value = new ").append(typeName).append("();\n");
+            return;
+        }
+        for (Property property : properties) {
+            Mapping mapping = mapping(property.field);
+            out.append("        ").append(mapping.type).append(' ').append(property.local()).append(" = ").append(mapping.initial).append(";\n");
+        }
+    }
+
+    private static void construct(StringBuilder out, String typeName, List<Property> properties, boolean useSetters) {
+        if (useSetters) {
+            out.append("        return value;\n");
+        } else {
+            out.append("        return new ").append(typeName).append("(");
+            for (int i = 0; i < properties.size(); i++) {
+                out.append(i == 0 ? "" : ", ").append(properties.get(i).local());
+            }
+            out.append(");\n");
+        }
+    }
+
+    private String key(Property property) {
+        return processingEnv.getElementUtils().getConstantExpression(property.field.getSimpleName().toString());
+    }
+
+    private String getter(TypeElement type, VariableElement field) {
+        String name = field.getSimpleName().toString();
+        if (accessible(type, field) && !isRecord(type)) {
+            return "value." + name;
+        }
+        List<String> candidates = new ArrayList<>();
+        if (isRecord(type)) {
+            candidates.add(name);
+        }
+        candidates.add("get" + capitalize(name));
+        if (field.asType().getKind() == TypeKind.BOOLEAN) {
+            candidates.add("is" + capitalize(name));
+        }
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+            if (method.getParameters().isEmpty()
+                    && accessible(type, method)
+                    && !method.getModifiers().contains(Modifier.STATIC)
+                    && candidates.contains(method.getSimpleName().toString())
+                    && sameType(method.getReturnType(), field.asType())) {
+                return "value." + method.getSimpleName() + "()";
+            }
+        }
+        throw new ProcessingException(field, "Field '" + name + "' is private and has no accessor");
+    }
+
+    private String setter(TypeElement type, VariableElement field) {
+        String name = field.getSimpleName().toString();
+        Set<Modifier> modifiers = field.getModifiers();
+        if (accessible(type, field) && !modifiers.contains(Modifier.FINAL)) {
+            return "value." + name + " = %s";
+        }
+        String setter = "set" + capitalize(name);
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+            if (method.getSimpleName().contentEquals(setter)
+                    && method.getParameters().size() == 1
+                    && accessible(type, method)
+                    && !method.getModifiers().contains(Modifier.STATIC)
+                    && sameType(method.getParameters().get(0).asType(), field.asType())) {
+                return "value." + setter + "(%s)";
+            }
+        }
+        throw new ProcessingException(field, "Field '" + name + "' is not assignable and has no setter");
+    }
+
+    // Fields of the type and its superclasses, superclass fields first as NbtMapper orders them
+    private static List<VariableElement> fields(TypeElement type) {
+        List<TypeElement> hierarchy = new ArrayList<>();
+        for (TypeElement t = type; t != null; t = superclass(t)) {
+            hierarchy.add(t);
+        }
+        Collections.reverse(hierarchy);
+        List<VariableElement> fields = new ArrayList<>();
+        for (TypeElement t : hierarchy) {
+            for (VariableElement field : ElementFilter.fieldsIn(t.getEnclosedElements())) {
+                Set<Modifier> modifiers = field.getModifiers();
+                if (!modifiers.contains(Modifier.STATIC) && !modifiers.contains(Modifier.TRANSIENT)) {
+                    fields.add(field);
+                }
+            }
+        }
+        return fields;
+    }
+
+    private static TypeElement superclass(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        TypeElement element = (TypeElement) ((DeclaredType) superclass).asElement();
+        String name = element.getQualifiedName().toString();
+        if (name.equals("java.lang.Object") || name.equals("java.lang.Record") || name.equals("java.lang.Enum")) {
+            return null;
+        }
+        if (!element.getTypeParameters().isEmpty()) {
+            throw new ProcessingException(type, "@NbtRecord types cannot extend generic classes");
+        }
+        return element;
+    }
+
+    // Whether the generated codec, which lives in the type's package, can access a member directly
+    private static boolean accessible(TypeElement type, Element member) {
+        Set<Modifier> modifiers = member.getModifiers();
+        if (modifiers.contains(Modifier.PUBLIC)) {
+            return true;
+        }
+        return !modifiers.contains(Modifier.PRIVATE) && packageOf(member).equals(packageOf(type));
+    }
+
+    private boolean noArgsConstructor(TypeElement type) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ExecutableElement allArgsConstructor(TypeElement type, List<Property> properties) {
+        search:
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getModifiers().contains(Modifier.PRIVATE) || constructor.getParameters().size() != properties.size()) {
+                continue;
+            }
+            for (int i = 0; i < properties.size(); i++) {
+                if (!sameType(constructor.getParameters().get(i).asType(), properties.get(i).field.asType())) {
+                    continue search;
+                }
+            }
+            return constructor;
+        }
+        return null;
+    }
+
+    private Mapping mapping(VariableElement field) {
+        TypeMirror type = field.asType();
+        switch (type.getKind()) {
+            case BOOLEAN:
+                return new Mapping("boolean", "tag.put(%1$s, %2$s);", "tag.getByteTag(%1$s).boolValue()")
+                        .stream("BYTE", "writer.name(%1$s).writeByte((byte) (%2$s ? 1 : 0));", "%2$s = reader.nextByte() != 0;", "false");
+            case BYTE:
+                return new Mapping("byte", "tag.put(%1$s, %2$s);", "tag.getByte(%1$s)")
+                        .stream("BYTE", "writer.name(%1$s).writeByte(%2$s);", "%2$s = reader.nextByte();", "(byte) 0");
+            case SHORT:
+                return new Mapping("short", "tag.put(%1$s, %2$s);", "tag.getShort(%1$s)")
+                        .stream("SHORT", "writer.name(%1$s).writeShort(%2$s);", "%2$s = reader.nextShort();", "(short) 0");
+            case INT:
+                return new Mapping("int", "tag.put(%1$s, %2$s);", "tag.getInt(%1$s)")
+                        .stream("INT", "writer.name(%1$s).writeInt(%2$s);", "%2$s = reader.nextInt();", "0");
+            case LONG:
+                return new Mapping("long", "tag.put(%1$s, %2$s);", "tag.getLong(%1$s)")
+                        .stream("LONG", "writer.name(%1$s).writeLong(%2$s);", "%2$s = reader.nextLong();", "0L");
+            case FLOAT:
+                return new Mapping("float", "tag.put(%1$s, org.jnbt.Nbt.tag(%2$s));", "tag.getFloat(%1$s)")
+                        .stream("FLOAT", "writer.name(%1$s).writeFloat(%2$s);", "%2$s = reader.nextFloat();", "0F");
+            case DOUBLE:
+                return new Mapping("double", "tag.put(%1$s, %2$s);", "tag.getDouble(%1$s)")
+                        .stream("DOUBLE", "writer.name(%1$s).writeDouble(%2$s);", "%2$s = reader.nextDouble();", "0D");
+            case CHAR:
+                return new Mapping("char", "tag.put(%1$s, (short) %2$s);", "(char) tag.getShort(%1$s)")
+                        .stream("SHORT", "writer.name(%1$s).writeShort((short) %2$s);", "%2$s = (char) reader.nextShort();", "(char) 0");
+            case ARRAY:
+                TypeKind component = ((ArrayType) type).getComponentType().getKind();
+                if (component == TypeKind.BYTE) {
+                    return Mapping.nullable("byte[]", "tag.put(%1$s, %2$s);", "tag.getByteArrayTag(%1$s)", "%s.getValue()")
+                        .stream("BYTE_ARRAY", "if (%2$s != null) writer.name(%1$s).writeByteArray(%2$s);", "%2$s = reader.nextByteArray();", "null");
+                }
+                if (component == TypeKind.INT) {
+                    return Mapping.nullable("int[]", "tag.put(%1$s, %2$s);", "tag.getIntArrayTag(%1$s)", "%s.getValue()")
+                        .stream("INT_ARRAY", "if (%2$s != null) writer.name(%1$s).writeIntArray(%2$s);", "%2$s = reader.nextIntArray();", "null");
+                }
+                if (component == TypeKind.LONG) {
+                    return Mapping.nullable("long[]", "tag.put(%1$s, %2$s);", "tag.getLongArrayTag(%1$s)", "%s.getValue()")
+                        .stream("LONG_ARRAY", "if (%2$s != null) writer.name(%1$s).writeLongArray(%2$s);", "%2$s = reader.nextLongArray();", "null");
+                }
+                break;
+            case DECLARED:
+                return declared(field, (DeclaredType) type);
+            default:
+                break;
+        }
+        throw new ProcessingException(field, "Unsupported field type " + type);
+    }
+
+    private Mapping declared(VariableElement field, DeclaredType type) {
+        TypeElement element = (TypeElement) type.asElement();
+        String name = element.getQualifiedName().toString();
+        switch (name) {
+            case "java.lang.String":
+                return Mapping.nullable(name, "tag.put(%1$s, %2$s);", "tag.getStringTag(%1$s)", "%s.getValue()")
+                        .stream("STRING", "if (%2$s != null) writer.name(%1$s).writeString(%2$s);", "%2$s = reader.nextString();", "null");
+            case "java.lang.Boolean":
+                return Mapping.boxed(name, "tag.put(%1$s, %2$s.booleanValue());", "tag.getByteTag(%1$s)", "%s.boolValue()")
+                        .stream("BYTE", "if (%2$s != null) writer.name(%1$s).writeByte((byte) (%2$s ? 1 : 0));", "%2$s = reader.nextByte() != 0;", "null");
+            case "java.lang.Byte":
+                return Mapping.boxed(name, "tag.put(%1$s, %2$s.byteValue());", "tag.getByteTag(%1$s)", "%s.byteValue()")
+                        .stream("BYTE", "if (%2$s != null) writer.name(%1$s).writeByte(%2$s);", "%2$s = reader.nextByte();", "null");
+            case "java.lang.Short":
+                return Mapping.boxed(name, "tag.put(%1$s, %2$s.shortValue());", "tag.getShortTag(%1$s)", "%s.shortValue()")
+                        .stream("SHORT", "if (%2$s != null) writer.name(%1$s).writeShort(%2$s);", "%2$s = reader.nextShort();", "null");
+            case "java.lang.Integer":
+                return Mapping.boxed(name, "tag.put(%1$s, %2$s.intValue());", "tag.getIntTag(%1$s)", "%s.intValue()")
+                        .stream("INT", "if (%2$s != null) writer.name(%1$s).writeInt(%2$s);", "%2$s = reader.nextInt();", "null");
+            case "java.lang.Long":
+                return Mapping.boxed(name, "tag.put(%1$s, %2$s.longValue());", "tag.getLongTag(%1$s)", "%s.longValue()")
+                        .stream("LONG", "if (%2$s != null) writer.name(%1$s).writeLong(%2$s);", "%2$s = reader.nextLong();", "null");
+            case "java.lang.Float":
+                return Mapping.boxed(name, "tag.put(%1$s, org.jnbt.Nbt.tag(%2$s.floatValue()));", "tag.getFloatTag(%1$s)", "%s.floatValue()")
+                        .stream("FLOAT", "if (%2$s != null) writer.name(%1$s).writeFloat(%2$s);", "%2$s = reader.nextFloat();", "null");
+            case "java.lang.Double":
+                return Mapping.boxed(name, "tag.put(%1$s, %2$s.doubleValue());", "tag.getDoubleTag(%1$s)", "%s.doubleValue()")
+                        .stream("DOUBLE", "if (%2$s != null) writer.name(%1$s).writeDouble(%2$s);", "%2$s = reader.nextDouble();", "null");
+            case "org.jnbt.CompoundTag":
+                return Mapping.boxed(name, "tag.put(%1$s, %2$s);", "tag.getCompound(%1$s)", "%s")
+                        .stream("COMPOUND", "if (%2$s != null) writer.name(%1$s).writeTag(%2$s);", "%2$s = (org.jnbt.CompoundTag) reader.nextTag();", "null");
+            case "java.util.List":
+                return list(field, type);
+            default:
+                break;
+        }
+        if (element.getKind() == ElementKind.ENUM) {
+            // Unknown constants read as null rather than failing in valueOf, as NbtMapper does
+            return Mapping.boxed(name, "tag.put(%1$s, %2$s.name());", "tag.getStringTag(%1$s)", "constant(" + name + ".class, %s.getValue())")
+                    .stream("STRING", "if (%2$s != null) writer.name(%1$s).writeString(%2$s.name());", "%2$s = constant(" + name + ".class, reader.nextString());", "null");
+        }
+        if (isNbtRecord(element)) {
+            String codec = codecReference(element);
+            return new Mapping(name, "if (%2$s != null) tag.put(%1$s, " + codec + ".apply(%2$s));", codec + ".apply(tag.get(%1$s))")
+                    .stream("COMPOUND", "if (%2$s != null) " + codec + ".write(%2$s, writer.name(%1$s));", "%2$s = " + codec + ".read(reader);", "null");
+        }
+        throw new ProcessingException(field, "Unsupported field type " + type);
+    }
+
+    private Mapping list(VariableElement field, DeclaredType type) {
+        if (type.getTypeArguments().size() != 1 || type.getTypeArguments().get(0).getKind() != TypeKind.DECLARED) {
+            throw new ProcessingException(field, "Lists must declare their element type");
+        }
+        TypeElement element = (TypeElement) ((DeclaredType) type.getTypeArguments().get(0)).asElement();
+        String elementName = element.getQualifiedName().toString();
+        String listType = "java.util.List<" + elementName + ">";
+        if (isNbtRecord(element)) {
+            String codec = codecReference(element);
+            return new Mapping(listType,
+                    "if (%2$s != null) {\n"
+                            + "            org.jnbt.ListTag<org.jnbt.CompoundTag> list = org.jnbt.Nbt.list(org.jnbt.TagType.COMPOUND);\n"
+                            + "            for (" + elementName + " element : %2$s) {\n"
+                            + "                org.jnbt.CompoundTag child = org.jnbt.Nbt.compound();\n"
+                            + "                " + codec + ".apply(element, child);\n"
+                            + "                list.add(child);\n"
+                            + "            }\n"
+                            + "            tag.put(%1$s, list);\n"
+                            + "        }",
+                    "tag.getListTag(%1$s, org.jnbt.TagType.COMPOUND).getList(" + codec + ")")
+                    .stream("LIST", listWrite("COMPOUND", elementName, codec + ".write(element, writer);"),
+                            listRead("COMPOUND", "%2$s.add(" + codec + ".read(reader));"), "null");
+        }
+        String tagType;
+        String suffix;
+        switch (elementName) {
+            case "java.lang.String": tagType = "STRING"; suffix = "String"; break;
+            case "java.lang.Byte": tagType = "BYTE"; suffix = "Byte"; break;
+            case "java.lang.Short": tagType = "SHORT"; suffix = "Short"; break;
+            case "java.lang.Integer": tagType = "INT"; suffix = "Int"; break;
+            case "java.lang.Long": tagType = "LONG"; suffix = "Long"; break;
+            case "java.lang.Float": tagType = "FLOAT"; suffix = "Float"; break;
+            case "java.lang.Double": tagType = "DOUBLE"; suffix = "Double"; break;
+            default: throw new ProcessingException(field, "Unsupported list element type " + elementName);
+        }
+        String writeMethod = "write" + suffix;
+        String readMethod = "next" + suffix;
+        return new Mapping(listType,
+                "if (%2$s != null) tag.put(%1$s, org.jnbt.Nbt.list(org.jnbt.TagType." + tagType + ", %2$s));",
+                "new java.util.ArrayList<>()",
+                "for (" + elementName + " element : tag.getListTag(%1$s, org.jnbt.TagType." + tagType + ")) %2$s.add(element);")
+                .stream("LIST", listWrite(tagType, elementName, "writer." + writeMethod + "(element);"),
+                        listRead(tagType, "%2$s.add(reader." + readMethod + "());"), "null");
+    }
+
+    // Lists are written with their size up front, so null lists are omitted entirely
+    private static String listWrite(String tagType, String elementName, String element) {
+        return "if (%2$s != null) {\n"
+                + "            writer.name(%1$s).beginList(org.jnbt.TagType." + tagType + ", %2$s.size());\n"
+                + "            for (" + elementName + " element : %2$s) {\n"
+                + "                " + element + "\n"
+                + "            }\n"
+                + "            writer.endList();\n"
+                + "        }";
+    }
+
+    // Lists of another element type are skipped by endList and read as empty
+    private static String listRead(String tagType, String element) {
+        return "%2$s = new java.util.ArrayList<>();\n"
+                + "if (reader.beginList() == org.jnbt.TagType." + tagType + ") {\n"
+                + "    while (reader.hasNext()) {\n"
+                + "        " + element + "\n"
+                + "    }\n"
+                + "}\n"
+                + "reader.endList();";
+    }
+
+    private static boolean isEnum(VariableElement field) {
+        TypeMirror type = field.asType();
+        return type.getKind() == TypeKind.DECLARED && ((DeclaredType) type).asElement().getKind() == ElementKind.ENUM;
+    }
+
+    private boolean isNbtRecord(TypeElement element) {
+        return element.getAnnotationMirrors().stream()
+                .anyMatch(mirror -> ((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(ANNOTATION));
+    }
+
+    private String codecReference(TypeElement element) {
+        String packageName = packageOf(element).getQualifiedName().toString();
+        String codec = codecName(element);
+        return (packageName.isEmpty() ? codec : packageName + "." + codec) + ".INSTANCE";
+    }
+
+    private boolean sameType(TypeMirror a, TypeMirror b) {
+        return processingEnv.getTypeUtils().isSameType(a, b);
+    }
+
+    private static boolean isRecord(Element element) {
+        // ElementKind.RECORD only exists on Java 16+, compare by name to keep running on older compilers
+        return element.getKind().name().equals("RECORD");
+    }
+
+    private static PackageElement packageOf(Element element) {
+        while (!(element instanceof PackageElement)) {
+            element = element.getEnclosingElement();
+        }
+        return (PackageElement) element;
+    }
+
+    private static String sourceName(TypeElement type) {
+        return type.getQualifiedName().toString();
+    }
+
+    private static String codecName(TypeElement type) {
+        List<String> names = new ArrayList<>();
+        Element element = type;
+        while (element instanceof TypeElement) {
+            names.add(element.getSimpleName().toString());
+            element = element.getEnclosingElement();
+        }
+        Collections.reverse(names);
+        return String.join("_", names) + "NbtCodec";
+    }
+
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static final class Property {
+
+        private final VariableElement field;
+        private final String getter;
+        private String setter;
+
+        private Property(VariableElement field, String getter) {
+            this.field = field;
+            this.getter = getter;
+        }
+
+        private String local() {
+            return "$" + field.getSimpleName();
+        }
+    }
+
+    /**
+     * The generated statements for one field. Templates receive the key literal as {@code %1$s}
+     * and the value expression (or local variable) as {@code %2$s}. The stream templates are set
+     * through {@link #stream}.
+     */
+    private static final class Mapping {
+
+        private final String type;
+        private final String write;
+        private final String read;
+        private final String fill;
+        private final String present;
+        private String streamType;
+        private String streamWrite;
+        private String streamRead;
+        private String initial;
+
+        private Mapping(String type, String write, String read) {
+            this(type, write, read, null, null);
+        }
+
+        private Mapping(String type, String write, String read, String fill) {
+            this(type, write, read, fill, null);
+        }
+
+        private Mapping(String type, String write, String read, String fill, String present) {
+            this.type = type;
+            this.write = write;
+            this.read = read;
+            this.fill = fill;
+            this.present = present;
+        }
+
+        // Reference types read through their tag, whose value is taken by the present template
+        private static Mapping nullable(String type, String write, String read, String present) {
+            return new Mapping(type, write, read, null, present);
+        }
+
+        // As nullable, but the value is checked before writing so it is only evaluated once
+        private static Mapping boxed(String type, String write, String read, String present) {
+            return new Mapping(type, "if (%2$s != null) " + write, read, null, present);
+        }
+
+        private Mapping stream(String streamType, String streamWrite, String streamRead, String initial) {
+            this.streamType = streamType;
+            this.streamWrite = streamWrite;
+            this.streamRead = streamRead;
+            this.initial = initial;
+            return this;
+        }
+
+        private void write(StringBuilder out, String key, String getter) {
+            String local = "v";
+            out.append("        {\n");
+            out.append("            ").append(type).append(' ').append(local).append(" = ").append(getter).append(";\n");
+            out.append("            ").append(String.format(write, key, local).replace("\n", "\n    ")).append('\n');
+            out.append("        }\n");
+        }
+
+        private void writeStream(StringBuilder out, String key, String getter) {
+            String local = "v";
+            out.append("        {\n");
+            out.append("            ").append(type).append(' ').append(local).append(" = ").append(getter).append(";\n");
+            out.append("            ").append(String.format(streamWrite, key, local).replace("\n", "\n    ")).append('\n');
+            out.append("        }\n");
+        }
+
+        private static String tagClass(String tagType) {
+            StringBuilder name = new StringBuilder();
+            for (String word : tagType.split("_")) {
+                name.append(word.charAt(0)).append(word.substring(1).toLowerCase(Locale.ROOT));
+            }
+            return name.append("Tag").toString();
+        }
+
+        // With a setter the value is assigned as soon as it is read, otherwise kept for the constructor
+        private void readStream(StringBuilder out, String key, String local, String setter) {
+            String indent = "                        ";
+            out.append("                case ").append(key).append(":\n");
+            out.append("                    if (reader.peek() == org.jnbt.TagType.").append(streamType).append(") {\n");
+            if (setter != null) {
+                out.append(indent).append(type).append(' ').append(local).append(";\n");
+            }
+            out.append(indent).append(String.format(streamRead, key, local).replace("\n", "\n" + indent)).append('\n');
+            if (setter != null) {
+                out.append(indent).append(String.format(setter, local)).append(";\n");
+            }
+            out.append(indent).append("continue;\n");
+            out.append("                    }\n");
+            out.append("                    break;\n");
+        }
+
+        // Reads the entry only if present with the expected type, as the stream read does
+        private void read(StringBuilder out, String key, String local, String setter) {
+            String tag = local + "Tag";
+            String value = String.format(read, key);
+            out.append("        org.jnbt.Tag<?> ").append(tag).append(" = tag.get(").append(key).append(");\n");
+            out.append("        if (").append(tag).append(" instanceof org.jnbt.").append(tagClass(streamType))
+                    .append(" && ").append(tag).append(".isPresent()) {\n");
+            out.append("            ").append(setter != null ? type + " " : "").append(local).append(" = ")
+                    .append(present != null ? String.format(present, value) : value).append(";\n");
+            if (fill != null) {
+                out.append("            ").append(String.format(fill, key, local)).append('\n');
+            }
+            if (setter != null) {
+                out.append("            ").append(String.format(setter, local)).append(";\n");
+            }
+            out.append("        }\n");
+        }
+    }
+
+    private static final class ProcessingException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Element element;
+
+        private ProcessingException(Element element, String message) {
+            super(message);
+            this.element = element;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package org.jnbt.processor;
+
+import org.jnbt.CompoundTag;
+import org.jnbt.Nbt;
+import org.jnbt.NbtDeserializer;
+import org.jnbt.NbtMapper;
+import org.jnbt.NbtReader;
+import org.jnbt.NbtSerializer;
+import org.jnbt.Tag;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NbtRecordProcessorTest {
+
+    private static final String DEFAULTS = "package sample;\n"
+            + "@org.jnbt.NbtRecord\n"
+            + "public class Defaults {\n"
+            + "    public int a = 5;\n"
+            + "    public String name = \"unnamed\";\n"
+            + "    public Integer boxed = 7;\n"
+            + "    public java.util.List<String> tags = new java.util.ArrayList<>(java.util.Arrays.asList(\"x\"));\n"
+            + "}\n";
+
+    private static final String POINT = "package sample;\n"
+            + "@org.jnbt.NbtRecord\n"
+            + "public final class Point {\n"
+            + "    public final int x;\n"
+            + "    public final String name;\n"
+            + "    public Point(int x, String name) {\n"
+            + "        this.x = x;\n"
+            + "        this.name = name;\n"
+            + "    }\n"
+            + "}\n";
+
+    private static final String BASE = "package sample;\n"
+            + "public class Base {\n"
+            + "    int id = 1;\n"
+            + "    private String label;\n"
+            + "    public String getLabel() {\n"
+            + "        return label;\n"
+            + "    }\n"
+            + "    public void setLabel(String label) {\n"
+            + "        this.label = label;\n"
+            + "    }\n"
+            + "}\n";
+
+    private static final String CHILD = "package sample;\n"
+            + "@org.jnbt.NbtRecord\n"
+            + "public class Child extends Base {\n"
+            + "    public int level;\n"
+            + "}\n";
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("jnbt-processor");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    // Compiles the sources with the processor, returning the errors it reported
+    private List<String> compile(String... sources) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (String source : sources) {
+            String name = source.substring(source.indexOf("class ") + 6, source.indexOf(' ', source.indexOf("class ") + 6));
+            Path file = directory.resolve(name + ".java");
+            Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+            files.add(file.toFile());
+        }
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager manager = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+            List<String> options = Arrays.asList("-processor", NbtRecordProcessor.class.getName(),
+                    "-classpath", System.getProperty("java.class.path"), "-d", directory.toString());
+            compiler.getTask(null, manager, diagnostics, options, null,
+                    manager.getJavaFileObjectsFromFiles(files)).call();
+        }
+        List<String> errors = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                errors.add(diagnostic.getMessage(null));
+            }
+        }
+        return errors;
+    }
+
+    private final class Compiled implements AutoCloseable {
+
+        private final URLClassLoader loader;
+
+        private Compiled(String... sources) throws IOException {
+            assertEquals(Collections.emptyList(), compile(sources));
+            loader = new URLClassLoader(new URL[]{directory.toUri().toURL()}, NbtRecordProcessorTest.class.getClassLoader());
+        }
+
+        private Class<?> type(String name) throws ClassNotFoundException {
+            return loader.loadClass("sample." + name);
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> T codec(String name) throws ReflectiveOperationException {
+            return (T) type(name + "NbtCodec").getField("INSTANCE").get(null);
+        }
+
+        @Override
+        public void close() throws IOException {
+            loader.close();
+        }
+    }
+
+    private static Object stream(NbtDeserializer<?> codec, CompoundTag tag) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Nbt.write("", tag, out);
+        NbtReader reader = new NbtReader(new ByteArrayInputStream(out.toByteArray()));
+        reader.nextName();
+        return codec.read(reader);
+    }
+
+    private static Object field(Object value, String name) throws ReflectiveOperationException {
+        for (Class<?> type = value.getClass(); type != null; type = type.getSuperclass()) {
+            try {
+                java.lang.reflect.Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                return field.get(value);
+            } catch (NoSuchFieldException e) {
+                // Declared by a superclass
+            }
+        }
+        throw new NoSuchFieldException(name);
+    }
+
+    private static void assertDefaults(Object value) throws ReflectiveOperationException {
+        assertEquals(5, field(value, "a"));
+        assertEquals("unnamed", field(value, "name"));
+        assertEquals(7, field(value, "boxed"));
+        assertEquals(Collections.singletonList("x"), field(value, "tags"));
+    }
+
+    @Test
+    public void missingKeysKeepInitialValuesLikeTheMapper() throws Exception {
+        try (Compiled compiled = new Compiled(DEFAULTS)) {
+            NbtDeserializer<?> codec = compiled.codec("Defaults");
+            NbtMapper<?> mapper = NbtMapper.forClass(compiled.type("Defaults"));
+            assertDefaults(codec.apply(Nbt.compound()));
+            assertDefaults(stream(codec, Nbt.compound()));
+            assertDefaults(mapper.apply(Nbt.compound()));
+        }
+    }
+
+    @Test
+    public void valuesOfAnotherTypeAreSkippedLikeTheMapper() throws Exception {
+        CompoundTag tag = Nbt.compound();
+        tag.put("a", "text");
+        tag.put("name", 3);
+        tag.put("boxed", 2L);
+        tag.put("tags", 4);
+        try (Compiled compiled = new Compiled(DEFAULTS)) {
+            NbtDeserializer<?> codec = compiled.codec("Defaults");
+            assertDefaults(codec.apply(tag));
+            assertDefaults(stream(codec, tag));
+            assertDefaults(NbtMapper.forClass(compiled.type("Defaults")).apply(tag));
+        }
+    }
+
+    @Test
+    public void presentKeysAreRead() throws Exception {
+        CompoundTag tag = Nbt.compound();
+        tag.put("a", 1);
+        tag.put("name", "named");
+        tag.put("tags", Nbt.list(org.jnbt.TagType.STRING, "y", "z"));
+        try (Compiled compiled = new Compiled(DEFAULTS)) {
+            NbtDeserializer<?> codec = compiled.codec("Defaults");
+            for (Object value : new Object[]{codec.apply(tag), stream(codec, tag)}) {
+                assertEquals(1, field(value, "a"));
+                assertEquals("named", field(value, "name"));
+                assertEquals(7, field(value, "boxed"));
+                assertEquals(Arrays.asList("y", "z"), field(value, "tags"));
+            }
+        }
+    }
+
+    @Test
+    public void missingConstructorArgumentsAreZeroOrNull() throws Exception {
+        try (Compiled compiled = new Compiled(POINT)) {
+            NbtDeserializer<?> codec = compiled.codec("Point");
+            for (Object value : new Object[]{codec.apply(Nbt.compound()), stream(codec, Nbt.compound())}) {
+                assertEquals(0, field(value, "x"));
+                assertNull(field(value, "name"));
+            }
+        }
+    }
+
+    @Test
+    public void inheritedFieldsAreMappedFirst() throws Exception {
+        try (Compiled compiled = new Compiled(BASE, CHILD)) {
+            Object child = compiled.type("Child").getConstructor().newInstance();
+            compiled.type("Base").getMethod("setLabel", String.class).invoke(child, "labelled");
+            compiled.type("Child").getField("level").set(child, 3);
+
+            NbtSerializer<Object> serializer = compiled.codec("Child");
+            CompoundTag tag = (CompoundTag) serializer.apply(child);
+            @SuppressWarnings("unchecked")
+            NbtMapper<Object> mapper = (NbtMapper<Object>) NbtMapper.forClass(compiled.type("Child"));
+            assertEquals(mapper.apply(child), tag);
+            List<String> keys = new ArrayList<>();
+            for (Map.Entry<String, Tag> entry : tag) {
+                keys.add(entry.getKey());
+            }
+            assertEquals(Arrays.asList("id", "label", "level"), keys);
+
+            NbtDeserializer<?> codec = compiled.codec("Child");
+            for (Object value : new Object[]{codec.apply(tag), stream(codec, tag)}) {
+                assertEquals(1, field(value, "id"));
+                assertEquals("labelled", field(value, "label"));
+                assertEquals(3, field(value, "level"));
+            }
+        }
+    }
+
+    @Test
+    public void inaccessibleInheritedFieldsAreReported() throws IOException {
+        String base = "package sample;\n"
+                + "public class Hidden {\n"
+                + "    private int secret;\n"
+                + "}\n";
+        String child = "package sample;\n"
+                + "@org.jnbt.NbtRecord\n"
+                + "public class Exposed extends Hidden {\n"
+                + "    public int visible;\n"
+                + "}\n";
+        List<String> errors = compile(base, child);
+        assertFalse(errors.isEmpty());
+        assertTrue(errors.toString(), errors.get(0).contains("'secret'"));
+    }
+}
@@ -36,7 +36,6 @@ package org.jnbt;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.Objects;
 
 public final class ByteArrayTag extends Tag<byte[]> {
 
@@ -72,11 +71,6 @@ public final class ByteArrayTag extends Tag<byte[]> {
         return TagType.BYTE_ARRAY;
     }
 
-    @Override
-    String getValueString() {
-        return Arrays.toString(value);
-    }
-
     @Override
     void writeValue(DataOutput out) throws IOException {
         out.writeInt(value.length);
@@ -94,6 +88,6 @@ public final class ByteArrayTag extends Tag<byte[]> {
 
     @Override
     public int hashCode() {
-        return Objects.hash(super.hashCode(), value);
+        return 31 * super.hashCode() + Arrays.hashCode(value);
     }
 }
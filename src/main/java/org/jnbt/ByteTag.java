@@ -35,7 +35,6 @@ package org.jnbt;
 
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Objects;
 
 public final class ByteTag extends NumberTag<Byte> {
 
@@ -95,6 +94,6 @@ public final class ByteTag extends NumberTag<Byte> {
 
     @Override
     public int hashCode() {
-        return Objects.hash(super.hashCode(), value);
+        return 31 * super.hashCode() + Byte.hashCode(value);
     }
 }
@@ -0,0 +1,412 @@
+package org.jnbt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dirty state and cached encoding for a mutable {@link CompoundTag} or {@link ListTag} that has
+ * opted into {@code trackChanges()}.
+ *
+ * <p>The cached encoding is a sequence of literal byte runs (the container's own entries) and
+ * references to the trackers of tracked child containers, so every encoded byte is held exactly
+ * once and a change deep in the tree only re-encodes the container that was modified. Concurrent
+ * compounds and {@code immutable()} views of mutable containers cannot be tracked and are
+ * referenced directly, then encoded on every write.</p>
+ *
+ * <p>A container may be held by several tracked parents at once; it reports its changes to each
+ * of them. A parent stops listening once a re-encode finds the child gone.</p>
+ */
+final class ChangeTracker {
+
+    private static final ChangeTracker[] NONE = new ChangeTracker[0];
+
+    private final Tag<?> owner;
+    private ChangeTracker[] parents = NONE;
+    // Trackers referenced by the current pieces
+    private ChangeTracker[] children = NONE;
+    private boolean dirty = true;
+    private Object[] pieces;
+
+    private ChangeTracker(Tag<?> owner) {
+        this.owner = owner;
+    }
+
+    boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Invalidates this container's own encoding and marks the path to the root dirty.
+     */
+    void changed() {
+        pieces = null;
+        markDirty();
+    }
+
+    /**
+     * As {@link #changed()}, additionally tracking {@code child} if it is a mutable container.
+     */
+    void changed(Tag<?> child) {
+        adopt(child);
+        changed();
+    }
+
+    /**
+     * Returns a view of a tracked compound's map whose modifications mark the compound changed.
+     */
+    Map<String, Tag> trackedMap(Map<String, Tag> map) {
+        return new TrackedMap(map);
+    }
+
+    /**
+     * Returns a view of a tracked list's elements whose modifications mark the list changed.
+     */
+    <V> List<Tag<V>> trackedList(List<Tag<V>> list) {
+        return new TrackedList<>(list);
+    }
+
+    void write(DataOutput out) throws IOException {
+        if (pieces == null) {
+            pieces = encode();
+        }
+        // Live children change without telling us, so a container holding one stays dirty
+        boolean stale = false;
+        for (Object piece : pieces) {
+            if (piece instanceof byte[]) {
+                out.write((byte[]) piece);
+            } else if (piece instanceof ChangeTracker) {
+                ChangeTracker child = (ChangeTracker) piece;
+                child.write(out);
+                stale |= child.dirty;
+            } else {
+                ((Tag<?>) piece).writeValue(out);
+                stale = true;
+            }
+        }
+        dirty = stale;
+    }
+
+    void adopt(Tag<?> child) {
+        ChangeTracker tracker = track(child);
+        if (tracker != null) {
+            if (!contains(tracker.parents, this)) {
+                tracker.parents = append(tracker.parents, this);
+            }
+            if (tracker.dirty) {
+                markDirty();
+            }
+        }
+    }
+
+    private void markDirty() {
+        // A dirty node always has dirty ancestors, so stop at the first one
+        if (!dirty) {
+            dirty = true;
+            for (ChangeTracker parent : parents) {
+                parent.markDirty();
+            }
+        }
+    }
+
+    private Object[] encode() throws IOException {
+        Object[] pieces = encodePieces();
+        List<ChangeTracker> referenced = new ArrayList<>();
+        for (Object piece : pieces) {
+            if (piece instanceof ChangeTracker) {
+                referenced.add((ChangeTracker) piece);
+            }
+        }
+        ChangeTracker[] current = referenced.toArray(NONE);
+        // Children that were removed no longer report to this tracker
+        for (ChangeTracker child : children) {
+            if (!contains(current, child)) {
+                child.parents = without(child.parents, this);
+            }
+        }
+        children = current;
+        return pieces;
+    }
+
+    private Object[] encodePieces() throws IOException {
+        Pieces out = new Pieces();
+        if (owner instanceof CompoundTag) {
+            for (Map.Entry<String, Tag> entry : ((CompoundTag) owner).backing().entrySet()) {
+                Tag tag = entry.getValue();
+                ChangeTracker child = childOf(tag);
+                if (child != null) {
+                    out.data.writeByte(tag.getType().getId());
+                    StringTag.writeString(entry.getKey(), out.data);
+                    out.child(child);
+                } else if (isLive(tag)) {
+                    out.data.writeByte(tag.getType().getId());
+                    StringTag.writeString(entry.getKey(), out.data);
+                    out.live(tag);
+                } else {
+                    tag.writeTo(entry.getKey(), out.data);
+                }
+            }
+            out.data.writeByte(TagType.END.getId());
+        } else {
+            ListTag<?> list = (ListTag<?>) owner;
+            out.data.writeByte(list.getChildType().getId());
+            out.data.writeInt(list.backing().size());
+            for (Tag<?> tag : list.backing()) {
+                ChangeTracker child = childOf(tag);
+                if (child != null) {
+                    out.child(child);
+                } else if (isLive(tag)) {
+                    out.live(tag);
+                } else {
+                    tag.writeValue(out.data);
+                }
+            }
+        }
+        return out.finish();
+    }
+
+    // Only children that report back to this tracker may be referenced rather than inlined
+    private ChangeTracker childOf(Tag<?> tag) {
+        ChangeTracker child = trackerOf(tag);
+        if (child != null && contains(child.parents, this)) {
+            return child;
+        }
+        return null;
+    }
+
+    // Containers that may change under a frozen face: concurrent compounds and views of mutable ones
+    private static boolean isLive(Tag<?> tag) {
+        if (tag instanceof CompoundTag) {
+            CompoundTag compound = (CompoundTag) tag;
+            return compound.isConcurrent() || compound.isView();
+        }
+        return tag instanceof ListTag && ((ListTag<?>) tag).isView();
+    }
+
+    static ChangeTracker create(Tag<?> owner) {
+        return new ChangeTracker(owner);
+    }
+
+    private static ChangeTracker track(Tag<?> tag) {
+        if (tag instanceof CompoundTag) {
+            CompoundTag compound = (CompoundTag) tag;
+            return compound.isFrozen() ? null : compound.trackChanges().tracker();
+        }
+        if (tag instanceof ListTag) {
+            ListTag<?> list = (ListTag<?>) tag;
+            return list.isFrozen() ? null : list.trackChanges().tracker();
+        }
+        return null;
+    }
+
+    private static ChangeTracker trackerOf(Tag<?> tag) {
+        if (tag instanceof CompoundTag) {
+            return ((CompoundTag) tag).tracker();
+        }
+        if (tag instanceof ListTag) {
+            return ((ListTag<?>) tag).tracker();
+        }
+        return null;
+    }
+
+    private static boolean contains(ChangeTracker[] trackers, ChangeTracker tracker) {
+        for (ChangeTracker t : trackers) {
+            if (t == tracker) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ChangeTracker[] append(ChangeTracker[] trackers, ChangeTracker tracker) {
+        ChangeTracker[] result = Arrays.copyOf(trackers, trackers.length + 1);
+        result[trackers.length] = tracker;
+        return result;
+    }
+
+    private static ChangeTracker[] without(ChangeTracker[] trackers, ChangeTracker tracker) {
+        ChangeTracker[] result = new ChangeTracker[trackers.length];
+        int size = 0;
+        for (ChangeTracker t : trackers) {
+            if (t != tracker) {
+                result[size++] = t;
+            }
+        }
+        return size == 0 ? NONE : Arrays.copyOf(result, size);
+    }
+
+    private final class TrackedMap extends AbstractMap<String, Tag> {
+
+        private final Map<String, Tag> map;
+
+        private TrackedMap(Map<String, Tag> map) {
+            this.map = map;
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return map.containsKey(key);
+        }
+
+        @Override
+        public Tag get(Object key) {
+            return map.get(key);
+        }
+
+        @Override
+        public Tag put(String key, Tag value) {
+            Tag previous = map.put(key, value);
+            changed(value);
+            return previous;
+        }
+
+        @Override
+        public Tag remove(Object key) {
+            if (!map.containsKey(key)) {
+                return null;
+            }
+            Tag previous = map.remove(key);
+            changed();
+            return previous;
+        }
+
+        @Override
+        public void clear() {
+            map.clear();
+            changed();
+        }
+
+        @Override
+        public Set<Entry<String, Tag>> entrySet() {
+            return new AbstractSet<Entry<String, Tag>>() {
+                @Override
+                public int size() {
+                    return map.size();
+                }
+
+                @Override
+                public Iterator<Entry<String, Tag>> iterator() {
+                    Iterator<Entry<String, Tag>> i = map.entrySet().iterator();
+                    return new Iterator<Entry<String, Tag>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return i.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, Tag> next() {
+                            Entry<String, Tag> entry = i.next();
+                            return new SimpleEntry<String, Tag>(entry) {
+                                @Override
+                                public Tag setValue(Tag value) {
+                                    super.setValue(value);
+                                    Tag previous = entry.setValue(value);
+                                    changed(value);
+                                    return previous;
+                                }
+                            };
+                        }
+
+                        @Override
+                        public void remove() {
+                            i.remove();
+                            changed();
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    private final class TrackedList<V> extends AbstractList<Tag<V>> {
+
+        private final List<Tag<V>> list;
+
+        private TrackedList(List<Tag<V>> list) {
+            this.list = list;
+        }
+
+        @Override
+        public int size() {
+            return list.size();
+        }
+
+        @Override
+        public Tag<V> get(int index) {
+            return list.get(index);
+        }
+
+        @Override
+        public Tag<V> set(int index, Tag<V> element) {
+            Tag<V> previous = list.set(index, element);
+            changed(element);
+            return previous;
+        }
+
+        @Override
+        public void add(int index, Tag<V> element) {
+            list.add(index, element);
+            modCount++;
+            changed(element);
+        }
+
+        @Override
+        public Tag<V> remove(int index) {
+            Tag<V> previous = list.remove(index);
+            modCount++;
+            changed();
+            return previous;
+        }
+
+        @Override
+        protected void removeRange(int fromIndex, int toIndex) {
+            list.subList(fromIndex, toIndex).clear();
+            modCount++;
+            changed();
+        }
+    }
+
+    private static final class Pieces {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream data = new DataOutputStream(bytes);
+        private final List<Object> pieces = new ArrayList<>();
+
+        private void child(ChangeTracker child) {
+            flush();
+            pieces.add(child);
+        }
+
+        private void live(Tag<?> tag) {
+            flush();
+            pieces.add(tag);
+        }
+
+        private Object[] finish() {
+            flush();
+            return pieces.toArray();
+        }
+
+        private void flush() {
+            if (bytes.size() > 0) {
+                pieces.add(bytes.toByteArray());
+                bytes.reset();
+            }
+        }
+    }
+}
@@ -0,0 +1,798 @@
+package org.jnbt;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A list of compounds decoded column by column, for lists whose elements share the same keys such
+ * as entities, block entities and palettes.
+ *
+ * <p>The schema is the shape (keys in order, their types and list lengths) shared by most of the
+ * first {@value #SAMPLE} elements, the earliest on a tie. Numeric entries become primitive arrays, strings
+ * become dictionary codes, and lists of a fixed number of numbers (like {@code Pos} or
+ * {@code Motion}) become one primitive array per component. Other entries are kept as tags.
+ * Elements that do not match the schema (missing, extra or reordered keys, other types or list
+ * lengths) are kept as compounds and reported by {@link #isRegular(int)}; in their rows columns
+ * hold zero, null or string code -1.</p>
+ *
+ * <p>{@link #read(NbtReader)} fills the columns straight from the stream, so regular elements
+ * cost no maps or tags.</p>
+ */
+public final class ColumnarList {
+
+    static final int SAMPLE = 16;
+
+    private final int size;
+    private final Column[] columns;
+    private final Map<String, Column> byName = new HashMap<>();
+    private final Map<Integer, CompoundTag> irregular = new HashMap<>();
+
+    private ColumnarList(CompoundTag schema, int size) {
+        this.size = size;
+        this.columns = new Column[schema.backing().size()];
+        int i = 0;
+        for (Map.Entry<String, Tag> entry : schema.backing().entrySet()) {
+            Column column = column(entry.getKey(), entry.getValue(), size);
+            columns[i++] = column;
+            byName.put(column.name, column);
+        }
+    }
+
+    /**
+     * Reads the next value of {@code reader}, which must be a list of compounds (or an empty
+     * list), into columns.
+     */
+    public static ColumnarList read(NbtReader reader) throws IOException {
+        TagType<?, ?> type = reader.beginList();
+        int size = reader.remaining();
+        if (size == 0) {
+            reader.endList();
+            return new ColumnarList(CompoundTag.EMPTY, 0);
+        }
+        if (type != TagType.COMPOUND) {
+            throw new IllegalStateException("Expected a list of compounds but was a list of " + type.getName());
+        }
+        // The sample is read as compounds to pick the schema, the rest straight into columns
+        List<CompoundTag> sample = new ArrayList<>(Math.min(size, SAMPLE));
+        while (sample.size() < Math.min(size, SAMPLE)) {
+            sample.add(reader.nextTag().asCompound());
+        }
+        ColumnarList list = new ColumnarList(schema(sample), size);
+        for (int row = 0; row < sample.size(); row++) {
+            list.set(row, sample.get(row));
+        }
+        for (int row = sample.size(); row < size; row++) {
+            list.read(reader, row);
+        }
+        reader.endList();
+        return list;
+    }
+
+    public static ColumnarList of(ListTag<?> list) {
+        List<? extends Tag<?>> elements = list.backing();
+        if (elements.isEmpty()) {
+            return new ColumnarList(CompoundTag.EMPTY, 0);
+        }
+        if (list.getChildType() != TagType.COMPOUND) {
+            throw new IllegalArgumentException("Expected a list of compounds but was a list of " + list.getChildType().getName());
+        }
+        List<CompoundTag> sample = new ArrayList<>(Math.min(elements.size(), SAMPLE));
+        for (int row = 0; row < elements.size() && row < SAMPLE; row++) {
+            sample.add((CompoundTag) elements.get(row));
+        }
+        ColumnarList columnar = new ColumnarList(schema(sample), elements.size());
+        for (int row = 0; row < elements.size(); row++) {
+            columnar.set(row, (CompoundTag) elements.get(row));
+        }
+        return columnar;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // The most common shape wins, so that one odd element does not make the others irregular
+    private static CompoundTag schema(List<CompoundTag> sample) {
+        Map<String, Integer> counts = new HashMap<>();
+        CompoundTag schema = sample.get(0);
+        int best = 0;
+        for (CompoundTag compound : sample) {
+            int count = counts.merge(shape(compound), 1, Integer::sum);
+            if (count > best) {
+                best = count;
+                schema = compound;
+            }
+        }
+        return schema;
+    }
+
+    private static String shape(CompoundTag compound) {
+        StringBuilder shape = new StringBuilder();
+        for (Map.Entry<String, Tag> entry : compound.backing().entrySet()) {
+            Tag tag = entry.getValue();
+            shape.append(entry.getKey()).append(':').append(tag.getType().getId());
+            if (tag instanceof ListTag) {
+                ListTag<?> list = (ListTag<?>) tag;
+                shape.append('/').append(list.getChildType().getId()).append('x').append(list.backing().size());
+            }
+            shape.append(',');
+        }
+        return shape.toString();
+    }
+
+    /**
+     * Returns the keys of the schema, in order.
+     */
+    public List<String> getKeys() {
+        List<String> keys = new ArrayList<>(columns.length);
+        for (Column column : columns) {
+            keys.add(column.name);
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the type of a key of the schema, or {@link TagType#NULL} if there is no such key.
+     */
+    public TagType<?, ?> getType(String key) {
+        Column column = byName.get(key);
+        return column == null ? TagType.NULL : column.type;
+    }
+
+    public boolean isRegular(int row) {
+        checkRow(row);
+        return !irregular.containsKey(row);
+    }
+
+    public int getIrregularCount() {
+        return irregular.size();
+    }
+
+    public byte[] getBytes(String key) {
+        return ((ByteColumn) column(key, TagType.BYTE)).values;
+    }
+
+    public short[] getShorts(String key) {
+        return ((ShortColumn) column(key, TagType.SHORT)).values;
+    }
+
+    public int[] getInts(String key) {
+        return ((IntColumn) column(key, TagType.INT)).values;
+    }
+
+    public long[] getLongs(String key) {
+        return ((LongColumn) column(key, TagType.LONG)).values;
+    }
+
+    public float[] getFloats(String key) {
+        return ((FloatColumn) column(key, TagType.FLOAT)).values;
+    }
+
+    public double[] getDoubles(String key) {
+        return ((DoubleColumn) column(key, TagType.DOUBLE)).values;
+    }
+
+    /**
+     * Returns one component of a fixed-length numeric list column as the array the component type
+     * maps to, e.g. {@code (double[]) getComponent("Pos", 1)} for the y coordinates.
+     */
+    public Object getComponent(String key, int component) {
+        Column column = column(key, TagType.LIST);
+        if (!(column instanceof VectorColumn)) {
+            throw new IllegalArgumentException(key + " is not a fixed-length numeric list");
+        }
+        VectorColumn vector = (VectorColumn) column;
+        if (component < 0 || component >= vector.components.length) {
+            throw new IndexOutOfBoundsException("Component " + component + " of " + vector.components.length);
+        }
+        return vector.components[component].array();
+    }
+
+    /**
+     * Returns the dictionary codes of a string column, see {@link #getDictionary(String)}.
+     */
+    public int[] getStringCodes(String key) {
+        return ((StringColumn) column(key, TagType.STRING)).codes;
+    }
+
+    public List<String> getDictionary(String key) {
+        return Collections.unmodifiableList(((StringColumn) column(key, TagType.STRING)).dictionary);
+    }
+
+    public String getString(String key, int row) {
+        checkRow(row);
+        StringColumn column = (StringColumn) column(key, TagType.STRING);
+        return isRegular(row) ? column.dictionary.get(column.codes[row]) : irregular.get(row).getString(key);
+    }
+
+    /**
+     * Returns the value of a key in a row, for regular and irregular rows alike.
+     */
+    public Tag get(int row, String key) {
+        checkRow(row);
+        CompoundTag compound = irregular.get(row);
+        if (compound != null) {
+            return compound.get(key);
+        }
+        Column column = byName.get(key);
+        return column == null ? NullTag.NULL : column.get(row);
+    }
+
+    /**
+     * Returns a row as a frozen compound.
+     */
+    public CompoundTag getRow(int row) {
+        checkRow(row);
+        CompoundTag compound = irregular.get(row);
+        if (compound != null) {
+            return compound;
+        }
+        return regularRow(row, columns.length);
+    }
+
+    public ListTag<CompoundTag> toList() {
+        List<Tag<CompoundTag>> rows = new ArrayList<>(size);
+        for (int row = 0; row < size; row++) {
+            rows.add(getRow(row));
+        }
+        return new ListTag<>(rows, TagType.COMPOUND, true);
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnarList" + getKeys() + "[" + size + " rows, " + irregular.size() + " irregular]";
+    }
+
+    private CompoundTag regularRow(int row, int columnCount) {
+        Map<String, Tag> map = new LinkedHashMap<>(Math.max(16, columnCount * 4 / 3 + 1));
+        for (int i = 0; i < columnCount; i++) {
+            map.put(columns[i].name, columns[i].get(row));
+        }
+        return new CompoundTag(map, true);
+    }
+
+    private void set(int row, CompoundTag compound) {
+        Map<String, Tag> map = compound.backing();
+        if (map.size() == columns.length) {
+            int i = 0;
+            for (Map.Entry<String, Tag> entry : map.entrySet()) {
+                Column column = columns[i];
+                if (!column.name.equals(entry.getKey()) || !column.set(row, entry.getValue())) {
+                    break;
+                }
+                i++;
+            }
+            if (i == columns.length) {
+                return;
+            }
+        }
+        setIrregular(row, compound);
+    }
+
+    private void read(NbtReader reader, int row) throws IOException {
+        reader.beginCompound();
+        int i = 0;
+        while (reader.hasNext()) {
+            TagType<?, ?> type = reader.peek();
+            String name = reader.nextName();
+            Column column = i < columns.length ? columns[i] : null;
+            Tag rejected = null;
+            if (column != null && column.name.equals(name) && column.type == type) {
+                rejected = column.read(reader, row);
+                if (rejected == null) {
+                    i++;
+                    continue;
+                }
+            }
+            // Fall back to a compound holding what was read so far and the rest of the element
+            CompoundTag compound = regularRow(row, i);
+            Map<String, Tag> map = compound.backing();
+            map.put(name, rejected != null ? rejected.freeze() : reader.nextTag().freeze());
+            while (reader.hasNext()) {
+                map.put(reader.nextName(), reader.nextTag().freeze());
+            }
+            reader.endCompound();
+            setIrregular(row, compound);
+            return;
+        }
+        reader.endCompound();
+        if (i < columns.length) {
+            setIrregular(row, regularRow(row, i));
+        }
+    }
+
+    private void setIrregular(int row, CompoundTag compound) {
+        for (Column column : columns) {
+            column.clear(row);
+        }
+        irregular.put(row, compound.freeze());
+    }
+
+    private Column column(String key, TagType<?, ?> type) {
+        Column column = byName.get(key);
+        if (column == null || column.type != type) {
+            throw new IllegalArgumentException("No " + type.getName() + " column " + key);
+        }
+        return column;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+    }
+
+    private static Column column(String name, Tag tag, int size) {
+        TagType<?, ?> type = tag.getType();
+        switch (type.getId()) {
+            case 1:
+            case 2:
+            case 3:
+            case 4:
+            case 5:
+            case 6:
+                return numberColumn(name, type, size);
+            case 8:
+                return new StringColumn(name, size);
+            case 9: {
+                ListTag<?> list = (ListTag<?>) tag;
+                TagType<?, ?> element = list.getChildType();
+                int count = list.backing().size();
+                if (count > 0 && element.getId() >= 1 && element.getId() <= 6) {
+                    return new VectorColumn(name, element, count, size);
+                }
+                return new TagColumn(name, type, size);
+            }
+            default:
+                return new TagColumn(name, type, size);
+        }
+    }
+
+    private static NumberColumn numberColumn(String name, TagType<?, ?> type, int size) {
+        switch (type.getId()) {
+            case 1:
+                return new ByteColumn(name, size);
+            case 2:
+                return new ShortColumn(name, size);
+            case 3:
+                return new IntColumn(name, size);
+            case 4:
+                return new LongColumn(name, size);
+            case 5:
+                return new FloatColumn(name, size);
+            default:
+                return new DoubleColumn(name, size);
+        }
+    }
+
+    private abstract static class Column {
+
+        final String name;
+        final TagType<?, ?> type;
+
+        Column(String name, TagType<?, ?> type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        /**
+         * Stores a value of this column's type, or returns false if it does not fit the column.
+         */
+        abstract boolean set(int row, Tag tag);
+
+        /**
+         * Reads the next value, which has this column's type. Returns null once stored, or the
+         * value read as a tag if it does not fit the column.
+         */
+        abstract Tag read(NbtReader reader, int row) throws IOException;
+
+        abstract Tag get(int row);
+
+        abstract void clear(int row);
+    }
+
+    // A column of a numeric type, stored as the primitive array the type maps to
+    private abstract static class NumberColumn extends Column {
+
+        NumberColumn(String name, TagType<?, ?> type) {
+            super(name, type);
+        }
+
+        abstract Object array();
+    }
+
+    private static final class ByteColumn extends NumberColumn {
+
+        final byte[] values;
+
+        ByteColumn(String name, int size) {
+            super(name, TagType.BYTE);
+            values = new byte[size];
+        }
+
+        @Override
+        boolean set(int row, Tag tag) {
+            if (!(tag instanceof ByteTag)) {
+                return false;
+            }
+            values[row] = ((ByteTag) tag).byteValue();
+            return true;
+        }
+
+        @Override
+        Tag read(NbtReader reader, int row) throws IOException {
+            values[row] = reader.nextByte();
+            return null;
+        }
+
+        @Override
+        Tag get(int row) {
+            return new ByteTag(values[row]);
+        }
+
+        @Override
+        void clear(int row) {
+            values[row] = 0;
+        }
+
+        @Override
+        Object array() {
+            return values;
+        }
+    }
+
+    private static final class ShortColumn extends NumberColumn {
+
+        final short[] values;
+
+        ShortColumn(String name, int size) {
+            super(name, TagType.SHORT);
+            values = new short[size];
+        }
+
+        @Override
+        boolean set(int row, Tag tag) {
+            if (!(tag instanceof ShortTag)) {
+                return false;
+            }
+            values[row] = ((ShortTag) tag).shortValue();
+            return true;
+        }
+
+        @Override
+        Tag read(NbtReader reader, int row) throws IOException {
+            values[row] = reader.nextShort();
+            return null;
+        }
+
+        @Override
+        Tag get(int row) {
+            return new ShortTag(values[row]);
+        }
+
+        @Override
+        void clear(int row) {
+            values[row] = 0;
+        }
+
+        @Override
+        Object array() {
+            return values;
+        }
+    }
+
+    private static final class IntColumn extends NumberColumn {
+
+        final int[] values;
+
+        IntColumn(String name, int size) {
+            super(name, TagType.INT);
+            values = new int[size];
+        }
+
+        @Override
+        boolean set(int row, Tag tag) {
+            if (!(tag instanceof IntTag)) {
+                return false;
+            }
+            values[row] = ((IntTag) tag).intValue();
+            return true;
+        }
+
+        @Override
+        Tag read(NbtReader reader, int row) throws IOException {
+            values[row] = reader.nextInt();
+            return null;
+        }
+
+        @Override
+        Tag get(int row) {
+            return new IntTag(values[row]);
+        }
+
+        @Override
+        void clear(int row) {
+            values[row] = 0;
+        }
+
+        @Override
+        Object array() {
+            return values;
+        }
+    }
+
+    private static final class LongColumn extends NumberColumn {
+
+        final long[] values;
+
+        LongColumn(String name, int size) {
+            super(name, TagType.LONG);
+            values = new long[size];
+        }
+
+        @Override
+        boolean set(int row, Tag tag) {
+            if (!(tag instanceof LongTag)) {
+                return false;
+            }
+            values[row] = ((LongTag) tag).longValue();
+            return true;
+        }
+
+        @Override
+        Tag read(NbtReader reader, int row) throws IOException {
+            values[row] = reader.nextLong();
+            return null;
+        }
+
+        @Override
+        Tag get(int row) {
+            return new LongTag(values[row]);
+        }
+
+        @Override
+        void clear(int row) {
+            values[row] = 0;
+        }
+
+        @Override
+        Object array() {
+            return values;
+        }
+    }
+
+    private static final class FloatColumn extends NumberColumn {
+
+        final float[] values;
+
+        FloatColumn(String name, int size) {
+            super(name, TagType.FLOAT);
+            values = new float[size];
+        }
+
+        @Override
+        boolean set(int row, Tag tag) {
+            if (!(tag instanceof FloatTag)) {
+                return false;
+            }
+            values[row] = ((FloatTag) tag).floatValue();
+            return true;
+        }
+
+        @Override
+        Tag read(NbtReader reader, int row) throws IOException {
+            values[row] = reader.nextFloat();
+            return null;
+        }
+
+        @Override
+        Tag get(int row) {
+            return new FloatTag(values[row]);
+        }
+
+        @Override
+        void clear(int row) {
+            values[row] = 0;
+        }
+
+        @Override
+        Object array() {
+            return values;
+        }
+    }
+
+    private static final class DoubleColumn extends NumberColumn {
+
+        final double[] values;
+
+        DoubleColumn(String name, int size) {
+            super(name, TagType.DOUBLE);
+            values = new double[size];
+        }
+
+        @Override
+        boolean set(int row, Tag tag) {
+            if (!(tag instanceof DoubleTag)) {
+                return false;
+            }
+            values[row] = ((DoubleTag) tag).doubleValue();
+            return true;
+        }
+
+        @Override
+        Tag read(NbtReader reader, int row) throws IOException {
+            values[row] = reader.nextDouble();
+            return null;
+        }
+
+        @Override
+        Tag get(int row) {
+            return new DoubleTag(values[row]);
+        }
+
+        @Override
+        void clear(int row) {
+            values[row] = 0;
+        }
+
+        @Override
+        Object array() {
+            return values;
+        }
+    }
+
+    private static final class StringColumn extends Column {
+
+        final int[] codes;
+        final List<String> dictionary = new ArrayList<>();
+        private final Map<String, Integer> lookup = new HashMap<>();
+
+        StringColumn(String name, int size) {
+            super(name, TagType.STRING);
+            codes = new int[size];
+        }
+
+        @Override
+        boolean set(int row, Tag tag) {
+            if (!(tag instanceof StringTag)) {
+                return false;
+            }
+            codes[row] = code(((StringTag) tag).getValue());
+            return true;
+        }
+
+        @Override
+        Tag read(NbtReader reader, int row) throws IOException {
+            codes[row] = code(reader.nextString());
+            return null;
+        }
+
+        private int code(String value) {
+            Integer code = lookup.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add(value);
+                lookup.put(value, code);
+            }
+            return code;
+        }
+
+        @Override
+        Tag get(int row) {
+            return new StringTag(dictionary.get(codes[row]));
+        }
+
+        @Override
+        void clear(int row) {
+            codes[row] = -1;
+        }
+    }
+
+    // A fixed-length list of numbers, stored as one column per component
+    private static final class VectorColumn extends Column {
+
+        final TagType<?, ?> element;
+        final NumberColumn[] components;
+
+        VectorColumn(String name, TagType<?, ?> element, int count, int size) {
+            super(name, TagType.LIST);
+            this.element = element;
+            this.components = new NumberColumn[count];
+            for (int i = 0; i < count; i++) {
+                components[i] = numberColumn(name + "[" + i + "]", element, size);
+            }
+        }
+
+        @Override
+        boolean set(int row, Tag tag) {
+            if (!(tag instanceof ListTag)) {
+                return false;
+            }
+            ListTag<?> list = (ListTag<?>) tag;
+            List<? extends Tag<?>> elements = list.backing();
+            if (list.getChildType() != element || elements.size() != components.length) {
+                return false;
+            }
+            for (int i = 0; i < components.length; i++) {
+                components[i].set(row, elements.get(i));
+            }
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Tag read(NbtReader reader, int row) throws IOException {
+            TagType type = reader.beginList();
+            if (type == element && reader.remaining() == components.length) {
+                for (Column component : components) {
+                    component.read(reader, row);
+                }
+                reader.endList();
+                return null;
+            }
+            List<Tag> elements = new ArrayList<>(reader.remaining());
+            while (reader.hasNext()) {
+                elements.add(reader.nextTag().freeze());
+            }
+            reader.endList();
+            return new ListTag(elements, type, true);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Tag get(int row) {
+            List<Tag> elements = new ArrayList<>(components.length);
+            for (Column component : components) {
+                elements.add(component.get(row));
+            }
+            return new ListTag(elements, element, true);
+        }
+
+        @Override
+        void clear(int row) {
+            for (Column component : components) {
+                component.clear(row);
+            }
+        }
+    }
+
+    private static final class TagColumn extends Column {
+
+        final Tag[] values;
+
+        TagColumn(String name, TagType<?, ?> type, int size) {
+            super(name, type);
+            values = new Tag[size];
+        }
+
+        @Override
+        boolean set(int row, Tag tag) {
+            if (tag.getType() != type) {
+                return false;
+            }
+            values[row] = tag.freeze();
+            return true;
+        }
+
+        @Override
+        Tag read(NbtReader reader, int row) throws IOException {
+            values[row] = reader.nextTag().freeze();
+            return null;
+        }
+
+        @Override
+        Tag get(int row) {
+            return values[row];
+        }
+
+        @Override
+        void clear(int row) {
+            values[row] = null;
+        }
+    }
+}
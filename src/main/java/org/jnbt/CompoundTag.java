@@ -33,38 +33,119 @@ package org.jnbt;
  * POSSIBILITY OF SUCH DAMAGE.
  */
 
-import com.sun.javafx.collections.UnmodifiableObservableMap;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 public final class CompoundTag extends Tag<CompoundTag> implements Iterable<Map.Entry<String, Tag>> {
 
-    static final CompoundTag EMPTY = new CompoundTag(Collections.emptyMap());
+    static final CompoundTag EMPTY = new CompoundTag(Collections.emptyMap(), true);
 
     private final Map<String, Tag> value;
+    private final boolean frozen;
+    private final boolean view;
+    private int hash;
+    private ChangeTracker tracker;
+    private volatile EncodedCache.Entry encoded;
 
     CompoundTag(Map<String, Tag> value) {
+        this(value, false);
+    }
+
+    CompoundTag(Map<String, Tag> value, boolean frozen) {
+        this(value, frozen, false);
+    }
+
+    private CompoundTag(Map<String, Tag> value, boolean frozen, boolean view) {
         this.value = value;
+        this.frozen = frozen;
+        this.view = view;
     }
 
     public CompoundTag copy() {
-        return new CompoundTag(new LinkedHashMap<>(value));
+        return new CompoundTag(new LinkedHashMap<>(entries()));
     }
 
+    /**
+     * Returns a read-only view of this compound. The view shares the backing map rather than
+     * wrapping it, so frozen compounds return themselves.
+     */
     public CompoundTag immutable() {
-        if (value instanceof UnmodifiableObservableMap) {
+        if (frozen) {
             return this;
         }
-        return new CompoundTag(Collections.unmodifiableMap(value));
+        return new CompoundTag(value, true, true);
     }
 
+    /**
+     * Returns a frozen copy of this compound, with every mutable compound or list below it frozen
+     * as well.
+     */
     public CompoundTag immutableCopy() {
-        return new CompoundTag(Collections.unmodifiableMap(new LinkedHashMap<>(value)));
+        Map<String, Tag> entries = entries();
+        if (entries.isEmpty()) {
+            return new CompoundTag(Collections.emptyMap(), true);
+        }
+        Map<String, Tag> map = new LinkedHashMap<>(Math.max(16, entries.size() * 4 / 3 + 1));
+        for (Map.Entry<String, Tag> entry : entries.entrySet()) {
+            map.put(entry.getKey(), entry.getValue().freeze());
+        }
+        return new CompoundTag(map, true);
+    }
+
+    @Override
+    CompoundTag freeze() {
+        return frozen && !view ? this : immutableCopy();
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    // Whether this is a read-only view of a mutable compound returned by immutable()
+    boolean isView() {
+        return view;
+    }
+
+    /**
+     * Returns whether this compound (or the compound it is a view of) was created by
+     * {@link Nbt#concurrentCompound()}.
+     */
+    public boolean isConcurrent() {
+        return value instanceof ConcurrentCompoundMap;
+    }
+
+    /**
+     * Enables dirty tracking for this compound and every mutable compound or list below it.
+     * Tracked containers keep their encoded bytes between writes and only re-encode after
+     * {@code put}/{@code remove}, so writing a mostly unchanged tree is mostly byte copies.
+     *
+     * <p>{@link #getBacking()} of a tracked compound returns a view that marks the compound
+     * changed when it is modified. Frozen and concurrent compounds are not tracked; a tracked parent
+     * re-encodes its concurrent children on every write.</p>
+     */
+    public CompoundTag trackChanges() {
+        if (tracker == null && !frozen && !isConcurrent()) {
+            tracker = ChangeTracker.create(this);
+            for (Tag child : value.values()) {
+                tracker.adopt(child);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Returns whether this compound or anything below it changed since it was last written.
+     * Untracked compounds are always considered dirty.
+     */
+    public boolean isDirty() {
+        return tracker == null || tracker.isDirty();
     }
 
     @Override
@@ -82,11 +163,6 @@ public final class CompoundTag extends Tag<CompoundTag> implements Iterable<Map.
         return this;
     }
 
-    @Override
-    String getValueString() {
-        return value.toString();
-    }
-
     @Override
     TagType<CompoundTag, CompoundTag> getType() {
         return TagType.COMPOUND;
@@ -94,16 +170,81 @@ public final class CompoundTag extends Tag<CompoundTag> implements Iterable<Map.
 
     @Override
     void writeValue(DataOutput out) throws IOException {
-        for (Map.Entry<String, Tag> entry : this) {
+        // Both caches hold Java edition bytes
+        boolean java = !(out instanceof LittleEndianOutput);
+        if (tracker != null && java) {
+            tracker.write(out);
+            return;
+        }
+        EncodedCache.Entry cached = encoded;
+        if (cached != null && java) {
+            byte[] bytes = cached.payload();
+            if (bytes != null) {
+                out.write(bytes);
+                return;
+            }
+        }
+        for (Map.Entry<String, Tag> entry : entries().entrySet()) {
             entry.getValue().writeTo(entry.getKey(), out);
         }
         out.writeByte(TagType.END.getId());
     }
 
+    // Concurrent compounds are copied and written from a consistent snapshot
+    Map<String, Tag> entries() {
+        if (value instanceof ConcurrentCompoundMap) {
+            return ((ConcurrentCompoundMap) value).snapshot();
+        }
+        return value;
+    }
+
     public Map<String, Tag> getBacking() {
+        if (frozen) {
+            return Collections.unmodifiableMap(value);
+        }
+        if (tracker != null) {
+            return tracker.trackedMap(value);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the encoded payload of this compound (everything after the type and name). Frozen
+     * compounds keep the payload so that later writes of the same tree are a single byte copy;
+     * the memory used is bounded by {@link EncodedCache}.
+     */
+    public ByteBuffer encoded() {
+        EncodedCache.Entry cached = encoded;
+        byte[] bytes = cached == null ? null : cached.payload();
+        if (bytes == null) {
+            bytes = encodeValue();
+            if (frozen && !view) {
+                encoded = EncodedCache.store(this, bytes);
+            }
+        }
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    // Whether writeValue copies kept bytes instead of encoding the entries
+    boolean hasEncoding() {
+        EncodedCache.Entry cached = encoded;
+        return tracker != null || cached != null && cached.payload() != null;
+    }
+
+    void evictEncoded(EncodedCache.Entry entry) {
+        if (encoded == entry) {
+            encoded = null;
+        }
+    }
+
+    Map<String, Tag> backing() {
         return value;
     }
 
+    ChangeTracker tracker() {
+        return tracker;
+    }
+
     public CompoundTag putAll(Map<String, Tag> map) {
         for (Map.Entry<String, Tag> entry : map.entrySet()) {
             put(entry.getKey(), entry.getValue());
@@ -119,12 +260,96 @@ public final class CompoundTag extends Tag<CompoundTag> implements Iterable<Map.
     }
 
     public CompoundTag put(String key, Tag tag) {
+        checkMutable();
         if (tag.isPresent()) {
             value.put(key, tag);
+            if (tracker != null) {
+                tracker.changed(tag);
+            }
         }
         return this;
     }
 
+    /**
+     * Puts {@code tag} unless {@code key} is already mapped, returning the existing tag or
+     * {@link NullTag#NULL}. The compound methods below are atomic on concurrent compounds.
+     */
+    public Tag putIfAbsent(String key, Tag tag) {
+        checkMutable();
+        if (tag.isAbsent()) {
+            return get(key);
+        }
+        Tag existing = value.putIfAbsent(key, tag);
+        if (existing != null) {
+            return existing;
+        }
+        if (tracker != null) {
+            tracker.changed(tag);
+        }
+        return NullTag.NULL;
+    }
+
+    /**
+     * Returns the tag mapped to {@code key}, first putting the result of {@code function} if there
+     * is none. An absent result leaves the compound unchanged.
+     */
+    public Tag computeIfAbsent(String key, Function<String, Tag> function) {
+        checkMutable();
+        Tag existing = value.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        return changed(value.computeIfAbsent(key, k -> present(function.apply(k))));
+    }
+
+    /**
+     * Replaces the tag mapped to {@code key} with the result of {@code function}, which receives
+     * {@link NullTag#NULL} if there is none. An absent result removes the entry.
+     */
+    public Tag compute(String key, BiFunction<String, Tag, Tag> function) {
+        checkMutable();
+        return changed(value.compute(key, (k, old) -> present(function.apply(k, old == null ? NullTag.NULL : old))));
+    }
+
+    /**
+     * Puts {@code tag}, or if {@code key} is already mapped, the result of combining the existing
+     * tag with it. An absent result removes the entry.
+     */
+    public Tag merge(String key, Tag tag, BiFunction<Tag, Tag, Tag> function) {
+        checkMutable();
+        if (tag.isAbsent()) {
+            return get(key);
+        }
+        return changed(value.merge(key, tag, (old, t) -> present(function.apply(old, t))));
+    }
+
+    private Tag changed(Tag result) {
+        if (tracker != null) {
+            if (result == null) {
+                tracker.changed();
+            } else {
+                tracker.changed(result);
+            }
+        }
+        return result == null ? NullTag.NULL : result;
+    }
+
+    private static Tag present(Tag tag) {
+        return tag == null || tag.isAbsent() ? null : tag;
+    }
+
+    public Tag remove(String key) {
+        checkMutable();
+        Tag removed = value.remove(key);
+        if (removed == null) {
+            return NullTag.NULL;
+        }
+        if (tracker != null) {
+            tracker.changed();
+        }
+        return removed;
+    }
+
     public CompoundTag put(String key, byte[] bytes) {
         put(key, Nbt.tag(bytes));
         return this;
@@ -284,11 +509,11 @@ public final class CompoundTag extends Tag<CompoundTag> implements Iterable<Map.
     }
 
     public long getLong(String key) {
-        return getLongTag(key).getValue();
+        return getLongTag(key).longValue();
     }
 
     public short getShort(String key) {
-        return getShortTag(key).getValue();
+        return getShortTag(key).shortValue();
     }
 
     public String getString(String key) {
@@ -307,26 +532,43 @@ public final class CompoundTag extends Tag<CompoundTag> implements Iterable<Map.
     public boolean equals(Object obj) {
         if (this == obj) return true;
         if (!(obj instanceof CompoundTag)) return false;
-        if (!super.equals(obj)) return false;
         CompoundTag compoundTag = (CompoundTag) obj;
-        return Objects.equals(value, compoundTag.value);
+        if (value.size() != compoundTag.value.size()) return false;
+        if (hash != 0 && compoundTag.hash != 0 && hash != compoundTag.hash) return false;
+        return value.equals(compoundTag.value);
     }
 
+    /**
+     * Frozen compounds memoize their hash, so repeated lookups of the same tree are O(1) after
+     * the first call. Their children are frozen too, so the hash cannot go stale. Views returned
+     * by {@link #immutable()} share a mutable map and are not memoized.
+     */
     @Override
     public int hashCode() {
-        return Objects.hash(super.hashCode(), value);
-    }
-
-    @Override
-    public String toString() {
-        if (isAbsent()) {
-            return "{null}";
+        int h = hash;
+        if (h == 0) {
+            h = 31 * super.hashCode() + value.hashCode();
+            if (frozen && !view) {
+                hash = h;
+            }
         }
-        return getValueString();
+        return h;
     }
 
     @Override
     public Iterator<Map.Entry<String, Tag>> iterator() {
+        if (frozen) {
+            return Collections.unmodifiableMap(value).entrySet().iterator();
+        }
+        if (tracker != null) {
+            return tracker.trackedMap(value).entrySet().iterator();
+        }
         return value.entrySet().iterator();
     }
+
+    private void checkMutable() {
+        if (frozen) {
+            throw new UnsupportedOperationException("compound is frozen");
+        }
+    }
 }
@@ -0,0 +1,323 @@
+package org.jnbt;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Backing map of {@link Nbt#concurrentCompound()}.
+ *
+ * <p>Entries live in a {@link ConcurrentHashMap}, so lookups are lock-free and updates to
+ * different keys proceed in parallel; single-key operations are atomic. Each entry is stamped with
+ * a sequence number on insertion and indexed by it in a skip list, which keeps iteration in
+ * insertion order without a shared linked list. Replacing a value keeps the entry's position, as
+ * {@link LinkedHashMap} does.</p>
+ *
+ * <p>Updates hold the read side of a {@link StampedLock} and {@link #snapshot()} holds the write
+ * side, so writers only ever wait for a snapshot in progress, never for each other, and a snapshot
+ * never observes half of an update.</p>
+ *
+ * <p>Functions passed to the compute methods run while the entry and the read side are held. A
+ * function that modified this map could deadlock on the entry, and one that took a snapshot,
+ * such as by copying or writing the compound, would wait for its own read side forever. Both
+ * throw {@link IllegalStateException} instead; snapshots are refused while the thread is inside
+ * any concurrent compound's compute function, so two such maps cannot wait for each other.</p>
+ */
+final class ConcurrentCompoundMap extends AbstractMap<String, Tag> implements ConcurrentMap<String, Tag> {
+
+    // The map whose update function the current thread is running, if any
+    private static final ThreadLocal<ConcurrentCompoundMap> UPDATING = new ThreadLocal<>();
+
+    private final ConcurrentHashMap<String, Node> map;
+    private final ConcurrentSkipListMap<Long, Node> order = new ConcurrentSkipListMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final StampedLock lock = new StampedLock();
+    private final EntrySet entries = new EntrySet();
+
+    ConcurrentCompoundMap(int size) {
+        this.map = new ConcurrentHashMap<>(size);
+    }
+
+    /**
+     * Returns a point-in-time copy of the entries in insertion order.
+     */
+    Map<String, Tag> snapshot() {
+        if (UPDATING.get() != null) {
+            throw new IllegalStateException("Concurrent compounds cannot be copied or written from a compute function");
+        }
+        long stamp = lock.writeLock();
+        try {
+            Map<String, Tag> copy = new LinkedHashMap<>(Math.max(16, map.size() * 4 / 3 + 1));
+            for (Node node : order.values()) {
+                copy.put(node.key, node.value);
+            }
+            return copy;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public Tag get(Object key) {
+        Node node = map.get(key);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public Tag getOrDefault(Object key, Tag defaultValue) {
+        Node node = map.get(key);
+        return node == null ? defaultValue : node.value;
+    }
+
+    @Override
+    public Tag put(String key, Tag value) {
+        return update(key, (k, old) -> value, false);
+    }
+
+    @Override
+    public Tag putIfAbsent(String key, Tag value) {
+        return update(key, (k, old) -> old == null ? value : old, false);
+    }
+
+    @Override
+    public Tag remove(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        return update((String) key, (k, old) -> null, false);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (!(key instanceof String) || value == null) {
+            return false;
+        }
+        Tag[] removed = new Tag[1];
+        update((String) key, (k, old) -> {
+            if (value.equals(old)) {
+                removed[0] = old;
+                return null;
+            }
+            return old;
+        }, false);
+        return removed[0] != null;
+    }
+
+    @Override
+    public Tag replace(String key, Tag value) {
+        return update(key, (k, old) -> old == null ? null : value, false);
+    }
+
+    @Override
+    public boolean replace(String key, Tag oldValue, Tag newValue) {
+        boolean[] replaced = new boolean[1];
+        update(key, (k, old) -> {
+            if (old != null && old.equals(oldValue)) {
+                replaced[0] = true;
+                return newValue;
+            }
+            return old;
+        }, false);
+        return replaced[0];
+    }
+
+    @Override
+    public Tag compute(String key, BiFunction<? super String, ? super Tag, ? extends Tag> function) {
+        return update(key, function, true);
+    }
+
+    @Override
+    public Tag computeIfAbsent(String key, Function<? super String, ? extends Tag> function) {
+        Node node = map.get(key);
+        if (node != null) {
+            return node.value;
+        }
+        return update(key, (k, old) -> old == null ? function.apply(k) : old, true);
+    }
+
+    @Override
+    public Tag computeIfPresent(String key, BiFunction<? super String, ? super Tag, ? extends Tag> function) {
+        return update(key, (k, old) -> old == null ? null : function.apply(k, old), true);
+    }
+
+    @Override
+    public Tag merge(String key, Tag value, BiFunction<? super Tag, ? super Tag, ? extends Tag> function) {
+        return update(key, (k, old) -> old == null ? value : function.apply(old, value), true);
+    }
+
+    @Override
+    public void clear() {
+        for (String key : map.keySet()) {
+            remove(key);
+        }
+    }
+
+    @Override
+    public Set<Entry<String, Tag>> entrySet() {
+        return entries;
+    }
+
+    /**
+     * Applies {@code function} to the current value of {@code key} atomically; a null result
+     * removes the entry. Returns the new value if {@code current} is set, otherwise the old one.
+     */
+    private Tag update(String key, BiFunction<? super String, ? super Tag, ? extends Tag> function, boolean current) {
+        ConcurrentCompoundMap outer = UPDATING.get();
+        if (outer == this) {
+            throw new IllegalStateException("Compute functions must not modify their own compound");
+        }
+        Tag[] result = new Tag[2];
+        long stamp = lock.readLock();
+        UPDATING.set(this);
+        try {
+            map.compute(key, (k, node) -> {
+                Tag old = node == null ? null : node.value;
+                Tag value = function.apply(k, old);
+                result[0] = old;
+                result[1] = value;
+                if (value == null) {
+                    if (node != null) {
+                        order.remove(node.seq);
+                    }
+                    return null;
+                }
+                if (node == null) {
+                    node = new Node(sequence.incrementAndGet(), k, value);
+                    order.put(node.seq, node);
+                } else {
+                    node.value = value;
+                }
+                return node;
+            });
+        } finally {
+            UPDATING.set(outer);
+            lock.unlockRead(stamp);
+        }
+        return current ? result[1] : result[0];
+    }
+
+    private final class Node implements Entry<String, Tag> {
+
+        private final long seq;
+        private final String key;
+        private volatile Tag value;
+
+        private Node(long seq, String key, Tag value) {
+            this.seq = seq;
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public Tag getValue() {
+            return value;
+        }
+
+        @Override
+        public Tag setValue(Tag value) {
+            if (value == null) {
+                throw new NullPointerException();
+            }
+            Tag old = this.value;
+            replace(key, value);
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Entry)) return false;
+            Entry<?, ?> entry = (Entry<?, ?>) obj;
+            return key.equals(entry.getKey()) && value.equals(entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ value.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<String, Tag>> {
+
+        @Override
+        public Iterator<Entry<String, Tag>> iterator() {
+            Iterator<Node> nodes = order.values().iterator();
+            return new Iterator<Entry<String, Tag>>() {
+
+                private Node last;
+
+                @Override
+                public boolean hasNext() {
+                    return nodes.hasNext();
+                }
+
+                @Override
+                public Entry<String, Tag> next() {
+                    last = nodes.next();
+                    return last;
+                }
+
+                @Override
+                public void remove() {
+                    if (last == null) {
+                        throw new IllegalStateException();
+                    }
+                    ConcurrentCompoundMap.this.remove(last.key);
+                    last = null;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public boolean contains(Object obj) {
+            if (!(obj instanceof Entry)) return false;
+            Entry<?, ?> entry = (Entry<?, ?>) obj;
+            Tag value = get(entry.getKey());
+            return value != null && value.equals(entry.getValue());
+        }
+
+        @Override
+        public void clear() {
+            ConcurrentCompoundMap.this.clear();
+        }
+    }
+}
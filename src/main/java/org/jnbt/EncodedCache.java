@@ -0,0 +1,170 @@
+package org.jnbt;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Global budget for the encoded payloads cached by {@link CompoundTag#encoded()} and
+ * {@link ListTag#encoded()}.
+ *
+ * <p>Cached payloads are evicted with a CLOCK (second chance) policy once the total size exceeds
+ * {@link #getMaxBytes()}: payloads written since the hand last passed them get another round,
+ * the rest are dropped and will be re-encoded on the next request.</p>
+ */
+public final class EncodedCache {
+
+    private static final ConcurrentLinkedQueue<Entry> CLOCK = new ConcurrentLinkedQueue<>();
+    private static final ReferenceQueue<Tag<?>> COLLECTED = new ReferenceQueue<>();
+    private static final AtomicLong SIZE = new AtomicLong();
+    // Entries in CLOCK, and those among them released because their owner was collected; both
+    // are approximate under concurrent eviction and only decide when to sweep
+    private static final AtomicInteger QUEUED = new AtomicInteger();
+    private static final AtomicInteger DEAD = new AtomicInteger();
+
+    private static volatile long maxBytes = 64L * 1024 * 1024;
+
+    private EncodedCache() {
+
+    }
+
+    public static long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public static void setMaxBytes(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("negative cache size " + bytes);
+        }
+        maxBytes = bytes;
+        evict();
+    }
+
+    /**
+     * Returns the number of payload bytes currently cached.
+     */
+    public static long size() {
+        return SIZE.get();
+    }
+
+    public static void clear() {
+        Entry entry;
+        while ((entry = CLOCK.poll()) != null) {
+            dequeued(entry);
+            entry.drop();
+        }
+    }
+
+    // Number of entries in the clock, for tests
+    static int queued() {
+        return QUEUED.get();
+    }
+
+    /**
+     * Registers a payload with the cache, or returns null if it is larger than the whole budget.
+     */
+    static Entry store(Tag<?> owner, byte[] bytes) {
+        if (bytes.length > maxBytes) {
+            return null;
+        }
+        Entry entry = new Entry(owner, bytes);
+        SIZE.addAndGet(bytes.length);
+        CLOCK.offer(entry);
+        QUEUED.incrementAndGet();
+        evict();
+        return entry;
+    }
+
+    private static void evict() {
+        Object collected;
+        int dead = 0;
+        while ((collected = COLLECTED.poll()) != null) {
+            if (((Entry) collected).release()) {
+                dead++;
+            }
+        }
+        // Entries of collected owners hold no bytes, so the budget never reaches them; they are
+        // swept once they make up half the clock
+        if (dead > 0 && DEAD.addAndGet(dead) * 2L > QUEUED.get()) {
+            sweep();
+        }
+        while (SIZE.get() > maxBytes) {
+            Entry entry = CLOCK.poll();
+            if (entry == null) {
+                return;
+            }
+            if (entry.referenced && entry.bytes != null) {
+                entry.referenced = false;
+                CLOCK.offer(entry);
+            } else {
+                dequeued(entry);
+                entry.drop();
+            }
+        }
+    }
+
+    private static void sweep() {
+        int[] removed = new int[1];
+        CLOCK.removeIf(entry -> {
+            if (entry.bytes == null) {
+                removed[0]++;
+                return true;
+            }
+            return false;
+        });
+        QUEUED.addAndGet(-removed[0]);
+        DEAD.addAndGet(-removed[0]);
+    }
+
+    private static void dequeued(Entry entry) {
+        QUEUED.decrementAndGet();
+        if (entry.bytes == null) {
+            DEAD.decrementAndGet();
+        }
+    }
+
+    static final class Entry extends WeakReference<Tag<?>> {
+
+        private volatile byte[] bytes;
+        private volatile boolean referenced;
+
+        private Entry(Tag<?> owner, byte[] bytes) {
+            super(owner, COLLECTED);
+            this.bytes = bytes;
+        }
+
+        /**
+         * Returns the cached payload, or null once it has been evicted.
+         */
+        byte[] payload() {
+            byte[] b = bytes;
+            if (b != null) {
+                referenced = true;
+            }
+            return b;
+        }
+
+        private void drop() {
+            Tag<?> owner = get();
+            if (owner instanceof CompoundTag) {
+                ((CompoundTag) owner).evictEncoded(this);
+            } else if (owner instanceof ListTag) {
+                ((ListTag<?>) owner).evictEncoded(this);
+            }
+            release();
+        }
+
+        // Returns whether this call released the payload
+        private synchronized boolean release() {
+            byte[] b = bytes;
+            if (b != null) {
+                bytes = null;
+                SIZE.addAndGet(-b.length);
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -36,7 +36,6 @@ package org.jnbt;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.Objects;
 
 public final class IntArrayTag extends Tag<int[]> {
 
@@ -67,11 +66,6 @@ public final class IntArrayTag extends Tag<int[]> {
         return value;
     }
 
-    @Override
-    String getValueString() {
-        return Arrays.toString(value);
-    }
-
     @Override
     TagType<int[], IntArrayTag> getType() {
         return TagType.INT_ARRAY;
@@ -96,6 +90,6 @@ public final class IntArrayTag extends Tag<int[]> {
 
     @Override
     public int hashCode() {
-        return Objects.hash(super.hashCode(), value);
+        return 31 * super.hashCode() + Arrays.hashCode(value);
     }
 }
@@ -35,7 +35,6 @@ package org.jnbt;
 
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Objects;
 
 public final class IntTag extends NumberTag<Integer> {
 
@@ -91,6 +90,6 @@ public final class IntTag extends NumberTag<Integer> {
 
     @Override
     public int hashCode() {
-        return Objects.hash(super.hashCode(), value);
+        return 31 * super.hashCode() + Integer.hashCode(value);
     }
 }
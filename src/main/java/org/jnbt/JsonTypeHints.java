@@ -0,0 +1,61 @@
+package org.jnbt;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides which NBT types JSON values become when {@link NbtJson} converts JSON to NBT. JSON has a
+ * single number type and a single array type, so this information cannot come from the document.
+ */
+public interface JsonTypeHints {
+
+    /**
+     * Returns the numeric type ({@code BYTE} to {@code DOUBLE}) for a JSON number.
+     *
+     * @param key the enclosing compound key, or the key of the enclosing array for list elements
+     * @param literal the number as written in the JSON document
+     */
+    TagType<?, ?> numberType(String key, String literal);
+
+    /**
+     * Returns {@code LIST}, {@code BYTE_ARRAY}, {@code INT_ARRAY} or {@code LONG_ARRAY} for a JSON
+     * array.
+     */
+    TagType<?, ?> arrayType(String key);
+
+    /**
+     * Integers become ints, or longs if they do not fit. Numbers with a fraction or exponent become
+     * doubles, and arrays become lists.
+     */
+    static JsonTypeHints inferred() {
+        return NbtJson.INFERRED;
+    }
+
+    /**
+     * Uses the given type for every value under one of the keys, and {@link #inferred()} for the
+     * rest. Numeric types apply to numbers and to the elements of number arrays, array types to
+     * arrays.
+     */
+    static JsonTypeHints byKey(Map<String, TagType<?, ?>> types) {
+        Map<String, TagType<?, ?>> copy = new HashMap<>(types);
+        return new JsonTypeHints() {
+            @Override
+            public TagType<?, ?> numberType(String key, String literal) {
+                TagType<?, ?> type = copy.get(key);
+                if (type != null && type.getId() >= TagType.BYTE.getId() && type.getId() <= TagType.DOUBLE.getId()) {
+                    return type;
+                }
+                return NbtJson.INFERRED.numberType(key, literal);
+            }
+
+            @Override
+            public TagType<?, ?> arrayType(String key) {
+                TagType<?, ?> type = copy.get(key);
+                if (type == TagType.BYTE_ARRAY || type == TagType.INT_ARRAY || type == TagType.LONG_ARRAY) {
+                    return type;
+                }
+                return TagType.LIST;
+            }
+        };
+    }
+}
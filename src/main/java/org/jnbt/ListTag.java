@@ -35,40 +35,153 @@ package org.jnbt;
 
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Objects;
 
 public final class ListTag<V> extends Tag<ListTag> implements Iterable<V> {
 
-    private static final ListTag EMPTY = new ListTag<>(Collections.emptyList(), TagType.NULL);
+    private static final ListTag EMPTY = new ListTag<>(Collections.emptyList(), TagType.NULL, true);
 
     private final TagType<V, ? extends Tag<V>> child;
     private final List<Tag<V>> value;
+    private final boolean frozen;
+    private final boolean view;
+    private int hash;
+    private ChangeTracker tracker;
+    private volatile EncodedCache.Entry encoded;
 
     ListTag(List<Tag<V>> value, TagType<V, ? extends Tag<V>> childType) {
+        this(value, childType, false);
+    }
+
+    ListTag(List<Tag<V>> value, TagType<V, ? extends Tag<V>> childType, boolean frozen) {
+        this(value, childType, frozen, false);
+    }
+
+    private ListTag(List<Tag<V>> value, TagType<V, ? extends Tag<V>> childType, boolean frozen, boolean view) {
         this.child = childType;
         this.value = value;
+        this.frozen = frozen;
+        this.view = view;
     }
 
     public ListTag<V> copy() {
         return new ListTag<>(new ArrayList<>(value), child);
     }
 
+    /**
+     * Returns a read-only view of this list. The view shares the backing list rather than
+     * wrapping it, so frozen lists return themselves.
+     */
     public ListTag<V> immutable() {
-        return new ListTag<>(Collections.unmodifiableList(value), child);
+        if (frozen) {
+            return this;
+        }
+        return new ListTag<>(value, child, true, true);
     }
 
+    /**
+     * Returns a frozen copy of this list, with every mutable compound or list below it frozen as
+     * well.
+     */
     public ListTag<V> immutableCopy() {
-        return new ListTag<>(Collections.unmodifiableList(new ArrayList<>(value)), child);
+        if (value.isEmpty()) {
+            return new ListTag<>(Collections.emptyList(), child, true);
+        }
+        List<Tag<V>> list = new ArrayList<>(value.size());
+        for (Tag<V> tag : value) {
+            list.add(tag.freeze());
+        }
+        return new ListTag<>(list, child, true);
+    }
+
+    @Override
+    ListTag<V> freeze() {
+        return frozen && !view ? this : immutableCopy();
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    // Whether this is a read-only view of a mutable list returned by immutable()
+    boolean isView() {
+        return view;
+    }
+
+    /**
+     * Enables dirty tracking for this list and every mutable compound or list below it.
+     *
+     * @see CompoundTag#trackChanges()
+     */
+    public ListTag<V> trackChanges() {
+        if (tracker == null && !frozen) {
+            tracker = ChangeTracker.create(this);
+            for (Tag<V> child : value) {
+                tracker.adopt(child);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Returns whether this list or anything below it changed since it was last written.
+     * Untracked lists are always considered dirty.
+     */
+    public boolean isDirty() {
+        return tracker == null || tracker.isDirty();
     }
 
     public List<Tag<V>> getBacking() {
+        if (frozen) {
+            return Collections.unmodifiableList(value);
+        }
+        if (tracker != null) {
+            return tracker.trackedList(value);
+        }
         return value;
     }
 
+    /**
+     * Returns the encoded payload of this list (everything after the type and name). Frozen
+     * lists keep the payload so that later writes of the same tree are a single byte copy;
+     * the memory used is bounded by {@link EncodedCache}.
+     */
+    public ByteBuffer encoded() {
+        EncodedCache.Entry cached = encoded;
+        byte[] bytes = cached == null ? null : cached.payload();
+        if (bytes == null) {
+            bytes = encodeValue();
+            if (frozen && !view) {
+                encoded = EncodedCache.store(this, bytes);
+            }
+        }
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    // Whether writeValue copies kept bytes instead of encoding the elements
+    boolean hasEncoding() {
+        EncodedCache.Entry cached = encoded;
+        return tracker != null || cached != null && cached.payload() != null;
+    }
+
+    void evictEncoded(EncodedCache.Entry entry) {
+        if (encoded == entry) {
+            encoded = null;
+        }
+    }
+
+    List<Tag<V>> backing() {
+        return value;
+    }
+
+    ChangeTracker tracker() {
+        return tracker;
+    }
+
     public <T> List<T> getList(NbtDeserializer<T> deserializer) {
         List<T> list = new ArrayList<>(value.size());
         for (Tag tag : value) {
@@ -82,8 +195,12 @@ public final class ListTag<V> extends Tag<ListTag> implements Iterable<V> {
     }
 
     public ListTag<V> add(Tag<V> tag) {
+        checkMutable();
         if (tag.isPresent()) {
             value.add(tag);
+            if (tracker != null) {
+                tracker.changed(tag);
+            }
         }
         return this;
     }
@@ -133,11 +250,6 @@ public final class ListTag<V> extends Tag<ListTag> implements Iterable<V> {
         return this;
     }
 
-    @Override
-    String getValueString() {
-        return value.toString();
-    }
-
     @Override
     TagType<ListTag, ListTag> getType() {
         return TagType.LIST;
@@ -149,6 +261,20 @@ public final class ListTag<V> extends Tag<ListTag> implements Iterable<V> {
 
     @Override
     void writeValue(DataOutput out) throws IOException {
+        // Both caches hold Java edition bytes
+        boolean java = !(out instanceof LittleEndianOutput);
+        if (tracker != null && java) {
+            tracker.write(out);
+            return;
+        }
+        EncodedCache.Entry cached = encoded;
+        if (cached != null && java) {
+            byte[] bytes = cached.payload();
+            if (bytes != null) {
+                out.write(bytes);
+                return;
+            }
+        }
         out.writeByte(child.getId());
         out.writeInt(value.size());
         for (Tag tag : value) {
@@ -160,14 +286,27 @@ public final class ListTag<V> extends Tag<ListTag> implements Iterable<V> {
     public boolean equals(Object obj) {
         if (this == obj) return true;
         if (!(obj instanceof ListTag)) return false;
-        if (!super.equals(obj)) return false;
         ListTag listTag = (ListTag) obj;
-        return Objects.equals(child, listTag.child) && Objects.equals(value, listTag.value);
+        if (child != listTag.child || value.size() != listTag.value.size()) return false;
+        if (hash != 0 && listTag.hash != 0 && hash != listTag.hash) return false;
+        return value.equals(listTag.value);
     }
 
+    /**
+     * Frozen lists memoize their hash, so repeated lookups of the same tree are O(1) after the
+     * first call. Their elements are frozen too, so the hash cannot go stale. Views returned by
+     * {@link #immutable()} share a mutable list and are not memoized.
+     */
     @Override
     public int hashCode() {
-        return Objects.hash(super.hashCode(), child, value);
+        int h = hash;
+        if (h == 0) {
+            h = 31 * (31 * super.hashCode() + child.getId()) + value.hashCode();
+            if (frozen && !view) {
+                hash = h;
+            }
+        }
+        return h;
     }
 
     @Override
@@ -188,12 +327,10 @@ public final class ListTag<V> extends Tag<ListTag> implements Iterable<V> {
         };
     }
 
-    @Override
-    public String toString() {
-        if (isAbsent()) {
-            return "[null]";
+    private void checkMutable() {
+        if (frozen) {
+            throw new UnsupportedOperationException("list is frozen");
         }
-        return getValueString();
     }
 
     @SuppressWarnings("unchecked")
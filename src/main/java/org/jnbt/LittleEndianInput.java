@@ -0,0 +1,132 @@
+package org.jnbt;
+
+import java.io.DataInput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@link DataInput} over little-endian data, as used by Bedrock edition NBT. Reads go straight to
+ * the underlying stream, so callers should buffer it.
+ */
+class LittleEndianInput implements DataInput {
+
+    final InputStream in;
+    private final byte[] scratch = new byte[8];
+
+    LittleEndianInput(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads the byte length prefix of a string.
+     */
+    int readStringLength() throws IOException {
+        return readUnsignedShort();
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int read = in.read(b, off, len);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            off += read;
+            len -= read;
+        }
+    }
+
+    @Override
+    public int skipBytes(int n) throws IOException {
+        return (int) in.skip(n);
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        return readUnsignedByte() != 0;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        return (byte) readUnsignedByte();
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        return (short) readUnsignedShort();
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        readFully(scratch, 0, 2);
+        return (scratch[0] & 0xFF) | (scratch[1] & 0xFF) << 8;
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        return (char) readUnsignedShort();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        return readFixedInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        return readFixedLong();
+    }
+
+    // Floats stay fixed width even where ints and longs are varints
+    private int readFixedInt() throws IOException {
+        readFully(scratch, 0, 4);
+        return (scratch[0] & 0xFF) | (scratch[1] & 0xFF) << 8 | (scratch[2] & 0xFF) << 16 | (scratch[3] & 0xFF) << 24;
+    }
+
+    private long readFixedLong() throws IOException {
+        readFully(scratch, 0, 8);
+        long value = 0;
+        for (int i = 7; i >= 0; i--) {
+            value = value << 8 | (scratch[i] & 0xFF);
+        }
+        return value;
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readFixedInt());
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readFixedLong());
+    }
+
+    @Override
+    public String readLine() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+        byte[] bytes = new byte[readStringLength()];
+        readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,144 @@
+package org.jnbt;
+
+import java.io.DataOutput;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@link DataOutput} producing little-endian data, as used by Bedrock edition NBT. Writes go
+ * straight to the underlying stream, so callers should buffer it.
+ *
+ * <p>Tags do not use their cached Java edition encodings when writing to one of these.</p>
+ */
+class LittleEndianOutput implements DataOutput, Flushable {
+
+    final OutputStream out;
+    private final byte[] scratch = new byte[10];
+
+    LittleEndianOutput(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Returns an output of the same encoding writing to another stream.
+     */
+    LittleEndianOutput withStream(OutputStream out) {
+        return new LittleEndianOutput(out);
+    }
+
+    /**
+     * Writes the byte length prefix of a string.
+     */
+    void writeStringLength(int length) throws IOException {
+        if (length > 0xFFFF) {
+            throw new IOException("String of " + length + " bytes is too long");
+        }
+        writeShort(length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        out.write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+    }
+
+    @Override
+    public void writeBoolean(boolean v) throws IOException {
+        out.write(v ? 1 : 0);
+    }
+
+    @Override
+    public void writeByte(int v) throws IOException {
+        out.write(v);
+    }
+
+    @Override
+    public void writeShort(int v) throws IOException {
+        scratch[0] = (byte) v;
+        scratch[1] = (byte) (v >>> 8);
+        out.write(scratch, 0, 2);
+    }
+
+    @Override
+    public void writeChar(int v) throws IOException {
+        writeShort(v);
+    }
+
+    @Override
+    public void writeInt(int v) throws IOException {
+        writeFixedInt(v);
+    }
+
+    @Override
+    public void writeLong(long v) throws IOException {
+        writeFixedLong(v);
+    }
+
+    // Floats stay fixed width even where ints and longs are varints
+    private void writeFixedInt(int v) throws IOException {
+        scratch[0] = (byte) v;
+        scratch[1] = (byte) (v >>> 8);
+        scratch[2] = (byte) (v >>> 16);
+        scratch[3] = (byte) (v >>> 24);
+        out.write(scratch, 0, 4);
+    }
+
+    private void writeFixedLong(long v) throws IOException {
+        for (int i = 0; i < 8; i++) {
+            scratch[i] = (byte) (v >>> (i * 8));
+        }
+        out.write(scratch, 0, 8);
+    }
+
+    @Override
+    public void writeFloat(float v) throws IOException {
+        writeFixedInt(Float.floatToIntBits(v));
+    }
+
+    @Override
+    public void writeDouble(double v) throws IOException {
+        writeFixedLong(Double.doubleToLongBits(v));
+    }
+
+    @Override
+    public void writeBytes(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            out.write(s.charAt(i));
+        }
+    }
+
+    @Override
+    public void writeChars(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            writeChar(s.charAt(i));
+        }
+    }
+
+    @Override
+    public void writeUTF(String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeStringLength(bytes.length);
+        out.write(bytes);
+    }
+
+    // Scratch space for subclasses encoding varints
+    byte[] scratch() {
+        return scratch;
+    }
+}
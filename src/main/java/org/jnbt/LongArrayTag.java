@@ -3,7 +3,6 @@ package org.jnbt;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.Objects;
 
 public class LongArrayTag extends Tag<long[]> {
 
@@ -34,11 +33,6 @@ public class LongArrayTag extends Tag<long[]> {
         return value;
     }
 
-    @Override
-    String getValueString() {
-        return Arrays.toString(value);
-    }
-
     @Override
     TagType<long[], LongArrayTag> getType() {
         return TagType.LONG_ARRAY;
@@ -63,7 +57,7 @@ public class LongArrayTag extends Tag<long[]> {
 
     @Override
     public int hashCode() {
-        return Objects.hash(super.hashCode(), value);
+        return 31 * super.hashCode() + Arrays.hashCode(value);
     }
 
     public static LongArrayTag of(long[] longs) {
@@ -0,0 +1,373 @@
+package org.jnbt;
+
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Delivery of {@link NbtMetrics.Report}s to the installed listener and to Flight Recorder.
+ *
+ * <p>The Flight Recorder events are defined at runtime through {@code jdk.jfr.EventFactory}, so
+ * the library has no compile-time dependency on {@code jdk.jfr} and runs unchanged on JDKs
+ * without it. Defining them is expensive, so it waits until Flight Recorder has been started by
+ * someone else; until then the check is a single static call.</p>
+ */
+final class Metrics {
+
+    static volatile NbtMetrics listener;
+
+    private static final String[] TAG_FIELDS = {
+            "byteTags", "shortTags", "intTags", "longTags", "floatTags", "doubleTags",
+            "byteArrayTags", "stringTags", "listTags", "compoundTags", "intArrayTags", "longArrayTags"
+    };
+
+    // Field indices of the events; the read event adds the decompression time after the tag counts
+    private static final int LABEL = 0;
+    private static final int BYTES = 1;
+    private static final int MAX_DEPTH = 2;
+    private static final int ARRAY_BYTES = 3;
+    private static final int TAGS = 4;
+    private static final int DECOMPRESS = TAGS + TAG_FIELDS.length;
+
+    private static final MethodHandle RECORDER_INITIALIZED = isInitializedHandle();
+    private static volatile Jfr read;
+    private static volatile Jfr write;
+
+    private Metrics() {
+
+    }
+
+    static boolean reading() {
+        return listener != null || read().enabled();
+    }
+
+    static boolean writing() {
+        return listener != null || write().enabled();
+    }
+
+    /**
+     * Starts a Flight Recorder event if one is being recorded, returning it or null.
+     */
+    static Object beginRead() {
+        return read().begin();
+    }
+
+    static Object beginWrite() {
+        return write().begin();
+    }
+
+    static void read(NbtMetrics.Report report, Object event) {
+        if (event != null) {
+            Jfr jfr = read();
+            jfr.end(event);
+            set(jfr, event, report);
+            jfr.set(event, DECOMPRESS, report.getDecompressNanos());
+            jfr.commit(event);
+        }
+        NbtMetrics metrics = listener;
+        if (metrics != null) {
+            metrics.onRead(report);
+        }
+    }
+
+    /**
+     * Reports a written document. Writing does not visit the tree the way decoding does, so the
+     * tag counts, depth and array bytes come from a walk made after the write, outside its time:
+     * the event is ended before the walk starts.
+     */
+    static void write(String name, Tag<?> tag, long bytes, long nanos, Object event) {
+        Jfr jfr = null;
+        if (event != null) {
+            jfr = write();
+            jfr.end(event);
+        }
+        Census census = new Census();
+        census.add(tag, 1);
+        NbtMetrics.Report report = new NbtMetrics.Report(name, bytes, census.counts, census.maxDepth, census.arrayBytes, 0, nanos);
+        if (event != null) {
+            set(jfr, event, report);
+            jfr.commit(event);
+        }
+        NbtMetrics metrics = listener;
+        if (metrics != null) {
+            metrics.onWrite(report);
+        }
+    }
+
+    private static void set(Jfr jfr, Object event, NbtMetrics.Report report) {
+        jfr.set(event, LABEL, report.getLabel());
+        jfr.set(event, BYTES, report.getBytes());
+        jfr.set(event, MAX_DEPTH, report.getMaxDepth());
+        jfr.set(event, ARRAY_BYTES, report.getArrayBytes());
+        for (int i = 0; i < TAG_FIELDS.length; i++) {
+            jfr.set(event, TAGS + i, report.getTagCount(TagType.forId(i + 1)));
+        }
+    }
+
+    /**
+     * Returns a stream counting the bytes written to {@code out}, for {@link #output}.
+     */
+    static CountingOutputStream counting(DataOutput out) {
+        if (out instanceof LittleEndianOutput) {
+            return new CountingOutputStream(((LittleEndianOutput) out).out);
+        }
+        if (out instanceof OutputStream) {
+            return new CountingOutputStream((OutputStream) out);
+        }
+        return new CountingOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+        });
+    }
+
+    /**
+     * Returns an output encoding like {@code out} that writes through {@code counting}.
+     */
+    static DataOutput output(DataOutput out, CountingOutputStream counting) {
+        if (out instanceof LittleEndianOutput) {
+            return ((LittleEndianOutput) out).withStream(counting);
+        }
+        return new DataOutputStream(counting);
+    }
+
+    private static Jfr read() {
+        Jfr jfr = read;
+        if (jfr == null) {
+            if (!recorderInitialized()) {
+                return Jfr.NONE;
+            }
+            read = jfr = Jfr.create("org.jnbt.Read", "NBT Read", true);
+        }
+        return jfr;
+    }
+
+    private static Jfr write() {
+        Jfr jfr = write;
+        if (jfr == null) {
+            if (!recorderInitialized()) {
+                return Jfr.NONE;
+            }
+            write = jfr = Jfr.create("org.jnbt.Write", "NBT Write", false);
+        }
+        return jfr;
+    }
+
+    private static boolean recorderInitialized() {
+        if (RECORDER_INITIALIZED == null) {
+            return false;
+        }
+        try {
+            return (boolean) RECORDER_INITIALIZED.invokeExact();
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    private static MethodHandle isInitializedHandle() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Class.forName("jdk.jfr.FlightRecorder"), "isInitialized",
+                    MethodType.methodType(boolean.class));
+        } catch (Throwable e) {
+            // No Flight Recorder in this JDK
+            return null;
+        }
+    }
+
+    /**
+     * Counts the bytes written through it, for write reports.
+     */
+    static final class CountingOutputStream extends FilterOutputStream {
+
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * The figures of a written tree that a read collects while decoding.
+     */
+    private static final class Census {
+
+        final int[] counts = new int[13];
+        int maxDepth;
+        long arrayBytes;
+
+        void add(Tag<?> tag, int depth) {
+            counts[tag.getType().getId()]++;
+            if (tag instanceof CompoundTag) {
+                maxDepth = Math.max(maxDepth, depth);
+                for (Tag child : ((CompoundTag) tag).entries().values()) {
+                    add(child, depth + 1);
+                }
+            } else if (tag instanceof ListTag) {
+                maxDepth = Math.max(maxDepth, depth);
+                for (Tag<?> child : ((ListTag<?>) tag).backing()) {
+                    add(child, depth + 1);
+                }
+            } else if (tag instanceof ByteArrayTag) {
+                arrayBytes += ((ByteArrayTag) tag).getValue().length;
+            } else if (tag instanceof IntArrayTag) {
+                arrayBytes += 4L * ((IntArrayTag) tag).getValue().length;
+            } else if (tag instanceof LongArrayTag) {
+                arrayBytes += 8L * ((LongArrayTag) tag).getValue().length;
+            }
+        }
+    }
+
+    private static final class Jfr {
+
+        static final Jfr NONE = new Jfr(null, null, null, null, null, null, null, null, null);
+
+        private final Object type;
+        private final MethodHandle isEnabled;
+        private final MethodHandle newEvent;
+        private final MethodHandle begin;
+        private final MethodHandle end;
+        private final MethodHandle shouldCommit;
+        private final MethodHandle commit;
+        private final MethodHandle set;
+        private final Object factory;
+
+        private Jfr(Object factory, Object type, MethodHandle isEnabled, MethodHandle newEvent, MethodHandle begin, MethodHandle end,
+                    MethodHandle shouldCommit, MethodHandle commit, MethodHandle set) {
+            this.factory = factory;
+            this.type = type;
+            this.isEnabled = isEnabled;
+            this.newEvent = newEvent;
+            this.begin = begin;
+            this.end = end;
+            this.shouldCommit = shouldCommit;
+            this.commit = commit;
+            this.set = set;
+        }
+
+        boolean enabled() {
+            if (type == null) {
+                return false;
+            }
+            try {
+                return (boolean) isEnabled.invoke(type);
+            } catch (Throwable e) {
+                return false;
+            }
+        }
+
+        Object begin() {
+            if (!enabled()) {
+                return null;
+            }
+            try {
+                Object event = newEvent.invoke(factory);
+                begin.invoke(event);
+                return event;
+            } catch (Throwable e) {
+                return null;
+            }
+        }
+
+        void set(Object event, int index, Object value) {
+            try {
+                set.invoke(event, index, value);
+            } catch (Throwable e) {
+                // a recording problem must not fail the read or write
+            }
+        }
+
+        // Ends the timed section, before filling in the fields
+        void end(Object event) {
+            try {
+                end.invoke(event);
+            } catch (Throwable e) {
+                // as above
+            }
+        }
+
+        void commit(Object event) {
+            try {
+                if ((boolean) shouldCommit.invoke(event)) {
+                    commit.invoke(event);
+                }
+            } catch (Throwable e) {
+                // as above
+            }
+        }
+
+        static Jfr create(String name, String label, boolean read) {
+            try {
+                Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+                Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+                Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+                Class<?> event = Class.forName("jdk.jfr.Event");
+                Class<?> eventType = Class.forName("jdk.jfr.EventType");
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                MethodHandle annotation = lookup.findConstructor(annotationElement,
+                        MethodType.methodType(void.class, Class.class, Object.class));
+                MethodHandle field = lookup.findConstructor(valueDescriptor,
+                        MethodType.methodType(void.class, Class.class, String.class, List.class));
+
+                List<Object> annotations = new ArrayList<>();
+                annotations.add(annotation.invoke(Class.forName("jdk.jfr.Name"), name));
+                annotations.add(annotation.invoke(Class.forName("jdk.jfr.Label"), label));
+                annotations.add(annotation.invoke(Class.forName("jdk.jfr.Category"), new String[]{"NBT"}));
+
+                Class<?> timespan = Class.forName("jdk.jfr.Timespan");
+                Class<?> dataAmount = Class.forName("jdk.jfr.DataAmount");
+                List<Object> bytes = Collections.singletonList(annotation.invoke(dataAmount, "BYTES"));
+                List<Object> fields = new ArrayList<>();
+                fields.add(field.invoke(String.class, "label", Collections.emptyList()));
+                fields.add(field.invoke(long.class, "bytes", bytes));
+                fields.add(field.invoke(int.class, "maxDepth", Collections.emptyList()));
+                fields.add(field.invoke(long.class, "arrayBytes", bytes));
+                for (String tagField : TAG_FIELDS) {
+                    fields.add(field.invoke(int.class, tagField, Collections.emptyList()));
+                }
+                if (read) {
+                    fields.add(field.invoke(long.class, "decompressTime",
+                            Collections.singletonList(annotation.invoke(timespan, "NANOSECONDS"))));
+                }
+                Object factory = lookup.findStatic(eventFactory, "create",
+                        MethodType.methodType(eventFactory, List.class, List.class)).invoke(annotations, fields);
+                Object type = lookup.findVirtual(eventFactory, "getEventType", MethodType.methodType(eventType)).invoke(factory);
+                return new Jfr(factory, type,
+                        lookup.findVirtual(eventType, "isEnabled", MethodType.methodType(boolean.class)),
+                        lookup.findVirtual(eventFactory, "newEvent", MethodType.methodType(event)),
+                        lookup.findVirtual(event, "begin", MethodType.methodType(void.class)),
+                        lookup.findVirtual(event, "end", MethodType.methodType(void.class)),
+                        lookup.findVirtual(event, "shouldCommit", MethodType.methodType(boolean.class)),
+                        lookup.findVirtual(event, "commit", MethodType.methodType(void.class)),
+                        lookup.findVirtual(event, "set", MethodType.methodType(void.class, int.class, Object.class)));
+            } catch (Throwable e) {
+                return NONE;
+            }
+        }
+    }
+}
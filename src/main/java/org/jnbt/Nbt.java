@@ -29,6 +29,20 @@ public final class Nbt {
         return new CompoundTag(new LinkedHashMap<>(size));
     }
 
+    /**
+     * Creates a compound that may be read and modified from several threads at once. Single-key
+     * operations, including {@link CompoundTag#compute} and {@link CompoundTag#merge}, are
+     * atomic and do not block each other; iteration keeps insertion order, and writes and copies
+     * see a consistent snapshot. Tags stored in it are not made thread-safe themselves.
+     */
+    public static CompoundTag concurrentCompound() {
+        return new CompoundTag(new ConcurrentCompoundMap(16));
+    }
+
+    public static CompoundTag concurrentCompound(int size) {
+        return new CompoundTag(new ConcurrentCompoundMap(size));
+    }
+
     public static <V> ListTag<V> list(TagType<V, ? extends Tag<V>> type) {
         return new ListTag<>(new ArrayList<>(16), type);
     }
@@ -187,7 +201,23 @@ public final class Nbt {
     }
 
     public static RootTag read(DataInput in) throws IOException {
-        return TagReader.readRootTag(in);
+        return read(in, ReadOptions.frozen());
+    }
+
+    public static RootTag read(InputStream in, ReadOptions options) throws IOException {
+        if (in instanceof DataInput) {
+            return read((DataInput) in, options);
+        } else {
+            return read((DataInput) new DataInputStream(in), options);
+        }
+    }
+
+    public static RootTag read(DataInputStream in, ReadOptions options) throws IOException {
+        return read((DataInput) in, options);
+    }
+
+    public static RootTag read(DataInput in, ReadOptions options) throws IOException {
+        return TagReader.readRootTag(in, options);
     }
 
     public static void write(Tag tag, OutputStream out) throws IOException {
@@ -215,6 +245,14 @@ public final class Nbt {
         if (tag.isAbsent()) {
             throw new NullPointerException("tag not present");
         }
-        tag.writeTo(name, out);
+        if (!Metrics.writing()) {
+            tag.writeTo(name, out);
+            return;
+        }
+        Object event = Metrics.beginWrite();
+        long start = System.nanoTime();
+        Metrics.CountingOutputStream counting = Metrics.counting(out);
+        tag.writeTo(name, Metrics.output(out, counting));
+        Metrics.write(name, tag, counting.count, System.nanoTime() - start, event);
     }
 }
@@ -0,0 +1,464 @@
+package org.jnbt;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A cache of decoded compounds, such as chunks or players, bounded by estimated heap size rather
+ * than by entries.
+ *
+ * <p>Entries live in a hot tier of trees, measured with {@link NbtSizes#retained(Tag)}, and a cold
+ * tier of their deflated encoding, measured by its length. When the hot tier is over its budget
+ * the clock hand demotes entries that were not used since it last passed them to the cold tier,
+ * and when the cold tier is over its budget they are evicted. A cold hit inflates and decodes the
+ * entry and promotes it back to the hot tier, which costs a fraction of reading it from disk.</p>
+ *
+ * <p>The cache is split into stripes by key hash, each with its own lock and share of the
+ * budgets, so threads working on different keys rarely contend. Loads, decodes and compression
+ * run outside the lock, and their result is only cached if the key was not written or
+ * invalidated meanwhile, so a slow load never replaces a newer value. Two threads missing the
+ * same key may both load it.</p>
+ *
+ * <p>Cached trees are shared between callers and should be frozen. Mutable compounds are cached
+ * as they are and must not be modified afterwards.</p>
+ *
+ * @param <K> the type of keys, with consistent {@code equals} and {@code hashCode}
+ */
+public final class NbtCache<K> {
+
+    /**
+     * Loads the value of a key on a miss, or returns null if there is none.
+     */
+    @FunctionalInterface
+    public interface Loader<K> {
+
+        CompoundTag load(K key) throws IOException;
+    }
+
+    // Per entry cost of the maps and entry objects, on top of the value
+    private static final int OVERHEAD = 96;
+    // Smallest hot budget the default stripe count leaves each stripe, room for a few large chunks
+    private static final long MIN_STRIPE_BYTES = 4 << 20;
+    private static final ReadOptions DECODE = ReadOptions.frozen().withLimits(ReadLimits.unlimited());
+
+    private final Stripe<K>[] stripes;
+    private final int mask;
+    private final long hotBytes;
+    private final long coldBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder coldHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder demotions = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a cache with the given budgets, split into a stripe per 4 processors rounded down to
+     * a power of two, but fewer if a stripe's hot budget would drop below 4 MiB.
+     */
+    public NbtCache(long hotBytes, long coldBytes) {
+        this(hotBytes, coldBytes, defaultStripes(hotBytes));
+    }
+
+    @SuppressWarnings("unchecked")
+    public NbtCache(long hotBytes, long coldBytes, int stripes) {
+        if (hotBytes < 0 || coldBytes < 0) {
+            throw new IllegalArgumentException("Budgets must not be negative");
+        }
+        if (stripes <= 0 || Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("Stripes must be a power of two: " + stripes);
+        }
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe<>(hotBytes / stripes, coldBytes / stripes);
+        }
+        this.mask = stripes - 1;
+        this.hotBytes = hotBytes;
+        this.coldBytes = coldBytes;
+    }
+
+    static int defaultStripes(long hotBytes) {
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() / 4));
+        while (stripes > 1 && hotBytes / stripes < MIN_STRIPE_BYTES) {
+            stripes >>= 1;
+        }
+        return stripes;
+    }
+
+    /**
+     * Returns the cached compound for a key, or null.
+     */
+    public CompoundTag get(K key) {
+        Stripe<K> stripe = stripe(key);
+        Entry cold;
+        synchronized (stripe) {
+            Entry entry = stripe.hot.get(key);
+            if (entry == null) {
+                entry = stripe.demoting.get(key);
+            }
+            if (entry != null) {
+                entry.referenced = true;
+                hits.increment();
+                return entry.tag;
+            }
+            // Stays cached while decoding, and is only promoted if still there afterwards
+            cold = stripe.cold.get(key);
+            if (cold == null) {
+                misses.increment();
+                return null;
+            }
+        }
+        coldHits.increment();
+        CompoundTag tag = decode(cold);
+        store(stripe, key, tag, NbtSizes.retained(tag), cold, -1);
+        return tag;
+    }
+
+    /**
+     * Returns the cached compound for a key, loading and caching it on a miss. The loaded
+     * compound is not cached if the key's stripe was written or invalidated while loading.
+     */
+    public CompoundTag get(K key, Loader<? super K> loader) throws IOException {
+        Stripe<K> stripe = stripe(key);
+        long version;
+        synchronized (stripe) {
+            version = stripe.version;
+        }
+        CompoundTag tag = get(key);
+        if (tag == null) {
+            tag = loader.load(key);
+            if (tag != null) {
+                store(stripe, key, tag, NbtSizes.retained(tag), null, version);
+            }
+        }
+        return tag;
+    }
+
+    /**
+     * Caches a compound, replacing any cached for the key. Compounds larger than the hot budget of
+     * a stripe go straight to the cold tier.
+     */
+    public void put(K key, CompoundTag tag) {
+        store(stripe(key), key, tag, NbtSizes.retained(tag), null, -1);
+    }
+
+    public void invalidate(K key) {
+        Stripe<K> stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.version++;
+            stripe.remove(key);
+        }
+    }
+
+    public void clear() {
+        for (Stripe<K> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.version++;
+                stripe.hot.clear();
+                stripe.cold.clear();
+                stripe.demoting.clear();
+                stripe.hotBytes = 0;
+                stripe.coldBytes = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of cached entries in both tiers.
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe<K> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.hot.size() + stripe.cold.size() + stripe.demoting.size();
+            }
+        }
+        return size;
+    }
+
+    public long getMaxHotBytes() {
+        return hotBytes;
+    }
+
+    public long getMaxColdBytes() {
+        return coldBytes;
+    }
+
+    /**
+     * Returns the estimated heap used by the trees of the hot tier.
+     */
+    public long getHotBytes() {
+        long bytes = 0;
+        for (Stripe<K> stripe : stripes) {
+            synchronized (stripe) {
+                bytes += stripe.hotBytes;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the heap used by the compressed entries of the cold tier.
+     */
+    public long getColdBytes() {
+        long bytes = 0;
+        for (Stripe<K> stripe : stripes) {
+            synchronized (stripe) {
+                bytes += stripe.coldBytes;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns how many lookups found their tree in the hot tier.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns how many lookups found their entry in the cold tier and decoded it.
+     */
+    public long getColdHits() {
+        return coldHits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns how many entries were moved from the hot tier to the cold tier.
+     */
+    public long getDemotions() {
+        return demotions.sum();
+    }
+
+    /**
+     * Returns how many entries were dropped from the cold tier.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private Stripe<K> stripe(K key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return stripes[(h ^ h >>> 16) & mask];
+    }
+
+    /*
+     * Inserts a tree into the hot tier and demotes what the clock hand finds. A promoted entry
+     * passes its compressed form along, so it is not compressed again if demoted before it
+     * changes, and is dropped if that form is no longer the cached one. A loaded entry passes the
+     * stripe version seen before loading, and is dropped if the stripe was written since; others
+     * pass -1.
+     *
+     * Demoted trees are compressed outside the lock, meanwhile parked in the stripe's demoting
+     * map where lookups still find them, then moved to the cold tier unless the key was written or
+     * invalidated in between.
+     */
+    private void store(Stripe<K> stripe, K key, CompoundTag tag, long size, Entry compressed, long version) {
+        // A promoted tree keeps its compressed form, which counts against the hot budget
+        Entry entry = new Entry(tag, size + OVERHEAD + (compressed == null ? 0 : compressed.size));
+        entry.compressed = compressed;
+        Map<K, Entry> demoted;
+        synchronized (stripe) {
+            if (compressed != null ? stripe.cold.get(key) != compressed : version != -1 && version != stripe.version) {
+                return;
+            }
+            if (compressed == null) {
+                stripe.version++;
+            }
+            stripe.remove(key);
+            if (entry.size > stripe.maxHot) {
+                demoted = new LinkedHashMap<>();
+                demoted.put(key, entry);
+                stripe.demoting.put(key, entry);
+            } else {
+                stripe.hot.put(key, entry);
+                stripe.hotBytes += entry.size;
+                demoted = stripe.demote();
+            }
+        }
+        if (demoted == null) {
+            return;
+        }
+        for (Map.Entry<K, Entry> e : demoted.entrySet()) {
+            Entry hot = e.getValue();
+            Entry compact = hot.compressed != null ? hot.compressed : encode(hot.tag);
+            synchronized (stripe) {
+                if (stripe.demoting.get(e.getKey()) != hot) {
+                    continue;
+                }
+                stripe.demoting.remove(e.getKey());
+                if (compact.size > stripe.maxCold) {
+                    evictions.increment();
+                    continue;
+                }
+                compact.referenced = false;
+                stripe.cold.put(e.getKey(), compact);
+                stripe.coldBytes += compact.size;
+                demotions.increment();
+                evictions.add(stripe.evict());
+            }
+        }
+    }
+
+    private static Entry encode(CompoundTag tag) {
+        byte[] raw = tag.encodeValue();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] out = new byte[Math.max(64, raw.length / 4)];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            Entry entry = new Entry(Arrays.copyOf(out, length), raw.length);
+            entry.size = length + OVERHEAD;
+            return entry;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static CompoundTag decode(Entry entry) {
+        byte[] raw = new byte[entry.rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(entry.bytes);
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                int n = inflater.inflate(raw, length, raw.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated cache entry");
+                }
+                length += n;
+            }
+            return (CompoundTag) TagReader.COMPOUND.read(new ByteBufferInput(ByteBuffer.wrap(raw), 0), new ReadContext(DECODE));
+        } catch (DataFormatException e) {
+            throw new UncheckedIOException(new IOException(e));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * A tree in the hot tier or its compressed encoding in the cold tier.
+     */
+    private static final class Entry {
+
+        final CompoundTag tag;
+        final byte[] bytes;
+        final int rawLength;
+        long size;
+        boolean referenced;
+        // Compressed form of a promoted tree
+        Entry compressed;
+
+        Entry(CompoundTag tag, long size) {
+            this.tag = tag;
+            this.bytes = null;
+            this.rawLength = 0;
+            this.size = size;
+        }
+
+        Entry(byte[] bytes, int rawLength) {
+            this.tag = null;
+            this.bytes = bytes;
+            this.rawLength = rawLength;
+        }
+    }
+
+    /**
+     * One lock's share of the cache. The hot tier is a clock: entries are kept in insertion order,
+     * and the hand takes the oldest, giving those referenced since it last passed a second chance
+     * at the back. Cold entries leave the tier when used, so it evicts the oldest first.
+     */
+    private static final class Stripe<K> {
+
+        final long maxHot;
+        final long maxCold;
+        final LinkedHashMap<K, Entry> hot = new LinkedHashMap<>();
+        final LinkedHashMap<K, Entry> cold = new LinkedHashMap<>();
+        // Trees taken from the hot tier and being compressed for the cold tier
+        final Map<K, Entry> demoting = new HashMap<>();
+        long hotBytes;
+        long coldBytes;
+        // Counts writes and invalidations, so that loads can tell whether they are still current
+        long version;
+
+        Stripe(long maxHot, long maxCold) {
+            this.maxHot = maxHot;
+            this.maxCold = maxCold;
+        }
+
+        void remove(K key) {
+            demoting.remove(key);
+            Entry entry = hot.remove(key);
+            if (entry != null) {
+                hotBytes -= entry.size;
+            }
+            entry = cold.remove(key);
+            if (entry != null) {
+                coldBytes -= entry.size;
+            }
+        }
+
+        // Moves entries from the hot tier to the demoting map until it is within budget, returning them
+        Map<K, Entry> demote() {
+            Map<K, Entry> demoted = null;
+            while (hotBytes > maxHot) {
+                Map.Entry<K, Entry> oldest = advance(hot);
+                if (demoted == null) {
+                    demoted = new LinkedHashMap<>();
+                }
+                demoted.put(oldest.getKey(), oldest.getValue());
+                demoting.put(oldest.getKey(), oldest.getValue());
+                hotBytes -= oldest.getValue().size;
+            }
+            return demoted;
+        }
+
+        // Removes entries from the cold tier until it is within budget, returning how many
+        int evict() {
+            int evicted = 0;
+            while (coldBytes > maxCold) {
+                coldBytes -= advance(cold).getValue().size;
+                evicted++;
+            }
+            return evicted;
+        }
+
+        // Moves the hand to the first entry without a second chance and removes it
+        private Map.Entry<K, Entry> advance(LinkedHashMap<K, Entry> tier) {
+            while (true) {
+                Iterator<Map.Entry<K, Entry>> i = tier.entrySet().iterator();
+                Map.Entry<K, Entry> oldest = i.next();
+                i.remove();
+                if (!oldest.getValue().referenced) {
+                    return oldest;
+                }
+                oldest.getValue().referenced = false;
+                tier.put(oldest.getKey(), oldest.getValue());
+            }
+        }
+    }
+}
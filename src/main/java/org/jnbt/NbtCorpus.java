@@ -0,0 +1,794 @@
+package org.jnbt;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A deterministic generator of synthetic game data, for load tests and benchmarks that should not
+ * depend on real player data.
+ *
+ * <p>Documents follow the current layout of chunks, player files and {@code level.dat}, with
+ * realistic shape rather than a playable world: sections below the surface have block palettes
+ * of a few to a few dozen entries drawn from a skewed vocabulary, and their indices are packed
+ * runs; upper sections are single-entry air palettes. Block entities, ticks and inventories have
+ * geometric lengths, and strings repeat the way they do in game data, with a long tail of rare
+ * values.</p>
+ *
+ * <p>Every document is derived only from the seed and its coordinates or index, so any chunk can
+ * be regenerated on its own and the same seed always produces byte-identical files. Region files
+ * are zlib-compressed like the game's and can be read back with {@link RegionFile}.</p>
+ */
+public final class NbtCorpus {
+
+    public static final int DATA_VERSION = 3465;
+
+    private static final int SECTIONS = 24;
+    private static final int MIN_SECTION = -4;
+    // Seconds since the epoch that generated timestamps start from
+    private static final long EPOCH = 1700000000L;
+
+    // Salts that keep the streams of different document kinds apart
+    private static final long CHUNK = 1;
+    private static final long PLAYER = 2;
+    private static final long LEVEL = 3;
+    private static final long REGION = 4;
+
+    // Ordered roughly by frequency, sampling favours the front
+    private static final String[] BLOCKS = names(
+            "stone", "deepslate", "dirt", "grass_block", "water", "gravel", "andesite", "diorite", "granite",
+            "tuff", "cave_air", "sand", "sandstone", "oak_log", "oak_leaves", "birch_log", "birch_leaves",
+            "spruce_log", "spruce_leaves", "coal_ore", "iron_ore", "copper_ore", "deepslate_iron_ore",
+            "deepslate_coal_ore", "lava", "bedrock", "gold_ore", "redstone_ore", "lapis_ore", "diamond_ore",
+            "deepslate_diamond_ore", "deepslate_redstone_ore", "emerald_ore", "clay", "snow", "snow_block",
+            "ice", "grass", "tall_grass", "fern", "dandelion", "poppy", "kelp", "kelp_plant", "seagrass",
+            "sugar_cane", "cobblestone", "mossy_cobblestone", "glow_lichen", "pointed_dripstone",
+            "dripstone_block", "amethyst_block", "budding_amethyst", "calcite", "smooth_basalt", "moss_block",
+            "azalea", "oak_planks", "torch", "rail", "chest", "spawner", "cobweb", "magma_block", "obsidian");
+
+    private static final String[] ITEMS = names(
+            "cobblestone", "dirt", "oak_log", "oak_planks", "stick", "torch", "coal", "iron_ingot", "bread",
+            "cooked_beef", "rotten_flesh", "bone", "string", "arrow", "gunpowder", "diamond", "iron_pickaxe",
+            "diamond_pickaxe", "diamond_sword", "iron_sword", "bow", "shield", "redstone", "lapis_lazuli",
+            "gold_ingot", "wheat_seeds", "wheat", "apple", "golden_apple", "ender_pearl", "crafting_table",
+            "furnace", "chest", "water_bucket", "bucket", "flint_and_steel", "map", "book", "enchanted_book",
+            "experience_bottle", "name_tag", "saddle", "lead", "emerald", "obsidian", "netherrack", "glass",
+            "sand", "gravel", "stone_pickaxe");
+
+    private static final String[] TOOLS = names(
+            "iron_pickaxe", "diamond_pickaxe", "diamond_sword", "iron_sword", "bow", "shield", "flint_and_steel",
+            "stone_pickaxe");
+
+    private static final String[] ENCHANTMENTS = names(
+            "unbreaking", "efficiency", "mending", "sharpness", "protection", "fortune", "silk_touch", "power",
+            "looting", "infinity");
+
+    private static final String[] BIOMES = names(
+            "plains", "forest", "taiga", "birch_forest", "ocean", "deep_ocean", "river", "desert", "savanna",
+            "dripstone_caves", "lush_caves", "beach", "swamp", "jungle", "dark_forest", "snowy_plains",
+            "windswept_hills", "meadow", "deep_dark", "stony_peaks");
+
+    private static final String[] BLOCK_ENTITIES = names(
+            "chest", "barrel", "furnace", "sign", "hopper", "spawner", "bed", "banner");
+
+    private static final String[][] PROPERTIES = {
+            {"facing", "north", "south", "east", "west"},
+            {"axis", "x", "y", "z"},
+            {"waterlogged", "false", "true"},
+            {"half", "bottom", "top"},
+            {"lit", "false", "true"},
+            {"level", "0", "1", "2", "3", "4", "5", "6", "7"},
+            {"age", "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15"},
+    };
+
+    private static final String[] GAME_RULES = {
+            "announceAdvancements", "commandBlockOutput", "disableElytraMovementCheck", "doDaylightCycle",
+            "doEntityDrops", "doFireTick", "doImmediateRespawn", "doInsomnia", "doLimitedCrafting", "doMobLoot",
+            "doMobSpawning", "doPatrolSpawning", "doTileDrops", "doTraderSpawning", "doWeatherCycle",
+            "drowningDamage", "fallDamage", "fireDamage", "forgiveDeadPlayers", "keepInventory", "logAdminCommands",
+            "maxCommandChainLength", "maxEntityCramming", "mobGriefing", "naturalRegeneration",
+            "randomTickSpeed", "reducedDebugInfo", "sendCommandFeedback", "showDeathMessages", "spawnRadius",
+            "spectatorsGenerateChunks", "universalAnger"
+    };
+
+    // Distinct recipe names a recipe book draws from, the high cardinality string set
+    private static final int RECIPES = 1200;
+
+    private final long seed;
+    private final double fill;
+    private final double density;
+
+    private NbtCorpus(long seed, double fill, double density) {
+        this.seed = seed;
+        this.fill = fill;
+        this.density = density;
+    }
+
+    /**
+     * Returns a generator for the given seed, with 85% of region slots populated and the default
+     * density.
+     */
+    public static NbtCorpus seeded(long seed) {
+        return new NbtCorpus(seed, 0.85, 1);
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public double getFill() {
+        return fill;
+    }
+
+    public double getDensity() {
+        return density;
+    }
+
+    /**
+     * Returns a generator that populates the given fraction of the chunks in each region.
+     */
+    public NbtCorpus withFill(double fill) {
+        if (fill < 0 || fill > 1) {
+            throw new IllegalArgumentException("Fill must be between 0 and 1: " + fill);
+        }
+        return new NbtCorpus(seed, fill, density);
+    }
+
+    /**
+     * Returns a generator whose variable-length lists (block entities, ticks, inventories) are
+     * this many times as long on average, to produce heavier or lighter documents.
+     */
+    public NbtCorpus withDensity(double density) {
+        if (density < 0) {
+            throw new IllegalArgumentException("Density must not be negative: " + density);
+        }
+        return new NbtCorpus(seed, fill, density);
+    }
+
+    /**
+     * Returns whether the chunk at absolute chunk coordinates is populated in its region.
+     */
+    public boolean hasChunk(int x, int z) {
+        return random(REGION, x, z).nextDouble() < fill;
+    }
+
+    /**
+     * Generates the chunk at absolute chunk coordinates, whether or not its region slot is
+     * populated.
+     */
+    public CompoundTag chunk(int x, int z) {
+        SplittableRandom random = random(CHUNK, x, z);
+        // Section index of the terrain surface, above it sections are air
+        int surface = 4 + random.nextInt(5);
+        String biome = pick(random, BIOMES);
+
+        CompoundTag chunk = Nbt.compound(16);
+        chunk.put("DataVersion", DATA_VERSION);
+        chunk.put("xPos", x);
+        chunk.put("yPos", MIN_SECTION);
+        chunk.put("zPos", z);
+        chunk.put("Status", "minecraft:full");
+        chunk.put("LastUpdate", (long) random.nextInt(5000000));
+        chunk.put("InhabitedTime", (long) geometric(random, 4000));
+        chunk.put("isLightOn", (byte) 1);
+
+        ListTag<CompoundTag> sections = Nbt.list(TagType.COMPOUND);
+        for (int i = 0; i < SECTIONS; i++) {
+            sections.add(section(random, i, surface, biome));
+        }
+        chunk.put("sections", sections);
+
+        CompoundTag heightmaps = Nbt.compound(4);
+        int height = surface * 16 + MIN_SECTION * 16 + 8;
+        for (String name : new String[]{"MOTION_BLOCKING", "MOTION_BLOCKING_NO_LEAVES", "OCEAN_FLOOR", "WORLD_SURFACE"}) {
+            heightmaps.put(name, heightmap(random, height - MIN_SECTION * 16));
+        }
+        chunk.put("Heightmaps", heightmaps);
+
+        ListTag<CompoundTag> blockEntities = Nbt.list(TagType.COMPOUND);
+        for (int i = geometric(random, 1.5 * density); i > 0; i--) {
+            blockEntities.add(blockEntity(random, x, z, height));
+        }
+        chunk.put("block_entities", blockEntities);
+        chunk.put("block_ticks", ticks(random, x, z, BLOCKS));
+        chunk.put("fluid_ticks", ticks(random, x, z, new String[]{"minecraft:water", "minecraft:lava"}));
+
+        @SuppressWarnings("unchecked")
+        ListTag<ListTag> postProcessing = new ListTag(new ArrayList<>(SECTIONS), TagType.LIST);
+        for (int i = 0; i < SECTIONS; i++) {
+            ListTag<Short> positions = Nbt.list(TagType.SHORT);
+            if (random.nextInt(8) == 0) {
+                for (int j = geometric(random, 3); j >= 0; j--) {
+                    positions.add((short) random.nextInt(4096));
+                }
+            }
+            postProcessing.add((Tag<ListTag>) positions);
+        }
+        chunk.put("PostProcessing", postProcessing);
+
+        CompoundTag structures = Nbt.compound(2);
+        CompoundTag references = Nbt.compound(2);
+        if (random.nextInt(10) == 0) {
+            references.put("minecraft:mineshaft", new long[]{chunkKey(x - 2 + random.nextInt(5), z - 2 + random.nextInt(5))});
+        }
+        structures.put("References", references);
+        structures.put("starts", Nbt.compound(0));
+        chunk.put("structures", structures);
+        return chunk;
+    }
+
+    /**
+     * Generates the player file of the player with the given index.
+     */
+    public CompoundTag player(int index) {
+        SplittableRandom random = random(PLAYER, index, 0);
+        UUID uuid = uuid(index);
+
+        CompoundTag player = Nbt.compound(48);
+        player.put("DataVersion", DATA_VERSION);
+        player.put("UUID", new int[]{
+                (int) (uuid.getMostSignificantBits() >> 32), (int) uuid.getMostSignificantBits(),
+                (int) (uuid.getLeastSignificantBits() >> 32), (int) uuid.getLeastSignificantBits()});
+        player.put("Dimension", random.nextInt(10) == 0 ? "minecraft:the_nether" : "minecraft:overworld");
+        player.put("Pos", Nbt.list(TagType.DOUBLE,
+                random.nextDouble() * 20000 - 10000, 40 + random.nextDouble() * 100, random.nextDouble() * 20000 - 10000));
+        player.put("Motion", Nbt.list(TagType.DOUBLE, 0.0, -0.0784000015258789, 0.0));
+        player.put("Rotation", Nbt.list(TagType.FLOAT, (float) (random.nextDouble() * 360 - 180), (float) (random.nextDouble() * 180 - 90)));
+        player.put("Health", Nbt.floatTag(1 + random.nextInt(20)));
+        player.put("foodLevel", 1 + random.nextInt(20));
+        player.put("foodSaturationLevel", Nbt.floatTag(random.nextDouble() * 5));
+        player.put("foodExhaustionLevel", Nbt.floatTag(random.nextDouble() * 4));
+        player.put("Air", (short) 300);
+        player.put("Fire", (short) -20);
+        player.put("FallDistance", Nbt.floatTag(0));
+        player.put("OnGround", (byte) 1);
+        player.put("Invulnerable", (byte) 0);
+        player.put("PortalCooldown", 0);
+        player.put("HurtTime", (short) 0);
+        player.put("HurtByTimestamp", random.nextInt(100000));
+        player.put("DeathTime", (short) 0);
+        player.put("SleepTimer", (short) 0);
+        player.put("playerGameType", random.nextInt(20) == 0 ? 1 : 0);
+        player.put("XpLevel", geometric(random, 12));
+        player.put("XpP", Nbt.floatTag(random.nextDouble()));
+        player.put("XpTotal", geometric(random, 400));
+        player.put("XpSeed", random.nextInt());
+        player.put("Score", geometric(random, 400));
+        player.put("SelectedItemSlot", random.nextInt(9));
+
+        ListTag<CompoundTag> inventory = Nbt.list(TagType.COMPOUND);
+        int slots = Math.min(36, geometric(random, 20 * density));
+        for (int slot = 0; slot < slots; slot++) {
+            inventory.add(item(random, slot));
+        }
+        player.put("Inventory", inventory);
+        ListTag<CompoundTag> enderItems = Nbt.list(TagType.COMPOUND);
+        int enderSlots = Math.min(27, geometric(random, 6 * density));
+        for (int slot = 0; slot < enderSlots; slot++) {
+            enderItems.add(item(random, slot));
+        }
+        player.put("EnderItems", enderItems);
+
+        ListTag<CompoundTag> attributes = Nbt.list(TagType.COMPOUND);
+        String[] attributeNames = {"generic.max_health", "generic.movement_speed", "generic.attack_damage",
+                "generic.armor", "generic.luck"};
+        double[] bases = {20, 0.1, 1, 0, 0};
+        for (int i = 0; i < attributeNames.length; i++) {
+            CompoundTag attribute = Nbt.compound(2);
+            attribute.put("Name", "minecraft:" + attributeNames[i]);
+            attribute.put("Base", bases[i]);
+            attributes.add(attribute);
+        }
+        player.put("Attributes", attributes);
+
+        CompoundTag abilities = Nbt.compound(8);
+        abilities.put("walkSpeed", Nbt.floatTag(0.1));
+        abilities.put("flySpeed", Nbt.floatTag(0.05));
+        abilities.put("mayfly", (byte) 0);
+        abilities.put("flying", (byte) 0);
+        abilities.put("invulnerable", (byte) 0);
+        abilities.put("mayBuild", (byte) 1);
+        abilities.put("instabuild", (byte) 0);
+        player.put("abilities", abilities);
+
+        CompoundTag recipeBook = Nbt.compound(4);
+        ListTag<String> recipes = Nbt.list(TagType.STRING);
+        ListTag<String> toBeDisplayed = Nbt.list(TagType.STRING);
+        for (int i = geometric(random, 150 * density); i > 0; i--) {
+            String recipe = "minecraft:recipe_" + rank(random, RECIPES);
+            recipes.add(recipe);
+            if (random.nextInt(4) == 0) {
+                toBeDisplayed.add(recipe);
+            }
+        }
+        recipeBook.put("recipes", recipes);
+        recipeBook.put("toBeDisplayed", toBeDisplayed);
+        recipeBook.put("isFilteringCraftable", (byte) 0);
+        recipeBook.put("isGuiOpen", (byte) 0);
+        player.put("recipeBook", recipeBook);
+
+        if (random.nextBoolean()) {
+            player.put("SpawnX", random.nextInt(2000) - 1000);
+            player.put("SpawnY", 64 + random.nextInt(32));
+            player.put("SpawnZ", random.nextInt(2000) - 1000);
+            player.put("SpawnDimension", "minecraft:overworld");
+        }
+        return player;
+    }
+
+    /**
+     * Returns the UUID of the player with the given index, which also names its file.
+     */
+    public UUID uuid(int index) {
+        SplittableRandom random = random(PLAYER, index, 1);
+        // Version 4 and variant bits, as random UUIDs have
+        long most = random.nextLong() & ~0xF000L | 0x4000L;
+        long least = random.nextLong() & ~(3L << 62) | 1L << 63;
+        return new UUID(most, least);
+    }
+
+    /**
+     * Generates a {@code level.dat} document, with the level data under {@code Data}.
+     */
+    public CompoundTag level() {
+        SplittableRandom random = random(LEVEL, 0, 0);
+        CompoundTag data = Nbt.compound(48);
+        data.put("DataVersion", DATA_VERSION);
+        data.put("version", 19133);
+        data.put("LevelName", "Corpus " + seed);
+        data.put("initialized", (byte) 1);
+        data.put("allowCommands", (byte) 0);
+        data.put("hardcore", (byte) 0);
+        data.put("Difficulty", (byte) 2);
+        data.put("DifficultyLocked", (byte) 0);
+        data.put("GameType", 0);
+        data.put("SpawnX", random.nextInt(512) - 256);
+        data.put("SpawnY", 64 + random.nextInt(32));
+        data.put("SpawnZ", random.nextInt(512) - 256);
+        data.put("SpawnAngle", Nbt.floatTag(0));
+        long time = (long) geometric(random, 5000000);
+        data.put("Time", time);
+        data.put("DayTime", time % 24000);
+        data.put("LastPlayed", (EPOCH + random.nextInt(30000000)) * 1000);
+        data.put("raining", (byte) (random.nextInt(5) == 0 ? 1 : 0));
+        data.put("rainTime", random.nextInt(180000));
+        data.put("thundering", (byte) 0);
+        data.put("thunderTime", random.nextInt(180000));
+        data.put("clearWeatherTime", 0);
+        data.put("WanderingTraderSpawnChance", 25);
+        data.put("WanderingTraderSpawnDelay", 24000);
+        data.put("BorderCenterX", 0.0);
+        data.put("BorderCenterZ", 0.0);
+        data.put("BorderSize", 5.9999968E7);
+        data.put("BorderSafeZone", 5.0);
+        data.put("BorderWarningBlocks", 5.0);
+        data.put("BorderWarningTime", 15.0);
+        data.put("BorderDamagePerBlock", 0.2);
+        data.put("ServerBrands", Nbt.list(TagType.STRING).add("vanilla"));
+        data.put("WasModded", (byte) 0);
+
+        CompoundTag version = Nbt.compound(4);
+        version.put("Id", DATA_VERSION);
+        version.put("Name", "1.20.1");
+        version.put("Series", "main");
+        version.put("Snapshot", (byte) 0);
+        data.put("Version", version);
+
+        CompoundTag rules = Nbt.compound(GAME_RULES.length);
+        for (String rule : GAME_RULES) {
+            rules.put(rule, random.nextInt(8) == 0 ? "false" : "true");
+        }
+        rules.put("randomTickSpeed", "3");
+        rules.put("spawnRadius", "10");
+        rules.put("maxEntityCramming", "24");
+        rules.put("maxCommandChainLength", "65536");
+        data.put("GameRules", rules);
+
+        CompoundTag dataPacks = Nbt.compound(2);
+        dataPacks.put("Enabled", Nbt.list(TagType.STRING).add("vanilla"));
+        dataPacks.put("Disabled", Nbt.list(TagType.STRING));
+        data.put("DataPacks", dataPacks);
+
+        CompoundTag settings = Nbt.compound(4);
+        settings.put("seed", random.nextLong());
+        settings.put("generate_features", (byte) 1);
+        settings.put("bonus_chest", (byte) 0);
+        CompoundTag dimensions = Nbt.compound(3);
+        String[][] dimensionSettings = {
+                {"overworld", "minecraft:overworld"}, {"the_nether", "minecraft:nether"}, {"the_end", "minecraft:end"}};
+        for (String[] dimension : dimensionSettings) {
+            CompoundTag biomeSource = Nbt.compound(2);
+            biomeSource.put("type", "minecraft:multi_noise");
+            biomeSource.put("preset", dimension[1]);
+            CompoundTag generator = Nbt.compound(3);
+            generator.put("type", "minecraft:noise");
+            generator.put("settings", dimension[1]);
+            generator.put("biome_source", biomeSource);
+            CompoundTag entry = Nbt.compound(2);
+            entry.put("type", "minecraft:" + dimension[0]);
+            entry.put("generator", generator);
+            dimensions.put("minecraft:" + dimension[0], entry);
+        }
+        settings.put("dimensions", dimensions);
+        data.put("WorldGenSettings", settings);
+
+        data.put("CustomBossEvents", Nbt.compound(0));
+        CompoundTag dragonFight = Nbt.compound(3);
+        dragonFight.put("NeedsStateScanning", (byte) 1);
+        dragonFight.put("DragonKilled", (byte) 0);
+        dragonFight.put("PreviouslyKilled", (byte) 0);
+        data.put("DragonFight", dragonFight);
+
+        CompoundTag level = Nbt.compound(1);
+        level.put("Data", data);
+        return level;
+    }
+
+    /**
+     * Writes the region at the given region coordinates to {@code file}, replacing it, and
+     * returns the file size. Only chunks for which {@link #hasChunk} is true are stored.
+     */
+    public long writeRegion(Path file, int regionX, int regionZ) throws IOException {
+        int[] locations = new int[RegionFile.CHUNKS];
+        int[] timestamps = new int[RegionFile.CHUNKS];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 2L * RegionFile.SECTOR_BYTES;
+            for (int index = 0; index < RegionFile.CHUNKS; index++) {
+                int x = regionX * 32 + (index & 31);
+                int z = regionZ * 32 + (index >> 5);
+                if (!hasChunk(x, z)) {
+                    continue;
+                }
+                byte[] frame = RegionFile.frame("", chunk(x, z));
+                Path external = file.resolveSibling("c." + x + "." + z + ".mcc");
+                ByteBuffer chunk = ByteBuffer.wrap(RegionFile.externalize(frame, external));
+                int sectors = RegionFile.sectors(chunk.remaining());
+                locations[index] = (int) (position / RegionFile.SECTOR_BYTES) << 8 | sectors;
+                timestamps[index] = (int) (EPOCH + random(REGION, x, z).nextInt(30000000));
+                writeFully(channel, chunk, position);
+                position += (long) sectors * RegionFile.SECTOR_BYTES;
+            }
+            // Pad the last chunk to a whole sector, the game rejects shorter files
+            if (channel.size() < position) {
+                writeFully(channel, ByteBuffer.allocate(1), position - 1);
+            }
+            ByteBuffer header = ByteBuffer.allocate(2 * RegionFile.SECTOR_BYTES);
+            header.asIntBuffer().put(locations).put(timestamps);
+            writeFully(channel, header, 0);
+            return channel.size();
+        }
+    }
+
+    /**
+     * Writes the player file of the player with the given index, gzipped as the game stores it.
+     */
+    public long writePlayer(Path file, int index) throws IOException {
+        return writeGzipped(file, player(index));
+    }
+
+    public long writeLevel(Path file) throws IOException {
+        return writeGzipped(file, level());
+    }
+
+    /**
+     * Writes a world to {@code directory}: {@code level.dat}, {@code players} files under
+     * {@code playerdata} and {@code regions} region files under {@code region}, laid out in a
+     * square around the origin. Returns the total number of bytes written.
+     *
+     * <p>A region is around 10 MiB at the default settings, so a few hundred regions give a
+     * multi-gigabyte workload. Regions are written on the common fork-join pool.</p>
+     */
+    public long writeWorld(Path directory, int regions, int players) throws IOException {
+        Path regionDirectory = Files.createDirectories(directory.resolve("region"));
+        Path playerDirectory = Files.createDirectories(directory.resolve("playerdata"));
+        long bytes = writeLevel(directory.resolve("level.dat"));
+        for (int i = 0; i < players; i++) {
+            bytes += writePlayer(playerDirectory.resolve(uuid(i) + ".dat"), i);
+        }
+        int side = (int) Math.ceil(Math.sqrt(regions));
+        try {
+            // Regions are independent and mostly deflate time, so they are written in parallel
+            return bytes + IntStream.range(0, regions).parallel().mapToLong(i -> {
+                int x = i % side - side / 2;
+                int z = i / side - side / 2;
+                try {
+                    return writeRegion(regionDirectory.resolve("r." + x + "." + z + ".mca"), x, z);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).sum();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private CompoundTag section(SplittableRandom random, int index, int surface, String biome) {
+        CompoundTag section = Nbt.compound(5);
+        section.put("Y", (byte) (MIN_SECTION + index));
+
+        CompoundTag blockStates = Nbt.compound(2);
+        ListTag<CompoundTag> palette = Nbt.list(TagType.COMPOUND);
+        blockStates.put("palette", palette);
+        if (index > surface) {
+            palette.add(state("minecraft:air", random, false));
+        } else {
+            // A dominant block, then a skewed choice of others
+            String dominant = index == surface ? "minecraft:air" : index + MIN_SECTION < 0 ? "minecraft:deepslate" : "minecraft:stone";
+            palette.add(state(dominant, random, false));
+            Set<String> taken = new HashSet<>();
+            taken.add(dominant);
+            int size = Math.min(BLOCKS.length, 2 + geometric(random, 6));
+            for (int i = 1; i < size; i++) {
+                palette.add(state(pick(random, BLOCKS, taken), random, true));
+            }
+            blockStates.put("data", PackedArrays.packTag(indices(random, 4096, size), PackedArrays.bitsFor(size, 4), true));
+        }
+        section.put("block_states", blockStates);
+
+        CompoundTag biomes = Nbt.compound(2);
+        ListTag<String> biomePalette = Nbt.list(TagType.STRING);
+        biomePalette.add(biome);
+        biomes.put("palette", biomePalette);
+        if (random.nextInt(5) == 0) {
+            Set<String> taken = new HashSet<>();
+            taken.add(biome);
+            int size = 2 + random.nextInt(2);
+            for (int i = 1; i < size; i++) {
+                biomePalette.add(pick(random, BIOMES, taken));
+            }
+            biomes.put("data", PackedArrays.packTag(indices(random, 64, size), PackedArrays.bitsFor(size, 1), true));
+        }
+        section.put("biomes", biomes);
+
+        if (index >= surface) {
+            byte[] light = new byte[2048];
+            Arrays.fill(light, (byte) 0xFF);
+            section.put("SkyLight", light);
+        } else if (random.nextInt(4) == 0) {
+            section.put("BlockLight", light(random));
+        }
+        return section;
+    }
+
+    private static CompoundTag state(String name, SplittableRandom random, boolean properties) {
+        CompoundTag state = Nbt.compound(2);
+        state.put("Name", name);
+        if (properties && random.nextInt(10) < 3) {
+            CompoundTag values = Nbt.compound(2);
+            for (int i = 1 + random.nextInt(2); i > 0; i--) {
+                String[] property = PROPERTIES[random.nextInt(PROPERTIES.length)];
+                values.put(property[0], property[1 + random.nextInt(property.length - 1)]);
+            }
+            state.put("Properties", values);
+        }
+        return state;
+    }
+
+    // Palette indices in runs, mostly the dominant entry, so they compress like real sections
+    private static int[] indices(SplittableRandom random, int count, int size) {
+        int[] values = new int[count];
+        int current = 0;
+        for (int i = 0; i < count; i++) {
+            if (random.nextInt(4) == 0) {
+                current = random.nextBoolean() ? 0 : 1 + rank(random, size - 1);
+            }
+            values[i] = current;
+        }
+        return values;
+    }
+
+    private static LongArrayTag heightmap(SplittableRandom random, int height) {
+        int[] values = new int[256];
+        int current = height;
+        for (int i = 0; i < values.length; i++) {
+            current = Math.max(1, Math.min(383, current + random.nextInt(3) - 1));
+            values[i] = current;
+        }
+        return PackedArrays.packTag(values, 9, true);
+    }
+
+    private static byte[] light(SplittableRandom random) {
+        byte[] light = new byte[2048];
+        int level = 0;
+        for (int i = 0; i < light.length; i++) {
+            if (random.nextInt(16) == 0) {
+                level = random.nextInt(16);
+            }
+            light[i] = (byte) (level << 4 | level);
+        }
+        return light;
+    }
+
+    private CompoundTag blockEntity(SplittableRandom random, int chunkX, int chunkZ, int height) {
+        String id = pick(random, BLOCK_ENTITIES);
+        CompoundTag entity = Nbt.compound(8);
+        entity.put("id", id);
+        entity.put("x", chunkX * 16 + random.nextInt(16));
+        entity.put("y", MIN_SECTION * 16 + random.nextInt(Math.max(1, height - MIN_SECTION * 16)));
+        entity.put("z", chunkZ * 16 + random.nextInt(16));
+        entity.put("keepPacked", (byte) 0);
+        switch (id) {
+            case "minecraft:chest":
+            case "minecraft:barrel":
+            case "minecraft:hopper":
+                ListTag<CompoundTag> items = Nbt.list(TagType.COMPOUND);
+                int size = id.equals("minecraft:hopper") ? 5 : 27;
+                for (int slot = 0; slot < size; slot++) {
+                    if (random.nextDouble() < 0.3 * density) {
+                        items.add(item(random, slot));
+                    }
+                }
+                entity.put("Items", items);
+                if (random.nextInt(10) == 0) {
+                    entity.put("LootTable", "minecraft:chests/" + (random.nextBoolean() ? "abandoned_mineshaft" : "simple_dungeon"));
+                    entity.put("LootTableSeed", random.nextLong());
+                }
+                break;
+            case "minecraft:furnace":
+                entity.put("BurnTime", (short) random.nextInt(1600));
+                entity.put("CookTime", (short) random.nextInt(200));
+                entity.put("CookTimeTotal", (short) 200);
+                entity.put("RecipesUsed", Nbt.compound(0));
+                entity.put("Items", Nbt.list(TagType.COMPOUND));
+                break;
+            case "minecraft:sign":
+                CompoundTag text = Nbt.compound(3);
+                ListTag<String> messages = Nbt.list(TagType.STRING);
+                for (int i = 0; i < 4; i++) {
+                    messages.add(random.nextInt(3) == 0 ? "{\"text\":\"" + Long.toString(random.nextLong() >>> 24, 36) + "\"}" : "\"\"");
+                }
+                text.put("messages", messages);
+                text.put("color", "black");
+                text.put("has_glowing_text", (byte) 0);
+                entity.put("front_text", text);
+                entity.put("back_text", text.copy());
+                entity.put("is_waxed", (byte) 0);
+                break;
+            case "minecraft:spawner":
+                CompoundTag spawnEntity = Nbt.compound(1);
+                spawnEntity.put("id", random.nextBoolean() ? "minecraft:zombie" : "minecraft:skeleton");
+                CompoundTag spawnData = Nbt.compound(1);
+                spawnData.put("entity", spawnEntity);
+                entity.put("SpawnData", spawnData);
+                entity.put("Delay", (short) 20);
+                entity.put("MinSpawnDelay", (short) 200);
+                entity.put("MaxSpawnDelay", (short) 800);
+                entity.put("SpawnCount", (short) 4);
+                entity.put("SpawnRange", (short) 4);
+                entity.put("MaxNearbyEntities", (short) 6);
+                entity.put("RequiredPlayerRange", (short) 16);
+                break;
+            default:
+                break;
+        }
+        return entity;
+    }
+
+    private static CompoundTag item(SplittableRandom random, int slot) {
+        CompoundTag item = Nbt.compound(4);
+        item.put("Slot", (byte) slot);
+        boolean tool = random.nextInt(10) == 0;
+        String id = tool ? pick(random, TOOLS) : pick(random, ITEMS);
+        item.put("id", id);
+        item.put("Count", (byte) (tool ? 1 : 1 + random.nextInt(64)));
+        if (tool) {
+            CompoundTag tag = Nbt.compound(3);
+            tag.put("Damage", random.nextInt(250));
+            if (random.nextInt(3) == 0) {
+                ListTag<CompoundTag> enchantments = Nbt.list(TagType.COMPOUND);
+                for (int i = 1 + random.nextInt(3); i > 0; i--) {
+                    CompoundTag enchantment = Nbt.compound(2);
+                    enchantment.put("id", pick(random, ENCHANTMENTS));
+                    enchantment.put("lvl", (short) (1 + random.nextInt(4)));
+                    enchantments.add(enchantment);
+                }
+                tag.put("Enchantments", enchantments);
+            }
+            if (random.nextInt(20) == 0) {
+                CompoundTag display = Nbt.compound(1);
+                display.put("Name", "{\"text\":\"" + Long.toString(random.nextLong() >>> 16, 36) + "\"}");
+                tag.put("display", display);
+            }
+            item.put("tag", tag);
+        }
+        return item;
+    }
+
+    private ListTag<CompoundTag> ticks(SplittableRandom random, int chunkX, int chunkZ, String[] ids) {
+        ListTag<CompoundTag> ticks = Nbt.list(TagType.COMPOUND);
+        for (int i = geometric(random, 2 * density); i > 0; i--) {
+            CompoundTag tick = Nbt.compound(6);
+            tick.put("i", pick(random, ids));
+            tick.put("x", chunkX * 16 + random.nextInt(16));
+            tick.put("y", MIN_SECTION * 16 + random.nextInt(SECTIONS * 16));
+            tick.put("z", chunkZ * 16 + random.nextInt(16));
+            tick.put("t", random.nextInt(20));
+            tick.put("p", 0);
+            ticks.add(tick);
+        }
+        return ticks;
+    }
+
+    private SplittableRandom random(long kind, int a, int b) {
+        long h = seed;
+        h = mix(h ^ kind * 0x9E3779B97F4A7C15L);
+        h = mix(h ^ (a & 0xFFFFFFFFL));
+        h = mix(h ^ (b & 0xFFFFFFFFL));
+        return new SplittableRandom(h);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static long chunkKey(int x, int z) {
+        return (x & 0xFFFFFFFFL) | (long) z << 32;
+    }
+
+    // A rank in [0, n) with probability falling off as 1/rank, the shape of most game vocabularies
+    private static int rank(SplittableRandom random, int n) {
+        if (n <= 1) {
+            return 0;
+        }
+        return Math.min(n - 1, (int) Math.pow(n + 1, random.nextDouble()) - 1);
+    }
+
+    private static String pick(SplittableRandom random, String[] values) {
+        return values[rank(random, values.length)];
+    }
+
+    // Draws without replacement, as palettes list each entry once; values must not all be taken
+    private static String pick(SplittableRandom random, String[] values, Set<String> taken) {
+        String value;
+        do {
+            value = pick(random, values);
+        } while (!taken.add(value));
+        return value;
+    }
+
+    // A geometric count with the given mean
+    private static int geometric(SplittableRandom random, double mean) {
+        if (mean <= 0) {
+            return 0;
+        }
+        double u = random.nextDouble();
+        return (int) Math.min(Integer.MAX_VALUE, Math.floor(Math.log(1 - u) / Math.log(mean / (mean + 1))));
+    }
+
+    private static long writeGzipped(Path file, Tag tag) throws IOException {
+        try (OutputStream out = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(file)), 8192)) {
+            Nbt.write(tag, out);
+        }
+        return Files.size(file);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static String[] names(String... names) {
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "minecraft:" + names[i];
+        }
+        return names;
+    }
+}
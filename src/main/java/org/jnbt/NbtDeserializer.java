@@ -1,5 +1,7 @@
 package org.jnbt;
 
+import java.io.IOException;
+
 /**
  * @author dags <a href="dags@dags.me"></a>
  */
@@ -27,4 +29,12 @@ public interface NbtDeserializer<T> {
 
         return value;
     }
+
+    /**
+     * Reads the next value of the stream. The default implementation materializes it first,
+     * implementations that bind fields directly should override this.
+     */
+    default T read(NbtReader reader) throws IOException {
+        return apply(reader.nextTag());
+    }
 }
@@ -0,0 +1,142 @@
+package org.jnbt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes {@link NbtPatch patches} between two compound trees.
+ *
+ * <p>Unchanged subtrees are skipped with a single {@code equals} call, which is cheap for frozen
+ * trees thanks to their memoized hashes. Lists and arrays are compared by common prefix and
+ * suffix and the middle is sent as one splice.</p>
+ *
+ * <p>Like {@link CompoundTag#equals}, diffs ignore the order of compound keys: a patch keeps the
+ * order of the tree it is applied to and appends new keys at the end.</p>
+ */
+public final class NbtDiff {
+
+    private NbtDiff() {
+
+    }
+
+    public static NbtPatch diff(CompoundTag before, CompoundTag after) {
+        List<NbtPatch.Op> ops = new ArrayList<>();
+        diffCompound(before, after, new ArrayList<>(), ops);
+        return new NbtPatch(Collections.unmodifiableList(ops));
+    }
+
+    private static void diffCompound(CompoundTag before, CompoundTag after, List<Object> path, List<NbtPatch.Op> ops) {
+        Map<String, Tag> a = after.backing();
+        Map<String, Tag> b = before.backing();
+        for (String key : b.keySet()) {
+            if (!a.containsKey(key)) {
+                ops.add(new NbtPatch.Remove(path(path, key)));
+            }
+        }
+        for (Map.Entry<String, Tag> entry : a.entrySet()) {
+            Tag previous = b.get(entry.getKey());
+            if (previous == null) {
+                ops.add(new NbtPatch.Put(path(path, entry.getKey()), entry.getValue()));
+            } else if (!previous.equals(entry.getValue())) {
+                path.add(entry.getKey());
+                diffValue(previous, entry.getValue(), path, ops);
+                path.remove(path.size() - 1);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void diffValue(Tag before, Tag after, List<Object> path, List<NbtPatch.Op> ops) {
+        if (before.getType() != after.getType()) {
+            ops.add(new NbtPatch.Put(path.toArray(), after));
+        } else if (after instanceof CompoundTag) {
+            diffCompound((CompoundTag) before, (CompoundTag) after, path, ops);
+        } else if (after instanceof ListTag) {
+            diffList((ListTag) before, (ListTag) after, path, ops);
+        } else if (after instanceof ByteArrayTag) {
+            byte[] b = ((ByteArrayTag) before).getValue();
+            byte[] a = ((ByteArrayTag) after).getValue();
+            int prefix = 0;
+            int max = Math.min(a.length, b.length);
+            while (prefix < max && a[prefix] == b[prefix]) prefix++;
+            int suffix = 0;
+            while (suffix < max - prefix && a[a.length - 1 - suffix] == b[b.length - 1 - suffix]) suffix++;
+            splice(path, prefix, suffix, b.length, new ByteArrayTag(Arrays.copyOfRange(a, prefix, a.length - suffix)), after, ops);
+        } else if (after instanceof IntArrayTag) {
+            int[] b = ((IntArrayTag) before).getValue();
+            int[] a = ((IntArrayTag) after).getValue();
+            int prefix = 0;
+            int max = Math.min(a.length, b.length);
+            while (prefix < max && a[prefix] == b[prefix]) prefix++;
+            int suffix = 0;
+            while (suffix < max - prefix && a[a.length - 1 - suffix] == b[b.length - 1 - suffix]) suffix++;
+            splice(path, prefix, suffix, b.length, new IntArrayTag(Arrays.copyOfRange(a, prefix, a.length - suffix)), after, ops);
+        } else if (after instanceof LongArrayTag) {
+            long[] b = ((LongArrayTag) before).getValue();
+            long[] a = ((LongArrayTag) after).getValue();
+            int prefix = 0;
+            int max = Math.min(a.length, b.length);
+            while (prefix < max && a[prefix] == b[prefix]) prefix++;
+            int suffix = 0;
+            while (suffix < max - prefix && a[a.length - 1 - suffix] == b[b.length - 1 - suffix]) suffix++;
+            splice(path, prefix, suffix, b.length, new LongArrayTag(Arrays.copyOfRange(a, prefix, a.length - suffix)), after, ops);
+        } else {
+            ops.add(new NbtPatch.Put(path.toArray(), after));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void diffList(ListTag before, ListTag after, List<Object> path, List<NbtPatch.Op> ops) {
+        if (before.getChildType() != after.getChildType()) {
+            ops.add(new NbtPatch.Put(path.toArray(), after));
+            return;
+        }
+
+        List<Tag> b = before.backing();
+        List<Tag> a = after.backing();
+        TagType childType = after.getChildType();
+        boolean nested = childType == TagType.COMPOUND || childType == TagType.LIST;
+
+        // Same-length lists of containers are usually edited in place, so descend per element
+        if (nested && a.size() == b.size()) {
+            for (int i = 0; i < a.size(); i++) {
+                if (!b.get(i).equals(a.get(i))) {
+                    path.add(i);
+                    diffValue(b.get(i), a.get(i), path, ops);
+                    path.remove(path.size() - 1);
+                }
+            }
+            return;
+        }
+
+        int prefix = 0;
+        int max = Math.min(a.size(), b.size());
+        while (prefix < max && a.get(prefix).equals(b.get(prefix))) prefix++;
+        int suffix = 0;
+        while (suffix < max - prefix && a.get(a.size() - 1 - suffix).equals(b.get(b.size() - 1 - suffix))) suffix++;
+        List<Tag> insert = new ArrayList<>(a.size() - suffix - prefix);
+        for (Tag tag : a.subList(prefix, a.size() - suffix)) {
+            insert.add(tag.freeze());
+        }
+        splice(path, prefix, suffix, b.size(), new ListTag(insert, childType, true), after, ops);
+    }
+
+    private static void splice(List<Object> path, int prefix, int suffix, int beforeLength, Tag insert, Tag after, List<NbtPatch.Op> ops) {
+        // Without a shared prefix or suffix a splice is just a larger put
+        if (prefix + suffix == 0) {
+            ops.add(new NbtPatch.Put(path.toArray(), after));
+            return;
+        }
+        int delete = beforeLength - prefix - suffix;
+        ops.add(new NbtPatch.Splice(path.toArray(), prefix, delete, insert));
+    }
+
+    private static Object[] path(List<Object> parent, String key) {
+        Object[] path = parent.toArray(new Object[parent.size() + 1]);
+        path[parent.size()] = key;
+        return path;
+    }
+}
@@ -0,0 +1,203 @@
+package org.jnbt;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Binary layout of an NBT document.
+ *
+ * <ul>
+ *     <li>{@link #JAVA}: big-endian with a named root, as in Java edition files.</li>
+ *     <li>{@link #JAVA_NETWORK}: big-endian with a nameless root, as sent by Java edition
+ *     servers since 1.20.2.</li>
+ *     <li>{@link #BEDROCK}: little-endian with a named root, as in Bedrock edition files.</li>
+ *     <li>{@link #BEDROCK_NETWORK}: Bedrock's network encoding, with ints, longs and lengths as
+ *     varints.</li>
+ * </ul>
+ *
+ * <p>Formats are implemented as {@link DataInput}/{@link DataOutput} adapters underneath the
+ * usual tag readers and writers, so trees, {@link NbtReader} and {@link NbtWriter} work with all
+ * of them. {@link #transcode} converts between formats without building a tree.</p>
+ */
+public final class NbtFormat {
+
+    private static final int BIG_ENDIAN = 0;
+    private static final int LITTLE_ENDIAN = 1;
+    private static final int VARINT = 2;
+
+    public static final NbtFormat JAVA = new NbtFormat("java", BIG_ENDIAN, true);
+    public static final NbtFormat JAVA_NETWORK = new NbtFormat("java_network", BIG_ENDIAN, false);
+    public static final NbtFormat BEDROCK = new NbtFormat("bedrock", LITTLE_ENDIAN, true);
+    public static final NbtFormat BEDROCK_NETWORK = new NbtFormat("bedrock_network", VARINT, true);
+
+    private final String name;
+    private final int encoding;
+    private final boolean namedRoot;
+
+    private NbtFormat(String name, int encoding, boolean namedRoot) {
+        this.name = name;
+        this.encoding = encoding;
+        this.namedRoot = namedRoot;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean hasNamedRoot() {
+        return namedRoot;
+    }
+
+    public DataInput input(InputStream in) {
+        switch (encoding) {
+            case LITTLE_ENDIAN:
+                return new LittleEndianInput(in);
+            case VARINT:
+                return new VarIntInput(in);
+            default:
+                return in instanceof DataInput ? (DataInput) in : new DataInputStream(in);
+        }
+    }
+
+    public DataOutput output(OutputStream out) {
+        switch (encoding) {
+            case LITTLE_ENDIAN:
+                return new LittleEndianOutput(out);
+            case VARINT:
+                return new VarIntOutput(out);
+            default:
+                return out instanceof DataOutput ? (DataOutput) out : new DataOutputStream(out);
+        }
+    }
+
+    public RootTag read(InputStream in) throws IOException {
+        return read(in, ReadOptions.frozen());
+    }
+
+    public RootTag read(InputStream in, ReadOptions options) throws IOException {
+        return TagReader.readRootTag(input(in), options, namedRoot);
+    }
+
+    public void write(Tag tag, OutputStream out) throws IOException {
+        write("", tag, out);
+    }
+
+    /**
+     * Writes a document. The name is dropped by formats without a root name.
+     */
+    public void write(String name, Tag tag, OutputStream out) throws IOException {
+        if (tag.isAbsent()) {
+            throw new NullPointerException("tag not present");
+        }
+        if (!Metrics.writing()) {
+            writeDocument(name, tag, output(out));
+            return;
+        }
+        Object event = Metrics.beginWrite();
+        long start = System.nanoTime();
+        Metrics.CountingOutputStream counting = new Metrics.CountingOutputStream(out);
+        writeDocument(name, tag, output(counting));
+        Metrics.write(name, tag, counting.count, System.nanoTime() - start, event);
+    }
+
+    private void writeDocument(String name, Tag tag, DataOutput data) throws IOException {
+        if (namedRoot) {
+            tag.writeTo(name, data);
+        } else {
+            data.writeByte(tag.getType().getId());
+            tag.writeValue(data);
+        }
+    }
+
+    public NbtReader reader(InputStream in) {
+        return reader(in, ReadOptions.frozen());
+    }
+
+    public NbtReader reader(InputStream in, ReadOptions options) {
+        return new NbtReader(input(in), options, namedRoot);
+    }
+
+    public NbtWriter writer(OutputStream out) {
+        return new NbtWriter(output(out), namedRoot);
+    }
+
+    /**
+     * Re-encodes a document from one format to another, value by value. Documents read without a
+     * root name are written with an empty one.
+     */
+    public static void transcode(InputStream in, NbtFormat from, OutputStream out, NbtFormat to) throws IOException {
+        NbtReader reader = from.reader(in);
+        NbtWriter writer = to.writer(out);
+        writer.name(reader.nextName());
+        copy(reader, writer);
+        writer.flush();
+    }
+
+    private static void copy(NbtReader reader, NbtWriter writer) throws IOException {
+        TagType<?, ?> type = reader.peek();
+        switch (type.getId()) {
+            case 1:
+                writer.writeByte(reader.nextByte());
+                break;
+            case 2:
+                writer.writeShort(reader.nextShort());
+                break;
+            case 3:
+                writer.writeInt(reader.nextInt());
+                break;
+            case 4:
+                writer.writeLong(reader.nextLong());
+                break;
+            case 5:
+                writer.writeFloat(reader.nextFloat());
+                break;
+            case 6:
+                writer.writeDouble(reader.nextDouble());
+                break;
+            case 7:
+                writer.writeByteArray(reader.nextByteArray());
+                break;
+            case 8:
+                writer.writeString(reader.nextString());
+                break;
+            case 9: {
+                TagType<?, ?> child = reader.beginList();
+                writer.beginList(child, reader.remaining());
+                while (reader.hasNext()) {
+                    copy(reader, writer);
+                }
+                reader.endList();
+                writer.endList();
+                break;
+            }
+            case 10:
+                reader.beginCompound();
+                writer.beginCompound();
+                while (reader.hasNext()) {
+                    writer.name(reader.nextName());
+                    copy(reader, writer);
+                }
+                reader.endCompound();
+                writer.endCompound();
+                break;
+            case 11:
+                writer.writeIntArray(reader.nextIntArray());
+                break;
+            case 12:
+                writer.writeLongArray(reader.nextLongArray());
+                break;
+            default:
+                throw new IOException("Unexpected " + type.getName() + " tag");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,555 @@
+package org.jnbt;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming conversion between NBT and JSON.
+ *
+ * <p>NBT to JSON runs over an {@link NbtReader} and never holds more than the current value, so
+ * memory use does not depend on the size of the document. Compounds become objects, lists and
+ * arrays become arrays, and numbers are written without their NBT type. Non-finite floats become
+ * {@code null}.</p>
+ *
+ * <p>JSON to NBT writes through an {@link NbtWriter}, with a {@link JsonTypeHints} policy choosing
+ * the NBT type of numbers and arrays. Objects are streamed, but an NBT list has to start with its
+ * element type and size, so the elements of each JSON array are buffered (already encoded) until
+ * the array ends. {@code null} values are skipped.</p>
+ */
+public final class NbtJson {
+
+    static final JsonTypeHints INFERRED = new JsonTypeHints() {
+        @Override
+        public TagType<?, ?> numberType(String key, String literal) {
+            for (int i = 0; i < literal.length(); i++) {
+                char c = literal.charAt(i);
+                if (c == '.' || c == 'e' || c == 'E') {
+                    return TagType.DOUBLE;
+                }
+            }
+            try {
+                long value = Long.parseLong(literal);
+                return value == (int) value ? TagType.INT : TagType.LONG;
+            } catch (NumberFormatException e) {
+                return TagType.DOUBLE;
+            }
+        }
+
+        @Override
+        public TagType<?, ?> arrayType(String key) {
+            return TagType.LIST;
+        }
+    };
+
+    private NbtJson() {
+
+    }
+
+    /**
+     * Converts an NBT document to UTF-8 JSON. The root name is dropped.
+     */
+    public static void toJson(InputStream nbt, OutputStream json) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(json, StandardCharsets.UTF_8));
+        toJson(new NbtReader(nbt), writer);
+        writer.flush();
+    }
+
+    public static void toJson(InputStream nbt, Writer json) throws IOException {
+        toJson(new NbtReader(nbt), json);
+    }
+
+    /**
+     * Converts the next value of the reader to JSON. At the document level or inside a compound,
+     * its name is skipped unless it has already been read.
+     */
+    public static void toJson(NbtReader reader, Writer json) throws IOException {
+        value(reader, json);
+    }
+
+    /**
+     * Converts a JSON document to an NBT document with an empty root name.
+     */
+    public static void fromJson(Reader json, OutputStream nbt, JsonTypeHints hints) throws IOException {
+        NbtWriter writer = new NbtWriter(nbt);
+        writer.name("");
+        fromJson(json, writer, hints);
+        writer.flush();
+    }
+
+    /**
+     * Converts a JSON document to the next value of the writer. At the document level or inside a
+     * compound, the caller sets its name first.
+     */
+    public static void fromJson(Reader json, NbtWriter writer, JsonTypeHints hints) throws IOException {
+        JsonParser parser = new JsonParser(json, hints);
+        if (parser.peek() == 'n') {
+            throw parser.error("Root value is null");
+        }
+        parser.value(null, writer);
+        if (parser.peek() != -1) {
+            throw parser.error("Trailing data");
+        }
+    }
+
+    private static void value(NbtReader reader, Writer out) throws IOException {
+        TagType<?, ?> type = reader.peek();
+        switch (type.getId()) {
+            case 1:
+                out.write(Integer.toString(reader.nextByte()));
+                break;
+            case 2:
+                out.write(Integer.toString(reader.nextShort()));
+                break;
+            case 3:
+                out.write(Integer.toString(reader.nextInt()));
+                break;
+            case 4:
+                out.write(Long.toString(reader.nextLong()));
+                break;
+            case 5: {
+                float value = reader.nextFloat();
+                out.write(Float.isFinite(value) ? Float.toString(value) : "null");
+                break;
+            }
+            case 6: {
+                double value = reader.nextDouble();
+                out.write(Double.isFinite(value) ? Double.toString(value) : "null");
+                break;
+            }
+            case 8:
+                string(reader.nextString(), out);
+                break;
+            case 7:
+            case 11:
+            case 12:
+                array(reader, type, out);
+                break;
+            case 9: {
+                reader.beginList();
+                out.write('[');
+                boolean first = true;
+                while (reader.hasNext()) {
+                    if (!first) {
+                        out.write(',');
+                    }
+                    first = false;
+                    value(reader, out);
+                }
+                reader.endList();
+                out.write(']');
+                break;
+            }
+            case 10: {
+                reader.beginCompound();
+                out.write('{');
+                boolean first = true;
+                while (reader.hasNext()) {
+                    if (!first) {
+                        out.write(',');
+                    }
+                    first = false;
+                    string(reader.nextName(), out);
+                    out.write(':');
+                    value(reader, out);
+                }
+                reader.endCompound();
+                out.write('}');
+                break;
+            }
+            default:
+                throw new IOException("Unexpected " + type.getName() + " tag");
+        }
+    }
+
+    // Streams array elements instead of materializing the whole array
+    private static void array(NbtReader reader, TagType<?, ?> type, Writer out) throws IOException {
+        reader.consume(type);
+        int length = reader.arrayLength(type);
+        DataInput in = reader.input();
+        out.write('[');
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            if (type == TagType.BYTE_ARRAY) {
+                out.write(Integer.toString(in.readByte()));
+            } else if (type == TagType.INT_ARRAY) {
+                out.write(Integer.toString(in.readInt()));
+            } else {
+                out.write(Long.toString(in.readLong()));
+            }
+        }
+        out.write(']');
+    }
+
+    private static void string(String value, Writer out) throws IOException {
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            out.write(value, start, i - start);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    out.write(String.format("\\u%04x", (int) c));
+                    break;
+            }
+        }
+        out.write(value, start, value.length() - start);
+        out.write('"');
+    }
+
+    private static final class JsonParser {
+
+        private final Reader in;
+        private final JsonTypeHints hints;
+        private final char[] buffer = new char[8192];
+        private int pos;
+        private int limit;
+        private long offset;
+        private int depth;
+
+        private JsonParser(Reader in, JsonTypeHints hints) {
+            this.in = in;
+            this.hints = hints;
+        }
+
+        // Writes the next JSON value, which must not be null
+        private void value(String key, NbtWriter writer) throws IOException {
+            int c = peek();
+            if (c == '{') {
+                object(writer);
+            } else if (c == '[') {
+                array(key, writer);
+            } else if (c == '"') {
+                pos++;
+                writer.writeString(string());
+            } else {
+                String literal = literal();
+                if (literal.equals("true") || literal.equals("false")) {
+                    writer.writeByte((byte) (literal.equals("true") ? 1 : 0));
+                } else {
+                    number(hints.numberType(key, literal), literal, writer);
+                }
+            }
+        }
+
+        private void object(NbtWriter writer) throws IOException {
+            expect('{');
+            enter();
+            writer.beginCompound();
+            if (peek() != '}') {
+                do {
+                    expect('"');
+                    String key = string();
+                    expect(':');
+                    if (skipNull()) {
+                        continue;
+                    }
+                    writer.name(key);
+                    value(key, writer);
+                } while (consume(','));
+            }
+            expect('}');
+            writer.endCompound();
+            depth--;
+        }
+
+        private void array(String key, NbtWriter writer) throws IOException {
+            expect('[');
+            enter();
+            TagType<?, ?> type = hints.arrayType(key);
+            if (type == TagType.BYTE_ARRAY || type == TagType.INT_ARRAY || type == TagType.LONG_ARRAY) {
+                long[] values = new long[16];
+                int size = 0;
+                if (peek() != ']') {
+                    do {
+                        if (size == values.length) {
+                            values = Arrays.copyOf(values, size * 2);
+                        }
+                        values[size++] = integer(bool(literal()));
+                    } while (consume(','));
+                }
+                if (type == TagType.BYTE_ARRAY) {
+                    byte[] array = new byte[size];
+                    for (int i = 0; i < size; i++) {
+                        array[i] = (byte) values[i];
+                    }
+                    writer.writeByteArray(array);
+                } else if (type == TagType.INT_ARRAY) {
+                    int[] array = new int[size];
+                    for (int i = 0; i < size; i++) {
+                        array[i] = (int) values[i];
+                    }
+                    writer.writeIntArray(array);
+                } else {
+                    writer.writeLongArray(Arrays.copyOf(values, size));
+                }
+            } else if (type != TagType.LIST) {
+                throw error("Type hint " + type.getName() + " is not an array type");
+            } else if (isNumberStart(peek())) {
+                numbers(key, writer);
+            } else {
+                elements(key, writer);
+            }
+            expect(']');
+            depth--;
+        }
+
+        // Number lists take the widest of their elements' types, which requires seeing them all
+        private void numbers(String key, NbtWriter writer) throws IOException {
+            List<String> literals = new ArrayList<>();
+            TagType<?, ?> type = TagType.BYTE;
+            do {
+                if (skipNull()) {
+                    continue;
+                }
+                String literal = bool(literal());
+                TagType<?, ?> hint = hints.numberType(key, literal);
+                if (hint.getId() > type.getId()) {
+                    type = hint;
+                }
+                literals.add(literal);
+            } while (consume(','));
+            writer.beginList(type, literals.size());
+            for (String literal : literals) {
+                number(type, literal, writer);
+            }
+            writer.endList();
+        }
+
+        private void elements(String key, NbtWriter writer) throws IOException {
+            Buffer buffer = new Buffer();
+            NbtWriter elements = NbtWriter.elements(new DataOutputStream(buffer));
+            if (peek() != ']') {
+                do {
+                    if (skipNull()) {
+                        continue;
+                    }
+                    try {
+                        value(key, elements);
+                    } catch (IllegalStateException e) {
+                        throw error("Mixed value types in array: " + e.getMessage());
+                    }
+                } while (consume(','));
+            }
+            writer.writeList(elements.elementType(), elements.elementCount(), buffer.bytes(), buffer.size());
+        }
+
+        private void number(TagType<?, ?> type, String literal, NbtWriter writer) throws IOException {
+            switch (type.getId()) {
+                case 1:
+                    writer.writeByte((byte) integer(literal));
+                    break;
+                case 2:
+                    writer.writeShort((short) integer(literal));
+                    break;
+                case 3:
+                    writer.writeInt((int) integer(literal));
+                    break;
+                case 4:
+                    writer.writeLong(integer(literal));
+                    break;
+                case 5:
+                    writer.writeFloat((float) decimal(literal));
+                    break;
+                case 6:
+                    writer.writeDouble(decimal(literal));
+                    break;
+                default:
+                    throw error("Type hint " + type.getName() + " is not a number type");
+            }
+        }
+
+        private long integer(String literal) throws IOException {
+            try {
+                return Long.parseLong(literal);
+            } catch (NumberFormatException e) {
+                return (long) decimal(literal);
+            }
+        }
+
+        private double decimal(String literal) throws IOException {
+            if (!isNumberStart(literal.charAt(0))) {
+                throw error("Expected number but was " + literal);
+            }
+            try {
+                return Double.parseDouble(literal);
+            } catch (NumberFormatException e) {
+                throw error("Invalid number " + literal);
+            }
+        }
+
+        private String bool(String literal) {
+            return literal.equals("true") ? "1" : literal.equals("false") ? "0" : literal;
+        }
+
+        private boolean skipNull() throws IOException {
+            if (peek() != 'n') {
+                return false;
+            }
+            String literal = literal();
+            if (!literal.equals("null")) {
+                throw error("Unexpected " + literal);
+            }
+            return true;
+        }
+
+        private String string() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                if (pos == limit && !fill()) {
+                    throw error("Unterminated string");
+                }
+                int start = pos;
+                while (pos < limit && buffer[pos] != '"' && buffer[pos] != '\\') {
+                    pos++;
+                }
+                sb.append(buffer, start, pos - start);
+                if (pos == limit) {
+                    continue;
+                }
+                if (buffer[pos++] == '"') {
+                    return sb.toString();
+                }
+                char c = read();
+                switch (c) {
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u': {
+                        int value = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(read(), 16);
+                            if (digit < 0) {
+                                throw error("Invalid unicode escape");
+                            }
+                            value = value << 4 | digit;
+                        }
+                        sb.append((char) value);
+                        break;
+                    }
+                    case '"':
+                    case '\\':
+                    case '/':
+                        sb.append(c);
+                        break;
+                    default:
+                        throw error("Invalid escape \\" + c);
+                }
+            }
+        }
+
+        // true, false, null or a number
+        private String literal() throws IOException {
+            peek();
+            StringBuilder sb = new StringBuilder();
+            while (pos < limit || fill()) {
+                char c = buffer[pos];
+                if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'z' || c == 'E' || c == '-' || c == '+' || c == '.')) {
+                    break;
+                }
+                sb.append(c);
+                pos++;
+            }
+            if (sb.length() == 0) {
+                throw error(pos < limit ? "Unexpected '" + buffer[pos] + "'" : "Unexpected end of input");
+            }
+            return sb.toString();
+        }
+
+        private static boolean isNumberStart(int c) {
+            return c >= '0' && c <= '9' || c == '-';
+        }
+
+        private int peek() throws IOException {
+            while (true) {
+                if (pos == limit && !fill()) {
+                    return -1;
+                }
+                char c = buffer[pos];
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                    return c;
+                }
+                pos++;
+            }
+        }
+
+        private char read() throws IOException {
+            if (pos == limit && !fill()) {
+                throw error("Unexpected end of input");
+            }
+            return buffer[pos++];
+        }
+
+        private boolean consume(char c) throws IOException {
+            if (peek() == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) throws IOException {
+            if (!consume(c)) {
+                throw error("Expected '" + c + "'");
+            }
+        }
+
+        private void enter() throws IOException {
+            if (++depth > ReadLimits.DEFAULT_MAX_DEPTH) {
+                throw error("Nesting deeper than " + ReadLimits.DEFAULT_MAX_DEPTH);
+            }
+        }
+
+        private boolean fill() throws IOException {
+            offset += limit;
+            pos = 0;
+            limit = Math.max(in.read(buffer), 0);
+            return limit > 0;
+        }
+
+        private IOException error(String message) {
+            return new IOException(message + " at offset " + (offset + pos));
+        }
+    }
+
+    private static final class Buffer extends ByteArrayOutputStream {
+
+        byte[] bytes() {
+            return buf;
+        }
+    }
+}
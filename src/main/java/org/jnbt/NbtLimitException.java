@@ -0,0 +1,15 @@
+package org.jnbt;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a decode exceeds one of its {@link ReadLimits}.
+ */
+public class NbtLimitException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public NbtLimitException(String message) {
+        super(message);
+    }
+}
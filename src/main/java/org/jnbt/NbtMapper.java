@@ -0,0 +1,974 @@
+package org.jnbt;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runtime mapper between objects and {@link CompoundTag}s for classes that cannot be annotated
+ * with {@link NbtRecord}.
+ *
+ * <p>The codec for a class is built once from its fields and cached per class. Field access goes
+ * through {@link MethodHandle}s adapted to exact primitive signatures, so primitive fields are
+ * copied without boxing. Classes are instantiated either through a no-argument constructor
+ * followed by field assignment, or, for records and classes with final fields, through the
+ * constructor that takes every field in declaration order. That constructor receives its
+ * arguments as an {@code Object[]}, so reading such a class boxes its primitive fields.</p>
+ *
+ * <p>Fields whose key is missing, or holds a tag of another type, are left at their initial
+ * value by field assignment and passed as zero or null to the constructor, whether reading a
+ * tree or a stream.</p>
+ *
+ * <p>{@link #read(NbtReader)} and {@link #write(Object, NbtWriter)} bind objects straight to an
+ * NBT stream without building a tree. Keys are dispatched through a hash table of the fields, and
+ * unknown keys or values of an unexpected type are skipped.</p>
+ */
+public final class NbtMapper<T> implements NbtSerializer<T>, NbtDeserializer<T> {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final ClassValue<NbtMapper<?>> MAPPERS = new ClassValue<NbtMapper<?>>() {
+        @Override
+        protected NbtMapper<?> computeValue(Class<?> type) {
+            return new NbtMapper<>(type);
+        }
+    };
+
+    private final Class<T> type;
+    private final Property[] properties;
+    private final MethodHandle constructor;
+    private final boolean assignFields;
+    private final Object[] defaults;
+    // Open addressing table of property index + 1, keyed by the spread hash of the key
+    private final int[] slots;
+
+    private NbtMapper(Class<T> type) {
+        if (type.isPrimitive() || type.isArray() || type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+            throw new IllegalArgumentException("Cannot map " + type.getName());
+        }
+        this.type = type;
+
+        List<Field> fields = fields(type);
+        this.properties = new Property[fields.size()];
+        this.defaults = new Object[fields.size()];
+        for (int i = 0; i < properties.length; i++) {
+            properties[i] = property(fields.get(i));
+            defaults[i] = Array.get(Array.newInstance(fields.get(i).getType(), 1), 0);
+        }
+
+        int capacity = 2;
+        while (capacity < properties.length * 2) {
+            capacity <<= 1;
+        }
+        this.slots = new int[capacity];
+        for (int i = 0; i < properties.length; i++) {
+            int slot = spread(properties[i].key.hashCode()) & (capacity - 1);
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            slots[slot] = i + 1;
+        }
+
+        boolean anyFinal = false;
+        for (Field field : fields) {
+            anyFinal |= Modifier.isFinal(field.getModifiers());
+        }
+
+        MethodHandle noArgs = null;
+        MethodHandle allArgs = null;
+        for (Constructor<?> c : type.getDeclaredConstructors()) {
+            Class<?>[] params = c.getParameterTypes();
+            if (params.length == 0) {
+                noArgs = unreflect(c);
+            } else if (params.length == fields.size() && matches(params, fields)) {
+                allArgs = unreflect(c);
+            }
+        }
+
+        if (noArgs != null && !anyFinal) {
+            this.assignFields = true;
+            this.constructor = noArgs.asType(MethodType.methodType(Object.class));
+            for (int i = 0; i < properties.length; i++) {
+                properties[i].setter(fields.get(i));
+            }
+        } else if (allArgs != null) {
+            this.assignFields = false;
+            this.constructor = allArgs.asSpreader(Object[].class, fields.size())
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+        } else {
+            throw new IllegalArgumentException(type.getName() + " needs a no-argument constructor or a constructor taking every field in declaration order");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> NbtMapper<T> forClass(Class<T> type) {
+        return (NbtMapper<T>) MAPPERS.get(type);
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    @Override
+    public void apply(T value, CompoundTag tag) {
+        try {
+            for (Property property : properties) {
+                property.write(value, tag);
+            }
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T apply(CompoundTag tag) {
+        try {
+            if (assignFields) {
+                Object value = constructor.invokeExact();
+                for (Property property : properties) {
+                    if (property.accepts(tag)) {
+                        property.assign(value, tag);
+                    }
+                }
+                return (T) value;
+            }
+            Object[] args = new Object[properties.length];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = properties[i].accepts(tag) ? properties[i].read(tag) : defaults[i];
+            }
+            return (T) constructor.invokeExact(args);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public void write(T value, NbtWriter writer) throws IOException {
+        writer.beginCompound();
+        try {
+            for (Property property : properties) {
+                property.write(value, writer);
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+        writer.endCompound();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T read(NbtReader reader) throws IOException {
+        reader.beginCompound();
+        try {
+            Object value = assignFields ? constructor.invokeExact() : null;
+            Object[] args = assignFields ? null : defaults.clone();
+            while (reader.hasNext()) {
+                int index = indexOf(reader.nextName());
+                if (index < 0 || !properties[index].accepts(reader.peek())) {
+                    reader.skipValue();
+                } else if (assignFields) {
+                    properties[index].assign(value, reader);
+                } else {
+                    args[index] = properties[index].read(reader);
+                }
+            }
+            reader.endCompound();
+            return (T) (assignFields ? value : constructor.invokeExact(args));
+        } catch (IOException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    private int indexOf(String key) {
+        int mask = slots.length - 1;
+        for (int slot = spread(key.hashCode()) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int index = slots[slot] - 1;
+            if (properties[index].key.equals(key)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static List<Field> fields(Class<?> type) {
+        List<Class<?>> hierarchy = new ArrayList<>();
+        for (Class<?> c = type; c != null && c != Object.class && !c.getName().equals("java.lang.Record"); c = c.getSuperclass()) {
+            hierarchy.add(c);
+        }
+        Collections.reverse(hierarchy);
+
+        List<Field> fields = new ArrayList<>();
+        for (Class<?> c : hierarchy) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+                field.setAccessible(true);
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    private static boolean matches(Class<?>[] params, List<Field> fields) {
+        for (int i = 0; i < params.length; i++) {
+            if (params[i] != fields.get(i).getType()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static MethodHandle unreflect(Constructor<?> constructor) {
+        try {
+            constructor.setAccessible(true);
+            return LOOKUP.unreflectConstructor(constructor);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot access " + constructor, e);
+        }
+    }
+
+    private static Property property(Field field) {
+        String key = field.getName();
+        MethodHandle getter;
+        try {
+            getter = LOOKUP.unreflectGetter(field);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot access " + field, e);
+        }
+
+        Class<?> type = field.getType();
+        if (type == boolean.class) return new BooleanProperty(key, getter);
+        if (type == byte.class) return new ByteProperty(key, getter);
+        if (type == short.class) return new ShortProperty(key, getter);
+        if (type == char.class) return new CharProperty(key, getter);
+        if (type == int.class) return new IntProperty(key, getter);
+        if (type == long.class) return new LongProperty(key, getter);
+        if (type == float.class) return new FloatProperty(key, getter);
+        if (type == double.class) return new DoubleProperty(key, getter);
+        return new ObjectProperty(key, getter, Codec.of(field.getGenericType(), field));
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new IllegalStateException(t);
+    }
+
+    /**
+     * Accessors for one field. Subclasses hold handles adapted to {@code (Object)prim} and
+     * {@code (Object,prim)void} so that {@code invokeExact} copies primitives without boxing.
+     */
+    abstract static class Property {
+
+        final String key;
+        final MethodHandle getter;
+        final TagType<?, ?> expected;
+        MethodHandle setter;
+
+        Property(String key, MethodHandle getter, Class<?> type, TagType<?, ?> expected) {
+            this.key = key;
+            this.getter = getter.asType(MethodType.methodType(type, Object.class));
+            this.expected = expected;
+        }
+
+        boolean accepts(TagType<?, ?> type) {
+            return expected == null || expected == type;
+        }
+
+        // Whether the compound holds a value for this property, as the stream path would accept
+        boolean accepts(CompoundTag tag) {
+            Tag value = tag.get(key);
+            return value.isPresent() && accepts(value.getType());
+        }
+
+        void setter(Field field) {
+            try {
+                MethodHandle handle = LOOKUP.unreflectSetter(field);
+                this.setter = handle.asType(MethodType.methodType(void.class, Object.class, getter.type().returnType()));
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("Cannot access " + field, e);
+            }
+        }
+
+        abstract void write(Object target, CompoundTag tag) throws Throwable;
+
+        abstract void assign(Object target, CompoundTag tag) throws Throwable;
+
+        abstract Object read(CompoundTag tag);
+
+        abstract void write(Object target, NbtWriter writer) throws Throwable;
+
+        abstract void assign(Object target, NbtReader reader) throws Throwable;
+
+        abstract Object read(NbtReader reader) throws IOException;
+    }
+
+    static final class BooleanProperty extends Property {
+
+        BooleanProperty(String key, MethodHandle getter) {
+            super(key, getter, boolean.class, TagType.BYTE);
+        }
+
+        @Override
+        void write(Object target, CompoundTag tag) throws Throwable {
+            tag.put(key, (boolean) getter.invokeExact(target));
+        }
+
+        @Override
+        void assign(Object target, CompoundTag tag) throws Throwable {
+            setter.invokeExact(target, tag.getByteTag(key).boolValue());
+        }
+
+        @Override
+        Object read(CompoundTag tag) {
+            return tag.getByteTag(key).boolValue();
+        }
+        @Override
+        void write(Object target, NbtWriter writer) throws Throwable {
+            writer.name(key).writeByte((byte) ((boolean) getter.invokeExact(target) ? 1 : 0));
+        }
+
+        @Override
+        void assign(Object target, NbtReader reader) throws Throwable {
+            setter.invokeExact(target, reader.nextByte() != 0);
+        }
+
+        @Override
+        Object read(NbtReader reader) throws IOException {
+            return reader.nextByte() != 0;
+        }
+    }
+
+    static final class ByteProperty extends Property {
+
+        ByteProperty(String key, MethodHandle getter) {
+            super(key, getter, byte.class, TagType.BYTE);
+        }
+
+        @Override
+        void write(Object target, CompoundTag tag) throws Throwable {
+            tag.put(key, (byte) getter.invokeExact(target));
+        }
+
+        @Override
+        void assign(Object target, CompoundTag tag) throws Throwable {
+            setter.invokeExact(target, tag.getByte(key));
+        }
+
+        @Override
+        Object read(CompoundTag tag) {
+            return tag.getByte(key);
+        }
+        @Override
+        void write(Object target, NbtWriter writer) throws Throwable {
+            writer.name(key).writeByte((byte) getter.invokeExact(target));
+        }
+
+        @Override
+        void assign(Object target, NbtReader reader) throws Throwable {
+            setter.invokeExact(target, reader.nextByte());
+        }
+
+        @Override
+        Object read(NbtReader reader) throws IOException {
+            return reader.nextByte();
+        }
+    }
+
+    static final class ShortProperty extends Property {
+
+        ShortProperty(String key, MethodHandle getter) {
+            super(key, getter, short.class, TagType.SHORT);
+        }
+
+        @Override
+        void write(Object target, CompoundTag tag) throws Throwable {
+            tag.put(key, (short) getter.invokeExact(target));
+        }
+
+        @Override
+        void assign(Object target, CompoundTag tag) throws Throwable {
+            setter.invokeExact(target, tag.getShort(key));
+        }
+
+        @Override
+        Object read(CompoundTag tag) {
+            return tag.getShort(key);
+        }
+        @Override
+        void write(Object target, NbtWriter writer) throws Throwable {
+            writer.name(key).writeShort((short) getter.invokeExact(target));
+        }
+
+        @Override
+        void assign(Object target, NbtReader reader) throws Throwable {
+            setter.invokeExact(target, reader.nextShort());
+        }
+
+        @Override
+        Object read(NbtReader reader) throws IOException {
+            return reader.nextShort();
+        }
+    }
+
+    static final class CharProperty extends Property {
+
+        CharProperty(String key, MethodHandle getter) {
+            super(key, getter, char.class, TagType.SHORT);
+        }
+
+        @Override
+        void write(Object target, CompoundTag tag) throws Throwable {
+            tag.put(key, (short) (char) getter.invokeExact(target));
+        }
+
+        @Override
+        void assign(Object target, CompoundTag tag) throws Throwable {
+            setter.invokeExact(target, (char) tag.getShort(key));
+        }
+
+        @Override
+        Object read(CompoundTag tag) {
+            return (char) tag.getShort(key);
+        }
+        @Override
+        void write(Object target, NbtWriter writer) throws Throwable {
+            writer.name(key).writeShort((short) (char) getter.invokeExact(target));
+        }
+
+        @Override
+        void assign(Object target, NbtReader reader) throws Throwable {
+            setter.invokeExact(target, (char) reader.nextShort());
+        }
+
+        @Override
+        Object read(NbtReader reader) throws IOException {
+            return (char) reader.nextShort();
+        }
+    }
+
+    static final class IntProperty extends Property {
+
+        IntProperty(String key, MethodHandle getter) {
+            super(key, getter, int.class, TagType.INT);
+        }
+
+        @Override
+        void write(Object target, CompoundTag tag) throws Throwable {
+            tag.put(key, (int) getter.invokeExact(target));
+        }
+
+        @Override
+        void assign(Object target, CompoundTag tag) throws Throwable {
+            setter.invokeExact(target, tag.getInt(key));
+        }
+
+        @Override
+        Object read(CompoundTag tag) {
+            return tag.getInt(key);
+        }
+        @Override
+        void write(Object target, NbtWriter writer) throws Throwable {
+            writer.name(key).writeInt((int) getter.invokeExact(target));
+        }
+
+        @Override
+        void assign(Object target, NbtReader reader) throws Throwable {
+            setter.invokeExact(target, reader.nextInt());
+        }
+
+        @Override
+        Object read(NbtReader reader) throws IOException {
+            return reader.nextInt();
+        }
+    }
+
+    static final class LongProperty extends Property {
+
+        LongProperty(String key, MethodHandle getter) {
+            super(key, getter, long.class, TagType.LONG);
+        }
+
+        @Override
+        void write(Object target, CompoundTag tag) throws Throwable {
+            tag.put(key, (long) getter.invokeExact(target));
+        }
+
+        @Override
+        void assign(Object target, CompoundTag tag) throws Throwable {
+            setter.invokeExact(target, tag.getLong(key));
+        }
+
+        @Override
+        Object read(CompoundTag tag) {
+            return tag.getLong(key);
+        }
+        @Override
+        void write(Object target, NbtWriter writer) throws Throwable {
+            writer.name(key).writeLong((long) getter.invokeExact(target));
+        }
+
+        @Override
+        void assign(Object target, NbtReader reader) throws Throwable {
+            setter.invokeExact(target, reader.nextLong());
+        }
+
+        @Override
+        Object read(NbtReader reader) throws IOException {
+            return reader.nextLong();
+        }
+    }
+
+    static final class FloatProperty extends Property {
+
+        FloatProperty(String key, MethodHandle getter) {
+            super(key, getter, float.class, TagType.FLOAT);
+        }
+
+        @Override
+        void write(Object target, CompoundTag tag) throws Throwable {
+            tag.put(key, Nbt.tag((float) getter.invokeExact(target)));
+        }
+
+        @Override
+        void assign(Object target, CompoundTag tag) throws Throwable {
+            setter.invokeExact(target, tag.getFloat(key));
+        }
+
+        @Override
+        Object read(CompoundTag tag) {
+            return tag.getFloat(key);
+        }
+        @Override
+        void write(Object target, NbtWriter writer) throws Throwable {
+            writer.name(key).writeFloat((float) getter.invokeExact(target));
+        }
+
+        @Override
+        void assign(Object target, NbtReader reader) throws Throwable {
+            setter.invokeExact(target, reader.nextFloat());
+        }
+
+        @Override
+        Object read(NbtReader reader) throws IOException {
+            return reader.nextFloat();
+        }
+    }
+
+    static final class DoubleProperty extends Property {
+
+        DoubleProperty(String key, MethodHandle getter) {
+            super(key, getter, double.class, TagType.DOUBLE);
+        }
+
+        @Override
+        void write(Object target, CompoundTag tag) throws Throwable {
+            tag.put(key, (double) getter.invokeExact(target));
+        }
+
+        @Override
+        void assign(Object target, CompoundTag tag) throws Throwable {
+            setter.invokeExact(target, tag.getDouble(key));
+        }
+
+        @Override
+        Object read(CompoundTag tag) {
+            return tag.getDouble(key);
+        }
+        @Override
+        void write(Object target, NbtWriter writer) throws Throwable {
+            writer.name(key).writeDouble((double) getter.invokeExact(target));
+        }
+
+        @Override
+        void assign(Object target, NbtReader reader) throws Throwable {
+            setter.invokeExact(target, reader.nextDouble());
+        }
+
+        @Override
+        Object read(NbtReader reader) throws IOException {
+            return reader.nextDouble();
+        }
+    }
+
+    static final class ObjectProperty extends Property {
+
+        private final Codec codec;
+
+        ObjectProperty(String key, MethodHandle getter, Codec codec) {
+            super(key, getter, Object.class, codec.type);
+            this.codec = codec;
+        }
+
+        @Override
+        void write(Object target, CompoundTag tag) throws Throwable {
+            Object value = getter.invokeExact(target);
+            if (value != null) {
+                tag.put(key, codec.write(value));
+            }
+        }
+
+        @Override
+        void assign(Object target, CompoundTag tag) throws Throwable {
+            setter.invokeExact(target, read(tag));
+        }
+
+        @Override
+        Object read(CompoundTag tag) {
+            Tag value = tag.get(key);
+            return value.isPresent() ? codec.read(value) : null;
+        }
+
+        @Override
+        void write(Object target, NbtWriter writer) throws Throwable {
+            Object value = getter.invokeExact(target);
+            if (value != null) {
+                codec.write(value, writer.name(key));
+            }
+        }
+
+        @Override
+        void assign(Object target, NbtReader reader) throws Throwable {
+            setter.invokeExact(target, codec.read(reader));
+        }
+
+        @Override
+        Object read(NbtReader reader) throws IOException {
+            return codec.read(reader);
+        }
+    }
+
+    /**
+     * Conversion between a reference-typed field value and its tag, or its stream encoding.
+     * {@link #type} is the tag type the codec reads and writes, or null if it accepts any.
+     */
+    abstract static class Codec {
+
+        final TagType<?, ?> type;
+
+        Codec(TagType<?, ?> type) {
+            this.type = type;
+        }
+
+        abstract Tag write(Object value);
+
+        abstract Object read(Tag tag);
+
+        void write(Object value, NbtWriter writer) throws IOException {
+            writer.writeTag(write(value));
+        }
+
+        Object read(NbtReader reader) throws IOException {
+            return read(reader.nextTag());
+        }
+
+        static Codec of(Type type, Field field) {
+            if (type instanceof ParameterizedType && ((ParameterizedType) type).getRawType() == List.class) {
+                Type element = ((ParameterizedType) type).getActualTypeArguments()[0];
+                return new ListCodec(of(element, field));
+            }
+            if (!(type instanceof Class)) {
+                throw new IllegalArgumentException("Unsupported type " + type + " of " + field);
+            }
+            Class<?> c = (Class<?>) type;
+            if (c == String.class) return new SimpleCodec(TagType.STRING);
+            if (c == Boolean.class) return new BooleanCodec();
+            if (c == Byte.class) return new SimpleCodec(TagType.BYTE);
+            if (c == Short.class) return new SimpleCodec(TagType.SHORT);
+            if (c == Integer.class) return new SimpleCodec(TagType.INT);
+            if (c == Long.class) return new SimpleCodec(TagType.LONG);
+            if (c == Float.class) return new SimpleCodec(TagType.FLOAT);
+            if (c == Double.class) return new SimpleCodec(TagType.DOUBLE);
+            if (c == byte[].class) return new SimpleCodec(TagType.BYTE_ARRAY);
+            if (c == int[].class) return new SimpleCodec(TagType.INT_ARRAY);
+            if (c == long[].class) return new SimpleCodec(TagType.LONG_ARRAY);
+            if (Tag.class.isAssignableFrom(c)) return new TagCodec(c);
+            if (c.isEnum()) return new EnumCodec(c);
+            if (c.isPrimitive() || c.isArray() || c.isInterface()) {
+                throw new IllegalArgumentException("Unsupported type " + type + " of " + field);
+            }
+            return new MapperCodec(c);
+        }
+    }
+
+    static final class SimpleCodec extends Codec {
+
+        SimpleCodec(TagType<?, ?> type) {
+            super(type);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Tag write(Object value) {
+            return ((TagType) type).write(value);
+        }
+
+        @Override
+        Object read(Tag tag) {
+            return tag.getType() == type ? tag.getValue() : null;
+        }
+
+        @Override
+        void write(Object value, NbtWriter writer) throws IOException {
+            switch (type.getId()) {
+                case 1: writer.writeByte((Byte) value); break;
+                case 2: writer.writeShort((Short) value); break;
+                case 3: writer.writeInt((Integer) value); break;
+                case 4: writer.writeLong((Long) value); break;
+                case 5: writer.writeFloat((Float) value); break;
+                case 6: writer.writeDouble((Double) value); break;
+                case 7: writer.writeByteArray((byte[]) value); break;
+                case 8: writer.writeString((String) value); break;
+                case 11: writer.writeIntArray((int[]) value); break;
+                case 12: writer.writeLongArray((long[]) value); break;
+                default: super.write(value, writer); break;
+            }
+        }
+
+        @Override
+        Object read(NbtReader reader) throws IOException {
+            switch (type.getId()) {
+                case 1: return reader.nextByte();
+                case 2: return reader.nextShort();
+                case 3: return reader.nextInt();
+                case 4: return reader.nextLong();
+                case 5: return reader.nextFloat();
+                case 6: return reader.nextDouble();
+                case 7: return reader.nextByteArray();
+                case 8: return reader.nextString();
+                case 11: return reader.nextIntArray();
+                case 12: return reader.nextLongArray();
+                default: return super.read(reader);
+            }
+        }
+    }
+
+    static final class BooleanCodec extends Codec {
+
+        BooleanCodec() {
+            super(TagType.BYTE);
+        }
+
+        @Override
+        Tag write(Object value) {
+            return Nbt.tag((Boolean) value);
+        }
+
+        @Override
+        Object read(Tag tag) {
+            return tag.getType() == TagType.BYTE ? tag.asByte().boolValue() : null;
+        }
+
+        @Override
+        void write(Object value, NbtWriter writer) throws IOException {
+            writer.writeByte((byte) ((Boolean) value ? 1 : 0));
+        }
+
+        @Override
+        Object read(NbtReader reader) throws IOException {
+            return reader.nextByte() != 0;
+        }
+    }
+
+    static final class TagCodec extends Codec {
+
+        private final Class<?> tagClass;
+
+        TagCodec(Class<?> tagClass) {
+            super(tagClass == CompoundTag.class ? TagType.COMPOUND : tagClass == ListTag.class ? TagType.LIST : null);
+            this.tagClass = tagClass;
+        }
+
+        @Override
+        Tag write(Object value) {
+            return (Tag) value;
+        }
+
+        @Override
+        Object read(Tag tag) {
+            return tagClass.isInstance(tag) ? tag : null;
+        }
+    }
+
+    static final class EnumCodec extends Codec {
+
+        private final Object[] constants;
+
+        EnumCodec(Class<?> type) {
+            super(TagType.STRING);
+            this.constants = type.getEnumConstants();
+        }
+
+        @Override
+        Tag write(Object value) {
+            return Nbt.tag(((Enum<?>) value).name());
+        }
+
+        @Override
+        Object read(Tag tag) {
+            return constant(tag.asString().getValue());
+        }
+
+        @Override
+        void write(Object value, NbtWriter writer) throws IOException {
+            writer.writeString(((Enum<?>) value).name());
+        }
+
+        @Override
+        Object read(NbtReader reader) throws IOException {
+            return constant(reader.nextString());
+        }
+
+        private Object constant(String name) {
+            for (Object constant : constants) {
+                if (((Enum<?>) constant).name().equals(name)) {
+                    return constant;
+                }
+            }
+            return null;
+        }
+    }
+
+    static final class MapperCodec extends Codec {
+
+        private final Class<?> mapped;
+        private NbtMapper<Object> mapper;
+
+        MapperCodec(Class<?> mapped) {
+            super(TagType.COMPOUND);
+            this.mapped = mapped;
+        }
+
+        // Resolved lazily so that self-referencing types do not recurse while building the codec
+        @SuppressWarnings("unchecked")
+        NbtMapper<Object> mapper() {
+            NbtMapper<Object> m = mapper;
+            if (m == null) {
+                m = (NbtMapper<Object>) forClass(mapped);
+                mapper = m;
+            }
+            return m;
+        }
+
+        @Override
+        Tag write(Object value) {
+            CompoundTag tag = Nbt.compound();
+            mapper().apply(value, tag);
+            return tag;
+        }
+
+        @Override
+        Object read(Tag tag) {
+            CompoundTag compound = tag.asCompound();
+            return compound.isPresent() ? mapper().apply(compound) : null;
+        }
+
+        @Override
+        void write(Object value, NbtWriter writer) throws IOException {
+            mapper().write(value, writer);
+        }
+
+        @Override
+        Object read(NbtReader reader) throws IOException {
+            return mapper().read(reader);
+        }
+    }
+
+    static final class ListCodec extends Codec {
+
+        private final Codec element;
+        private final TagType elementType;
+
+        ListCodec(Codec element) {
+            super(TagType.LIST);
+            this.element = element;
+            this.elementType = element.type != null ? element.type : TagType.COMPOUND;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Tag write(Object value) {
+            ListTag list = Nbt.list(elementType);
+            for (Object o : (List<?>) value) {
+                if (o != null) {
+                    list.add(element.write(o));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Object read(Tag tag) {
+            if (!(tag instanceof ListTag)) {
+                return null;
+            }
+            List<Tag> tags = ((ListTag) tag).backing();
+            List<Object> list = new ArrayList<>(tags.size());
+            for (Tag t : tags) {
+                list.add(element.read(t));
+            }
+            return list;
+        }
+
+        @Override
+        void write(Object value, NbtWriter writer) throws IOException {
+            List<?> values = (List<?>) value;
+            int size = 0;
+            for (Object o : values) {
+                if (o != null) {
+                    size++;
+                }
+            }
+            writer.beginList(elementType, size);
+            for (Object o : values) {
+                if (o != null) {
+                    element.write(o, writer);
+                }
+            }
+            writer.endList();
+        }
+
+        @Override
+        Object read(NbtReader reader) throws IOException {
+            TagType<?, ?> child = reader.beginList();
+            boolean accepted = element.type == null || element.type == child;
+            List<Object> list = new ArrayList<>(Math.min(reader.remaining(), 256));
+            while (reader.hasNext()) {
+                if (accepted) {
+                    list.add(element.read(reader));
+                } else {
+                    reader.skipValue();
+                    list.add(null);
+                }
+            }
+            reader.endList();
+            return list;
+        }
+    }
+}
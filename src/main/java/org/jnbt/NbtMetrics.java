@@ -0,0 +1,121 @@
+package org.jnbt;
+
+import java.util.Arrays;
+
+/**
+ * Receives a {@link Report} for every document read or written, for example to log oversized
+ * chunks or feed a metrics registry.
+ *
+ * <p>At most one listener is installed at a time. The same figures are also recorded as JDK
+ * Flight Recorder events ({@code org.jnbt.Read} and {@code org.jnbt.Write}) when a recording
+ * enables them and the JDK has Flight Recorder. When neither is active, reads skip all bookkeeping
+ * apart from a null check per tag.</p>
+ *
+ * <p>Reports are delivered on the reading or writing thread, after the document is complete.
+ * Documents read through {@link NbtReader} are reported once the root value has been consumed.</p>
+ */
+public interface NbtMetrics {
+
+    void onRead(Report report);
+
+    default void onWrite(Report report) {
+
+    }
+
+    /**
+     * Installs a listener, replacing the current one.
+     */
+    static void install(NbtMetrics metrics) {
+        Metrics.listener = metrics;
+    }
+
+    static void uninstall() {
+        Metrics.listener = null;
+    }
+
+    /**
+     * Figures for one document. Writes report no decompression time, and take their tag counts,
+     * depth and array bytes from the tree once it has been written.
+     */
+    final class Report {
+
+        private final String label;
+        private final long bytes;
+        private final int[] counts;
+        private final int maxDepth;
+        private final long arrayBytes;
+        private final long decompressNanos;
+        private final long nanos;
+
+        Report(String label, long bytes, int[] counts, int maxDepth, long arrayBytes, long decompressNanos, long nanos) {
+            this.label = label;
+            this.bytes = bytes;
+            this.counts = counts;
+            this.maxDepth = maxDepth;
+            this.arrayBytes = arrayBytes;
+            this.decompressNanos = decompressNanos;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Returns what was read, as set by {@link ReadOptions#withLabel(String)} or the region file
+         * and chunk for {@link RegionFile} reads, or the root name for writes.
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Returns the uncompressed size of the document.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        public int getTagCount(TagType<?, ?> type) {
+            int id = type.getId();
+            return id >= 0 && id < counts.length ? counts[id] : 0;
+        }
+
+        public long getTagCount() {
+            long total = 0;
+            for (int count : counts) {
+                total += count;
+            }
+            return total;
+        }
+
+        public int getMaxDepth() {
+            return maxDepth;
+        }
+
+        /**
+         * Returns the payload bytes of byte, int and long arrays.
+         */
+        public long getArrayBytes() {
+            return arrayBytes;
+        }
+
+        /**
+         * Returns the time spent reading and decompressing before decoding started, for sources
+         * that decompress up front such as region chunks.
+         */
+        public long getDecompressNanos() {
+            return decompressNanos;
+        }
+
+        /**
+         * Returns the time spent decoding or encoding.
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            return "Report{label=" + label + ", bytes=" + bytes + ", tags=" + Arrays.toString(counts)
+                    + ", maxDepth=" + maxDepth + ", arrayBytes=" + arrayBytes
+                    + ", decompressNanos=" + decompressNanos + ", nanos=" + nanos + "}";
+        }
+    }
+}
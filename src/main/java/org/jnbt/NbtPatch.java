@@ -0,0 +1,346 @@
+package org.jnbt;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An ordered list of edits that turns one {@link CompoundTag} into another, as produced by
+ * {@link NbtDiff#diff(CompoundTag, CompoundTag)}.
+ *
+ * <p>Paths are made of compound keys and list indices. Array and list values can be edited with
+ * range splices so that appending to a large list does not resend the whole list.</p>
+ */
+public final class NbtPatch {
+
+    private static final int FORMAT_VERSION = 1;
+
+    static final byte PUT = 1;
+    static final byte REMOVE = 2;
+    static final byte SPLICE = 3;
+
+    private static final byte KEY = 0;
+    private static final byte INDEX = 1;
+
+    private final List<Op> ops;
+
+    NbtPatch(List<Op> ops) {
+        this.ops = ops;
+    }
+
+    public boolean isEmpty() {
+        return ops.isEmpty();
+    }
+
+    public int size() {
+        return ops.size();
+    }
+
+    /**
+     * Applies this patch to {@code base} and returns the patched tree. {@code base} is never
+     * modified; nodes along edited paths are copied and every other subtree is shared with it.
+     */
+    public CompoundTag apply(CompoundTag base) {
+        if (ops.isEmpty()) {
+            return base;
+        }
+        Map<Tag, Boolean> owned = new IdentityHashMap<>();
+        CompoundTag root = own(base, owned).asCompound();
+        for (Op op : ops) {
+            op.apply(root, owned);
+        }
+        return root;
+    }
+
+    public void encode(DataOutput out) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        out.writeInt(ops.size());
+        for (Op op : ops) {
+            out.writeByte(op.code);
+            out.writeShort(op.path.length);
+            for (Object segment : op.path) {
+                if (segment instanceof String) {
+                    out.writeByte(KEY);
+                    StringTag.writeString((String) segment, out);
+                } else {
+                    out.writeByte(INDEX);
+                    out.writeInt((Integer) segment);
+                }
+            }
+            op.writePayload(out);
+        }
+    }
+
+    public static NbtPatch decode(DataInput in) throws IOException {
+        int version = in.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported patch version " + version);
+        }
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid patch operation count " + count);
+        }
+        // Not presized, the count is untrusted until that many operations have been read
+        List<Op> ops = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte code = in.readByte();
+            Object[] path = new Object[in.readUnsignedShort()];
+            for (int j = 0; j < path.length; j++) {
+                byte kind = in.readByte();
+                if (kind == KEY) {
+                    path[j] = StringTag.readString(in);
+                } else if (kind == INDEX) {
+                    path[j] = in.readInt();
+                } else {
+                    throw new IOException("Unknown path segment " + kind);
+                }
+            }
+            switch (code) {
+                case PUT:
+                    ops.add(new Put(path, readTag(in)));
+                    break;
+                case REMOVE:
+                    ops.add(new Remove(path));
+                    break;
+                case SPLICE:
+                    int start = in.readInt();
+                    int delete = in.readInt();
+                    if (start < 0 || delete < 0) {
+                        throw new IOException("Invalid splice " + start + "+" + delete);
+                    }
+                    ops.add(new Splice(path, start, delete, readTag(in)));
+                    break;
+                default:
+                    throw new IOException("Unknown patch operation " + code);
+            }
+        }
+        return new NbtPatch(Collections.unmodifiableList(ops));
+    }
+
+    @Override
+    public String toString() {
+        return ops.toString();
+    }
+
+    private static Tag readTag(DataInput in) throws IOException {
+        TagType type = TagType.read(in);
+        return type.getReader().read(in, new ReadContext(ReadOptions.frozen()));
+    }
+
+    private static void writeTag(Tag tag, DataOutput out) throws IOException {
+        out.writeByte(tag.getType().getId());
+        tag.writeValue(out);
+    }
+
+    // Returns a mutable copy of the container, copying it at most once per apply() call
+    private static Tag own(Tag tag, Map<Tag, Boolean> owned) {
+        if (owned.containsKey(tag)) {
+            return tag;
+        }
+        Tag copy;
+        if (tag instanceof CompoundTag) {
+            copy = ((CompoundTag) tag).copy();
+        } else if (tag instanceof ListTag) {
+            copy = ((ListTag<?>) tag).copy();
+        } else {
+            throw new IllegalStateException("Cannot descend into " + tag.getType().getName());
+        }
+        owned.put(copy, Boolean.TRUE);
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Tag child(Tag parent, Object segment) {
+        if (segment instanceof String) {
+            return parent.asCompound().get((String) segment);
+        }
+        List<Tag> list = ((ListTag) parent).getBacking();
+        return list.get((Integer) segment);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void replace(Tag parent, Object segment, Tag value) {
+        if (segment instanceof String) {
+            ((CompoundTag) parent).getBacking().put((String) segment, value);
+        } else {
+            ((ListTag) parent).getBacking().set((Integer) segment, value);
+        }
+    }
+
+    private static String pathString(Object[] path) {
+        StringBuilder sb = new StringBuilder();
+        for (Object segment : path) {
+            if (segment instanceof String) {
+                if (sb.length() > 0) {
+                    sb.append('.');
+                }
+                sb.append(segment);
+            } else {
+                sb.append('[').append(segment).append(']');
+            }
+        }
+        return sb.toString();
+    }
+
+    abstract static class Op {
+
+        final byte code;
+        final Object[] path;
+
+        Op(byte code, Object[] path) {
+            this.code = code;
+            this.path = path;
+        }
+
+        // Copies every container above the edited node and returns the (owned) parent
+        Tag parent(CompoundTag root, Map<Tag, Boolean> owned) {
+            Tag node = root;
+            for (int i = 0; i < path.length - 1; i++) {
+                Tag next = own(child(node, path[i]), owned);
+                replace(node, path[i], next);
+                node = next;
+            }
+            return node;
+        }
+
+        abstract void apply(CompoundTag root, Map<Tag, Boolean> owned);
+
+        abstract void writePayload(DataOutput out) throws IOException;
+    }
+
+    static final class Put extends Op {
+
+        private final Tag value;
+
+        Put(Object[] path, Tag value) {
+            super(PUT, path);
+            this.value = value;
+        }
+
+        @Override
+        void apply(CompoundTag root, Map<Tag, Boolean> owned) {
+            replace(parent(root, owned), path[path.length - 1], value);
+        }
+
+        @Override
+        void writePayload(DataOutput out) throws IOException {
+            writeTag(value, out);
+        }
+
+        @Override
+        public String toString() {
+            return "put " + pathString(path) + " = " + value;
+        }
+    }
+
+    static final class Remove extends Op {
+
+        Remove(Object[] path) {
+            super(REMOVE, path);
+        }
+
+        @Override
+        void apply(CompoundTag root, Map<Tag, Boolean> owned) {
+            Tag parent = parent(root, owned);
+            Object key = path[path.length - 1];
+            if (key instanceof String) {
+                ((CompoundTag) parent).getBacking().remove(key);
+            } else {
+                ((ListTag<?>) parent).getBacking().remove((int) (Integer) key);
+            }
+        }
+
+        @Override
+        void writePayload(DataOutput out) {
+
+        }
+
+        @Override
+        public String toString() {
+            return "remove " + pathString(path);
+        }
+    }
+
+    static final class Splice extends Op {
+
+        private final int start;
+        private final int delete;
+        private final Tag insert;
+
+        Splice(Object[] path, int start, int delete, Tag insert) {
+            super(SPLICE, path);
+            this.start = start;
+            this.delete = delete;
+            this.insert = insert;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void apply(CompoundTag root, Map<Tag, Boolean> owned) {
+            Tag parent = parent(root, owned);
+            Object key = path[path.length - 1];
+            Tag target = child(parent, key);
+            Tag result;
+            if (target instanceof ListTag) {
+                ListTag list = (ListTag) own(target, owned);
+                List<Tag> backing = list.getBacking();
+                backing.subList(start, start + delete).clear();
+                backing.addAll(start, ((ListTag) insert).getBacking());
+                result = list;
+            } else if (target instanceof ByteArrayTag) {
+                result = new ByteArrayTag(splice(((ByteArrayTag) target).getValue(), ((ByteArrayTag) insert).getValue()));
+            } else if (target instanceof IntArrayTag) {
+                result = new IntArrayTag(splice(((IntArrayTag) target).getValue(), ((IntArrayTag) insert).getValue()));
+            } else if (target instanceof LongArrayTag) {
+                result = new LongArrayTag(splice(((LongArrayTag) target).getValue(), ((LongArrayTag) insert).getValue()));
+            } else {
+                throw new IllegalStateException("Cannot splice " + target.getType().getName() + " at " + pathString(path));
+            }
+            replace(parent, key, result);
+        }
+
+        private byte[] splice(byte[] source, byte[] insert) {
+            int tail = source.length - start - delete;
+            byte[] result = new byte[start + insert.length + tail];
+            System.arraycopy(source, 0, result, 0, start);
+            System.arraycopy(insert, 0, result, start, insert.length);
+            System.arraycopy(source, start + delete, result, start + insert.length, tail);
+            return result;
+        }
+
+        private int[] splice(int[] source, int[] insert) {
+            int tail = source.length - start - delete;
+            int[] result = new int[start + insert.length + tail];
+            System.arraycopy(source, 0, result, 0, start);
+            System.arraycopy(insert, 0, result, start, insert.length);
+            System.arraycopy(source, start + delete, result, start + insert.length, tail);
+            return result;
+        }
+
+        private long[] splice(long[] source, long[] insert) {
+            int tail = source.length - start - delete;
+            long[] result = new long[start + insert.length + tail];
+            System.arraycopy(source, 0, result, 0, start);
+            System.arraycopy(insert, 0, result, start, insert.length);
+            System.arraycopy(source, start + delete, result, start + insert.length, tail);
+            return result;
+        }
+
+        @Override
+        void writePayload(DataOutput out) throws IOException {
+            out.writeInt(start);
+            out.writeInt(delete);
+            writeTag(insert, out);
+        }
+
+        @Override
+        public String toString() {
+            return "splice " + pathString(path) + "[" + start + ".." + (start + delete) + ") = " + insert;
+        }
+    }
+}
@@ -0,0 +1,558 @@
+package org.jnbt;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A compiled NBT path, in the syntax of Minecraft's {@code /data} command with recursive descent
+ * added.
+ *
+ * <ul>
+ *     <li>{@code Pos}, {@code "key with spaces"}, {@code a.b.c}: compound entries.</li>
+ *     <li>{@code *}: every entry of a compound.</li>
+ *     <li>{@code Items[0]}, {@code Items[-1]}: list or array elements, negative indices count from
+ *     the end.</li>
+ *     <li>{@code Items[]}: every element of a list or array.</li>
+ *     <li>{@code Items[{id:"minecraft:diamond"}]}: list elements matching an SNBT compound.</li>
+ *     <li>{@code Item{Count:1b}}, {@code Items[0]{Count:1b}}, {@code {OnGround:1b}.Pos}: the
+ *     value itself must match.</li>
+ *     <li>{@code ..id}, {@code ..*}: entries at any depth below the current value.</li>
+ * </ul>
+ *
+ * <p>A filter matches a compound containing each of its entries; nested compounds match the same
+ * way, lists match if every filter element matches some element, and other values must be equal.
+ * </p>
+ *
+ * <p>Paths are immutable and may be shared between threads. {@link #select(NbtReader)} runs over
+ * the streaming decoder and skips every subtree the path cannot match, materializing only the
+ * selected values and the elements a filter has to inspect.</p>
+ */
+public final class NbtPath {
+
+    private final String source;
+    private final Step[] steps;
+
+    private NbtPath(String source, Step[] steps) {
+        this.source = source;
+        this.steps = steps;
+    }
+
+    public static NbtPath compile(String path) {
+        return new Compiler(path).compile();
+    }
+
+    public List<Tag> select(Tag root) {
+        List<Tag> result = new ArrayList<>();
+        select(root, result::add);
+        return result;
+    }
+
+    public void select(Tag root, Consumer<? super Tag> action) {
+        select(root, steps, 0, action);
+    }
+
+    /**
+     * Returns the first selected value, or {@link NullTag#NULL}.
+     */
+    public Tag first(Tag root) {
+        List<Tag> result = select(root);
+        return result.isEmpty() ? NullTag.NULL : result.get(0);
+    }
+
+    /**
+     * Evaluates this path against the next value of {@code reader}, the document root for a new
+     * reader, and consumes that value.
+     */
+    public List<Tag> select(NbtReader reader) throws IOException {
+        List<Tag> result = new ArrayList<>();
+        select(reader, result::add);
+        return result;
+    }
+
+    public void select(NbtReader reader, Consumer<? super Tag> action) throws IOException {
+        stream(reader, steps, 0, action);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof NbtPath && source.equals(((NbtPath) obj).source);
+    }
+
+    @Override
+    public int hashCode() {
+        return source.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    private static void select(Tag tag, Step[] steps, int index, Consumer<? super Tag> action) {
+        if (index == steps.length) {
+            action.accept(tag);
+        } else {
+            steps[index].select(tag, steps, index + 1, action);
+        }
+    }
+
+    private static void stream(NbtReader reader, Step[] steps, int index, Consumer<? super Tag> action) throws IOException {
+        if (index == steps.length) {
+            action.accept(reader.nextTag());
+        } else {
+            steps[index].stream(reader, steps, index + 1, action);
+        }
+    }
+
+    static boolean matches(Tag pattern, Tag tag) {
+        if (pattern instanceof CompoundTag) {
+            if (!(tag instanceof CompoundTag)) {
+                return false;
+            }
+            CompoundTag compound = (CompoundTag) tag;
+            for (Map.Entry<String, Tag> entry : ((CompoundTag) pattern).backing().entrySet()) {
+                Tag value = compound.get(entry.getKey());
+                if (value.isAbsent() || !matches(entry.getValue(), value)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (pattern instanceof ListTag) {
+            if (!(tag instanceof ListTag)) {
+                return false;
+            }
+            List<? extends Tag<?>> expected = ((ListTag<?>) pattern).backing();
+            List<? extends Tag<?>> actual = ((ListTag<?>) tag).backing();
+            if (expected.isEmpty()) {
+                return actual.isEmpty();
+            }
+            for (Tag<?> p : expected) {
+                boolean found = false;
+                for (Tag<?> t : actual) {
+                    if (matches(p, t)) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return pattern.equals(tag);
+    }
+
+    // Number of elements of a list or array, or -1 for other tags
+    private static int length(Tag tag) {
+        if (tag instanceof ListTag) {
+            return ((ListTag<?>) tag).backing().size();
+        }
+        if (tag instanceof ByteArrayTag) {
+            return ((ByteArrayTag) tag).getValue().length;
+        }
+        if (tag instanceof IntArrayTag) {
+            return ((IntArrayTag) tag).getValue().length;
+        }
+        if (tag instanceof LongArrayTag) {
+            return ((LongArrayTag) tag).getValue().length;
+        }
+        return -1;
+    }
+
+    private static Tag element(Tag tag, int index) {
+        if (tag instanceof ListTag) {
+            return ((ListTag<?>) tag).backing().get(index);
+        }
+        if (tag instanceof ByteArrayTag) {
+            return new ByteTag(((ByteArrayTag) tag).getValue()[index]);
+        }
+        if (tag instanceof IntArrayTag) {
+            return new IntTag(((IntArrayTag) tag).getValue()[index]);
+        }
+        return new LongTag(((LongArrayTag) tag).getValue()[index]);
+    }
+
+    private static boolean isArray(TagType<?, ?> type) {
+        return type == TagType.BYTE_ARRAY || type == TagType.INT_ARRAY || type == TagType.LONG_ARRAY;
+    }
+
+    private abstract static class Step {
+
+        abstract void select(Tag tag, Step[] steps, int next, Consumer<? super Tag> action);
+
+        /**
+         * Evaluates this step over the reader's next value. The default reads the value as a tree.
+         */
+        void stream(NbtReader reader, Step[] steps, int next, Consumer<? super Tag> action) throws IOException {
+            select(reader.nextTag(), steps, next, action);
+        }
+    }
+
+    private static final class Key extends Step {
+
+        private final String name;
+
+        private Key(String name) {
+            this.name = name;
+        }
+
+        @Override
+        void select(Tag tag, Step[] steps, int next, Consumer<? super Tag> action) {
+            if (tag instanceof CompoundTag) {
+                Tag value = ((CompoundTag) tag).get(name);
+                if (value.isPresent()) {
+                    NbtPath.select(value, steps, next, action);
+                }
+            }
+        }
+
+        @Override
+        void stream(NbtReader reader, Step[] steps, int next, Consumer<? super Tag> action) throws IOException {
+            if (reader.peek() != TagType.COMPOUND) {
+                reader.skipValue();
+                return;
+            }
+            reader.beginCompound();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals(name)) {
+                    NbtPath.stream(reader, steps, next, action);
+                    break;
+                }
+                reader.skipValue();
+            }
+            reader.endCompound();
+        }
+    }
+
+    private static final class AnyKey extends Step {
+
+        @Override
+        void select(Tag tag, Step[] steps, int next, Consumer<? super Tag> action) {
+            if (tag instanceof CompoundTag) {
+                for (Tag value : ((CompoundTag) tag).backing().values()) {
+                    NbtPath.select(value, steps, next, action);
+                }
+            }
+        }
+
+        @Override
+        void stream(NbtReader reader, Step[] steps, int next, Consumer<? super Tag> action) throws IOException {
+            if (reader.peek() != TagType.COMPOUND) {
+                reader.skipValue();
+                return;
+            }
+            reader.beginCompound();
+            while (reader.hasNext()) {
+                reader.nextName();
+                NbtPath.stream(reader, steps, next, action);
+            }
+            reader.endCompound();
+        }
+    }
+
+    private static final class Index extends Step {
+
+        private final int index;
+
+        private Index(int index) {
+            this.index = index;
+        }
+
+        @Override
+        void select(Tag tag, Step[] steps, int next, Consumer<? super Tag> action) {
+            int length = length(tag);
+            int i = index < 0 ? length + index : index;
+            if (i >= 0 && i < length) {
+                NbtPath.select(element(tag, i), steps, next, action);
+            }
+        }
+
+        @Override
+        void stream(NbtReader reader, Step[] steps, int next, Consumer<? super Tag> action) throws IOException {
+            TagType<?, ?> type = reader.peek();
+            if (isArray(type)) {
+                super.stream(reader, steps, next, action);
+                return;
+            }
+            if (type != TagType.LIST) {
+                reader.skipValue();
+                return;
+            }
+            reader.beginList();
+            int length = reader.remaining();
+            int i = index < 0 ? length + index : index;
+            if (i >= 0 && i < length) {
+                while (i-- > 0) {
+                    reader.skipValue();
+                }
+                NbtPath.stream(reader, steps, next, action);
+            }
+            reader.endList();
+        }
+    }
+
+    private static final class All extends Step {
+
+        @Override
+        void select(Tag tag, Step[] steps, int next, Consumer<? super Tag> action) {
+            int length = length(tag);
+            for (int i = 0; i < length; i++) {
+                NbtPath.select(element(tag, i), steps, next, action);
+            }
+        }
+
+        @Override
+        void stream(NbtReader reader, Step[] steps, int next, Consumer<? super Tag> action) throws IOException {
+            TagType<?, ?> type = reader.peek();
+            if (isArray(type)) {
+                super.stream(reader, steps, next, action);
+                return;
+            }
+            if (type != TagType.LIST) {
+                reader.skipValue();
+                return;
+            }
+            reader.beginList();
+            while (reader.hasNext()) {
+                NbtPath.stream(reader, steps, next, action);
+            }
+            reader.endList();
+        }
+    }
+
+    private static final class Filter extends Step {
+
+        private final CompoundTag pattern;
+
+        private Filter(CompoundTag pattern) {
+            this.pattern = pattern;
+        }
+
+        @Override
+        void select(Tag tag, Step[] steps, int next, Consumer<? super Tag> action) {
+            if (tag instanceof ListTag) {
+                for (Tag<?> element : ((ListTag<?>) tag).backing()) {
+                    if (matches(pattern, element)) {
+                        NbtPath.select(element, steps, next, action);
+                    }
+                }
+            }
+        }
+
+        @Override
+        void stream(NbtReader reader, Step[] steps, int next, Consumer<? super Tag> action) throws IOException {
+            if (reader.peek() != TagType.LIST) {
+                reader.skipValue();
+                return;
+            }
+            if (reader.beginList() != TagType.COMPOUND) {
+                reader.endList();
+                return;
+            }
+            while (reader.hasNext()) {
+                Tag element = reader.nextTag();
+                if (matches(pattern, element)) {
+                    NbtPath.select(element, steps, next, action);
+                }
+            }
+            reader.endList();
+        }
+    }
+
+    private static final class Match extends Step {
+
+        private final CompoundTag pattern;
+
+        private Match(CompoundTag pattern) {
+            this.pattern = pattern;
+        }
+
+        @Override
+        void select(Tag tag, Step[] steps, int next, Consumer<? super Tag> action) {
+            if (matches(pattern, tag)) {
+                NbtPath.select(tag, steps, next, action);
+            }
+        }
+
+        @Override
+        void stream(NbtReader reader, Step[] steps, int next, Consumer<? super Tag> action) throws IOException {
+            if (reader.peek() == TagType.COMPOUND) {
+                super.stream(reader, steps, next, action);
+            } else {
+                reader.skipValue();
+            }
+        }
+    }
+
+    private static final class Descend extends Step {
+
+        // Null matches every key
+        private final String name;
+
+        private Descend(String name) {
+            this.name = name;
+        }
+
+        @Override
+        void select(Tag tag, Step[] steps, int next, Consumer<? super Tag> action) {
+            if (tag instanceof CompoundTag) {
+                for (Map.Entry<String, Tag> entry : ((CompoundTag) tag).backing().entrySet()) {
+                    if (name == null || name.equals(entry.getKey())) {
+                        NbtPath.select(entry.getValue(), steps, next, action);
+                    }
+                    select(entry.getValue(), steps, next, action);
+                }
+            } else if (tag instanceof ListTag) {
+                for (Tag<?> element : ((ListTag<?>) tag).backing()) {
+                    select(element, steps, next, action);
+                }
+            }
+        }
+
+        @Override
+        void stream(NbtReader reader, Step[] steps, int next, Consumer<? super Tag> action) throws IOException {
+            TagType<?, ?> type = reader.peek();
+            if (type == TagType.COMPOUND) {
+                reader.beginCompound();
+                while (reader.hasNext()) {
+                    if (name == null || name.equals(reader.nextName())) {
+                        Tag value = reader.nextTag();
+                        NbtPath.select(value, steps, next, action);
+                        select(value, steps, next, action);
+                    } else {
+                        stream(reader, steps, next, action);
+                    }
+                }
+                reader.endCompound();
+            } else if (type == TagType.LIST) {
+                TagType<?, ?> element = reader.beginList();
+                if (element == TagType.COMPOUND || element == TagType.LIST) {
+                    while (reader.hasNext()) {
+                        stream(reader, steps, next, action);
+                    }
+                }
+                reader.endList();
+            } else {
+                reader.skipValue();
+            }
+        }
+    }
+
+    private static final class Compiler {
+
+        private final String s;
+        private final List<Step> steps = new ArrayList<>();
+        private int pos;
+
+        private Compiler(String s) {
+            this.s = s;
+        }
+
+        private NbtPath compile() {
+            if (peek('{')) {
+                steps.add(new Match(compound()));
+            }
+            while (pos < s.length()) {
+                if (s.startsWith("..", pos)) {
+                    pos += 2;
+                    steps.add(new Descend(name()));
+                    filter();
+                } else if (peek('[')) {
+                    pos++;
+                    steps.add(bracket());
+                    expect(']');
+                    filter();
+                } else if (peek('.') || steps.isEmpty()) {
+                    if (!steps.isEmpty()) {
+                        pos++;
+                    }
+                    String name = name();
+                    steps.add(name == null ? new AnyKey() : new Key(name));
+                    filter();
+                } else {
+                    throw error("Expected '.' or '['");
+                }
+            }
+            return new NbtPath(s, steps.toArray(new Step[0]));
+        }
+
+        // Returns null for the wildcard
+        private String name() {
+            if (peek('"') || peek('\'')) {
+                Snbt.Parser parser = new Snbt.Parser(s, pos, ReadOptions.frozen());
+                String name = ((StringTag) parser.value()).getValue();
+                pos = parser.position();
+                return name;
+            }
+            int start = pos;
+            while (pos < s.length() && isUnquoted(s.charAt(pos))) {
+                pos++;
+            }
+            if (pos == start) {
+                throw error("Expected key");
+            }
+            String name = s.substring(start, pos);
+            return name.equals("*") ? null : name;
+        }
+
+        private Step bracket() {
+            if (peek(']')) {
+                return new All();
+            }
+            if (peek('{')) {
+                return new Filter(compound());
+            }
+            int start = pos;
+            if (peek('-')) {
+                pos++;
+            }
+            while (pos < s.length() && Character.isDigit(s.charAt(pos))) {
+                pos++;
+            }
+            try {
+                return new Index(Integer.parseInt(s.substring(start, pos)));
+            } catch (NumberFormatException e) {
+                pos = start;
+                throw error("Expected index, filter or ']'");
+            }
+        }
+
+        private void filter() {
+            if (peek('{')) {
+                steps.add(new Match(compound()));
+            }
+        }
+
+        private CompoundTag compound() {
+            Snbt.Parser parser = new Snbt.Parser(s, pos, ReadOptions.frozen());
+            CompoundTag pattern = parser.compound();
+            pos = parser.position();
+            return pattern;
+        }
+
+        private static boolean isUnquoted(char c) {
+            return c != '.' && c != '[' && c != ']' && c != '{' && c != '}' && c != '"' && c != '\''
+                    && !Character.isWhitespace(c);
+        }
+
+        private boolean peek(char c) {
+            return pos < s.length() && s.charAt(pos) == c;
+        }
+
+        private void expect(char c) {
+            if (!peek(c)) {
+                throw error("Expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + pos + " in path: " + s);
+        }
+    }
+}
@@ -0,0 +1,429 @@
+package org.jnbt;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Pull reader over an NBT byte stream, in the spirit of Gson's {@code JsonReader}.
+ *
+ * <p>The reader starts at the document level, which holds a single named root value. Inside a
+ * compound, {@link #peek()} returns the type of the next entry (or {@link TagType#END} once the
+ * compound is exhausted) and {@link #nextName()} returns its key; calling a value method without
+ * {@code nextName()} skips the key. Inside a list, {@code peek()} returns the element type until
+ * every element has been read.</p>
+ *
+ * <p>Nothing is materialized unless {@link #nextTag()} is called, so callers can bind values
+ * straight to their own objects and {@link #skipValue()} anything they do not need.</p>
+ *
+ * <p>The {@link ReadLimits} of the reader's options apply to the whole document, including
+ * skipped values.</p>
+ */
+public final class NbtReader implements Closeable {
+
+    private static final int DOCUMENT = 0;
+    private static final int COMPOUND = 1;
+    private static final int LIST = 2;
+
+    private final DataInput in;
+    private final ReadContext context;
+    private final boolean namedRoot;
+    // Ints and longs, including lengths, are varints and cannot be skipped by width
+    private final boolean varint;
+
+    private int[] scopes = new int[32];
+    private TagType[] listTypes = new TagType[32];
+    private int[] remaining = new int[32];
+    private int depth = 0;
+
+    // Type of the next compound entry once its id byte has been read, or null
+    private TagType<?, ?> pending;
+    private boolean named;
+    private boolean documentRead;
+
+    public NbtReader(InputStream in) {
+        this(in, ReadOptions.frozen());
+    }
+
+    public NbtReader(InputStream in, ReadOptions options) {
+        this(in instanceof DataInput ? (DataInput) in : new DataInputStream(in), options);
+    }
+
+    public NbtReader(DataInputStream in) {
+        this((DataInput) in, ReadOptions.frozen());
+    }
+
+    public NbtReader(DataInputStream in, ReadOptions options) {
+        this((DataInput) in, options);
+    }
+
+    public NbtReader(DataInput in) {
+        this(in, ReadOptions.frozen());
+    }
+
+    public NbtReader(DataInput in, ReadOptions options) {
+        this(in, options, true);
+    }
+
+    NbtReader(DataInput in, ReadOptions options, boolean namedRoot) {
+        this.in = in;
+        this.context = new ReadContext(options);
+        this.namedRoot = namedRoot;
+        this.varint = in instanceof VarIntInput;
+        this.scopes[0] = DOCUMENT;
+        context.begin();
+    }
+
+    /**
+     * Returns the number of open compounds and lists.
+     */
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * Returns the type of the next value, or {@link TagType#END} if the current compound, list or
+     * document has no more values.
+     */
+    public TagType<?, ?> peek() throws IOException {
+        switch (scopes[depth]) {
+            case LIST:
+                return remaining[depth] > 0 ? listTypes[depth] : TagType.END;
+            case DOCUMENT:
+                if (documentRead) {
+                    return TagType.END;
+                }
+                // fall through
+            default:
+                if (pending == null) {
+                    context.account(1);
+                    pending = TagType.read(in);
+                    named = false;
+                }
+                return pending;
+        }
+    }
+
+    public boolean hasNext() throws IOException {
+        return peek() != TagType.END;
+    }
+
+    /**
+     * Returns the key of the next compound entry (or the root name at the document level, which is
+     * empty for formats without one).
+     */
+    public String nextName() throws IOException {
+        if (scopes[depth] == LIST) {
+            throw new IllegalStateException("List elements have no name");
+        }
+        if (peek() == TagType.END) {
+            throw new IllegalStateException("No more entries");
+        }
+        if (named) {
+            throw new IllegalStateException("Name already read");
+        }
+        named = true;
+        if (depth == 0 && !namedRoot) {
+            return "";
+        }
+        context.account(2);
+        return StringTag.readString(in, context);
+    }
+
+    public byte nextByte() throws IOException {
+        consume(TagType.BYTE);
+        context.account(1);
+        return in.readByte();
+    }
+
+    public short nextShort() throws IOException {
+        consume(TagType.SHORT);
+        context.account(2);
+        return in.readShort();
+    }
+
+    public int nextInt() throws IOException {
+        consume(TagType.INT);
+        context.account(4);
+        return in.readInt();
+    }
+
+    public long nextLong() throws IOException {
+        consume(TagType.LONG);
+        context.account(8);
+        return in.readLong();
+    }
+
+    public float nextFloat() throws IOException {
+        consume(TagType.FLOAT);
+        context.account(4);
+        return in.readFloat();
+    }
+
+    public double nextDouble() throws IOException {
+        consume(TagType.DOUBLE);
+        context.account(8);
+        return in.readDouble();
+    }
+
+    public String nextString() throws IOException {
+        consume(TagType.STRING);
+        context.account(2);
+        return StringTag.readString(in, context);
+    }
+
+    public byte[] nextByteArray() throws IOException {
+        return ((ByteArrayTag) read(TagType.BYTE_ARRAY)).getValue();
+    }
+
+    public int[] nextIntArray() throws IOException {
+        return ((IntArrayTag) read(TagType.INT_ARRAY)).getValue();
+    }
+
+    public long[] nextLongArray() throws IOException {
+        return ((LongArrayTag) read(TagType.LONG_ARRAY)).getValue();
+    }
+
+    /**
+     * Materializes the next value, whatever its type, using this reader's {@link ReadOptions}.
+     */
+    public Tag nextTag() throws IOException {
+        TagType<?, ?> type = peek();
+        if (type == TagType.END) {
+            throw new IllegalStateException("No more values");
+        }
+        Tag tag = read(type);
+        if (depth == 0) {
+            context.end();
+        }
+        return tag;
+    }
+
+    public void beginCompound() throws IOException {
+        consume(TagType.COMPOUND);
+        push(COMPOUND);
+    }
+
+    /**
+     * Closes the current compound, skipping any entries that were not read.
+     */
+    public void endCompound() throws IOException {
+        if (scopes[depth] != COMPOUND) {
+            throw new IllegalStateException("Not in a compound");
+        }
+        while (hasNext()) {
+            skipValue();
+        }
+        pending = null;
+        depth--;
+        context.exit();
+        if (depth == 0) {
+            context.end();
+        }
+    }
+
+    /**
+     * Opens the next list and returns its element type.
+     */
+    public TagType<?, ?> beginList() throws IOException {
+        consume(TagType.LIST);
+        context.account(5);
+        TagType<?, ?> type = TagType.read(in);
+        int length = Math.max(in.readInt(), 0);
+        if (length > 0 && type == TagType.END) {
+            throw new IOException("List of " + length + " end tags");
+        }
+        push(LIST);
+        listTypes[depth] = type;
+        remaining[depth] = context.elements(length);
+        return type;
+    }
+
+    /**
+     * Returns the number of elements left in the current list.
+     */
+    public int remaining() {
+        if (scopes[depth] != LIST) {
+            throw new IllegalStateException("Not in a list");
+        }
+        return remaining[depth];
+    }
+
+    /**
+     * Closes the current list, skipping any elements that were not read.
+     */
+    public void endList() throws IOException {
+        if (scopes[depth] != LIST) {
+            throw new IllegalStateException("Not in a list");
+        }
+        while (hasNext()) {
+            skipValue();
+        }
+        depth--;
+        context.exit();
+        if (depth == 0) {
+            context.end();
+        }
+    }
+
+    /**
+     * Skips the next value (and its name, if not read yet) without materializing it.
+     */
+    public void skipValue() throws IOException {
+        TagType<?, ?> type = peek();
+        if (type == TagType.END) {
+            throw new IllegalStateException("No more values");
+        }
+        if (type == TagType.COMPOUND) {
+            beginCompound();
+            endCompound();
+        } else if (type == TagType.LIST) {
+            beginList();
+            TagType<?, ?> child = listTypes[depth];
+            int count = remaining[depth];
+            int width = skipWidth(child);
+            if (width > 0) {
+                context.count(child, count);
+                context.account((long) count * width);
+                skip((long) count * width);
+                remaining[depth] = 0;
+            }
+            endList();
+        } else {
+            consume(type);
+            skipPayload(type);
+            if (depth == 0) {
+                context.end();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in instanceof Closeable) {
+            ((Closeable) in).close();
+        }
+    }
+
+    DataInput input() {
+        return in;
+    }
+
+    private Tag read(TagType<?, ?> type) throws IOException {
+        consume(type);
+        return type.getReader().read(in, context);
+    }
+
+    // Checks the next value has the given type and steps past its type id and name
+    void consume(TagType<?, ?> type) throws IOException {
+        TagType<?, ?> next = peek();
+        if (next != type) {
+            throw new IllegalStateException("Expected " + type.getName() + " but was " + next.getName());
+        }
+        context.count(type);
+        switch (scopes[depth]) {
+            case LIST:
+                remaining[depth]--;
+                break;
+            case DOCUMENT:
+                documentRead = true;
+                // fall through
+            default:
+                if (!named && (depth > 0 || namedRoot)) {
+                    context.account(2);
+                    StringTag.skipString(in, context);
+                }
+                pending = null;
+                named = false;
+                break;
+        }
+    }
+
+    private void skipPayload(TagType<?, ?> type) throws IOException {
+        int width = skipWidth(type);
+        if (width > 0) {
+            context.account(width);
+            skip(width);
+        } else if (type == TagType.INT) {
+            context.account(4);
+            in.readInt();
+        } else if (type == TagType.LONG) {
+            context.account(8);
+            in.readLong();
+        } else if (type == TagType.STRING) {
+            context.account(2);
+            StringTag.skipString(in, context);
+        } else {
+            TagType<?, ?> element = arrayElement(type);
+            int length = arrayLength(type);
+            if (skipWidth(element) > 0) {
+                skip((long) length * width(element));
+            } else {
+                for (int i = 0; i < length; i++) {
+                    if (element == TagType.INT) {
+                        in.readInt();
+                    } else {
+                        in.readLong();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads and checks the length of a primitive array whose type has been consumed.
+     */
+    int arrayLength(TagType<?, ?> type) throws IOException {
+        context.account(4);
+        return context.array(in.readInt(), width(arrayElement(type)));
+    }
+
+    private static TagType<?, ?> arrayElement(TagType<?, ?> type) {
+        return type == TagType.BYTE_ARRAY ? TagType.BYTE : type == TagType.INT_ARRAY ? TagType.INT : TagType.LONG;
+    }
+
+    private void skip(long bytes) throws IOException {
+        while (bytes > 0) {
+            int skipped = in.skipBytes((int) Math.min(bytes, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                // skipBytes may give up early, readByte reports a proper EOF
+                in.readByte();
+                skipped = 1;
+            }
+            bytes -= skipped;
+        }
+    }
+
+    private void push(int scope) throws NbtLimitException {
+        if (++depth == scopes.length) {
+            scopes = Arrays.copyOf(scopes, depth * 2);
+            listTypes = Arrays.copyOf(listTypes, depth * 2);
+            remaining = Arrays.copyOf(remaining, depth * 2);
+        }
+        scopes[depth] = scope;
+        pending = null;
+        named = false;
+        context.enter();
+    }
+
+    // Bytes taken by a primitive value in this reader's format, or 0 if it must be read to skip it
+    private int skipWidth(TagType<?, ?> type) {
+        return varint && (type == TagType.INT || type == TagType.LONG) ? 0 : width(type);
+    }
+
+    // Fixed payload size of a primitive type, or 0 if the payload is variable
+    static int width(TagType<?, ?> type) {
+        switch (type.getId()) {
+            case 1: return 1;
+            case 2: return 2;
+            case 3: return 4;
+            case 4: return 8;
+            case 5: return 4;
+            case 6: return 8;
+            default: return 0;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.jnbt;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class or record for which the {@code JNBT-processor} annotation processor generates a
+ * {@code <Name>NbtCodec} implementing {@link NbtSerializer} and {@link NbtDeserializer}.
+ *
+ * <p>Every non-static, non-transient field, including those declared by superclasses, is mapped
+ * to a compound entry of the same name. Fields are read directly when accessible, otherwise
+ * through {@code getX()}/{@code isX()} or the record accessor. Instances are created through the
+ * canonical (all-fields) constructor for records and immutable classes, or a no-argument
+ * constructor followed by field assignment or {@code setX()} calls.</p>
+ *
+ * <p>As with {@link NbtMapper}, entries that are missing or of another type leave assigned fields
+ * at their initial value and pass zero or null to the constructor.</p>
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface NbtRecord {
+
+}
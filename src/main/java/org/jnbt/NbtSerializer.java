@@ -1,5 +1,7 @@
 package org.jnbt;
 
+import java.io.IOException;
+
 /**
  * @author dags <a href="dags@dags.me"></a>
  */
@@ -12,4 +14,12 @@ public interface NbtSerializer<T> {
         apply(value, root);
         return root;
     }
+
+    /**
+     * Writes the value as the next compound of the stream. At the document level or inside a
+     * compound, the caller sets the {@link NbtWriter#name(String)} first.
+     */
+    default void write(T value, NbtWriter writer) throws IOException {
+        writer.writeTag(apply(value));
+    }
 }
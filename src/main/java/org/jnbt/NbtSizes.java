@@ -0,0 +1,115 @@
+package org.jnbt;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Estimates of the heap retained by trees, for sizing caches and measuring what deduplication
+ * with a {@link TagInterner} saves.
+ *
+ * <p>Figures assume a 64-bit JVM with compressed references and compact strings, and count the
+ * tag objects, their backing maps and lists, strings and arrays. They are estimates: they do not
+ * follow the JVM's exact layout and ignore cached hashes and encodings.</p>
+ */
+public final class NbtSizes {
+
+    private static final int HEADER = 12;
+    private static final int REFERENCE = 4;
+    private static final int ARRAY_HEADER = 16;
+    // Container tag objects: header, value, flags, hash, tracker and cache references
+    private static final int CONTAINER = 40;
+    private static final int MAP = 56;
+    private static final int MAP_ENTRY = 40;
+    private static final int LIST = 24;
+    private static final int STRING = 24;
+
+    private NbtSizes() {
+
+    }
+
+    /**
+     * Returns the heap retained by a tree, counting subtrees and strings shared within it once.
+     */
+    public static long retained(Tag<?> tag) {
+        return retained(tag, Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    /**
+     * Returns the heap used by a tag itself: for containers the tag, its map or list and the
+     * keys, but not the children; for other tags everything they hold.
+     */
+    public static long shallow(Tag<?> tag) {
+        if (tag instanceof CompoundTag) {
+            Map<String, Tag> map = ((CompoundTag) tag).backing();
+            long size = CONTAINER + MAP + align(ARRAY_HEADER + (long) REFERENCE * capacity(map.size()));
+            size += (long) MAP_ENTRY * map.size();
+            return size;
+        }
+        if (tag instanceof ListTag) {
+            return CONTAINER + LIST + align(ARRAY_HEADER + (long) REFERENCE * ((ListTag<?>) tag).backing().size());
+        }
+        if (tag instanceof StringTag) {
+            return align(HEADER + REFERENCE) + string(((StringTag) tag).getValue());
+        }
+        if (tag instanceof ByteArrayTag) {
+            return align(HEADER + REFERENCE) + align(ARRAY_HEADER + ((ByteArrayTag) tag).getValue().length);
+        }
+        if (tag instanceof IntArrayTag) {
+            return align(HEADER + REFERENCE) + align(ARRAY_HEADER + 4L * ((IntArrayTag) tag).getValue().length);
+        }
+        if (tag instanceof LongArrayTag) {
+            return align(HEADER + REFERENCE) + align(ARRAY_HEADER + 8L * ((LongArrayTag) tag).getValue().length);
+        }
+        if (tag instanceof LongTag || tag instanceof DoubleTag) {
+            return align(HEADER + 8);
+        }
+        return align(HEADER + 4);
+    }
+
+    /**
+     * Returns the heap used by a string of the given value.
+     */
+    public static long string(String value) {
+        // Latin-1 strings use a byte per character, others two
+        boolean latin1 = true;
+        for (int i = 0; i < value.length() && latin1; i++) {
+            latin1 = value.charAt(i) < 256;
+        }
+        return STRING + align(ARRAY_HEADER + (long) value.length() * (latin1 ? 1 : 2));
+    }
+
+    private static long retained(Tag<?> tag, Set<Object> seen) {
+        if (!seen.add(tag)) {
+            return 0;
+        }
+        long size = shallow(tag);
+        if (tag instanceof CompoundTag) {
+            for (Map.Entry<String, Tag> entry : ((CompoundTag) tag).backing().entrySet()) {
+                // Keys are part of the shallow size unless shared
+                if (!seen.add(entry.getKey())) {
+                    size -= string(entry.getKey());
+                }
+                size += string(entry.getKey()) + retained(entry.getValue(), seen);
+            }
+        } else if (tag instanceof ListTag) {
+            for (Tag<?> child : ((ListTag<?>) tag).backing()) {
+                size += retained(child, seen);
+            }
+        }
+        return size;
+    }
+
+    private static long capacity(int size) {
+        int capacity = 16;
+        while (capacity * 3 / 4 < size) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+}
@@ -0,0 +1,290 @@
+package org.jnbt;
+
+import java.io.Closeable;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Push writer producing an NBT byte stream without building a tree, the counterpart of
+ * {@link NbtReader}.
+ *
+ * <p>At the document level and inside compounds every value must be preceded by
+ * {@link #name(String)}. Lists are opened with their element type and exact size, and
+ * {@link #endList()} fails if a different number of elements was written.</p>
+ */
+public final class NbtWriter implements Closeable, Flushable {
+
+    private static final int DOCUMENT = 0;
+    private static final int COMPOUND = 1;
+    private static final int LIST = 2;
+
+    private final DataOutput out;
+    private final boolean namedRoot;
+
+    private int[] scopes = new int[32];
+    private TagType[] listTypes = new TagType[32];
+    private int[] remaining = new int[32];
+    private int depth = 0;
+
+    private String name;
+    private boolean documentWritten;
+
+    public NbtWriter(OutputStream out) {
+        this(out instanceof DataOutput ? (DataOutput) out : new DataOutputStream(out));
+    }
+
+    public NbtWriter(DataOutputStream out) {
+        this((DataOutput) out);
+    }
+
+    public NbtWriter(DataOutput out) {
+        this(out, true);
+    }
+
+    NbtWriter(DataOutput out, boolean namedRoot) {
+        this.out = out;
+        this.namedRoot = namedRoot;
+        this.scopes[0] = DOCUMENT;
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * Sets the key of the next compound entry, or the root name at the document level. Formats
+     * without a root name ignore it, and do not require it.
+     */
+    public NbtWriter name(String name) {
+        if (scopes[depth] == LIST) {
+            throw new IllegalStateException("List elements have no name");
+        }
+        if (this.name != null) {
+            throw new IllegalStateException("Name already set");
+        }
+        this.name = name;
+        return this;
+    }
+
+    public NbtWriter writeByte(byte value) throws IOException {
+        open(TagType.BYTE);
+        out.writeByte(value);
+        return this;
+    }
+
+    public NbtWriter writeShort(short value) throws IOException {
+        open(TagType.SHORT);
+        out.writeShort(value);
+        return this;
+    }
+
+    public NbtWriter writeInt(int value) throws IOException {
+        open(TagType.INT);
+        out.writeInt(value);
+        return this;
+    }
+
+    public NbtWriter writeLong(long value) throws IOException {
+        open(TagType.LONG);
+        out.writeLong(value);
+        return this;
+    }
+
+    public NbtWriter writeFloat(float value) throws IOException {
+        open(TagType.FLOAT);
+        out.writeFloat(value);
+        return this;
+    }
+
+    public NbtWriter writeDouble(double value) throws IOException {
+        open(TagType.DOUBLE);
+        out.writeDouble(value);
+        return this;
+    }
+
+    public NbtWriter writeString(String value) throws IOException {
+        open(TagType.STRING);
+        StringTag.writeString(value, out);
+        return this;
+    }
+
+    public NbtWriter writeByteArray(byte[] value) throws IOException {
+        open(TagType.BYTE_ARRAY);
+        out.writeInt(value.length);
+        out.write(value);
+        return this;
+    }
+
+    public NbtWriter writeIntArray(int[] value) throws IOException {
+        open(TagType.INT_ARRAY);
+        out.writeInt(value.length);
+        for (int i : value) {
+            out.writeInt(i);
+        }
+        return this;
+    }
+
+    public NbtWriter writeLongArray(long[] value) throws IOException {
+        open(TagType.LONG_ARRAY);
+        out.writeInt(value.length);
+        for (long l : value) {
+            out.writeLong(l);
+        }
+        return this;
+    }
+
+    /**
+     * Writes an already materialized tag as the next value.
+     */
+    public NbtWriter writeTag(Tag<?> tag) throws IOException {
+        if (tag.isAbsent()) {
+            throw new NullPointerException("tag not present");
+        }
+        open(tag.getType());
+        tag.writeValue(out);
+        return this;
+    }
+
+    public NbtWriter beginCompound() throws IOException {
+        open(TagType.COMPOUND);
+        push(COMPOUND);
+        return this;
+    }
+
+    public NbtWriter endCompound() throws IOException {
+        if (scopes[depth] != COMPOUND) {
+            throw new IllegalStateException("Not in a compound");
+        }
+        if (name != null) {
+            throw new IllegalStateException("Dangling name " + name);
+        }
+        out.writeByte(TagType.END.getId());
+        depth--;
+        return this;
+    }
+
+    public NbtWriter beginList(TagType<?, ?> type, int size) throws IOException {
+        if (size < 0) {
+            throw new IllegalArgumentException("negative list size " + size);
+        }
+        open(TagType.LIST);
+        out.writeByte(size == 0 && type == TagType.NULL ? TagType.END.getId() : type.getId());
+        out.writeInt(size);
+        push(LIST);
+        listTypes[depth] = type;
+        remaining[depth] = size;
+        return this;
+    }
+
+    public NbtWriter endList() {
+        if (scopes[depth] != LIST) {
+            throw new IllegalStateException("Not in a list");
+        }
+        if (remaining[depth] != 0) {
+            throw new IllegalStateException(remaining[depth] + " list elements missing");
+        }
+        depth--;
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (out instanceof Flushable) {
+            ((Flushable) out).flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (depth != 0) {
+            throw new IllegalStateException("Incomplete document");
+        }
+        if (out instanceof Closeable) {
+            ((Closeable) out).close();
+        }
+    }
+
+    DataOutput output() {
+        return out;
+    }
+
+    /**
+     * Creates a writer positioned inside a list of unknown type and size, so that elements can be
+     * buffered before their list header is known. The type is set by the first element.
+     */
+    static NbtWriter elements(DataOutput out) {
+        NbtWriter writer = new NbtWriter(out);
+        writer.scopes[0] = LIST;
+        writer.remaining[0] = Integer.MAX_VALUE;
+        return writer;
+    }
+
+    // Element type and count of a writer created by elements()
+    TagType<?, ?> elementType() {
+        return listTypes[0] != null ? listTypes[0] : TagType.END;
+    }
+
+    int elementCount() {
+        return Integer.MAX_VALUE - remaining[0];
+    }
+
+    /**
+     * Writes a list whose element payloads were encoded elsewhere.
+     */
+    void writeList(TagType<?, ?> type, int size, byte[] payload, int length) throws IOException {
+        open(TagType.LIST);
+        out.writeByte(type.getId());
+        out.writeInt(size);
+        out.write(payload, 0, length);
+    }
+
+    // Writes the type id and name of the next value, or checks it against the list type
+    void open(TagType<?, ?> type) throws IOException {
+        switch (scopes[depth]) {
+            case LIST:
+                // Checked before anything changes so that a rejected value leaves the list as it was
+                if (remaining[depth] == 0) {
+                    throw new IllegalStateException("List is full");
+                }
+                if (listTypes[depth] == null) {
+                    listTypes[depth] = type;
+                } else if (listTypes[depth] != type) {
+                    throw new IllegalStateException("Expected " + listTypes[depth].getName() + " but was " + type.getName());
+                }
+                remaining[depth]--;
+                break;
+            case DOCUMENT:
+                if (documentWritten) {
+                    throw new IllegalStateException("Document already has a root value");
+                }
+                documentWritten = true;
+                if (!namedRoot) {
+                    out.writeByte(type.getId());
+                    name = null;
+                    break;
+                }
+                // fall through
+            default:
+                if (name == null) {
+                    throw new IllegalStateException("Missing name for " + type.getName());
+                }
+                out.writeByte(type.getId());
+                StringTag.writeString(name, out);
+                name = null;
+                break;
+        }
+    }
+
+    private void push(int scope) {
+        if (++depth == scopes.length) {
+            scopes = Arrays.copyOf(scopes, depth * 2);
+            listTypes = Arrays.copyOf(listTypes, depth * 2);
+            remaining = Arrays.copyOf(remaining, depth * 2);
+        }
+        scopes[depth] = scope;
+    }
+}
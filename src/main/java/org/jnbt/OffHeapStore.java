@@ -0,0 +1,902 @@
+package org.jnbt;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds trees outside the Java heap, so that large caches of decoded documents add neither to the
+ * heap nor to the work of the garbage collector.
+ *
+ * <p>{@link #put(Tag)} copies a tree into an arena of direct memory and returns a handle for it.
+ * {@link #view(long)} returns a {@link View}, a cursor that navigates the stored bytes in place:
+ * selecting an entry or element moves the cursor rather than creating an object per node, and only
+ * strings and {@link View#toTag()} allocate.</p>
+ *
+ * <p>The stored form is the NBT payload with the byte length of every compound and list in front
+ * of it, so selecting an entry steps over its siblings without walking them. Documents are
+ * allocated one after the other in arenas, and a handle names a document rather than its place,
+ * so documents can move. Once the documents left in a filled arena take less than half of it,
+ * they are copied to the arena being filled and the sparse arena is released. The memory of a
+ * released arena is freed right away where the JDK allows it, unless a view still reads from it;
+ * it is then returned when the buffer is collected. {@link #close()} releases every arena.</p>
+ *
+ * <p>Stores are thread-safe. A view is not, but any number of views may read the same document
+ * from different threads.</p>
+ */
+public final class OffHeapStore implements AutoCloseable {
+
+    private static final int DEFAULT_ARENA_BYTES = 64 << 20;
+    // Documents from this fraction of an arena up get an arena of their own
+    private static final int LARGE_FRACTION = 4;
+    // Byte length (complemented once removed) and handle slot of each document
+    private static final int HEADER = 8;
+    private static final MethodHandle FREE = freeHandle();
+
+    private final int arenaBytes;
+    private final Map<Integer, Arena> arenas = new HashMap<>();
+    private final Encoder encoder = new Encoder();
+    // Per handle slot: arena id << 32 | offset of the document, and a generation that tells
+    // handles of removed documents from those of the document now in the slot
+    private long[] locations = new long[64];
+    private int[] generations = new int[64];
+    private int[] freeSlots = new int[64];
+    private int freeCount;
+    private int slotCount;
+    private Arena current;
+    private int nextId;
+    private int documents;
+    private long allocated;
+    private long live;
+    private boolean closed;
+
+    public OffHeapStore() {
+        this(DEFAULT_ARENA_BYTES);
+    }
+
+    /**
+     * Creates a store that allocates arenas of the given size. Documents larger than a quarter of
+     * it are placed in an arena of their own.
+     */
+    public OffHeapStore(int arenaBytes) {
+        if (arenaBytes < 4096) {
+            throw new IllegalArgumentException("Arenas must be at least 4096 bytes: " + arenaBytes);
+        }
+        this.arenaBytes = arenaBytes;
+    }
+
+    /**
+     * Copies a tree into the store and returns its handle.
+     */
+    public synchronized long put(Tag<?> tag) {
+        checkOpen();
+        if (tag.getType() == TagType.END || tag.getType() == TagType.NULL) {
+            throw new IllegalArgumentException("Cannot store " + tag.getType().getName());
+        }
+        encoder.reset();
+        encoder.writeByte(tag.getType().getId());
+        encoder.write(tag);
+        int length = encoder.length;
+        long size = (long) HEADER + length;
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Tag of " + length + " bytes is too large to store");
+        }
+
+        int slot = slot();
+        try {
+            place(slot, ByteBuffer.wrap(encoder.bytes, 0, length), length);
+        } catch (RuntimeException | Error e) {
+            locations[slot] = -1;
+            freeSlots[freeCount++] = slot;
+            throw e;
+        }
+        documents++;
+        live += size;
+        return (long) generations[slot] << 32 | slot;
+    }
+
+    /**
+     * Returns a view positioned at the root of a document.
+     *
+     * @throws IllegalStateException if the document was removed
+     */
+    public View view(long handle) {
+        View view = new View();
+        reset(view, handle);
+        return view;
+    }
+
+    /**
+     * Returns the tree of a document, materialized on the heap.
+     */
+    public Tag<?> get(long handle) {
+        View view = view(handle);
+        try {
+            return view.toTag();
+        } finally {
+            unpin(view);
+        }
+    }
+
+    /**
+     * Frees a document. Its arena is released once it holds no other document, or compacted
+     * once the documents left take less than half of it.
+     *
+     * @return whether the document was present
+     */
+    public synchronized boolean remove(long handle) {
+        int slot = (int) handle;
+        if (closed || slot < 0 || slot >= slotCount || generations[slot] != (int) (handle >>> 32) || locations[slot] == -1) {
+            return false;
+        }
+        Arena arena = arenas.get((int) (locations[slot] >>> 32));
+        int offset = (int) locations[slot];
+        int length = arena.buffer.getInt(offset);
+        arena.buffer.putInt(offset, ~length);
+        arena.documents--;
+        arena.live -= HEADER + length;
+        documents--;
+        live -= HEADER + length;
+        locations[slot] = -1;
+        generations[slot]++;
+        freeSlots[freeCount++] = slot;
+        if (arena != current) {
+            if (arena.documents == 0) {
+                release(arena);
+            } else if (sparse(arena)) {
+                compact(arena);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of documents in the store.
+     */
+    public synchronized int size() {
+        return documents;
+    }
+
+    /**
+     * Returns the bytes of direct memory held by the arenas of this store.
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocated;
+    }
+
+    /**
+     * Returns the bytes used by the documents in the store, including their headers.
+     */
+    public synchronized long getLiveBytes() {
+        return live;
+    }
+
+    public synchronized int getArenaCount() {
+        return arenas.size();
+    }
+
+    /**
+     * Releases every arena. Handles and views obtained before remain safe to hold, but handles can
+     * no longer be viewed.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (Arena arena : new ArrayList<>(arenas.values())) {
+            release(arena);
+        }
+        current = null;
+        documents = 0;
+        allocated = 0;
+        live = 0;
+    }
+
+    private synchronized void reset(View view, long handle) {
+        checkOpen();
+        int slot = (int) handle;
+        if (slot < 0 || slot >= slotCount || generations[slot] != (int) (handle >>> 32) || locations[slot] == -1) {
+            throw new IllegalStateException("No document for handle " + Long.toHexString(handle));
+        }
+        Arena arena = arenas.get((int) (locations[slot] >>> 32));
+        int offset = (int) locations[slot];
+        unpin(view);
+        arena.views++;
+        view.arena = arena;
+        view.buffer = arena.buffer;
+        view.root = offset + HEADER + 1;
+        view.rootType = arena.buffer.get(offset + HEADER);
+        view.root();
+    }
+
+    // A view that moves to another document, or is done, no longer keeps its arena from being freed
+    private synchronized void unpin(View view) {
+        Arena arena = view.arena;
+        if (arena != null) {
+            view.arena = null;
+            if (--arena.views == 0 && arena.released) {
+                free(arena);
+            }
+        }
+    }
+
+    // Copies an encoded document to the arena being filled, or to an arena of its own if large
+    private void place(int slot, ByteBuffer source, int length) {
+        int size = HEADER + length;
+        Arena arena;
+        if (size >= arenaBytes / LARGE_FRACTION) {
+            arena = allocate(size, false);
+        } else {
+            if (current == null || current.buffer.capacity() - current.used < size) {
+                Arena full = current;
+                current = allocate(arenaBytes, true);
+                if (full != null) {
+                    if (full.documents == 0) {
+                        release(full);
+                    } else if (sparse(full)) {
+                        compact(full);
+                    }
+                }
+            }
+            arena = current;
+        }
+        int offset = arena.used;
+        arena.buffer.putInt(offset, length);
+        arena.buffer.putInt(offset + 4, slot);
+        ByteBuffer target = arena.buffer.duplicate();
+        target.position(offset + HEADER);
+        target.put(source);
+        arena.used += size;
+        arena.documents++;
+        arena.live += size;
+        locations[slot] = (long) arena.id << 32 | offset;
+    }
+
+    // Whether an arena shared by small documents is mostly free space
+    private static boolean sparse(Arena arena) {
+        return arena.shared && arena.live < arena.used / 2;
+    }
+
+    // Moves the documents of a sparse arena to the one being filled and releases it
+    private void compact(Arena arena) {
+        for (int offset = 0; offset < arena.used; ) {
+            int length = arena.buffer.getInt(offset);
+            if (length >= 0) {
+                ByteBuffer source = arena.buffer.duplicate();
+                source.limit(offset + HEADER + length).position(offset + HEADER);
+                place(arena.buffer.getInt(offset + 4), source, length);
+                offset += HEADER + length;
+            } else {
+                offset += HEADER + ~length;
+            }
+        }
+        release(arena);
+    }
+
+    private int slot() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (slotCount == locations.length) {
+            locations = Arrays.copyOf(locations, slotCount * 2);
+            generations = Arrays.copyOf(generations, slotCount * 2);
+            freeSlots = Arrays.copyOf(freeSlots, slotCount * 2);
+        }
+        return slotCount++;
+    }
+
+    private Arena allocate(int capacity, boolean shared) {
+        Arena arena = new Arena(nextId++, ByteBuffer.allocateDirect(capacity), shared);
+        arenas.put(arena.id, arena);
+        allocated += capacity;
+        return arena;
+    }
+
+    private void release(Arena arena) {
+        arenas.remove(arena.id);
+        allocated -= arena.buffer.capacity();
+        arena.released = true;
+        if (arena.views == 0) {
+            free(arena);
+        }
+    }
+
+    private static void free(Arena arena) {
+        if (FREE != null) {
+            try {
+                FREE.invokeExact(arena.buffer);
+            } catch (Throwable e) {
+                // left to the garbage collector
+            }
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Store is closed");
+        }
+    }
+
+    /*
+     * Frees the memory of a direct buffer: Unsafe.invokeCleaner on Java 9 and later, the buffer's
+     * Cleaner on Java 8. Null if neither is accessible, in which case buffers are freed when
+     * collected.
+     */
+    private static MethodHandle freeHandle() {
+        MethodType type = MethodType.methodType(void.class, ByteBuffer.class);
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            return MethodHandles.lookup().unreflect(invokeCleaner).bindTo(field.get(null)).asType(type);
+        } catch (Throwable e) {
+            // Java 8
+        }
+        try {
+            Method cleaner = Class.forName("java.nio.DirectByteBuffer").getMethod("cleaner");
+            cleaner.setAccessible(true);
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            clean.setAccessible(true);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            return MethodHandles.filterReturnValue(lookup.unreflect(cleaner), lookup.unreflect(clean)).asType(type);
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    private static final class Arena {
+
+        final int id;
+        final ByteBuffer buffer;
+        // Whether small documents share it, as opposed to one large document
+        final boolean shared;
+        int used;
+        int documents;
+        int live;
+        // Views positioned in it, which keep it from being freed once released
+        int views;
+        boolean released;
+
+        Arena(int id, ByteBuffer buffer, boolean shared) {
+            this.id = id;
+            this.buffer = buffer;
+            this.shared = shared;
+        }
+    }
+
+
+    /**
+     * A cursor over a stored document. {@link #select(String)} and {@link #select(int)} move it to
+     * an entry or element of the value it is at, or make it absent if there is none; absent views
+     * stay absent until {@link #root()} or {@link #reset(long)}.
+     *
+     * <pre>{@code
+     * long surface = store.view(handle).select("Heightmaps").select("WORLD_SURFACE").select(0).getLong();
+     * }</pre>
+     */
+    public final class View {
+
+        private Arena arena;
+        private ByteBuffer buffer;
+        private int root;
+        private byte rootType;
+        private int position;
+        // Type id at the position, -1 if absent
+        private int type;
+
+        private View() {
+
+        }
+
+        /**
+         * Moves this view to the root of another document of the store, so one view can serve any
+         * number of lookups.
+         */
+        public View reset(long handle) {
+            OffHeapStore.this.reset(this, handle);
+            return this;
+        }
+
+        /**
+         * Moves this view back to the root of its document.
+         */
+        public View root() {
+            position = root;
+            type = rootType;
+            return this;
+        }
+
+        public boolean isPresent() {
+            return type != -1;
+        }
+
+        /**
+         * Returns the type of the value, {@link TagType#NULL} if absent.
+         */
+        public TagType<?, ?> getType() {
+            return type == -1 ? TagType.NULL : TagType.forId(type);
+        }
+
+        /**
+         * Moves to the entry of a compound with the given key.
+         */
+        public View select(String key) {
+            if (type != TagType.COMPOUND.getId()) {
+                return absent();
+            }
+            byte[] encoded = ascii(key) ? null : key.getBytes(StringTag.CHARSET);
+            int p = position + 4;
+            while (true) {
+                int child = buffer.get(p);
+                if (child == TagType.END.getId()) {
+                    return absent();
+                }
+                int length = buffer.getShort(p + 1) & 0xFFFF;
+                int value = p + 3 + length;
+                if (encoded == null ? matches(key, p + 3, length) : matches(encoded, p + 3, length)) {
+                    position = value;
+                    type = child;
+                    return this;
+                }
+                p = value + size(child, value);
+            }
+        }
+
+        /**
+         * Moves to an element of a list or array. Array elements are byte, int or long values.
+         */
+        public View select(int index) {
+            if (type == TagType.LIST.getId()) {
+                int child = buffer.get(position + 4);
+                int count = buffer.getInt(position + 5);
+                if (index < 0 || index >= count) {
+                    return absent();
+                }
+                int p = position + 9;
+                int width = width(child);
+                if (width > 0) {
+                    p += index * width;
+                } else {
+                    for (int i = 0; i < index; i++) {
+                        p += size(child, p);
+                    }
+                }
+                position = p;
+                type = child;
+                return this;
+            }
+            int width = type == TagType.BYTE_ARRAY.getId() ? 1 : type == TagType.INT_ARRAY.getId() ? 4 : type == TagType.LONG_ARRAY.getId() ? 8 : 0;
+            if (width == 0 || index < 0 || index >= buffer.getInt(position)) {
+                return absent();
+            }
+            position += 4 + index * width;
+            type = width == 1 ? TagType.BYTE.getId() : width == 4 ? TagType.INT.getId() : TagType.LONG.getId();
+            return this;
+        }
+
+        /**
+         * Returns the number of entries of a compound, elements of a list or array, or bytes of a
+         * string.
+         */
+        public int size() {
+            if (type == TagType.COMPOUND.getId()) {
+                int count = 0;
+                int p = position + 4;
+                int child;
+                while ((child = buffer.get(p)) != TagType.END.getId()) {
+                    int value = p + 3 + (buffer.getShort(p + 1) & 0xFFFF);
+                    p = value + OffHeapStore.size(buffer, child, value);
+                    count++;
+                }
+                return count;
+            }
+            if (type == TagType.LIST.getId()) {
+                return buffer.getInt(position + 5);
+            }
+            if (type == TagType.STRING.getId()) {
+                return buffer.getShort(position) & 0xFFFF;
+            }
+            if (type == TagType.BYTE_ARRAY.getId() || type == TagType.INT_ARRAY.getId() || type == TagType.LONG_ARRAY.getId()) {
+                return buffer.getInt(position);
+            }
+            throw new IllegalStateException("No size for " + getType().getName());
+        }
+
+        public byte getByte() {
+            return (byte) getLong();
+        }
+
+        public short getShort() {
+            return (short) getLong();
+        }
+
+        public int getInt() {
+            return (int) getLong();
+        }
+
+        /**
+         * Returns the value of an integral tag, or of a floating point tag truncated.
+         */
+        public long getLong() {
+            switch (type) {
+                case 1:
+                    return buffer.get(position);
+                case 2:
+                    return buffer.getShort(position);
+                case 3:
+                    return buffer.getInt(position);
+                case 4:
+                    return buffer.getLong(position);
+                case 5:
+                case 6:
+                    return (long) getDouble();
+                default:
+                    throw new IllegalStateException("Not a number: " + getType().getName());
+            }
+        }
+
+        public float getFloat() {
+            return (float) getDouble();
+        }
+
+        public double getDouble() {
+            switch (type) {
+                case 5:
+                    return buffer.getFloat(position);
+                case 6:
+                    return buffer.getDouble(position);
+                default:
+                    return getLong();
+            }
+        }
+
+        public String getString() {
+            if (type != TagType.STRING.getId()) {
+                throw new IllegalStateException("Not a string: " + getType().getName());
+            }
+            return string(buffer, position);
+        }
+
+        /**
+         * Materializes the value as a frozen tree on the heap.
+         */
+        public Tag<?> toTag() {
+            if (type == -1) {
+                return NullTag.NULL;
+            }
+            return decode(buffer, type, position);
+        }
+
+        @Override
+        public String toString() {
+            return Snbt.toString(toTag());
+        }
+
+        private View absent() {
+            type = -1;
+            return this;
+        }
+
+        private int size(int child, int value) {
+            return OffHeapStore.size(buffer, child, value);
+        }
+
+        private boolean matches(String key, int p, int length) {
+            if (length != key.length()) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (buffer.get(p + i) != key.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean matches(byte[] key, int p, int length) {
+            if (length != key.length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (buffer.get(p + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static boolean ascii(String key) {
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Bytes of fixed size values, 0 for the others
+    private static int width(int type) {
+        switch (type) {
+            case 1:
+                return 1;
+            case 2:
+                return 2;
+            case 3:
+            case 5:
+                return 4;
+            case 4:
+            case 6:
+                return 8;
+            default:
+                return 0;
+        }
+    }
+
+    private static int size(ByteBuffer buffer, int type, int p) {
+        switch (type) {
+            case 7:
+                return 4 + buffer.getInt(p);
+            case 8:
+                return 2 + (buffer.getShort(p) & 0xFFFF);
+            case 9:
+            case 10:
+                return 4 + buffer.getInt(p);
+            case 11:
+                return 4 + 4 * buffer.getInt(p);
+            case 12:
+                return 4 + 8 * buffer.getInt(p);
+            default:
+                return width(type);
+        }
+    }
+
+    private static String string(ByteBuffer buffer, int p) {
+        int length = buffer.getShort(p) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(p + 2 + i);
+        }
+        return new String(bytes, StringTag.CHARSET);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Tag<?> decode(ByteBuffer buffer, int type, int p) {
+        switch (type) {
+            case 1:
+                return new ByteTag(buffer.get(p));
+            case 2:
+                return new ShortTag(buffer.getShort(p));
+            case 3:
+                return new IntTag(buffer.getInt(p));
+            case 4:
+                return new LongTag(buffer.getLong(p));
+            case 5:
+                return new FloatTag(buffer.getFloat(p));
+            case 6:
+                return new DoubleTag(buffer.getDouble(p));
+            case 7: {
+                byte[] array = new byte[buffer.getInt(p)];
+                ByteBuffer view = buffer.duplicate();
+                view.position(p + 4);
+                view.get(array);
+                return new ByteArrayTag(array);
+            }
+            case 8:
+                return new StringTag(string(buffer, p));
+            case 9: {
+                int child = buffer.get(p + 4);
+                int count = buffer.getInt(p + 5);
+                if (count == 0) {
+                    return new ListTag(Collections.emptyList(), TagType.forId(child), true);
+                }
+                List<Tag<?>> list = new ArrayList<>(count);
+                int q = p + 9;
+                for (int i = 0; i < count; i++) {
+                    list.add(decode(buffer, child, q));
+                    q += size(buffer, child, q);
+                }
+                return new ListTag(list, TagType.forId(child), true);
+            }
+            case 10: {
+                Map<String, Tag> map = Collections.emptyMap();
+                int q = p + 4;
+                int child;
+                while ((child = buffer.get(q)) != TagType.END.getId()) {
+                    if (map.isEmpty()) {
+                        map = new LinkedHashMap<>(16);
+                    }
+                    int value = q + 3 + (buffer.getShort(q + 1) & 0xFFFF);
+                    map.put(string(buffer, q + 1), decode(buffer, child, value));
+                    q = value + size(buffer, child, value);
+                }
+                return new CompoundTag(map, true);
+            }
+            case 11: {
+                int[] array = new int[buffer.getInt(p)];
+                ByteBuffer view = buffer.duplicate();
+                view.position(p + 4);
+                view.asIntBuffer().get(array);
+                return new IntArrayTag(array);
+            }
+            case 12: {
+                long[] array = new long[buffer.getInt(p)];
+                ByteBuffer view = buffer.duplicate();
+                view.position(p + 4);
+                view.asLongBuffer().get(array);
+                return new LongArrayTag(array);
+            }
+            default:
+                throw new IllegalStateException("Corrupt document: type " + type);
+        }
+    }
+
+    /**
+     * Encodes trees into a reused heap buffer before they are copied to an arena.
+     */
+    private static final class Encoder {
+
+        byte[] bytes = new byte[8192];
+        int length;
+
+        void reset() {
+            // Keeps a buffer grown by a large document no longer than needed
+            if (bytes.length > 1 << 20) {
+                bytes = new byte[8192];
+            }
+            length = 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        void write(Tag<?> tag) {
+            TagType<?, ?> type = tag.getType();
+            switch (type.getId()) {
+                case 1:
+                    writeByte(((ByteTag) tag).getValue());
+                    break;
+                case 2:
+                    writeShort(((ShortTag) tag).getValue());
+                    break;
+                case 3:
+                    writeInt(((IntTag) tag).getValue());
+                    break;
+                case 4:
+                    writeLong(((LongTag) tag).getValue());
+                    break;
+                case 5:
+                    writeInt(Float.floatToRawIntBits(((FloatTag) tag).getValue()));
+                    break;
+                case 6:
+                    writeLong(Double.doubleToRawLongBits(((DoubleTag) tag).getValue()));
+                    break;
+                case 7: {
+                    byte[] array = ((ByteArrayTag) tag).getValue();
+                    writeInt(array.length);
+                    require(array.length);
+                    System.arraycopy(array, 0, bytes, length, array.length);
+                    length += array.length;
+                    break;
+                }
+                case 8:
+                    writeString(((StringTag) tag).getValue());
+                    break;
+                case 9: {
+                    ListTag<?> list = (ListTag<?>) tag;
+                    int start = begin();
+                    // Empty lists without a type are stored as lists of end tags
+                    TagType<?, ?> child = list.getChildType();
+                    writeByte(child == TagType.NULL ? TagType.END.getId() : child.getId());
+                    List<? extends Tag<?>> elements = list.backing();
+                    writeInt(elements.size());
+                    for (Tag<?> element : elements) {
+                        write(element);
+                    }
+                    end(start);
+                    break;
+                }
+                case 10: {
+                    int start = begin();
+                    for (Map.Entry<String, Tag> entry : ((CompoundTag) tag).entries().entrySet()) {
+                        Tag<?> value = entry.getValue();
+                        writeByte(value.getType().getId());
+                        writeString(entry.getKey());
+                        write(value);
+                    }
+                    writeByte(TagType.END.getId());
+                    end(start);
+                    break;
+                }
+                case 11: {
+                    int[] array = ((IntArrayTag) tag).getValue();
+                    writeInt(array.length);
+                    for (int value : array) {
+                        writeInt(value);
+                    }
+                    break;
+                }
+                case 12: {
+                    long[] array = ((LongArrayTag) tag).getValue();
+                    writeInt(array.length);
+                    for (long value : array) {
+                        writeLong(value);
+                    }
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Cannot store " + type.getName());
+            }
+        }
+
+        // Reserves the length of a compound or list, filled in by end
+        private int begin() {
+            writeInt(0);
+            return length;
+        }
+
+        private void end(int start) {
+            int size = length - start;
+            bytes[start - 4] = (byte) (size >>> 24);
+            bytes[start - 3] = (byte) (size >>> 16);
+            bytes[start - 2] = (byte) (size >>> 8);
+            bytes[start - 1] = (byte) size;
+        }
+
+        private void writeString(String value) {
+            byte[] encoded = value.getBytes(StringTag.CHARSET);
+            if (encoded.length > 0xFFFF) {
+                throw new IllegalArgumentException("String of " + encoded.length + " bytes is too long");
+            }
+            writeShort(encoded.length);
+            require(encoded.length);
+            System.arraycopy(encoded, 0, bytes, length, encoded.length);
+            length += encoded.length;
+        }
+
+        void writeByte(int value) {
+            require(1);
+            bytes[length++] = (byte) value;
+        }
+
+        private void writeShort(int value) {
+            require(2);
+            bytes[length++] = (byte) (value >>> 8);
+            bytes[length++] = (byte) value;
+        }
+
+        private void writeInt(int value) {
+            require(4);
+            bytes[length++] = (byte) (value >>> 24);
+            bytes[length++] = (byte) (value >>> 16);
+            bytes[length++] = (byte) (value >>> 8);
+            bytes[length++] = (byte) value;
+        }
+
+        private void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        private void require(int n) {
+            if (bytes.length - length < n) {
+                long capacity = Math.max((long) bytes.length * 2, (long) length + n);
+                if (capacity > Integer.MAX_VALUE - 8) {
+                    if ((long) length + n > Integer.MAX_VALUE - 8) {
+                        throw new IllegalArgumentException("Tag is too large to store");
+                    }
+                    capacity = Integer.MAX_VALUE - 8;
+                }
+                bytes = Arrays.copyOf(bytes, (int) capacity);
+            }
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package org.jnbt;
+
+/**
+ * Bit-packed integer arrays, as used by chunk sections for block state and biome palette indices
+ * ({@code BlockStates}, {@code data}) and by heightmaps.
+ *
+ * <p>Two layouts exist. Since 1.16 values are {@code padded}: each long holds
+ * {@code 64 / bits} values starting at bit 0 and the remaining high bits are unused. Before that
+ * values were packed back to back and may span two longs. Both start at the least significant
+ * bit. For widths that divide 64 the layouts are identical.</p>
+ *
+ * <p>Widths 1, 2, 4, 8, 16 and 32 have dedicated kernels whose inner loop has a constant trip
+ * count and shift, which the JIT unrolls; other widths use a per-long loop for the padded layout
+ * and a bit cursor for the spanning one. All methods are allocation free apart from the returned
+ * arrays.</p>
+ *
+ * <p>Arguments come in one order throughout: the data, the width, the count where needed, the
+ * layout, then the index, value or output buffer the method works on.</p>
+ */
+public final class PackedArrays {
+
+    private PackedArrays() {
+
+    }
+
+    /**
+     * Returns the number of bits needed for indices into a palette of the given size, but at
+     * least {@code minBits} (4 for block states, 1 for biomes).
+     */
+    public static int bitsFor(int paletteSize, int minBits) {
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(paletteSize - 1, 0));
+        return Math.max(bits, minBits);
+    }
+
+    /**
+     * Returns the number of longs holding {@code count} values of the given width.
+     */
+    public static int length(int count, int bits, boolean padded) {
+        checkBits(bits);
+        if (padded) {
+            int perLong = 64 / bits;
+            return (count + perLong - 1) / perLong;
+        }
+        return (int) (((long) count * bits + 63) >>> 6);
+    }
+
+    public static int[] unpack(LongArrayTag tag, int bits, int count, boolean padded) {
+        return unpack(tag.getValue(), bits, count, padded);
+    }
+
+    public static int[] unpack(long[] data, int bits, int count, boolean padded) {
+        int[] out = new int[count];
+        unpack(data, bits, count, padded, out);
+        return out;
+    }
+
+    /**
+     * Unpacks the first {@code count} values of {@code data} into {@code out}, so that callers
+     * processing many sections can reuse one buffer.
+     */
+    public static void unpack(long[] data, int bits, int count, boolean padded, int[] out) {
+        checkLength(data, count, bits, padded);
+        if (out.length < count) {
+            throw new IllegalArgumentException("Output holds " + out.length + " of " + count + " values");
+        }
+        switch (bits) {
+            case 1:
+                unpack1(data, out, count);
+                return;
+            case 2:
+                unpack2(data, out, count);
+                return;
+            case 4:
+                unpack4(data, out, count);
+                return;
+            case 8:
+                unpack8(data, out, count);
+                return;
+            case 16:
+                unpack16(data, out, count);
+                return;
+            case 32:
+                unpack32(data, out, count);
+                return;
+            default:
+                if (padded) {
+                    unpackPadded(data, bits, out, count);
+                } else {
+                    unpackSpanning(data, bits, out, count);
+                }
+        }
+    }
+
+    public static LongArrayTag packTag(int[] values, int bits, boolean padded) {
+        return new LongArrayTag(pack(values, bits, values.length, padded));
+    }
+
+    public static long[] pack(int[] values, int bits, boolean padded) {
+        return pack(values, bits, values.length, padded);
+    }
+
+    /**
+     * Packs the first {@code count} values. Values must fit in {@code bits} bits.
+     */
+    public static long[] pack(int[] values, int bits, int count, boolean padded) {
+        long[] data = new long[length(count, bits, padded)];
+        int mask = mask(bits);
+        int overflow;
+        if (padded || (bits & (bits - 1)) == 0) {
+            overflow = packAligned(values, bits, mask, data, count);
+        } else {
+            overflow = packSpanning(values, bits, mask, data, count);
+        }
+        if (overflow != 0) {
+            throw new IllegalArgumentException("Value does not fit in " + bits + " bits");
+        }
+        return data;
+    }
+
+    public static int get(long[] data, int bits, boolean padded, int index) {
+        checkBits(bits);
+        long mask = mask(bits) & 0xFFFFFFFFL;
+        if (padded) {
+            int perLong = 64 / bits;
+            int word = index / perLong;
+            return (int) (data[word] >>> (index - word * perLong) * bits & mask);
+        }
+        long bit = (long) index * bits;
+        int word = (int) (bit >>> 6);
+        int shift = (int) (bit & 63);
+        long value = data[word] >>> shift;
+        if (shift + bits > 64) {
+            value |= data[word + 1] << (64 - shift);
+        }
+        return (int) (value & mask);
+    }
+
+    public static void set(long[] data, int bits, boolean padded, int index, int value) {
+        checkBits(bits);
+        long mask = mask(bits) & 0xFFFFFFFFL;
+        long v = value & 0xFFFFFFFFL;
+        if ((v & ~mask) != 0) {
+            throw new IllegalArgumentException("Value does not fit in " + bits + " bits");
+        }
+        if (padded) {
+            int perLong = 64 / bits;
+            int word = index / perLong;
+            int shift = (index - word * perLong) * bits;
+            data[word] = data[word] & ~(mask << shift) | v << shift;
+            return;
+        }
+        long bit = (long) index * bits;
+        int word = (int) (bit >>> 6);
+        int shift = (int) (bit & 63);
+        data[word] = data[word] & ~(mask << shift) | v << shift;
+        if (shift + bits > 64) {
+            int high = 64 - shift;
+            data[word + 1] = data[word + 1] & ~(mask >>> high) | v >>> high;
+        }
+    }
+
+    // Kernels for widths dividing 64, where both layouts agree. Each handles whole longs, then
+    // the tail of the last one.
+
+    private static void unpack1(long[] data, int[] out, int count) {
+        int whole = count >>> 6;
+        int i = 0;
+        for (int w = 0; w < whole; w++) {
+            long word = data[w];
+            for (int j = 0; j < 64; j++) {
+                out[i++] = (int) (word >>> j) & 1;
+            }
+        }
+        for (long word = whole < data.length ? data[whole] : 0; i < count; word >>>= 1) {
+            out[i++] = (int) word & 1;
+        }
+    }
+
+    private static void unpack2(long[] data, int[] out, int count) {
+        int whole = count >>> 5;
+        int i = 0;
+        for (int w = 0; w < whole; w++) {
+            long word = data[w];
+            for (int j = 0; j < 64; j += 2) {
+                out[i++] = (int) (word >>> j) & 3;
+            }
+        }
+        for (long word = whole < data.length ? data[whole] : 0; i < count; word >>>= 2) {
+            out[i++] = (int) word & 3;
+        }
+    }
+
+    private static void unpack4(long[] data, int[] out, int count) {
+        int whole = count >>> 4;
+        int i = 0;
+        for (int w = 0; w < whole; w++) {
+            long word = data[w];
+            for (int j = 0; j < 64; j += 4) {
+                out[i++] = (int) (word >>> j) & 0xF;
+            }
+        }
+        for (long word = whole < data.length ? data[whole] : 0; i < count; word >>>= 4) {
+            out[i++] = (int) word & 0xF;
+        }
+    }
+
+    private static void unpack8(long[] data, int[] out, int count) {
+        int whole = count >>> 3;
+        int i = 0;
+        for (int w = 0; w < whole; w++) {
+            long word = data[w];
+            for (int j = 0; j < 64; j += 8) {
+                out[i++] = (int) (word >>> j) & 0xFF;
+            }
+        }
+        for (long word = whole < data.length ? data[whole] : 0; i < count; word >>>= 8) {
+            out[i++] = (int) word & 0xFF;
+        }
+    }
+
+    private static void unpack16(long[] data, int[] out, int count) {
+        int whole = count >>> 2;
+        int i = 0;
+        for (int w = 0; w < whole; w++) {
+            long word = data[w];
+            out[i++] = (int) word & 0xFFFF;
+            out[i++] = (int) (word >>> 16) & 0xFFFF;
+            out[i++] = (int) (word >>> 32) & 0xFFFF;
+            out[i++] = (int) (word >>> 48);
+        }
+        for (long word = whole < data.length ? data[whole] : 0; i < count; word >>>= 16) {
+            out[i++] = (int) word & 0xFFFF;
+        }
+    }
+
+    private static void unpack32(long[] data, int[] out, int count) {
+        int whole = count >>> 1;
+        int i = 0;
+        for (int w = 0; w < whole; w++) {
+            long word = data[w];
+            out[i++] = (int) word;
+            out[i++] = (int) (word >>> 32);
+        }
+        if (i < count) {
+            out[i] = (int) data[whole];
+        }
+    }
+
+    private static void unpackPadded(long[] data, int bits, int[] out, int count) {
+        int perLong = 64 / bits;
+        int mask = mask(bits);
+        int whole = count / perLong;
+        int i = 0;
+        for (int w = 0; w < whole; w++) {
+            long word = data[w];
+            for (int j = 0; j < perLong; j++) {
+                out[i++] = (int) word & mask;
+                word >>>= bits;
+            }
+        }
+        for (long word = whole < data.length ? data[whole] : 0; i < count; word >>>= bits) {
+            out[i++] = (int) word & mask;
+        }
+    }
+
+    private static void unpackSpanning(long[] data, int bits, int[] out, int count) {
+        int mask = mask(bits);
+        long buffer = 0;
+        int available = 0;
+        int w = 0;
+        for (int i = 0; i < count; i++) {
+            if (available >= bits) {
+                out[i] = (int) buffer & mask;
+                buffer >>>= bits;
+                available -= bits;
+            } else {
+                // Low bits come from what is left of the current long, the rest from the next
+                long word = data[w++];
+                out[i] = (int) (buffer | word << available) & mask;
+                int used = bits - available;
+                buffer = word >>> used;
+                available = 64 - used;
+            }
+        }
+    }
+
+    private static int packAligned(int[] values, int bits, int mask, long[] data, int count) {
+        int perLong = 64 / bits;
+        int overflow = 0;
+        int i = 0;
+        for (int w = 0; w < data.length; w++) {
+            int end = Math.min(i + perLong, count);
+            long word = 0;
+            for (int shift = 0; i < end; i++, shift += bits) {
+                int v = values[i];
+                overflow |= v & ~mask;
+                word |= (v & 0xFFFFFFFFL) << shift;
+            }
+            data[w] = word;
+        }
+        return overflow;
+    }
+
+    private static int packSpanning(int[] values, int bits, int mask, long[] data, int count) {
+        int overflow = 0;
+        long buffer = 0;
+        int filled = 0;
+        int w = 0;
+        for (int i = 0; i < count; i++) {
+            int v = values[i];
+            overflow |= v & ~mask;
+            long value = v & 0xFFFFFFFFL;
+            buffer |= value << filled;
+            filled += bits;
+            if (filled >= 64) {
+                data[w++] = buffer;
+                filled -= 64;
+                // Bits of this value that did not fit in the finished long
+                buffer = filled == 0 ? 0 : value >>> (bits - filled);
+            }
+        }
+        if (filled > 0) {
+            data[w] = buffer;
+        }
+        return overflow;
+    }
+
+    private static int mask(int bits) {
+        return bits == 32 ? -1 : (1 << bits) - 1;
+    }
+
+    private static void checkBits(int bits) {
+        if (bits < 1 || bits > 32) {
+            throw new IllegalArgumentException("Bits per value must be between 1 and 32: " + bits);
+        }
+    }
+
+    private static void checkLength(long[] data, int count, int bits, boolean padded) {
+        int length = length(count, bits, padded);
+        if (data.length < length) {
+            throw new IllegalArgumentException(count + " values of " + bits + " bits need " + length + " longs, got " + data.length);
+        }
+    }
+}
@@ -0,0 +1,514 @@
+package org.jnbt;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Decodes large documents that are already in memory on a {@link ForkJoinPool}, the counterpart
+ * of {@link ParallelWriter} for imports of big schematics or level exports.
+ *
+ * <p>Reading is done in two passes. The first is a serial scan that only follows the structure:
+ * it reads tag types, names and lengths, skips strings and arrays by their length without
+ * decoding them, and records the extent of every container of at least
+ * {@link #withSplitBytes(int) the split size}, with a mark at the first child after every
+ * further split size of payload. It also applies the {@link ReadLimits} of the options, so a
+ * malformed or hostile document fails before anything is allocated. The second pass decodes the
+ * runs of children between marks as separate tasks, and each large container found on the way as
+ * a task of its own, then assembles the containers in document order. The result is equal to
+ * what {@link Nbt#read} returns for the same bytes, frozen or mutable as the options say.</p>
+ *
+ * <p>Documents smaller than the split size are decoded serially. Offsets are ints, so documents
+ * must be smaller than 2 GiB.</p>
+ */
+public final class ParallelReader {
+
+    private static final int COMPOUND = 0;
+    private static final int LIST = 1;
+
+    private static final ParallelReader DEFAULT = new ParallelReader(null, 256 * 1024);
+
+    private final ForkJoinPool pool;
+    private final int splitBytes;
+
+    private ParallelReader(ForkJoinPool pool, int splitBytes) {
+        this.pool = pool;
+        this.splitBytes = splitBytes;
+    }
+
+    /**
+     * Returns a reader using the common pool and a split size of 256 KiB.
+     */
+    public static ParallelReader create() {
+        return DEFAULT;
+    }
+
+    public ParallelReader withPool(ForkJoinPool pool) {
+        return new ParallelReader(pool, splitBytes);
+    }
+
+    /**
+     * Returns a reader that decodes runs of about the given encoded size as separate tasks.
+     */
+    public ParallelReader withSplitBytes(int bytes) {
+        if (bytes < 1024) {
+            throw new IllegalArgumentException("Split size must be at least 1024 bytes: " + bytes);
+        }
+        return new ParallelReader(pool, bytes);
+    }
+
+    public RootTag read(byte[] bytes) throws IOException {
+        return read(ByteBuffer.wrap(bytes), ReadOptions.frozen());
+    }
+
+    public RootTag read(byte[] bytes, ReadOptions options) throws IOException {
+        return read(ByteBuffer.wrap(bytes), options);
+    }
+
+    /**
+     * Reads an uncompressed or gzipped document from a file. Uncompressed files are mapped, gzipped
+     * ones are inflated into memory first.
+     */
+    public RootTag read(Path file) throws IOException {
+        return read(file, ReadOptions.frozen());
+    }
+
+    public RootTag read(Path file, ReadOptions options) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(2);
+            while (magic.hasRemaining() && channel.read(magic, magic.position()) > 0) {
+                // read the first two bytes, if there are two
+            }
+            if (magic.position() == 2 && magic.getShort(0) == (short) 0x1F8B) {
+                try (InputStream in = new GZIPInputStream(Files.newInputStream(file), 64 * 1024)) {
+                    return read(inflate(in, channel.size()), options);
+                }
+            }
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is larger than 2 GiB");
+            }
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), options);
+        }
+    }
+
+    /**
+     * Reads the document from the position of the buffer to its limit. The buffer itself is not
+     * modified.
+     */
+    public RootTag read(ByteBuffer buffer) throws IOException {
+        return read(buffer, ReadOptions.frozen());
+    }
+
+    public RootTag read(ByteBuffer buffer, ReadOptions options) throws IOException {
+        ByteBuffer data = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        ReadContext context = new ReadContext(options);
+        context.begin();
+
+        Scanner scanner = new Scanner(data, context, splitBytes);
+        int type;
+        String name;
+        int value;
+        try {
+            int pos = data.position();
+            context.account(1);
+            type = data.get(pos);
+            scanner.checkType(type, pos);
+            context.count(TagType.forId(type));
+            context.account(2);
+            ByteBufferInput in = new ByteBufferInput(data, pos + 1);
+            name = StringTag.readString(in, context);
+            value = in.position();
+            scanner.scan(type, value);
+        } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+            throw new EOFException("Document ends at " + data.limit());
+        }
+
+        // Limits were applied by the scan, decoding only needs the frozen setting
+        ReadOptions decode = options.withLimits(ReadLimits.unlimited());
+        Node root = scanner.index.get(value);
+        Tag tag;
+        if (root == null) {
+            tag = TagType.forId(type).getReader().read(new ByteBufferInput(data, value), new ReadContext(decode));
+        } else {
+            ForkJoinPool pool = this.pool != null ? this.pool : ForkJoinPool.commonPool();
+            try {
+                tag = pool.invoke(new Materialize(root, data, scanner.index, decode));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        context.end();
+        return new RootTag(name, tag);
+    }
+
+    private static ByteBuffer inflate(InputStream in, long compressed) throws IOException {
+        byte[] bytes = new byte[(int) Math.min(Integer.MAX_VALUE - 8, Math.max(8192, compressed * 4))];
+        int length = 0;
+        int read;
+        while ((read = in.read(bytes, length, bytes.length - length)) > 0) {
+            length += read;
+            if (length == bytes.length) {
+                if (length == Integer.MAX_VALUE - 8) {
+                    throw new IOException("Document is larger than 2 GiB");
+                }
+                bytes = Arrays.copyOf(bytes, (int) Math.min(Integer.MAX_VALUE - 8, 2L * length));
+            }
+        }
+        return ByteBuffer.wrap(bytes, 0, length);
+    }
+
+    /**
+     * Extent of a large container. Marks are pairs of the offset of a child and its index.
+     */
+    private static final class Node {
+
+        final int kind;
+        final int start;
+        final int end;
+        final int[] marks;
+
+        Node(int kind, int start, int end, int[] marks) {
+            this.kind = kind;
+            this.start = start;
+            this.end = end;
+            this.marks = marks;
+        }
+    }
+
+    /**
+     * The structural pass. Walks the document with an explicit stack and records {@link Node}s by
+     * payload offset: the first entry of a compound, the element type of a list.
+     */
+    private static final class Scanner {
+
+        final Map<Integer, Node> index = new HashMap<>();
+        private final ByteBuffer data;
+        private final ReadContext context;
+        private final int split;
+        private final long limit;
+
+        private int depth;
+        private int[] kinds = new int[32];
+        private int[] starts = new int[32];
+        private int[] remaining = new int[32];
+        private int[] types = new int[32];
+        private int[] children = new int[32];
+        private int[] lastMark = new int[32];
+        private int[][] marks = new int[32][];
+        private int[] markCount = new int[32];
+
+        Scanner(ByteBuffer data, ReadContext context, int split) {
+            this.data = data;
+            this.context = context;
+            this.split = split;
+            this.limit = data.limit();
+        }
+
+        void scan(int type, int start) throws IOException {
+            long pos = value(type, start);
+            while (depth > 0) {
+                int d = depth;
+                if (kinds[d] == COMPOUND) {
+                    context.account(1);
+                    int child = data.get((int) pos);
+                    if (child == TagType.END.getId()) {
+                        pos = close(pos + 1);
+                        continue;
+                    }
+                    checkType(child, pos);
+                    mark(d, (int) pos);
+                    context.count(TagType.forId(child));
+                    context.account(2);
+                    int nameLength = context.stringLength(data.getShort((int) pos + 1) & 0xFFFF);
+                    pos = value(child, pos + 3 + nameLength);
+                } else {
+                    if (remaining[d] == 0) {
+                        pos = close(pos);
+                        continue;
+                    }
+                    remaining[d]--;
+                    mark(d, (int) pos);
+                    pos = value(types[d], pos);
+                }
+            }
+        }
+
+        void checkType(int type, long pos) throws IOException {
+            if (type < TagType.BYTE.getId() || type > TagType.LONG_ARRAY.getId()) {
+                throw new IOException("Invalid tag type " + type + " at offset " + pos);
+            }
+        }
+
+        // Skips a value, or opens a container, returning the next position
+        private long value(int type, long pos) throws IOException {
+            switch (type) {
+                case 1:
+                    context.account(1);
+                    return check(pos + 1);
+                case 2:
+                    context.account(2);
+                    return check(pos + 2);
+                case 3:
+                case 5:
+                    context.account(4);
+                    return check(pos + 4);
+                case 4:
+                case 6:
+                    context.account(8);
+                    return check(pos + 8);
+                case 7:
+                    context.account(4);
+                    return check(pos + 4 + context.array(data.getInt((int) pos), 1));
+                case 8:
+                    context.account(2);
+                    return check(pos + 2 + context.stringLength(data.getShort((int) pos) & 0xFFFF));
+                case 9: {
+                    context.enter();
+                    context.account(5);
+                    int child = data.get((int) pos);
+                    int length = Math.max(data.getInt((int) pos + 1), 0);
+                    if (length > 0) {
+                        if (child == TagType.END.getId()) {
+                            throw new IOException("List of " + length + " end tags");
+                        }
+                        checkType(child, pos);
+                    }
+                    context.elements(length);
+                    context.count(TagType.forId(child), length);
+                    push(LIST, (int) pos, child, length);
+                    return pos + 5;
+                }
+                case 10:
+                    context.enter();
+                    push(COMPOUND, (int) pos, 0, 0);
+                    return pos;
+                case 11:
+                    context.account(4);
+                    return check(pos + 4 + 4L * context.array(data.getInt((int) pos), 4));
+                case 12:
+                    context.account(4);
+                    return check(pos + 4 + 8L * context.array(data.getInt((int) pos), 8));
+                default:
+                    throw new IOException("Invalid tag type " + type + " at offset " + pos);
+            }
+        }
+
+        private long check(long pos) throws EOFException {
+            if (pos > limit) {
+                throw new EOFException("Document ends at " + limit);
+            }
+            return pos;
+        }
+
+        private void push(int kind, int start, int type, int length) {
+            int d = ++depth;
+            if (d == kinds.length) {
+                int size = d * 2;
+                kinds = Arrays.copyOf(kinds, size);
+                starts = Arrays.copyOf(starts, size);
+                remaining = Arrays.copyOf(remaining, size);
+                types = Arrays.copyOf(types, size);
+                children = Arrays.copyOf(children, size);
+                lastMark = Arrays.copyOf(lastMark, size);
+                marks = Arrays.copyOf(marks, size);
+                markCount = Arrays.copyOf(markCount, size);
+            }
+            kinds[d] = kind;
+            starts[d] = start;
+            types[d] = type;
+            remaining[d] = length;
+            children[d] = 0;
+            lastMark[d] = start;
+            markCount[d] = 0;
+        }
+
+        private void mark(int d, int pos) {
+            int child = children[d]++;
+            if (pos - lastMark[d] >= split) {
+                lastMark[d] = pos;
+                int[] m = marks[d];
+                if (m == null) {
+                    m = marks[d] = new int[16];
+                } else if (markCount[d] + 2 > m.length) {
+                    m = marks[d] = Arrays.copyOf(m, m.length * 2);
+                }
+                m[markCount[d]++] = pos;
+                m[markCount[d]++] = child;
+            }
+        }
+
+        private long close(long pos) {
+            int d = depth--;
+            context.exit();
+            if (pos - starts[d] >= split) {
+                int[] m = markCount[d] == 0 ? new int[0] : Arrays.copyOf(marks[d], markCount[d]);
+                index.put(starts[d], new Node(kinds[d], starts[d], (int) pos, m));
+            }
+            return pos;
+        }
+    }
+
+    /**
+     * Decodes a large container: the runs between its marks are decoded in parallel and joined in
+     * order.
+     */
+    private static final class Materialize extends RecursiveTask<Tag> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Node node;
+        private final ByteBuffer data;
+        private final Map<Integer, Node> index;
+        private final ReadOptions options;
+
+        Materialize(Node node, ByteBuffer data, Map<Integer, Node> index, ReadOptions options) {
+            this.node = node;
+            this.data = data;
+            this.index = index;
+            this.options = options;
+        }
+
+        @Override
+        protected Tag compute() {
+            boolean list = node.kind == LIST;
+            int childType = list ? data.get(node.start) : 0;
+            int count = list ? data.getInt(node.start + 1) : -1;
+            // Runs are [from, to) by offset; for lists also by element index
+            int runs = node.marks.length / 2 + 1;
+            List<Run> tasks = new ArrayList<>(runs);
+            int from = list ? node.start + 5 : node.start;
+            int fromIndex = 0;
+            for (int i = 0; i < runs; i++) {
+                int to;
+                int toIndex;
+                if (i < runs - 1) {
+                    to = node.marks[2 * i];
+                    toIndex = node.marks[2 * i + 1];
+                } else {
+                    // A compound ends with the end tag
+                    to = list ? node.end : node.end - 1;
+                    toIndex = list ? Math.max(count, 0) : -1;
+                }
+                tasks.add(new Run(this, list ? childType : -1, from, to, toIndex - fromIndex));
+                from = to;
+                fromIndex = toIndex;
+            }
+            for (int i = 1; i < tasks.size(); i++) {
+                tasks.get(i).fork();
+            }
+
+            boolean frozen = options.isFrozen();
+            if (list) {
+                List<Tag<?>> elements = new ArrayList<>(Math.max(count, 0));
+                for (int i = 0; i < tasks.size(); i++) {
+                    for (Object item : i == 0 ? tasks.get(0).compute() : tasks.get(i).join()) {
+                        elements.add(resolve(item));
+                    }
+                }
+                // The element type was checked by the scan, the elements were decoded as it
+                @SuppressWarnings("unchecked")
+                ListTag<?> result = new ListTag(elements, TagType.forId(childType), frozen);
+                return intern(result);
+            }
+            Map<String, Tag> entries = new LinkedHashMap<>();
+            for (int i = 0; i < tasks.size(); i++) {
+                List<Object> items = i == 0 ? tasks.get(0).compute() : tasks.get(i).join();
+                for (int j = 0; j < items.size(); j += 2) {
+                    entries.put((String) items.get(j), resolve(items.get(j + 1)));
+                }
+            }
+            return intern(new CompoundTag(frozen && entries.isEmpty() ? Collections.emptyMap() : entries, frozen));
+        }
+
+        private Tag intern(Tag tag) {
+            TagInterner interner = options.getInterner();
+            return interner != null && options.isFrozen() ? interner.canonical(tag) : tag;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Tag resolve(Object item) {
+            return item instanceof ForkJoinTask ? ((ForkJoinTask<Tag>) item).join() : (Tag) item;
+        }
+    }
+
+    /**
+     * Decodes the children between two marks: key and value pairs for a compound, values for a
+     * list. Large containers among them are forked and stand in as their task.
+     */
+    private static final class Run extends RecursiveTask<List<Object>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Materialize parent;
+        private final int childType;
+        private final int from;
+        private final int to;
+        private final int count;
+
+        Run(Materialize parent, int childType, int from, int to, int count) {
+            this.parent = parent;
+            this.childType = childType;
+            this.from = from;
+            this.to = to;
+            this.count = count;
+        }
+
+        @Override
+        protected List<Object> compute() {
+            ByteBufferInput in = new ByteBufferInput(parent.data, from);
+            ReadContext context = new ReadContext(parent.options);
+            try {
+                if (childType >= 0) {
+                    List<Object> items = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        items.add(value(childType, in, context));
+                    }
+                    return items;
+                }
+                List<Object> items = new ArrayList<>();
+                while (in.position() < to) {
+                    int type = in.readByte();
+                    items.add(context.key(StringTag.readString(in)));
+                    items.add(value(type, in, context));
+                }
+                return items;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private Object value(int type, ByteBufferInput in, ReadContext context) throws IOException {
+            if (type == TagType.COMPOUND.getId() || type == TagType.LIST.getId()) {
+                Node node = parent.index.get(in.position());
+                if (node != null) {
+                    in.position(node.end);
+                    return new Materialize(node, parent.data, parent.index, parent.options).fork();
+                }
+            } else if (type == TagType.INT_ARRAY.getId()) {
+                return context.intern(new IntArrayTag(in.readInts(in.readInt())));
+            } else if (type == TagType.LONG_ARRAY.getId()) {
+                return context.intern(new LongArrayTag(in.readLongs(in.readInt())));
+            }
+            return TagType.forId(type).getReader().read(in, context);
+        }
+    }
+}
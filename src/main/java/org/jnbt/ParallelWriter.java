@@ -0,0 +1,626 @@
+package org.jnbt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Encodes large trees on a {@link ForkJoinPool}, for exports of schematics or whole levels where
+ * a single-threaded {@link Nbt#write} takes seconds.
+ *
+ * <p>Containers whose estimated size exceeds {@link #withSplitBytes(int) the split size} are
+ * divided: children at least that large are encoded by their own task, smaller neighbours are
+ * grouped into batches of about that size, and large primitive arrays are cut into slices. Each
+ * task writes into pooled buffers, and the buffers are written out in document order as tasks
+ * complete, so the output is byte-identical to {@link Nbt#write}. Containers that keep their
+ * encoded bytes (tracked or cached, see {@link CompoundTag#trackChanges()} and
+ * {@link CompoundTag#encoded()}) are copied as they are.</p>
+ *
+ * <p>Trees smaller than the split size are encoded on the calling thread. The tree must not be
+ * modified while it is written, apart from concurrent compounds, which are written from a
+ * snapshot as usual.</p>
+ */
+public final class ParallelWriter {
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final int MAX_POOLED = 256;
+    // Writes at least this large reference the caller's array instead of copying it
+    private static final int DIRECT_BYTES = BUFFER_BYTES / 4;
+    // Buffers handed to one gathering write
+    private static final int GATHER = 64;
+
+    private static final ConcurrentLinkedQueue<byte[]> POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger POOLED = new AtomicInteger();
+
+    private static final ParallelWriter DEFAULT = new ParallelWriter(null, 128 * 1024);
+
+    private final ForkJoinPool pool;
+    private final int splitBytes;
+
+    private ParallelWriter(ForkJoinPool pool, int splitBytes) {
+        this.pool = pool;
+        this.splitBytes = splitBytes;
+    }
+
+    /**
+     * Returns a writer using the common pool and a split size of 128 KiB.
+     */
+    public static ParallelWriter create() {
+        return DEFAULT;
+    }
+
+    public ParallelWriter withPool(ForkJoinPool pool) {
+        return new ParallelWriter(pool, splitBytes);
+    }
+
+    /**
+     * Returns a writer that hands subtrees and batches of about the given encoded size to
+     * separate tasks. Smaller values spread small trees over more threads at the cost of more
+     * tasks.
+     */
+    public ParallelWriter withSplitBytes(int bytes) {
+        if (bytes < 1024) {
+            throw new IllegalArgumentException("Split size must be at least 1024 bytes: " + bytes);
+        }
+        return new ParallelWriter(pool, bytes);
+    }
+
+    public void write(Tag tag, OutputStream out) throws IOException {
+        write("", tag, out);
+    }
+
+    public void write(String name, Tag tag, OutputStream out) throws IOException {
+        write(name, tag, (bytes, offset, length) -> out.write(bytes, offset, length), null);
+    }
+
+    /**
+     * Writes the document at the channel's current position with gathering writes, and returns
+     * the number of bytes written.
+     */
+    public long write(String name, Tag tag, FileChannel channel) throws IOException {
+        Gather gather = new Gather(channel);
+        return write(name, tag, gather, gather);
+    }
+
+    private long write(String name, Tag tag, Sink sink, Gather gather) throws IOException {
+        if (tag.isAbsent()) {
+            throw new NullPointerException("tag not present");
+        }
+        boolean metrics = Metrics.writing();
+        Object event = metrics ? Metrics.beginWrite() : null;
+        long start = System.nanoTime();
+
+        ForkJoinPool pool = this.pool != null ? this.pool : ForkJoinPool.commonPool();
+        long estimate = estimate(tag, splitBytes);
+        Encoder root = new Encoder(pool, 3 + name.length() + estimate);
+        List<Encoder> encoders = new ArrayList<>();
+        long bytes;
+        try {
+            root.writeByte(tag.getType().getId());
+            StringTag.writeString(name, root);
+            if (estimate >= splitBytes && splittable(tag)) {
+                root.fork(new Split(tag, pool, splitBytes));
+            } else {
+                tag.writeValue(root);
+            }
+            root.finish();
+            bytes = drain(root, sink, encoders);
+            if (gather != null) {
+                gather.flush();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            for (Encoder encoder : encoders) {
+                encoder.release();
+            }
+        }
+
+        if (metrics) {
+            Metrics.write(name, tag, bytes, System.nanoTime() - start, event);
+        }
+        return bytes;
+    }
+
+    // Writes the chunks of an encoder in order, waiting for forked tasks where they were forked
+    private static long drain(Encoder encoder, Sink sink, List<Encoder> encoders) throws IOException {
+        encoders.add(encoder);
+        long bytes = 0;
+        for (Object piece : encoder.pieces) {
+            if (piece instanceof Chunk) {
+                Chunk chunk = (Chunk) piece;
+                sink.write(chunk.bytes, chunk.offset, chunk.length);
+                bytes += chunk.length;
+            } else {
+                bytes += drain((Encoder) ((ForkJoinTask<?>) piece).join(), sink, encoders);
+            }
+        }
+        return bytes;
+    }
+
+    // Containers that are encoded child by child, and arrays
+    private static boolean splittable(Tag<?> tag) {
+        if (tag instanceof CompoundTag) {
+            return !((CompoundTag) tag).hasEncoding();
+        }
+        if (tag instanceof ListTag) {
+            return !((ListTag<?>) tag).hasEncoding();
+        }
+        return tag instanceof ByteArrayTag || tag instanceof IntArrayTag || tag instanceof LongArrayTag;
+    }
+
+    /**
+     * Returns the approximate encoded size of a value, counting string characters as bytes, or
+     * some value above {@code limit} once it exceeds it.
+     */
+    static long estimate(Tag<?> tag, long limit) {
+        switch (tag.getType().getId()) {
+            case 1:
+                return 1;
+            case 2:
+                return 2;
+            case 3:
+            case 5:
+                return 4;
+            case 4:
+            case 6:
+                return 8;
+            case 7:
+                return 4 + (long) ((ByteArrayTag) tag).getValue().length;
+            case 8:
+                return 2 + (long) ((StringTag) tag).getValue().length();
+            case 9: {
+                long size = 5;
+                for (Tag<?> child : ((ListTag<?>) tag).backing()) {
+                    size += estimate(child, limit - size);
+                    if (size > limit) {
+                        break;
+                    }
+                }
+                return size;
+            }
+            case 10: {
+                long size = 1;
+                for (Map.Entry<String, Tag> entry : ((CompoundTag) tag).backing().entrySet()) {
+                    size += 3 + entry.getKey().length() + estimate(entry.getValue(), limit - size);
+                    if (size > limit) {
+                        break;
+                    }
+                }
+                return size;
+            }
+            case 11:
+                return 4 + 4L * ((IntArrayTag) tag).getValue().length;
+            case 12:
+                return 4 + 8L * ((LongArrayTag) tag).getValue().length;
+            default:
+                return 0;
+        }
+    }
+
+    private interface Sink {
+
+        void write(byte[] bytes, int offset, int length) throws IOException;
+    }
+
+    // Collects chunks into gathering writes
+    private static final class Gather implements Sink {
+
+        private final FileChannel channel;
+        private final ByteBuffer[] buffers = new ByteBuffer[GATHER];
+        private int count;
+
+        Gather(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            buffers[count++] = ByteBuffer.wrap(bytes, offset, length);
+            if (count == buffers.length) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            int first = 0;
+            while (first < count) {
+                channel.write(buffers, first, count - first);
+                while (first < count && !buffers[first].hasRemaining()) {
+                    buffers[first++] = null;
+                }
+            }
+            count = 0;
+        }
+    }
+
+    private static final class Chunk {
+
+        final byte[] bytes;
+        final int offset;
+        final int length;
+
+        Chunk(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Output of one task: chunks of pooled buffers interleaved with the tasks forked for parts of
+     * the value, in document order.
+     */
+    private static final class Encoder implements DataOutput {
+
+        final List<Object> pieces = new ArrayList<>();
+        private final List<byte[]> owned = new ArrayList<>();
+        private final ForkJoinPool pool;
+        // Expected size, small tasks start with a buffer of that size instead of a pooled one
+        private final long hint;
+        private byte[] buffer;
+        private int start;
+        private int position;
+
+        Encoder(ForkJoinPool pool, long hint) {
+            this.pool = pool;
+            this.hint = hint;
+        }
+
+        void fork(ForkJoinTask<Encoder> task) {
+            cut();
+            if (ForkJoinTask.getPool() == pool) {
+                task.fork();
+            } else {
+                pool.execute(task);
+            }
+            pieces.add(task);
+        }
+
+        void finish() {
+            cut();
+        }
+
+        void release() {
+            for (byte[] bytes : owned) {
+                if (POOLED.incrementAndGet() <= MAX_POOLED) {
+                    POOL.offer(bytes);
+                } else {
+                    POOLED.decrementAndGet();
+                }
+            }
+            owned.clear();
+        }
+
+        // Closes the chunk written since the last cut
+        private void cut() {
+            if (position > start) {
+                pieces.add(new Chunk(buffer, start, position - start));
+            }
+            start = position;
+        }
+
+        private void ensure(int length) {
+            if (buffer == null || buffer.length - position < length) {
+                cut();
+                if (buffer == null && hint < BUFFER_BYTES / 2) {
+                    // Estimates count characters, leave room for multi-byte strings
+                    buffer = new byte[(int) Math.max(length, hint + hint / 4 + 16)];
+                } else {
+                    buffer = POOL.poll();
+                    if (buffer != null) {
+                        POOLED.decrementAndGet();
+                    } else {
+                        buffer = new byte[BUFFER_BYTES];
+                    }
+                    owned.add(buffer);
+                }
+                start = 0;
+                position = 0;
+            }
+        }
+
+        @Override
+        public void write(int b) {
+            ensure(1);
+            buffer[position++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b) {
+            write(b, 0, b.length);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (len >= DIRECT_BYTES) {
+                cut();
+                pieces.add(new Chunk(b, off, len));
+                return;
+            }
+            ensure(len);
+            System.arraycopy(b, off, buffer, position, len);
+            position += len;
+        }
+
+        @Override
+        public void writeBoolean(boolean v) {
+            write(v ? 1 : 0);
+        }
+
+        @Override
+        public void writeByte(int v) {
+            write(v);
+        }
+
+        @Override
+        public void writeShort(int v) {
+            ensure(2);
+            buffer[position++] = (byte) (v >>> 8);
+            buffer[position++] = (byte) v;
+        }
+
+        @Override
+        public void writeChar(int v) {
+            writeShort(v);
+        }
+
+        @Override
+        public void writeInt(int v) {
+            ensure(4);
+            buffer[position++] = (byte) (v >>> 24);
+            buffer[position++] = (byte) (v >>> 16);
+            buffer[position++] = (byte) (v >>> 8);
+            buffer[position++] = (byte) v;
+        }
+
+        @Override
+        public void writeLong(long v) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[position++] = (byte) (v >>> shift);
+            }
+        }
+
+        @Override
+        public void writeFloat(float v) {
+            writeInt(Float.floatToIntBits(v));
+        }
+
+        @Override
+        public void writeDouble(double v) {
+            writeLong(Double.doubleToLongBits(v));
+        }
+
+        @Override
+        public void writeBytes(String s) {
+            for (int i = 0; i < s.length(); i++) {
+                write(s.charAt(i));
+            }
+        }
+
+        @Override
+        public void writeChars(String s) {
+            for (int i = 0; i < s.length(); i++) {
+                writeChar(s.charAt(i));
+            }
+        }
+
+        @Override
+        public void writeUTF(String s) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(s.length() + 2);
+            new DataOutputStream(bytes).writeUTF(s);
+            write(bytes.toByteArray());
+        }
+    }
+
+    /**
+     * Encodes the payload of a large container or array, forking tasks for its parts.
+     */
+    private static final class Split extends RecursiveTask<Encoder> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Tag<?> tag;
+        private final ForkJoinPool pool;
+        private final int splitBytes;
+
+        Split(Tag<?> tag, ForkJoinPool pool, int splitBytes) {
+            this.tag = tag;
+            this.pool = pool;
+            this.splitBytes = splitBytes;
+        }
+
+        @Override
+        protected Encoder compute() {
+            // Only headers and the entries of the last batch are written here
+            Encoder out = new Encoder(pool, splitBytes);
+            try {
+                if (tag instanceof CompoundTag) {
+                    compound((CompoundTag) tag, out);
+                } else if (tag instanceof ListTag) {
+                    list((ListTag<?>) tag, out);
+                } else {
+                    array(out);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            out.finish();
+            return out;
+        }
+
+        private void compound(CompoundTag compound, Encoder out) throws IOException {
+            List<Map.Entry<String, Tag>> batch = new ArrayList<>();
+            long batchBytes = 0;
+            for (Map.Entry<String, Tag> entry : compound.entries().entrySet()) {
+                Tag child = entry.getValue();
+                long size = 3 + entry.getKey().length() + estimate(child, splitBytes);
+                if (size >= splitBytes && splittable(child)) {
+                    if (!batch.isEmpty()) {
+                        out.fork(new Batch(batch, true, batchBytes, pool));
+                        batch = new ArrayList<>();
+                        batchBytes = 0;
+                    }
+                    out.writeByte(child.getType().getId());
+                    StringTag.writeString(entry.getKey(), out);
+                    out.fork(new Split(child, pool, splitBytes));
+                    continue;
+                }
+                batch.add(entry);
+                batchBytes += size;
+                if (batchBytes >= splitBytes) {
+                    out.fork(new Batch(batch, true, batchBytes, pool));
+                    batch = new ArrayList<>();
+                    batchBytes = 0;
+                }
+            }
+            // The last batch is encoded here rather than forked
+            for (Map.Entry<String, Tag> entry : batch) {
+                entry.getValue().writeTo(entry.getKey(), out);
+            }
+            out.writeByte(TagType.END.getId());
+        }
+
+        private void list(ListTag<?> list, Encoder out) throws IOException {
+            List<? extends Tag<?>> elements = list.backing();
+            out.writeByte(list.getChildType().getId());
+            out.writeInt(elements.size());
+            int from = 0;
+            long batchBytes = 0;
+            for (int i = 0; i < elements.size(); i++) {
+                Tag<?> child = elements.get(i);
+                long size = estimate(child, splitBytes);
+                if (size >= splitBytes && splittable(child)) {
+                    if (from < i) {
+                        out.fork(new Batch(elements.subList(from, i), false, batchBytes, pool));
+                    }
+                    out.fork(new Split(child, pool, splitBytes));
+                    from = i + 1;
+                    batchBytes = 0;
+                    continue;
+                }
+                batchBytes += size;
+                if (batchBytes >= splitBytes) {
+                    out.fork(new Batch(elements.subList(from, i + 1), false, batchBytes, pool));
+                    from = i + 1;
+                    batchBytes = 0;
+                }
+            }
+            for (int i = from; i < elements.size(); i++) {
+                elements.get(i).writeValue(out);
+            }
+        }
+
+        private void array(Encoder out) {
+            int width;
+            int length;
+            if (tag instanceof ByteArrayTag) {
+                width = 1;
+                length = ((ByteArrayTag) tag).getValue().length;
+            } else if (tag instanceof IntArrayTag) {
+                width = 4;
+                length = ((IntArrayTag) tag).getValue().length;
+            } else {
+                width = 8;
+                length = ((LongArrayTag) tag).getValue().length;
+            }
+            out.writeInt(length);
+            if (width == 1) {
+                // Referenced as it is, there is nothing to encode
+                out.write(((ByteArrayTag) tag).getValue());
+                return;
+            }
+            int slice = Math.max(1, splitBytes / width);
+            for (int from = 0; from < length; from += slice) {
+                out.fork(new Slice(tag, from, Math.min(length, from + slice)));
+            }
+        }
+    }
+
+    /**
+     * Encodes a run of small compound entries or list elements inline.
+     */
+    private static final class Batch extends RecursiveTask<Encoder> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<?> items;
+        private final boolean named;
+        private final long bytes;
+        private final ForkJoinPool pool;
+
+        Batch(List<?> items, boolean named, long bytes, ForkJoinPool pool) {
+            this.items = items;
+            this.named = named;
+            this.bytes = bytes;
+            this.pool = pool;
+        }
+
+        @Override
+        protected Encoder compute() {
+            Encoder out = new Encoder(pool, bytes);
+            try {
+                for (Object item : items) {
+                    if (named) {
+                        Map.Entry<?, ?> entry = (Map.Entry<?, ?>) item;
+                        ((Tag<?>) entry.getValue()).writeTo((String) entry.getKey(), out);
+                    } else {
+                        ((Tag<?>) item).writeValue(out);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            out.finish();
+            return out;
+        }
+    }
+
+    /**
+     * Encodes a range of an int or long array.
+     */
+    private static final class Slice extends RecursiveTask<Encoder> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Tag<?> tag;
+        private final int from;
+        private final int to;
+
+        Slice(Tag<?> tag, int from, int to) {
+            this.tag = tag;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Encoder compute() {
+            boolean ints = tag instanceof IntArrayTag;
+            byte[] bytes = new byte[(to - from) * (ints ? 4 : 8)];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            if (ints) {
+                buffer.asIntBuffer().put(((IntArrayTag) tag).getValue(), from, to - from);
+            } else {
+                buffer.asLongBuffer().put(((LongArrayTag) tag).getValue(), from, to - from);
+            }
+            // Not pooled, the slice is sized to the range
+            Encoder out = new Encoder(null, 0);
+            out.pieces.add(new Chunk(bytes, 0, bytes.length));
+            return out;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.jnbt;
+
+import java.io.IOException;
+
+/**
+ * State of a single decode: its {@link ReadOptions}, the counters checked against its
+ * {@link ReadLimits}, and the figures reported to {@link NbtMetrics} when metrics are on.
+ */
+final class ReadContext {
+
+    final ReadOptions options;
+    final boolean frozen;
+    // Null unless frozen trees are deduplicated
+    final TagInterner interner;
+
+    private final long maxBytes;
+    private final int maxDepth;
+    private final int maxArrayLength;
+    private final int maxStringLength;
+
+    private long bytes;
+    private int depth;
+    // Element slots charged for lists on top of their actual bytes
+    private long slots;
+
+    // Null unless metrics are on
+    private final int[] counts;
+    private int deepest;
+    private long arrayBytes;
+    private long decompressNanos;
+    private long start;
+    private Object event;
+    private boolean reported;
+
+    ReadContext(ReadOptions options) {
+        ReadLimits limits = options.getLimits();
+        this.options = options;
+        this.frozen = options.isFrozen();
+        this.interner = frozen ? options.getInterner() : null;
+        this.maxBytes = limits.getMaxBytes();
+        this.maxDepth = limits.getMaxDepth();
+        this.maxArrayLength = limits.getMaxArrayLength();
+        this.maxStringLength = limits.getMaxStringLength();
+        this.counts = Metrics.reading() ? new int[13] : null;
+    }
+
+    /**
+     * Marks the start of the document, for the decode time.
+     */
+    void begin() {
+        if (counts != null) {
+            event = Metrics.beginRead();
+            start = System.nanoTime();
+        }
+    }
+
+    /**
+     * Reports the document once it has been read.
+     */
+    void end() {
+        if (counts != null && !reported) {
+            reported = true;
+            long nanos = System.nanoTime() - start;
+            Metrics.read(new NbtMetrics.Report(options.getLabel(), bytes - slots, counts, deepest, arrayBytes, decompressNanos, nanos), event);
+        }
+    }
+
+    /**
+     * Returns the canonical instance of a decoded tag when deduplicating.
+     */
+    Tag intern(Tag tag) {
+        return interner == null ? tag : interner.canonical(tag);
+    }
+
+    String key(String key) {
+        return interner == null ? key : interner.key(key);
+    }
+
+    void decompressed(long nanos) {
+        decompressNanos = nanos;
+    }
+
+    void count(TagType<?, ?> type) {
+        if (counts != null) {
+            counts[type.getId()]++;
+        }
+    }
+
+    void count(TagType<?, ?> type, int n) {
+        if (counts != null) {
+            counts[type.getId()] += n;
+        }
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    void account(long n) throws NbtLimitException {
+        bytes += n;
+        if (bytes > maxBytes) {
+            throw new NbtLimitException("Tag is larger than " + maxBytes + " bytes");
+        }
+    }
+
+    void enter() throws NbtLimitException {
+        if (++depth > deepest) {
+            deepest = depth;
+            if (depth > maxDepth) {
+                throw new NbtLimitException("Tag is nested deeper than " + maxDepth);
+            }
+        }
+    }
+
+    void exit() {
+        depth--;
+    }
+
+    /**
+     * Checks and accounts for an array or list of the given length and element size.
+     */
+    int length(int length, int width) throws IOException {
+        if (length < 0) {
+            throw new IOException("Negative length " + length);
+        }
+        if (length > maxArrayLength) {
+            throw new NbtLimitException("Length " + length + " is over the limit of " + maxArrayLength);
+        }
+        account((long) length * width);
+        return length;
+    }
+
+    /**
+     * As {@link #length}, for the elements of a list, which are charged 4 bytes each up front.
+     */
+    int elements(int length) throws IOException {
+        length(length, 4);
+        slots += (long) length * 4;
+        return length;
+    }
+
+    /**
+     * As {@link #length}, for the payload of a primitive array.
+     */
+    int array(int length, int width) throws IOException {
+        length(length, width);
+        arrayBytes += (long) length * width;
+        return length;
+    }
+
+    int stringLength(int length) throws NbtLimitException {
+        if (length > maxStringLength) {
+            throw new NbtLimitException("String of " + length + " bytes is over the limit of " + maxStringLength);
+        }
+        account(length);
+        return length;
+    }
+}
@@ -0,0 +1,89 @@
+package org.jnbt;
+
+/**
+ * Bounds on the resources a single decode may use, checked before anything is allocated.
+ *
+ * <p>{@link #defaults()} only limits nesting depth, which protects the recursive readers from
+ * stack overflows. Untrusted input should use {@link #network()} or explicit limits, so that a
+ * malformed length cannot make the reader allocate more than the budget allows. The byte budget
+ * counts decoded bytes, including the element slots of lists and arrays as they are announced.</p>
+ */
+public final class ReadLimits {
+
+    static final int DEFAULT_MAX_DEPTH = 512;
+
+    private static final ReadLimits UNLIMITED = new ReadLimits(Long.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    private static final ReadLimits DEFAULTS = new ReadLimits(Long.MAX_VALUE, DEFAULT_MAX_DEPTH, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    private static final ReadLimits NETWORK = new ReadLimits(2 * 1024 * 1024, DEFAULT_MAX_DEPTH, 1024 * 1024, 65535);
+
+    private final long maxBytes;
+    private final int maxDepth;
+    private final int maxArrayLength;
+    private final int maxStringLength;
+
+    private ReadLimits(long maxBytes, int maxDepth, int maxArrayLength, int maxStringLength) {
+        if (maxBytes < 0 || maxDepth < 0 || maxArrayLength < 0 || maxStringLength < 0) {
+            throw new IllegalArgumentException("negative limit");
+        }
+        this.maxBytes = maxBytes;
+        this.maxDepth = maxDepth;
+        this.maxArrayLength = maxArrayLength;
+        this.maxStringLength = maxStringLength;
+    }
+
+    public static ReadLimits unlimited() {
+        return UNLIMITED;
+    }
+
+    /**
+     * Nesting depth of 512, nothing else.
+     */
+    public static ReadLimits defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * The limits vanilla servers apply to packets: 2 MiB and a nesting depth of 512.
+     */
+    public static ReadLimits network() {
+        return NETWORK;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public int getMaxArrayLength() {
+        return maxArrayLength;
+    }
+
+    public int getMaxStringLength() {
+        return maxStringLength;
+    }
+
+    public ReadLimits withMaxBytes(long maxBytes) {
+        return new ReadLimits(maxBytes, maxDepth, maxArrayLength, maxStringLength);
+    }
+
+    public ReadLimits withMaxDepth(int maxDepth) {
+        return new ReadLimits(maxBytes, maxDepth, maxArrayLength, maxStringLength);
+    }
+
+    public ReadLimits withMaxArrayLength(int maxArrayLength) {
+        return new ReadLimits(maxBytes, maxDepth, maxArrayLength, maxStringLength);
+    }
+
+    public ReadLimits withMaxStringLength(int maxStringLength) {
+        return new ReadLimits(maxBytes, maxDepth, maxArrayLength, maxStringLength);
+    }
+
+    @Override
+    public String toString() {
+        return "ReadLimits{maxBytes=" + maxBytes + ", maxDepth=" + maxDepth
+                + ", maxArrayLength=" + maxArrayLength + ", maxStringLength=" + maxStringLength + "}";
+    }
+}
@@ -0,0 +1,71 @@
+package org.jnbt;
+
+/**
+ * Controls how {@link Nbt#read} materializes the decoded tree.
+ *
+ * <p>{@link #frozen()} (the default) produces compounds and lists that reject modification,
+ * while {@link #mutable()} produces trees that can be edited in place without calling
+ * {@code copy()} at every level.</p>
+ *
+ * <p>Both use {@link ReadLimits#defaults()}, see {@link #withLimits(ReadLimits)} for untrusted
+ * input. {@link #withLabel(String)} names the document in {@link NbtMetrics} reports, and
+ * {@link #withInterner(TagInterner)} deduplicates frozen trees as they are decoded.</p>
+ */
+public final class ReadOptions {
+
+    private static final ReadOptions FROZEN = new ReadOptions(true, ReadLimits.defaults(), "", null);
+    private static final ReadOptions MUTABLE = new ReadOptions(false, ReadLimits.defaults(), "", null);
+
+    private final boolean frozen;
+    private final ReadLimits limits;
+    private final String label;
+    private final TagInterner interner;
+
+    private ReadOptions(boolean frozen, ReadLimits limits, String label, TagInterner interner) {
+        this.frozen = frozen;
+        this.limits = limits;
+        this.label = label;
+        this.interner = interner;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    public ReadLimits getLimits() {
+        return limits;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public TagInterner getInterner() {
+        return interner;
+    }
+
+    public ReadOptions withLimits(ReadLimits limits) {
+        return new ReadOptions(frozen, limits, label, interner);
+    }
+
+    public ReadOptions withLabel(String label) {
+        return new ReadOptions(frozen, limits, label, interner);
+    }
+
+    /**
+     * Returns options that replace equal subtrees, strings, arrays and keys of frozen trees with
+     * the canonical instances of the given interner, or {@code null} to turn deduplication off.
+     * Mutable reads are not deduplicated.
+     */
+    public ReadOptions withInterner(TagInterner interner) {
+        return new ReadOptions(frozen, limits, label, interner);
+    }
+
+    public static ReadOptions frozen() {
+        return FROZEN;
+    }
+
+    public static ReadOptions mutable() {
+        return MUTABLE;
+    }
+}
@@ -0,0 +1,299 @@
+package org.jnbt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Read access to an Anvil region file ({@code r.<x>.<z>.mca}), which stores up to 32x32 chunks
+ * as compressed NBT documents in 4 KiB sectors.
+ *
+ * <p>The location and timestamp tables are read when the file is opened; chunks are read with
+ * positional reads, so a query that needs a few chunks only touches their sectors. Chunk
+ * coordinates may be given as absolute or region-local, only the low five bits are used.
+ * Oversized chunks stored in {@code c.<x>.<z>.mcc} files next to the region are followed.</p>
+ */
+public final class RegionFile implements Closeable {
+
+    public static final int SECTOR_BYTES = 4096;
+    public static final int CHUNKS = 1024;
+
+    static final int GZIP = 1;
+    static final int ZLIB = 2;
+    static final int NONE = 3;
+    static final int EXTERNAL = 0x80;
+    // Largest chunk the location table can describe, in sectors
+    static final int MAX_SECTORS = 255;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int regionX;
+    private final int regionZ;
+    private final int[] locations = new int[CHUNKS];
+    private final int[] timestamps = new int[CHUNKS];
+
+    public RegionFile(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        int[] coords = coordinates(path);
+        this.regionX = coords[0];
+        this.regionZ = coords[1];
+        try {
+            ByteBuffer header = ByteBuffer.allocate(2 * SECTOR_BYTES);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // read until full or end of file
+            }
+            // Files shorter than the header are treated as empty, as the game does
+            if (!header.hasRemaining()) {
+                header.flip();
+                header.asIntBuffer().get(locations).get(timestamps);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the region x coordinate from the file name, or 0 if the name does not follow the
+     * {@code r.<x>.<z>.mca} pattern.
+     */
+    public int getRegionX() {
+        return regionX;
+    }
+
+    public int getRegionZ() {
+        return regionZ;
+    }
+
+    public boolean hasChunk(int x, int z) {
+        return locations[index(x, z)] != 0;
+    }
+
+    /**
+     * Returns the last modification time of the chunk in seconds since the epoch, as recorded by
+     * the game.
+     */
+    public int getTimestamp(int x, int z) {
+        return timestamps[index(x, z)];
+    }
+
+    /**
+     * Returns the byte offset of the chunk in the file, or 0 if it is absent.
+     */
+    public long getOffset(int x, int z) {
+        return (long) (locations[index(x, z)] >>> 8) * SECTOR_BYTES;
+    }
+
+    /**
+     * Returns the decompressed NBT document of a chunk, or null if the chunk is absent.
+     */
+    public InputStream openChunk(int x, int z) throws IOException {
+        int location = locations[index(x, z)];
+        if (location == 0) {
+            return null;
+        }
+        long offset = (long) (location >>> 8) * SECTOR_BYTES;
+        int sectors = location & 0xFF;
+        ByteBuffer header = ByteBuffer.allocate(5);
+        readFully(header, offset);
+        int length = header.getInt(0) - 1;
+        int compression = header.get(4) & 0xFF;
+        if (length < 0 || length + 5L > (long) sectors * SECTOR_BYTES) {
+            throw new IOException("Chunk " + x + "," + z + " has invalid length " + (length + 1));
+        }
+        if ((compression & EXTERNAL) != 0) {
+            Path external = path.resolveSibling("c." + (regionX * 32 + (x & 31)) + "." + (regionZ * 32 + (z & 31)) + ".mcc");
+            return decompress(Files.newInputStream(external), compression & ~EXTERNAL);
+        }
+        ByteBuffer data = ByteBuffer.allocate(length);
+        readFully(data, offset + 5);
+        return decompress(new ByteArrayInputStream(data.array()), compression);
+    }
+
+    /**
+     * Returns a pull reader over a chunk, or null if the chunk is absent.
+     */
+    public NbtReader reader(int x, int z) throws IOException {
+        return reader(x, z, ReadOptions.frozen());
+    }
+
+    public NbtReader reader(int x, int z, ReadOptions options) throws IOException {
+        InputStream in = openChunk(x, z);
+        return in == null ? null : new NbtReader(in, options);
+    }
+
+    /**
+     * Reads a chunk, or returns null if the chunk is absent.
+     */
+    public RootTag read(int x, int z) throws IOException {
+        return read(x, z, ReadOptions.frozen());
+    }
+
+    public RootTag read(int x, int z, ReadOptions options) throws IOException {
+        if (Metrics.reading()) {
+            // Decompress up front so the report can tell decompression and decoding apart
+            long start = System.nanoTime();
+            byte[] chunk = readChunk(x, z);
+            if (chunk == null) {
+                return null;
+            }
+            long nanos = System.nanoTime() - start;
+            if (options.getLabel().isEmpty()) {
+                options = options.withLabel(path.getFileName() + "[" + (regionX * 32 + (x & 31)) + "," + (regionZ * 32 + (z & 31)) + "]");
+            }
+            ReadContext context = new ReadContext(options);
+            context.decompressed(nanos);
+            return TagReader.readRootTag(new DataInputStream(new ByteArrayInputStream(chunk)), context, true);
+        }
+        try (InputStream in = openChunk(x, z)) {
+            return in == null ? null : Nbt.read(in, options);
+        }
+    }
+
+    // Decompressed bytes of a chunk, for callers that make several passes over it
+    byte[] readChunk(int x, int z) throws IOException {
+        try (InputStream in = openChunk(x, z)) {
+            if (in == null) {
+                return null;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(4 * SECTOR_BYTES);
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+
+    static int index(int x, int z) {
+        return (x & 31) + (z & 31) * 32;
+    }
+
+    static int[] coordinates(Path path) {
+        String[] parts = path.getFileName().toString().split("\\.");
+        if (parts.length == 4 && parts[0].equals("r")) {
+            try {
+                return new int[]{Integer.parseInt(parts[1]), Integer.parseInt(parts[2])};
+            } catch (NumberFormatException e) {
+                // not a region file name
+            }
+        }
+        return new int[2];
+    }
+
+    static int sectors(int bytes) {
+        return (bytes + SECTOR_BYTES - 1) / SECTOR_BYTES;
+    }
+
+    /*
+     * Encodes and deflates a chunk, framed as regions store it: the length of what follows, the
+     * compression type and the zlib data.
+     */
+    static byte[] frame(String name, Tag<?> tag) throws IOException {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(64 * 1024);
+        Nbt.write(name, tag, raw);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(16 * 1024);
+        // Room for the length and compression header
+        buffer.write(new byte[5]);
+        // Deflated in one call, the stream's small buffer makes per-tag writes slow
+        try (OutputStream out = new DeflaterOutputStream(buffer)) {
+            raw.writeTo(out);
+        }
+        byte[] frame = buffer.toByteArray();
+        ByteBuffer.wrap(frame).putInt(0, frame.length - 4).put(4, (byte) ZLIB);
+        return frame;
+    }
+
+    /*
+     * Returns a frame as the region stores it. One too large for the location table is stored in
+     * its external file as the game does, replaced atomically and durably, and the returned frame
+     * only refers to it.
+     */
+    static byte[] externalize(byte[] frame, Path external) throws IOException {
+        if (sectors(frame.length) <= MAX_SECTORS) {
+            return frame;
+        }
+        Path temporary = external.resolveSibling(external.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(frame, 5, frame.length - 5);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(false);
+        }
+        Files.move(temporary, external, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(external);
+        byte[] stub = new byte[5];
+        ByteBuffer.wrap(stub).putInt(0, 1).put(4, (byte) (ZLIB | EXTERNAL));
+        return stub;
+    }
+
+    /*
+     * Makes files created or renamed next to the given one durable, by syncing their directory.
+     * Skipped on platforms that cannot open directories, such as Windows.
+     */
+    static void syncDirectory(Path file) throws IOException {
+        FileChannel directory;
+        try {
+            directory = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try (FileChannel channel = directory) {
+            channel.force(true);
+        }
+    }
+
+    private static InputStream decompress(InputStream in, int compression) throws IOException {
+        switch (compression) {
+            case GZIP:
+                return new GZIPInputStream(in);
+            case ZLIB:
+                return new InflaterInputStream(in);
+            case NONE:
+                return in;
+            default:
+                in.close();
+                throw new IOException("Unsupported chunk compression " + compression);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Chunk data ends at " + (position + buffer.position()) + " in " + path);
+            }
+        }
+    }
+}
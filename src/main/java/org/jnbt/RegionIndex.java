@@ -0,0 +1,399 @@
+package org.jnbt;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A persistent inverted index from the string values selected by {@link NbtPath}s to the chunks
+ * that contain them, e.g. {@code block_entities[].Items[].id} to find every container holding an
+ * item.
+ *
+ * <p>{@link #update} makes one pass over the region files of a directory and re-indexes only the
+ * chunks whose timestamp or location changed since the last update, streaming each chunk through
+ * the paths without building a tree. {@link #find} then answers from the index, and
+ * {@link #read} touches only the matching chunks.</p>
+ *
+ * <p>The index is stored as a gzipped NBT document and written atomically by {@link #save()}. An
+ * index saved with different paths is discarded on open and rebuilt by the next update.</p>
+ */
+public final class RegionIndex {
+
+    private static final int VERSION = 1;
+
+    private final Path file;
+    private final String[] paths;
+    private final NbtPath[] compiled;
+    // Keyed by absolute path, so several directories (regions, entities) can share one index
+    private final Map<String, Region> regions = new TreeMap<>();
+    // Per path: value -> chunks, as region and chunk index
+    private final List<Map<String, Set<ChunkRef>>> terms = new ArrayList<>();
+
+    private RegionIndex(Path file, String[] paths) {
+        this.file = file;
+        this.paths = paths.clone();
+        this.compiled = new NbtPath[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            compiled[i] = NbtPath.compile(paths[i]);
+            terms.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * Opens the index stored at {@code file}, or an empty one if it does not exist yet.
+     */
+    public static RegionIndex open(Path file, String... paths) throws IOException {
+        RegionIndex index = new RegionIndex(file, paths);
+        if (Files.exists(file)) {
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+                index.load(Nbt.read(in).getTag().asCompound());
+            }
+        }
+        return index;
+    }
+
+    public List<String> getPaths() {
+        return Collections.unmodifiableList(Arrays.asList(paths));
+    }
+
+    /**
+     * Brings the index up to date with the {@code r.<x>.<z>.mca} files in {@code directory} and
+     * returns the number of chunks that were re-indexed. Call {@link #save()} to persist it.
+     */
+    public int update(Path directory) throws IOException {
+        Path absolute = directory.toAbsolutePath().normalize();
+        Set<String> seen = new LinkedHashSet<>();
+        int changed = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(absolute, "r.*.mca")) {
+            for (Path path : files) {
+                String name = path.toString();
+                seen.add(name);
+                Region region = regions.computeIfAbsent(name, Region::new);
+                try (RegionFile regionFile = new RegionFile(path)) {
+                    changed += update(region, regionFile);
+                }
+            }
+        }
+        // Regions of this directory that were deleted
+        for (Region region : new ArrayList<>(regions.values())) {
+            if (!seen.contains(region.name) && absolute.equals(file.getFileSystem().getPath(region.name).getParent())) {
+                for (int i = 0; i < RegionFile.CHUNKS; i++) {
+                    changed += clear(region, i) ? 1 : 0;
+                }
+                regions.remove(region.name);
+            }
+        }
+        return changed;
+    }
+
+    private int update(Region region, RegionFile regionFile) throws IOException {
+        int changed = 0;
+        for (int i = 0; i < RegionFile.CHUNKS; i++) {
+            int x = i & 31;
+            int z = i >> 5;
+            int sector = (int) (regionFile.getOffset(x, z) / RegionFile.SECTOR_BYTES);
+            int timestamp = regionFile.getTimestamp(x, z);
+            if (region.sectors[i] == sector && region.timestamps[i] == timestamp) {
+                continue;
+            }
+            // Values are collected before the chunk is recorded, so a chunk that fails to read
+            // keeps its old entry and is retried by the next update
+            List<List<String>> values = new ArrayList<>(compiled.length);
+            byte[] chunk = sector == 0 ? null : regionFile.readChunk(x, z);
+            for (NbtPath path : compiled) {
+                List<String> selected = new ArrayList<>();
+                if (chunk != null) {
+                    path.select(new NbtReader(new ByteArrayInputStream(chunk)), tag -> {
+                        if (tag instanceof StringTag) {
+                            selected.add(((StringTag) tag).getValue());
+                        }
+                    });
+                }
+                values.add(selected);
+            }
+            clear(region, i);
+            ChunkRef ref = new ChunkRef(region.name, i);
+            for (int p = 0; p < values.size(); p++) {
+                for (String value : values.get(p)) {
+                    add(p, value, ref);
+                }
+            }
+            region.sectors[i] = sector;
+            region.timestamps[i] = timestamp;
+            changed++;
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the chunks containing {@code value} at {@code path}, ordered by region and chunk.
+     */
+    public List<Location> find(String path, String value) {
+        Set<ChunkRef> refs = terms.get(pathIndex(path)).get(value);
+        if (refs == null) {
+            return Collections.emptyList();
+        }
+        List<ChunkRef> sorted = new ArrayList<>(refs);
+        sorted.sort((a, b) -> {
+            int c = a.region.compareTo(b.region);
+            return c != 0 ? c : Integer.compare(a.chunk, b.chunk);
+        });
+        List<Location> result = new ArrayList<>(sorted.size());
+        for (ChunkRef ref : sorted) {
+            Region region = regions.get(ref.region);
+            Path regionPath = file.getFileSystem().getPath(ref.region);
+            int[] coords = RegionFile.coordinates(regionPath);
+            result.add(new Location(regionPath, coords[0] * 32 + (ref.chunk & 31), coords[1] * 32 + (ref.chunk >> 5),
+                    (long) region.sectors[ref.chunk] * RegionFile.SECTOR_BYTES));
+        }
+        return result;
+    }
+
+    /**
+     * Returns every value indexed at {@code path}.
+     */
+    public Set<String> values(String path) {
+        return Collections.unmodifiableSet(terms.get(pathIndex(path)).keySet());
+    }
+
+    /**
+     * Reads the chunk at a location returned by {@link #find}.
+     */
+    public RootTag read(Location location) throws IOException {
+        try (RegionFile region = new RegionFile(location.file)) {
+            return region.read(location.chunkX, location.chunkZ);
+        }
+    }
+
+    public void save() throws IOException {
+        CompoundTag root = Nbt.compound();
+        root.put("Version", VERSION);
+        ListTag<String> pathList = Nbt.list(TagType.STRING);
+        for (String path : paths) {
+            pathList.add(path);
+        }
+        root.put("Paths", pathList);
+
+        Map<String, Integer> ids = new HashMap<>();
+        ListTag<CompoundTag> regionList = Nbt.list(TagType.COMPOUND);
+        for (Region region : regions.values()) {
+            ids.put(region.name, ids.size());
+            regionList.add(Nbt.compound()
+                    .put("File", region.name)
+                    .put("Sectors", region.sectors.clone())
+                    .put("Timestamps", region.timestamps.clone()));
+        }
+        root.put("Regions", regionList);
+
+        ListTag<CompoundTag> termList = Nbt.list(TagType.COMPOUND);
+        for (Map<String, Set<ChunkRef>> values : terms) {
+            CompoundTag compound = Nbt.compound(values.size());
+            for (Map.Entry<String, Set<ChunkRef>> entry : values.entrySet()) {
+                int[] chunks = new int[entry.getValue().size()];
+                int i = 0;
+                for (ChunkRef ref : entry.getValue()) {
+                    chunks[i++] = ids.get(ref.region) << 10 | ref.chunk;
+                }
+                Arrays.sort(chunks);
+                compound.put(entry.getKey(), chunks);
+            }
+            termList.add(compound);
+        }
+        root.put("Terms", termList);
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp))) {
+            Nbt.write(root, out);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void load(CompoundTag root) {
+        if (root.getInt("Version") != VERSION) {
+            return;
+        }
+        List<String> stored = new ArrayList<>();
+        for (String path : root.getListTag("Paths", TagType.STRING)) {
+            stored.add(path);
+        }
+        if (!stored.equals(Arrays.asList(paths))) {
+            return;
+        }
+        List<String> names = new ArrayList<>();
+        for (CompoundTag entry : root.getListTag("Regions", TagType.COMPOUND)) {
+            Region region = new Region(entry.getString("File"));
+            int[] sectors = entry.getInts("Sectors");
+            int[] timestamps = entry.getInts("Timestamps");
+            if (sectors.length != RegionFile.CHUNKS || timestamps.length != RegionFile.CHUNKS) {
+                regions.clear();
+                return;
+            }
+            System.arraycopy(sectors, 0, region.sectors, 0, RegionFile.CHUNKS);
+            System.arraycopy(timestamps, 0, region.timestamps, 0, RegionFile.CHUNKS);
+            regions.put(region.name, region);
+            names.add(region.name);
+        }
+        int p = 0;
+        for (CompoundTag values : root.getListTag("Terms", TagType.COMPOUND)) {
+            if (p == paths.length) {
+                break;
+            }
+            for (Map.Entry<String, Tag> entry : values) {
+                for (int packed : entry.getValue().asIntArray().getValue()) {
+                    add(p, entry.getKey(), new ChunkRef(names.get(packed >>> 10), packed & 1023));
+                }
+            }
+            p++;
+        }
+    }
+
+    private void add(int path, String value, ChunkRef ref) {
+        terms.get(path).computeIfAbsent(value, k -> new LinkedHashSet<>()).add(ref);
+        regions.get(ref.region).values(ref.chunk).add(path + "\0" + value);
+    }
+
+    private boolean clear(Region region, int chunk) {
+        boolean indexed = region.sectors[chunk] != 0;
+        Set<String> values = region.values[chunk];
+        if (values != null) {
+            ChunkRef ref = new ChunkRef(region.name, chunk);
+            for (String term : values) {
+                int split = term.indexOf('\0');
+                Map<String, Set<ChunkRef>> byValue = terms.get(Integer.parseInt(term.substring(0, split)));
+                String value = term.substring(split + 1);
+                Set<ChunkRef> refs = byValue.get(value);
+                if (refs != null && refs.remove(ref) && refs.isEmpty()) {
+                    byValue.remove(value);
+                }
+            }
+            region.values[chunk] = null;
+        }
+        region.sectors[chunk] = 0;
+        region.timestamps[chunk] = 0;
+        return indexed;
+    }
+
+    private int pathIndex(String path) {
+        for (int i = 0; i < paths.length; i++) {
+            if (paths[i].equals(path)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Path not indexed: " + path);
+    }
+
+    /**
+     * A chunk found by {@link #find}, with absolute chunk coordinates.
+     */
+    public static final class Location {
+
+        private final Path file;
+        private final int chunkX;
+        private final int chunkZ;
+        private final long offset;
+
+        Location(Path file, int chunkX, int chunkZ, long offset) {
+            this.file = file;
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.offset = offset;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public int getChunkX() {
+            return chunkX;
+        }
+
+        public int getChunkZ() {
+            return chunkZ;
+        }
+
+        /**
+         * Returns the byte offset of the chunk in its region file when it was indexed.
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Location)) return false;
+            Location other = (Location) obj;
+            return chunkX == other.chunkX && chunkZ == other.chunkZ && offset == other.offset && file.equals(other.file);
+        }
+
+        @Override
+        public int hashCode() {
+            return (file.hashCode() * 31 + chunkX) * 31 + chunkZ;
+        }
+
+        @Override
+        public String toString() {
+            return file.getFileName() + "[" + chunkX + "," + chunkZ + "]@" + offset;
+        }
+    }
+
+    private static final class Region {
+
+        private final String name;
+        private final int[] sectors = new int[RegionFile.CHUNKS];
+        private final int[] timestamps = new int[RegionFile.CHUNKS];
+        // Terms each chunk contributed, as "path\0value", so a changed chunk can be un-indexed
+        @SuppressWarnings("unchecked")
+        private final Set<String>[] values = new Set[RegionFile.CHUNKS];
+
+        private Region(String name) {
+            this.name = name;
+        }
+
+        private Set<String> values(int chunk) {
+            if (values[chunk] == null) {
+                values[chunk] = new LinkedHashSet<>();
+            }
+            return values[chunk];
+        }
+    }
+
+    private static final class ChunkRef {
+
+        private final String region;
+        private final int chunk;
+
+        private ChunkRef(String region, int chunk) {
+            this.region = region;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ChunkRef)) return false;
+            ChunkRef other = (ChunkRef) obj;
+            return chunk == other.chunk && region.equals(other.region);
+        }
+
+        @Override
+        public int hashCode() {
+            return region.hashCode() * 1031 + chunk;
+        }
+    }
+}
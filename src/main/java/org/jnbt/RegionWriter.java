@@ -0,0 +1,446 @@
+package org.jnbt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Writes chunks to an Anvil region file in group commits, so that saving many chunks costs a few
+ * {@code fsync} calls rather than one or more per chunk.
+ *
+ * <p>{@link #write} compresses a chunk on the calling thread and queues it; {@link #commit()}
+ * writes every queued chunk, with chunks in adjacent sectors coalesced into one gathering write,
+ * and then updates the header once. Threads may write and commit concurrently: a commit includes
+ * the chunks every thread queued before it started, and a thread whose chunks a running commit
+ * already took waits for it rather than starting another.</p>
+ *
+ * <p>Durability:</p>
+ * <ul>
+ *     <li>A chunk is durable once a {@code commit()} called after its {@code write} returns, or
+ *     after {@link #close()}.</li>
+ *     <li>Chunks are written copy-on-write: new data never goes to sectors the header on disk
+ *     refers to, nor to those of a commit that failed after starting its journal, so until the
+ *     header changes every committed chunk stays readable.</li>
+ *     <li>The header is changed only after the new data is synced, and is first written with a
+ *     checksum to a journal next to the region ({@code r.<x>.<z>.mca.journal}), which is synced
+ *     before the header is overwritten. Opening a writer completes a header left half written by
+ *     a crash from the journal, and discards a journal that was itself cut short, so after a crash
+ *     the header is never torn: it lists either all chunks of the interrupted commit or none.</li>
+ *     <li>Chunks too large for the region are stored in {@code c.<x>.<z>.mcc} files, which are
+ *     replaced atomically before the header. If a crash interrupts the commit, such a chunk may
+ *     already read as its new version.</li>
+ * </ul>
+ *
+ * <p>A commit syncs the region, the journal and the directory holding them four times in all,
+ * whatever the number of chunks, plus twice for each chunk stored in its own file.
+ * {@link RegionFile}s opened before a commit keep the header they read; open them again to see
+ * its chunks.</p>
+ */
+public final class RegionWriter implements Closeable {
+
+    private static final int SECTOR_BYTES = RegionFile.SECTOR_BYTES;
+    private static final int HEADER_BYTES = 2 * SECTOR_BYTES;
+    private static final int JOURNAL_MAGIC = 0x4E42544A;
+    private static final int JOURNAL_BYTES = 4 + HEADER_BYTES + 4;
+    private static final byte[] ZEROS = new byte[SECTOR_BYTES];
+
+    private final Path path;
+    private final Path journal;
+    private final FileChannel channel;
+    private final int regionX;
+    private final int regionZ;
+    private final Object commitLock = new Object();
+
+    // Committed state, guarded by commitLock
+    private int[] locations = new int[RegionFile.CHUNKS];
+    private int[] timestamps = new int[RegionFile.CHUNKS];
+    // Chunks stored in their own file, including any a failed commit may have stored there
+    private BitSet externalized = new BitSet(RegionFile.CHUNKS);
+    // Sectors a header or journal left by a failed commit may refer to, free again after a commit
+    private final BitSet pinned = new BitSet();
+    private long durable;
+    private long commits;
+
+    // Queued chunks by index, null data for deletions; guarded by this
+    private Map<Integer, Pending> pending = new HashMap<>();
+    private long queued;
+    private boolean closed;
+
+    private RegionWriter(Path path, FileChannel channel) {
+        this.path = path;
+        this.journal = path.resolveSibling(path.getFileName() + ".journal");
+        this.channel = channel;
+        int[] coords = RegionFile.coordinates(path);
+        this.regionX = coords[0];
+        this.regionZ = coords[1];
+    }
+
+    /**
+     * Opens a region file for writing, creating it if needed and completing a commit interrupted
+     * by a crash.
+     */
+    public static RegionWriter open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        RegionWriter writer = new RegionWriter(path, channel);
+        try {
+            writer.recover();
+            writer.readHeader();
+            writer.scanExternal();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return writer;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Compresses a chunk with zlib and queues it for the next commit, replacing any chunk queued
+     * for the same coordinates.
+     */
+    public void write(int x, int z, Tag<?> tag) throws IOException {
+        write(x, z, "", tag);
+    }
+
+    public void write(int x, int z, RootTag root) throws IOException {
+        write(x, z, root.getName(), root.getTag());
+    }
+
+    public void write(int x, int z, String name, Tag<?> tag) throws IOException {
+        queue(x, z, new Pending(RegionFile.frame(name, tag)));
+    }
+
+    /**
+     * Queues the removal of a chunk.
+     */
+    public void delete(int x, int z) throws IOException {
+        queue(x, z, new Pending(null));
+    }
+
+    /**
+     * Returns the number of chunks queued and not yet taken by a commit.
+     */
+    public synchronized int getPending() {
+        return pending.size();
+    }
+
+    /**
+     * Returns the number of commits that wrote chunks.
+     */
+    public long getCommits() {
+        synchronized (commitLock) {
+            return commits;
+        }
+    }
+
+    /**
+     * Makes every chunk queued before the call durable, and returns the number of chunks this
+     * call wrote, 0 if another thread's commit already covered them.
+     */
+    public int commit() throws IOException {
+        long target;
+        synchronized (this) {
+            checkOpen();
+            target = queued;
+        }
+        synchronized (commitLock) {
+            if (durable >= target) {
+                return 0;
+            }
+            Map<Integer, Pending> batch;
+            long upTo;
+            synchronized (this) {
+                batch = pending;
+                upTo = queued;
+                pending = new HashMap<>();
+            }
+            try {
+                apply(batch);
+            } catch (IOException | RuntimeException e) {
+                // Requeued for the next commit unless written again meanwhile
+                synchronized (this) {
+                    for (Map.Entry<Integer, Pending> entry : batch.entrySet()) {
+                        pending.putIfAbsent(entry.getKey(), entry.getValue());
+                    }
+                }
+                throw e;
+            }
+            durable = upTo;
+            commits++;
+            return batch.size();
+        }
+    }
+
+    /**
+     * Commits the queued chunks and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+        }
+        try {
+            commit();
+        } finally {
+            synchronized (this) {
+                closed = true;
+            }
+            channel.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+
+    private void queue(int x, int z, Pending chunk) {
+        synchronized (this) {
+            checkOpen();
+            pending.put(RegionFile.index(x, z), chunk);
+            queued++;
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Region writer is closed: " + path);
+        }
+    }
+
+    private void apply(Map<Integer, Pending> batch) throws IOException {
+        int[] nextLocations = locations.clone();
+        int[] nextTimestamps = timestamps.clone();
+        int now = (int) (System.currentTimeMillis() / 1000);
+        // Sectors of the committed header stay reserved until the new one is on disk
+        BitSet used = used(locations);
+        used.or(pinned);
+        BitSet nextExternalized = (BitSet) externalized.clone();
+        TreeMap<Integer, ByteBuffer> placed = new TreeMap<>();
+        List<Path> obsolete = new ArrayList<>();
+
+        for (Map.Entry<Integer, Pending> entry : new TreeMap<>(batch).entrySet()) {
+            int index = entry.getKey();
+            byte[] data = entry.getValue().data;
+            Path external = external(index);
+            boolean wasExternal = externalized.get(index);
+            if (data == null) {
+                nextLocations[index] = 0;
+                nextTimestamps[index] = 0;
+                nextExternalized.clear(index);
+                if (wasExternal) {
+                    obsolete.add(external);
+                }
+                continue;
+            }
+            byte[] stored = RegionFile.externalize(data, external);
+            if (stored != data) {
+                // Flagged at once, so that a later commit deletes the file should this one fail
+                externalized.set(index);
+                nextExternalized.set(index);
+            } else {
+                nextExternalized.clear(index);
+                if (wasExternal) {
+                    obsolete.add(external);
+                }
+            }
+            data = stored;
+            int sectors = RegionFile.sectors(data.length);
+            int start = allocate(used, sectors);
+            nextLocations[index] = start << 8 | sectors;
+            nextTimestamps[index] = now;
+            placed.put(start, ByteBuffer.wrap(data));
+        }
+
+        writeRuns(placed);
+        channel.force(false);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.asIntBuffer().put(nextLocations).put(nextTimestamps);
+        // Once the journal is started either header may end up on disk, so if anything below fails
+        // the next commit must keep clear of both
+        pinned.or(used(nextLocations));
+        writeJournal(header.array());
+        writeFully(header, 0);
+        channel.force(false);
+        Files.deleteIfExists(journal);
+
+        locations = nextLocations;
+        timestamps = nextTimestamps;
+        externalized = nextExternalized;
+        pinned.clear();
+        for (Path file : obsolete) {
+            Files.deleteIfExists(file);
+        }
+        // Sectors past the last chunk are free now that the old header is gone
+        int end = Math.max(used(locations).length(), 2);
+        if (channel.size() > (long) end * SECTOR_BYTES) {
+            channel.truncate((long) end * SECTOR_BYTES);
+        }
+    }
+
+    /*
+     * Writes chunks in order of their sectors, each padded to whole sectors, with one gathering
+     * write for every run of adjacent chunks.
+     */
+    private void writeRuns(TreeMap<Integer, ByteBuffer> placed) throws IOException {
+        List<ByteBuffer> run = new ArrayList<>();
+        int runStart = -1;
+        int runEnd = -1;
+        for (Map.Entry<Integer, ByteBuffer> entry : placed.entrySet()) {
+            int start = entry.getKey();
+            ByteBuffer data = entry.getValue();
+            if (start != runEnd && !run.isEmpty()) {
+                writeGathered(run, runStart);
+                run.clear();
+            }
+            if (run.isEmpty()) {
+                runStart = start;
+            }
+            run.add(data);
+            int padding = RegionFile.sectors(data.remaining()) * SECTOR_BYTES - data.remaining();
+            if (padding > 0) {
+                run.add(ByteBuffer.wrap(ZEROS, 0, padding));
+            }
+            runEnd = start + RegionFile.sectors(data.remaining());
+        }
+        if (!run.isEmpty()) {
+            writeGathered(run, runStart);
+        }
+    }
+
+    private void writeGathered(List<ByteBuffer> run, int sector) throws IOException {
+        ByteBuffer[] buffers = run.toArray(new ByteBuffer[0]);
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        channel.position((long) sector * SECTOR_BYTES);
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+    }
+
+    private void writeJournal(byte[] header) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(header);
+        ByteBuffer record = ByteBuffer.allocate(JOURNAL_BYTES);
+        record.putInt(JOURNAL_MAGIC).put(header).putInt((int) crc.getValue()).flip();
+        try (FileChannel out = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (record.hasRemaining()) {
+                out.write(record);
+            }
+            out.force(false);
+        }
+        // The journal is useless to recovery unless its directory entry is durable too
+        RegionFile.syncDirectory(journal);
+    }
+
+    /*
+     * A complete journal means the crash came after it was synced, possibly while the header was
+     * being written, so its header is copied in. An incomplete one means the header was not
+     * touched.
+     */
+    private void recover() throws IOException {
+        if (!Files.exists(journal)) {
+            return;
+        }
+        byte[] record = Files.readAllBytes(journal);
+        if (record.length == JOURNAL_BYTES) {
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            CRC32 crc = new CRC32();
+            crc.update(record, 4, HEADER_BYTES);
+            if (buffer.getInt(0) == JOURNAL_MAGIC && buffer.getInt(4 + HEADER_BYTES) == (int) crc.getValue()) {
+                writeFully(ByteBuffer.wrap(record, 4, HEADER_BYTES), 0);
+                channel.force(false);
+            }
+        }
+        Files.delete(journal);
+    }
+
+    private void readHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+            // read until full or end of file
+        }
+        // Files shorter than the header are treated as empty, as the game does
+        if (!header.hasRemaining()) {
+            header.flip();
+            header.asIntBuffer().get(locations).get(timestamps);
+        }
+    }
+
+    // Commits keep the flags up to date, so the compression bytes are only read once
+    private void scanExternal() throws IOException {
+        ByteBuffer compression = ByteBuffer.allocate(1);
+        for (int index = 0; index < RegionFile.CHUNKS; index++) {
+            int location = locations[index];
+            if (location != 0) {
+                compression.clear();
+                channel.read(compression, (long) (location >>> 8) * SECTOR_BYTES + 4);
+                externalized.set(index, compression.position() == 1 && (compression.get(0) & RegionFile.EXTERNAL) != 0);
+            }
+        }
+    }
+
+    private Path external(int index) {
+        return path.resolveSibling("c." + (regionX * 32 + (index & 31)) + "." + (regionZ * 32 + (index >> 5)) + ".mcc");
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static BitSet used(int[] locations) {
+        BitSet used = new BitSet();
+        used.set(0, 2);
+        for (int location : locations) {
+            if (location != 0) {
+                int start = location >>> 8;
+                used.set(start, start + (location & 0xFF));
+            }
+        }
+        return used;
+    }
+
+    // First fit, so sectors freed by earlier commits are reused before the file grows
+    private static int allocate(BitSet used, int sectors) {
+        int start = used.nextClearBit(2);
+        while (true) {
+            int end = used.nextSetBit(start);
+            if (end < 0 || end - start >= sectors) {
+                used.set(start, start + sectors);
+                return start;
+            }
+            start = used.nextClearBit(end);
+        }
+    }
+
+    private static final class Pending {
+
+        final byte[] data;
+
+        Pending(byte[] data) {
+            this.data = data;
+        }
+    }
+}
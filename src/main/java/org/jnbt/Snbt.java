@@ -0,0 +1,652 @@
+package org.jnbt;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parser and printer for stringified NBT, e.g. {@code {id:"minecraft:stone",Count:1b,Pos:[I;1,2,3]}}.
+ *
+ * <p>The parser is a single pass over the input without regular expressions. It supports quoted
+ * and unquoted strings, the {@code b s L f d} numeric suffixes, {@code true}/{@code false}, and
+ * the typed array literals {@code [B;...]}, {@code [I;...]} and {@code [L;...]}. Unquoted values
+ * that are not valid numbers, or that are out of range for their suffix, are read as strings.
+ * Array elements out of range for the array type are an error.</p>
+ *
+ * <p>The printer writes straight to an {@link Appendable}, in compact form or indented. Every
+ * value it prints parses back to an equal tag: non-finite floats and doubles are printed as
+ * {@code NaNf}, {@code Infinityd}, {@code -Infinityf} and so on, which the parser accepts only
+ * with their suffix.</p>
+ */
+public final class Snbt {
+
+    private static final String INDENT = "    ";
+
+    private Snbt() {
+
+    }
+
+    public static Tag parse(CharSequence snbt) {
+        return parse(snbt, ReadOptions.frozen());
+    }
+
+    public static Tag parse(CharSequence snbt, ReadOptions options) {
+        Parser parser = new Parser(snbt.toString(), options);
+        Tag tag = parser.value();
+        parser.end();
+        return tag;
+    }
+
+    public static CompoundTag parseCompound(CharSequence snbt) {
+        return parseCompound(snbt, ReadOptions.frozen());
+    }
+
+    public static CompoundTag parseCompound(CharSequence snbt, ReadOptions options) {
+        Parser parser = new Parser(snbt.toString(), options);
+        parser.skipWhitespace();
+        if (!parser.peek('{')) {
+            throw parser.error("Expected compound");
+        }
+        CompoundTag tag = parser.compound();
+        parser.end();
+        return tag;
+    }
+
+    public static String toString(Tag tag) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            write(tag, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    public static String toPrettyString(Tag tag) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            writePretty(tag, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    public static void write(Tag tag, Appendable out) throws IOException {
+        new Printer(out, null).value(tag, 0);
+    }
+
+    public static void writePretty(Tag tag, Appendable out) throws IOException {
+        writePretty(tag, out, INDENT);
+    }
+
+    public static void writePretty(Tag tag, Appendable out, String indent) throws IOException {
+        new Printer(out, indent).value(tag, 0);
+    }
+
+    static boolean isUnquoted(char c) {
+        return c >= '0' && c <= '9' || c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z'
+                || c == '_' || c == '-' || c == '.' || c == '+';
+    }
+
+    static final class Parser {
+
+        private final String s;
+        private final boolean frozen;
+        private final int maxDepth;
+        private int pos;
+        private int depth;
+
+        Parser(String s, ReadOptions options) {
+            this(s, 0, options);
+        }
+
+        Parser(String s, int pos, ReadOptions options) {
+            this.s = s;
+            this.pos = pos;
+            this.frozen = options.isFrozen();
+            this.maxDepth = options.getLimits().getMaxDepth();
+        }
+
+        int position() {
+            return pos;
+        }
+
+        Tag value() {
+            skipWhitespace();
+            if (pos >= s.length()) {
+                throw error("Expected value");
+            }
+            char c = s.charAt(pos);
+            if (c == '{') {
+                return compound();
+            }
+            if (c == '[') {
+                if (pos + 2 < s.length() && s.charAt(pos + 2) == ';') {
+                    return array();
+                }
+                return list();
+            }
+            if (c == '"' || c == '\'') {
+                return new StringTag(quoted());
+            }
+            return scalar(unquoted());
+        }
+
+        CompoundTag compound() {
+            expect('{');
+            enter();
+            Map<String, Tag> map = new LinkedHashMap<>();
+            skipWhitespace();
+            if (!peek('}')) {
+                do {
+                    skipWhitespace();
+                    String key = key();
+                    skipWhitespace();
+                    expect(':');
+                    map.put(key, value());
+                    skipWhitespace();
+                } while (consume(','));
+            }
+            expect('}');
+            depth--;
+            return new CompoundTag(map, frozen);
+        }
+
+        @SuppressWarnings("unchecked")
+        private ListTag list() {
+            expect('[');
+            enter();
+            List<Tag> list = new ArrayList<>();
+            TagType type = TagType.END;
+            skipWhitespace();
+            if (!peek(']')) {
+                do {
+                    int start = pos;
+                    Tag element = value();
+                    if (type == TagType.END) {
+                        type = element.getType();
+                    } else if (element.getType() != type) {
+                        pos = start;
+                        throw error("Can't insert " + element.getType().getName() + " into list of " + type.getName());
+                    }
+                    list.add(element);
+                    skipWhitespace();
+                } while (consume(','));
+            }
+            expect(']');
+            depth--;
+            if (list.isEmpty() && frozen) {
+                return new ListTag(Collections.emptyList(), type, true);
+            }
+            return new ListTag(list, type, frozen);
+        }
+
+        private Tag array() {
+            expect('[');
+            char kind = s.charAt(pos);
+            if (kind != 'B' && kind != 'I' && kind != 'L') {
+                throw error("Invalid array type " + kind);
+            }
+            pos += 2;
+            long[] values = new long[16];
+            int size = 0;
+            skipWhitespace();
+            if (!peek(']')) {
+                do {
+                    int start = pos;
+                    Tag element = value();
+                    TagType<?, ?> type = element.getType();
+                    if (type != TagType.BYTE && type != TagType.SHORT && type != TagType.INT && type != TagType.LONG) {
+                        pos = start;
+                        throw error("Can't insert " + type.getName() + " into " + kind + " array");
+                    }
+                    long value = ((Number) element.getValue()).longValue();
+                    if (kind == 'B' && value != (byte) value || kind == 'I' && value != (int) value) {
+                        pos = start;
+                        throw error("Value " + value + " out of range for " + kind + " array");
+                    }
+                    if (size == values.length) {
+                        values = Arrays.copyOf(values, size * 2);
+                    }
+                    values[size++] = value;
+                    skipWhitespace();
+                } while (consume(','));
+            }
+            expect(']');
+            switch (kind) {
+                case 'B': {
+                    byte[] array = new byte[size];
+                    for (int i = 0; i < size; i++) {
+                        array[i] = (byte) values[i];
+                    }
+                    return new ByteArrayTag(array);
+                }
+                case 'I': {
+                    int[] array = new int[size];
+                    for (int i = 0; i < size; i++) {
+                        array[i] = (int) values[i];
+                    }
+                    return new IntArrayTag(array);
+                }
+                default:
+                    return new LongArrayTag(Arrays.copyOf(values, size));
+            }
+        }
+
+        private String key() {
+            if (pos < s.length() && (s.charAt(pos) == '"' || s.charAt(pos) == '\'')) {
+                return quoted();
+            }
+            String key = unquoted();
+            if (key.isEmpty()) {
+                throw error("Expected key");
+            }
+            return key;
+        }
+
+        private String quoted() {
+            char quote = s.charAt(pos++);
+            int start = pos;
+            StringBuilder sb = null;
+            while (pos < s.length()) {
+                char c = s.charAt(pos++);
+                if (c == quote) {
+                    return sb == null ? s.substring(start, pos - 1) : sb.toString();
+                }
+                if (c == '\\') {
+                    if (sb == null) {
+                        sb = new StringBuilder(s.length() - start).append(s, start, pos - 1);
+                    }
+                    if (pos >= s.length()) {
+                        break;
+                    }
+                    sb.append(escape(s.charAt(pos++)));
+                } else if (sb != null) {
+                    sb.append(c);
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        private char escape(char c) {
+            switch (c) {
+                case '\\':
+                case '"':
+                case '\'':
+                    return c;
+                case 'n':
+                    return '\n';
+                case 't':
+                    return '\t';
+                case 'r':
+                    return '\r';
+                case 'b':
+                    return '\b';
+                case 'f':
+                    return '\f';
+                case 'u':
+                    if (pos + 4 <= s.length()) {
+                        try {
+                            char unicode = (char) Integer.parseInt(s.substring(pos, pos + 4), 16);
+                            pos += 4;
+                            return unicode;
+                        } catch (NumberFormatException e) {
+                            // reported below
+                        }
+                    }
+                    // fall through
+                default:
+                    pos--;
+                    throw error("Invalid escape \\" + c);
+            }
+        }
+
+        private String unquoted() {
+            int start = pos;
+            while (pos < s.length() && isUnquoted(s.charAt(pos))) {
+                pos++;
+            }
+            if (pos == start) {
+                throw error("Expected value");
+            }
+            return s.substring(start, pos);
+        }
+
+        private Tag scalar(String token) {
+            int end = token.length();
+            try {
+                switch (token.charAt(end - 1)) {
+                    case 'b':
+                    case 'B':
+                        if (isInteger(token, end - 1)) {
+                            return new ByteTag(Byte.parseByte(token.substring(0, end - 1)));
+                        }
+                        break;
+                    case 's':
+                    case 'S':
+                        if (isInteger(token, end - 1)) {
+                            return new ShortTag(Short.parseShort(token.substring(0, end - 1)));
+                        }
+                        break;
+                    case 'l':
+                    case 'L':
+                        if (isInteger(token, end - 1)) {
+                            return new LongTag(Long.parseLong(token.substring(0, end - 1)));
+                        }
+                        break;
+                    case 'f':
+                    case 'F':
+                        if (isDecimal(token, end - 1, false) || isNonFinite(token, end - 1)) {
+                            return new FloatTag(Float.parseFloat(token.substring(0, end - 1)));
+                        }
+                        break;
+                    case 'd':
+                    case 'D':
+                        if (isDecimal(token, end - 1, false) || isNonFinite(token, end - 1)) {
+                            return new DoubleTag(Double.parseDouble(token.substring(0, end - 1)));
+                        }
+                        break;
+                    default:
+                        if (isInteger(token, end)) {
+                            return new IntTag(Integer.parseInt(token));
+                        }
+                        if (isDecimal(token, end, true)) {
+                            return new DoubleTag(Double.parseDouble(token));
+                        }
+                        break;
+                }
+            } catch (NumberFormatException e) {
+                // out of range for its type, read as a string like vanilla does
+            }
+            if (token.equalsIgnoreCase("true")) {
+                return new ByteTag((byte) 1);
+            }
+            if (token.equalsIgnoreCase("false")) {
+                return new ByteTag((byte) 0);
+            }
+            return new StringTag(token);
+        }
+
+        // [-+]?[0-9]+
+        private static boolean isInteger(String s, int end) {
+            int i = s.startsWith("-") || s.startsWith("+") ? 1 : 0;
+            if (i >= end) {
+                return false;
+            }
+            for (; i < end; i++) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // [-+]?(NaN|Infinity), as the printer writes non-finite values before their suffix
+        private static boolean isNonFinite(String s, int end) {
+            int i = s.startsWith("-") || s.startsWith("+") ? 1 : 0;
+            return s.regionMatches(i, "NaN", 0, end - i) && end - i == 3
+                    || s.regionMatches(i, "Infinity", 0, end - i) && end - i == 8;
+        }
+
+        // [-+]?([0-9]+[.]?|[0-9]*[.][0-9]+)(e[-+]?[0-9]+)?, with the dot required if requireDot
+        private static boolean isDecimal(String s, int end, boolean requireDot) {
+            int i = s.startsWith("-") || s.startsWith("+") ? 1 : 0;
+            int digits = 0;
+            boolean dot = false;
+            for (; i < end; i++) {
+                char c = s.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    digits++;
+                } else if (c == '.' && !dot) {
+                    dot = true;
+                } else {
+                    break;
+                }
+            }
+            if (digits == 0 || requireDot && !dot) {
+                return false;
+            }
+            if (i < end && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+                i++;
+                if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+                    i++;
+                }
+                int start = i;
+                while (i < end && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                    i++;
+                }
+                if (i == start) {
+                    return false;
+                }
+            }
+            return i == end;
+        }
+
+        void skipWhitespace() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        boolean peek(char c) {
+            return pos < s.length() && s.charAt(pos) == c;
+        }
+
+        private boolean consume(char c) {
+            if (peek(c)) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!consume(c)) {
+                throw error("Expected '" + c + "'");
+            }
+        }
+
+        private void enter() {
+            if (++depth > maxDepth) {
+                throw error("Nesting deeper than " + maxDepth);
+            }
+        }
+
+        void end() {
+            skipWhitespace();
+            if (pos < s.length()) {
+                throw error("Trailing data");
+            }
+        }
+
+        IllegalArgumentException error(String message) {
+            int from = Math.max(0, pos - 16);
+            int to = Math.min(s.length(), pos + 16);
+            return new IllegalArgumentException(message + " at position " + pos + ": ..." + s.substring(from, pos) + "<--[HERE]" + s.substring(pos, to));
+        }
+    }
+
+    static final class Printer {
+
+        private final Appendable out;
+        // The same object as out if it is a StringBuilder, so numbers can be appended without a String
+        private final StringBuilder sb;
+        private final String indent;
+
+        Printer(Appendable out, String indent) {
+            this.out = out;
+            this.sb = out instanceof StringBuilder ? (StringBuilder) out : null;
+            this.indent = indent;
+        }
+
+        void value(Tag<?> tag, int level) throws IOException {
+            switch (tag.getType().getId()) {
+                case 1:
+                    number(((ByteTag) tag).getValue()).append('b');
+                    break;
+                case 2:
+                    number(((ShortTag) tag).getValue()).append('s');
+                    break;
+                case 3:
+                    number(((IntTag) tag).getValue());
+                    break;
+                case 4:
+                    number(((LongTag) tag).getValue()).append('L');
+                    break;
+                case 5:
+                    out.append(Float.toString(((FloatTag) tag).getValue())).append('f');
+                    break;
+                case 6:
+                    out.append(Double.toString(((DoubleTag) tag).getValue())).append('d');
+                    break;
+                case 7: {
+                    byte[] array = ((ByteArrayTag) tag).getValue();
+                    out.append("[B;");
+                    for (int i = 0; i < array.length; i++) {
+                        separator(i);
+                        number(array[i]).append('b');
+                    }
+                    out.append(']');
+                    break;
+                }
+                case 8:
+                    string(((StringTag) tag).getValue());
+                    break;
+                case 9:
+                    list((ListTag<?>) tag, level);
+                    break;
+                case 10:
+                    compound((CompoundTag) tag, level);
+                    break;
+                case 11: {
+                    int[] array = ((IntArrayTag) tag).getValue();
+                    out.append("[I;");
+                    for (int i = 0; i < array.length; i++) {
+                        separator(i);
+                        number(array[i]);
+                    }
+                    out.append(']');
+                    break;
+                }
+                case 12: {
+                    long[] array = ((LongArrayTag) tag).getValue();
+                    out.append("[L;");
+                    for (int i = 0; i < array.length; i++) {
+                        separator(i);
+                        number(array[i]).append('L');
+                    }
+                    out.append(']');
+                    break;
+                }
+                case 0:
+                    out.append("END");
+                    break;
+                default:
+                    out.append("null");
+                    break;
+            }
+        }
+
+        private void compound(CompoundTag tag, int level) throws IOException {
+            Map<String, Tag> map = tag.backing();
+            if (map.isEmpty()) {
+                out.append("{}");
+                return;
+            }
+            out.append('{');
+            boolean first = true;
+            for (Map.Entry<String, Tag> entry : map.entrySet()) {
+                if (!first) {
+                    out.append(',');
+                }
+                first = false;
+                newline(level + 1);
+                key(entry.getKey());
+                out.append(indent == null ? ":" : ": ");
+                value(entry.getValue(), level + 1);
+            }
+            newline(level);
+            out.append('}');
+        }
+
+        private void list(ListTag<?> tag, int level) throws IOException {
+            List<? extends Tag<?>> list = tag.backing();
+            TagType<?, ?> child = tag.getChildType();
+            // Lists of containers are broken over lines, everything else stays on one
+            boolean block = indent != null && !list.isEmpty() && (child == TagType.COMPOUND || child == TagType.LIST);
+            out.append('[');
+            for (int i = 0; i < list.size(); i++) {
+                if (block) {
+                    if (i > 0) {
+                        out.append(',');
+                    }
+                    newline(level + 1);
+                } else {
+                    separator(i);
+                }
+                value(list.get(i), level + 1);
+            }
+            if (block) {
+                newline(level);
+            }
+            out.append(']');
+        }
+
+        private void key(String key) throws IOException {
+            for (int i = 0; i < key.length(); i++) {
+                if (!isUnquoted(key.charAt(i))) {
+                    string(key);
+                    return;
+                }
+            }
+            if (key.isEmpty()) {
+                out.append("\"\"");
+            } else {
+                out.append(key);
+            }
+        }
+
+        private void string(String value) throws IOException {
+            char quote = value.indexOf('"') >= 0 && value.indexOf('\'') < 0 ? '\'' : '"';
+            out.append(quote);
+            int start = 0;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == quote || c == '\\') {
+                    out.append(value, start, i).append('\\').append(c);
+                    start = i + 1;
+                }
+            }
+            out.append(value, start, value.length()).append(quote);
+        }
+
+        private Appendable number(long value) throws IOException {
+            if (sb != null) {
+                return sb.append(value);
+            }
+            return out.append(Long.toString(value));
+        }
+
+        private void separator(int index) throws IOException {
+            if (index > 0) {
+                out.append(indent == null ? "," : ", ");
+            }
+        }
+
+        private void newline(int level) throws IOException {
+            if (indent != null) {
+                out.append('\n');
+                for (int i = 0; i < level; i++) {
+                    out.append(indent);
+                }
+            }
+        }
+    }
+}
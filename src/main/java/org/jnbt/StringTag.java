@@ -77,9 +77,7 @@ public final class StringTag extends Tag<String> {
 
     @Override
     void writeValue(DataOutput out) throws IOException {
-        byte[] bytes = value.getBytes(StringTag.CHARSET);
-        out.writeShort(bytes.length);
-        out.write(bytes);
+        writeString(value, out);
     }
 
     @Override
@@ -93,13 +91,57 @@ public final class StringTag extends Tag<String> {
 
     @Override
     public int hashCode() {
-        return Objects.hash(super.hashCode(), value);
+        return 31 * super.hashCode() + Objects.hashCode(value);
     }
 
     static String readString(DataInput in) throws IOException {
-        short length = in.readShort();
+        return readString(in, readLength(in));
+    }
+
+    static String readString(DataInput in, ReadContext context) throws IOException {
+        return readString(in, context.stringLength(readLength(in)));
+    }
+
+    private static String readString(DataInput in, int length) throws IOException {
         byte[] bytes = new byte[length];
         in.readFully(bytes);
         return new String(bytes, StringTag.CHARSET);
     }
+
+    static void skipString(DataInput in) throws IOException {
+        skip(in, readLength(in));
+    }
+
+    static void skipString(DataInput in, ReadContext context) throws IOException {
+        skip(in, context.stringLength(readLength(in)));
+    }
+
+    private static void skip(DataInput in, int length) throws IOException {
+        while (length > 0) {
+            int skipped = in.skipBytes(length);
+            if (skipped <= 0) {
+                in.readByte();
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
+    static void writeString(String value, DataOutput out) throws IOException {
+        byte[] bytes = value.getBytes(StringTag.CHARSET);
+        if (out instanceof LittleEndianOutput) {
+            ((LittleEndianOutput) out).writeStringLength(bytes.length);
+        } else {
+            out.writeShort(bytes.length);
+        }
+        out.write(bytes);
+    }
+
+    // The length prefix is an unsigned short, except where the format adapter says otherwise
+    private static int readLength(DataInput in) throws IOException {
+        if (in instanceof LittleEndianInput) {
+            return ((LittleEndianInput) in).readStringLength();
+        }
+        return in.readUnsignedShort();
+    }
 }
@@ -33,9 +33,11 @@ package org.jnbt;
  * POSSIBILITY OF SUCH DAMAGE.
  */
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.Objects;
+import java.io.UncheckedIOException;
 
 public abstract class Tag<V> {
 
@@ -43,13 +45,6 @@ public abstract class Tag<V> {
         return !isPresent();
     }
 
-    String getValueString() {
-        if (isAbsent()) {
-            return "null";
-        }
-        return getValue().toString();
-    }
-
     public ByteArrayTag asByteArray() {
         return ByteArrayTag.EMPTY;
     }
@@ -106,18 +101,34 @@ public abstract class Tag<V> {
 
     abstract TagType<V, ?> getType();
 
+    /**
+     * Returns this tag if no mutable compound or list is reachable from it, otherwise a frozen deep
+     * copy. Frozen containers only hold tags returned by this, which is what lets them memoize
+     * their hash and keep their encoding.
+     */
+    Tag<V> freeze() {
+        return this;
+    }
+
     public abstract boolean isPresent();
 
     public abstract V getValue();
 
     abstract void writeValue(DataOutput out) throws IOException;
 
+    byte[] encodeValue() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            writeValue(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
     void writeTo(String name, DataOutput out) throws IOException {
         out.writeByte(getType().getId());
-
-        byte[] nameBytes = name.getBytes(StringTag.CHARSET);
-        out.writeShort(nameBytes.length);
-        out.write(nameBytes);
+        StringTag.writeString(name, out);
         writeValue(out);
     }
 
@@ -126,11 +137,16 @@ public abstract class Tag<V> {
         if (this == o) return true;
         if (!(o instanceof Tag)) return false;
         Tag tag = (Tag) o;
-        return getType() == tag.getType() && Objects.equals(getValue(), tag.getValue());
+        return getType() == tag.getType();
+    }
+
+    @Override
+    public int hashCode() {
+        return getType().getId();
     }
 
     @Override
     public String toString() {
-        return getType().getName() + "(" + getValueString() + ")";
+        return Snbt.toString(this);
     }
 }
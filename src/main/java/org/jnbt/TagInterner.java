@@ -0,0 +1,231 @@
+package org.jnbt;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Deduplicates frozen trees: equal subtrees, strings, arrays and compound keys are replaced by a
+ * single canonical instance, which cuts the heap used by documents that repeat themselves, such
+ * as chunks with the same block states, biomes and empty sections.
+ *
+ * <p>Pass an interner to {@link ReadOptions#withInterner(TagInterner)} to deduplicate while
+ * decoding, or call {@link #intern(Tag)} on a tree already in memory. Canonical instances are
+ * found through a fixed-size table keyed by structural hash; a slot holds the last instance seen
+ * with its hash, and holds it weakly, so the table never keeps trees alive nor grows. A collision
+ * only costs a missed deduplication.</p>
+ *
+ * <p>Canonical arrays are shared between every tree that contains them. They must not be modified
+ * through {@code getValue()}.</p>
+ */
+public final class TagInterner {
+
+    private static final TagInterner SHARED = new TagInterner(1 << 16);
+
+    private final AtomicReferenceArray<WeakReference<Object>> table;
+    private final int mask;
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+
+    /**
+     * Creates an interner whose table has the given number of slots, rounded up to a power of two.
+     */
+    public TagInterner(int slots) {
+        if (slots <= 0 || slots > 1 << 30) {
+            throw new IllegalArgumentException("Slots must be between 1 and 2^30: " + slots);
+        }
+        int size = Integer.highestOneBit(slots);
+        if (size < slots) {
+            size <<= 1;
+        }
+        this.table = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Returns the interner with 65536 slots shared by callers that do not need their own.
+     */
+    public static TagInterner shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns a frozen tree equal to the given one, with its subtrees replaced by canonical
+     * instances. Frozen compounds and lists whose children are all canonical already are kept,
+     * others are copied.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Tag<?>> T intern(T tag) {
+        if (tag.isAbsent()) {
+            return tag;
+        }
+        if (tag instanceof CompoundTag) {
+            CompoundTag compound = (CompoundTag) tag;
+            Map<String, Tag> entries = compound.entries();
+            boolean same = compound.isFrozen() && !compound.isView();
+            Map<String, Tag> map = entries.isEmpty() ? Collections.emptyMap() : new LinkedHashMap<>(Math.max(16, entries.size() * 4 / 3 + 1));
+            for (Map.Entry<String, Tag> entry : entries.entrySet()) {
+                String key = key(entry.getKey());
+                Tag child = intern(entry.getValue());
+                same &= key == entry.getKey() && child == entry.getValue();
+                map.put(key, child);
+            }
+            return (T) canonical(same ? compound : new CompoundTag(map, true));
+        }
+        if (tag instanceof ListTag) {
+            ListTag<?> list = (ListTag<?>) tag;
+            List<? extends Tag<?>> elements = list.backing();
+            boolean same = list.isFrozen() && !list.isView();
+            List<Tag<?>> copy = elements.isEmpty() ? Collections.emptyList() : new ArrayList<>(elements.size());
+            for (Tag<?> element : elements) {
+                Tag<?> child = intern(element);
+                same &= child == element;
+                copy.add(child);
+            }
+            return (T) canonical(same ? list : new ListTag(copy, list.getChildType(), true));
+        }
+        return (T) canonical(tag);
+    }
+
+    /**
+     * Returns how many subtrees, strings and keys were looked up.
+     */
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    /**
+     * Returns how many lookups found a canonical instance.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns an estimate of the heap that hits saved, as measured by {@link NbtSizes}.
+     */
+    public long getBytesSaved() {
+        return bytesSaved.sum();
+    }
+
+    /**
+     * Forgets every canonical instance and resets the statistics.
+     */
+    public void clear() {
+        for (int i = 0; i < table.length(); i++) {
+            table.set(i, null);
+        }
+        lookups.reset();
+        hits.reset();
+        bytesSaved.reset();
+    }
+
+    /**
+     * Returns the canonical instance for a frozen tag whose children are canonical already.
+     * Numeric tags are returned as they are, they are no larger than a reference to a shared one.
+     * So are the absent sentinels such as {@code CompoundTag.EMPTY}, which are equal to real empty
+     * values but must never stand in for them.
+     */
+    Tag canonical(Tag tag) {
+        if (tag.isAbsent() || !(tag instanceof CompoundTag || tag instanceof ListTag || tag instanceof StringTag
+                || tag instanceof ByteArrayTag || tag instanceof IntArrayTag || tag instanceof LongArrayTag)) {
+            return tag;
+        }
+        int slot = spread(tag.hashCode());
+        lookups.increment();
+        WeakReference<Object> ref = table.get(slot);
+        Object existing = ref == null ? null : ref.get();
+        if (existing instanceof Tag && existing != tag && matches((Tag) existing, tag)) {
+            hits.increment();
+            bytesSaved.add(NbtSizes.shallow(tag));
+            return (Tag) existing;
+        }
+        if (existing != tag) {
+            table.set(slot, new WeakReference<>(tag));
+        }
+        return tag;
+    }
+
+    /**
+     * Returns the canonical instance of a compound key.
+     */
+    String key(String key) {
+        // Salted so that keys and string tags of the same text do not evict each other
+        int slot = spread(key.hashCode() ^ 0x5bd1e995);
+        lookups.increment();
+        WeakReference<Object> ref = table.get(slot);
+        Object existing = ref == null ? null : ref.get();
+        if (existing instanceof String && existing != key && existing.equals(key)) {
+            hits.increment();
+            bytesSaved.add(NbtSizes.string(key));
+            return (String) existing;
+        }
+        if (existing != key) {
+            table.set(slot, new WeakReference<>(key));
+        }
+        return key;
+    }
+
+    private int spread(int h) {
+        h *= 0x9E3779B9;
+        return (h ^ h >>> 16) & mask;
+    }
+
+    /*
+     * Children are canonical already, so containers compare them by identity instead of walking
+     * both trees; compounds also compare key order, which Map.equals ignores but the encoding
+     * does not.
+     */
+    private static boolean matches(Tag existing, Tag tag) {
+        if (existing.getClass() != tag.getClass()) {
+            return false;
+        }
+        if (tag instanceof CompoundTag) {
+            CompoundTag a = (CompoundTag) existing;
+            CompoundTag b = (CompoundTag) tag;
+            if (!a.isFrozen() || a.backing().size() != b.backing().size() || a.hashCode() != b.hashCode()) {
+                return false;
+            }
+            Iterator<Map.Entry<String, Tag>> i = a.backing().entrySet().iterator();
+            for (Map.Entry<String, Tag> entry : b.backing().entrySet()) {
+                Map.Entry<String, Tag> other = i.next();
+                if (!other.getKey().equals(entry.getKey()) || !same(other.getValue(), entry.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (tag instanceof ListTag) {
+            ListTag<?> a = (ListTag<?>) existing;
+            ListTag<?> b = (ListTag<?>) tag;
+            if (!a.isFrozen() || a.getChildType() != b.getChildType() || a.backing().size() != b.backing().size()) {
+                return false;
+            }
+            Iterator<? extends Tag<?>> i = a.backing().iterator();
+            for (Tag<?> element : b.backing()) {
+                if (!same(i.next(), element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return existing.equals(tag);
+    }
+
+    private static boolean same(Tag a, Tag b) {
+        if (a == b) {
+            return true;
+        }
+        // Numeric tags are never interned, so they are compared by value
+        return !(b instanceof CompoundTag || b instanceof ListTag || b instanceof StringTag
+                || b instanceof ByteArrayTag || b instanceof IntArrayTag || b instanceof LongArrayTag) && a.equals(b);
+    }
+}
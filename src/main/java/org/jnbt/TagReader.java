@@ -10,87 +10,141 @@ import java.util.Map;
 
 interface TagReader {
 
-    Tag read(DataInput in) throws IOException;
+    Tag read(DataInput in, ReadContext context) throws IOException;
 
-    TagReader NULL = in -> NullTag.NULL;
-    TagReader END = in -> EndTag.END;
-    TagReader BYTE = in -> new ByteTag(in.readByte());
-    TagReader DOUBLE = in -> new DoubleTag(in.readDouble());
-    TagReader FLOAT = in -> new FloatTag(in.readFloat());
-    TagReader INT = in -> new IntTag(in.readInt());
-    TagReader LONG = in -> new LongTag(in.readLong());
-    TagReader SHORT = in -> new ShortTag(in.readShort());
-    TagReader STRING = in -> new StringTag(StringTag.readString(in));
+    TagReader NULL = (in, context) -> NullTag.NULL;
+    TagReader END = (in, context) -> EndTag.END;
+    TagReader BYTE = (in, context) -> {
+        context.account(1);
+        return new ByteTag(in.readByte());
+    };
+    TagReader DOUBLE = (in, context) -> {
+        context.account(8);
+        return new DoubleTag(in.readDouble());
+    };
+    TagReader FLOAT = (in, context) -> {
+        context.account(4);
+        return new FloatTag(in.readFloat());
+    };
+    TagReader INT = (in, context) -> {
+        context.account(4);
+        return new IntTag(in.readInt());
+    };
+    TagReader LONG = (in, context) -> {
+        context.account(8);
+        return new LongTag(in.readLong());
+    };
+    TagReader SHORT = (in, context) -> {
+        context.account(2);
+        return new ShortTag(in.readShort());
+    };
+    TagReader STRING = (in, context) -> {
+        context.account(2);
+        return context.intern(new StringTag(StringTag.readString(in, context)));
+    };
 
-    TagReader BYTE_ARRAY = in -> {
-        int length = in.readInt();
+    TagReader BYTE_ARRAY = (in, context) -> {
+        context.account(4);
+        int length = context.array(in.readInt(), 1);
         byte[] array = new byte[length];
         in.readFully(array);
-        return new ByteArrayTag(array);
+        return context.intern(new ByteArrayTag(array));
     };
 
-    TagReader INT_ARRAY = in -> {
-        int length = in.readInt();
+    TagReader INT_ARRAY = (in, context) -> {
+        context.account(4);
+        int length = context.array(in.readInt(), 4);
         int[] array = new int[length];
         int pos = 0;
         while (pos < length) {
             array[pos++] = in.readInt();
         }
-        return new IntArrayTag(array);
+        return context.intern(new IntArrayTag(array));
     };
 
-    TagReader LONG_ARRAY = in -> {
-        int length = in.readInt();
+    TagReader LONG_ARRAY = (in, context) -> {
+        context.account(4);
+        int length = context.array(in.readInt(), 8);
         long[] array = new long[length];
         int pos = 0;
         while (pos < length) {
             array[pos++] = in.readLong();
         }
-        return new LongArrayTag(array);
+        return context.intern(new LongArrayTag(array));
     };
 
-    TagReader COMPOUND = in -> {
-        Map<String, Tag> map = Collections.emptyMap();
+    TagReader COMPOUND = (in, context) -> {
+        context.enter();
+        boolean frozen = context.frozen;
+        Map<String, Tag> map = frozen ? Collections.emptyMap() : new LinkedHashMap<>(16);
         while (true) {
-            int typeId = in.readByte();
-            if (typeId == TagType.END.getId()) {
+            context.account(1);
+            TagType type = TagType.read(in);
+            if (type == TagType.END) {
                 break;
             }
-            TagType type = TagType.forId(typeId);
-            String key = StringTag.readString(in);
-            Tag child = type.getReader().read(in);
-            if (map.isEmpty()) {
+            context.count(type);
+            context.account(2);
+            String key = context.key(StringTag.readString(in, context));
+            Tag child = type.getReader().read(in, context);
+            if (frozen && map.isEmpty()) {
                 map = new LinkedHashMap<>(16);
             }
             map.put(key, child);
         }
-        return new CompoundTag(map).immutable();
+        context.exit();
+        return context.intern(new CompoundTag(map, frozen));
     };
 
     @SuppressWarnings("unchecked")
-    TagReader LIST = in -> {
-        int childTypeId = in.readByte();
-        TagType<?, ?> childType = TagType.forId(childTypeId);
+    TagReader LIST = (in, context) -> {
+        context.enter();
+        context.account(5);
+        TagType<?, ?> childType = TagType.read(in);
 
-        int length = in.readInt();
-        if (length == 0) {
-            return new ListTag(Collections.emptyList(), childType).immutable();
+        // Element slots are charged up front, so a huge length fails before the loop starts
+        int length = Math.max(in.readInt(), 0);
+        if (length > 0 && childType == TagType.END) {
+            throw new IOException("List of " + length + " end tags");
+        }
+        context.elements(length);
+        context.count(childType, length);
+        boolean frozen = context.frozen;
+        if (length == 0 && frozen) {
+            context.exit();
+            return context.intern(new ListTag(Collections.emptyList(), childType, true));
         }
 
-        List<Tag<?>> list = new ArrayList<>(length);
+        List<Tag<?>> list = new ArrayList<>(Math.min(Math.max(length, 16), 1 << 16));
         for (int i = 0; i < length; i++) {
-            Tag tag = childType.getReader().read(in);
+            Tag tag = childType.getReader().read(in, context);
             list.add(tag);
         }
 
-        return new ListTag(list, childType).immutable();
+        context.exit();
+        return context.intern(new ListTag(list, childType, frozen));
     };
 
-    static RootTag readRootTag(DataInput in) throws IOException {
-        int typeId = in.readByte();
-        TagType type = TagType.forId(typeId);
-        String name = StringTag.readString(in);
-        Tag tag = type.getReader().read(in);
+    static RootTag readRootTag(DataInput in, ReadOptions options) throws IOException {
+        return readRootTag(in, options, true);
+    }
+
+    static RootTag readRootTag(DataInput in, ReadOptions options, boolean named) throws IOException {
+        return readRootTag(in, new ReadContext(options), named);
+    }
+
+    static RootTag readRootTag(DataInput in, ReadContext context, boolean named) throws IOException {
+        context.begin();
+        context.account(1);
+        TagType type = TagType.read(in);
+        context.count(type);
+        String name = "";
+        if (named) {
+            context.account(2);
+            name = StringTag.readString(in, context);
+        }
+        Tag tag = type.getReader().read(in, context);
+        context.end();
         return new RootTag(name, tag);
     }
 }
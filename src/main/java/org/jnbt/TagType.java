@@ -1,5 +1,7 @@
 package org.jnbt;
 
+import java.io.DataInput;
+import java.io.IOException;
 import java.util.function.BiFunction;
 
 /**
@@ -80,6 +82,17 @@ public final class TagType<V, T extends Tag> {
         return TYPES[id];
     }
 
+    /**
+     * Reads a type id from a document, which may be malformed, so unknown ids fail as bad input.
+     */
+    static TagType read(DataInput in) throws IOException {
+        int id = in.readByte();
+        if (id < 0 || id >= TYPES.length) {
+            throw new IOException("Invalid tag type " + id);
+        }
+        return TYPES[id];
+    }
+
     private static <V, T extends Tag> BiFunction<V, TagType<V, T>, Tag<V>> nullConstructor() {
         return (v, t)  -> NullTag.empty();
     }
@@ -0,0 +1,51 @@
+package org.jnbt;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Bedrock network NBT: ints and longs (including list and array lengths) are zigzag varints and
+ * string lengths are unsigned varints. Shorts, floats and doubles stay little-endian.
+ */
+final class VarIntInput extends LittleEndianInput {
+
+    VarIntInput(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    int readStringLength() throws IOException {
+        return readUnsignedVarInt();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        int raw = readUnsignedVarInt();
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        long raw = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readUnsignedByte();
+            raw |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (raw >>> 1) ^ -(raw & 1);
+            }
+        }
+        throw new IOException("VarLong too long");
+    }
+
+    private int readUnsignedVarInt() throws IOException {
+        int raw = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readUnsignedByte();
+            raw |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return raw;
+            }
+        }
+        throw new IOException("VarInt too long");
+    }
+}
@@ -0,0 +1,45 @@
+package org.jnbt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Bedrock network NBT counterpart of {@link VarIntInput}.
+ */
+final class VarIntOutput extends LittleEndianOutput {
+
+    VarIntOutput(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    LittleEndianOutput withStream(OutputStream out) {
+        return new VarIntOutput(out);
+    }
+
+    @Override
+    void writeStringLength(int length) throws IOException {
+        writeUnsignedVarLong(length & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public void writeInt(int v) throws IOException {
+        writeUnsignedVarLong(((v << 1) ^ (v >> 31)) & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public void writeLong(long v) throws IOException {
+        writeUnsignedVarLong((v << 1) ^ (v >> 63));
+    }
+
+    private void writeUnsignedVarLong(long v) throws IOException {
+        byte[] scratch = scratch();
+        int n = 0;
+        while ((v & ~0x7FL) != 0) {
+            scratch[n++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        scratch[n++] = (byte) v;
+        out.write(scratch, 0, n);
+    }
+}
@@ -0,0 +1,136 @@
+package org.jnbt;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.jnbt.ReadOptionsTest.read;
+import static org.jnbt.ReadOptionsTest.write;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChangeTrackerTest {
+
+    private static CompoundTag reread(CompoundTag tag) throws IOException {
+        return read(write(tag), ReadOptions.frozen()).getTag().asCompound();
+    }
+
+    @Test
+    public void unchangedTreeIsClean() throws IOException {
+        CompoundTag root = ReadOptionsTest.sample().trackChanges();
+        assertTrue(root.isDirty());
+        write(root);
+        assertFalse(root.isDirty());
+        root.getCompound("child").put("x", 2);
+        assertTrue(root.isDirty());
+        assertEquals(2, reread(root).getCompound("child").getInt("x"));
+    }
+
+    @Test
+    public void childSharedByTwoParentsDirtiesBoth() throws IOException {
+        CompoundTag child = Nbt.compound();
+        child.put("x", 1);
+        CompoundTag first = Nbt.compound().trackChanges();
+        CompoundTag second = Nbt.compound().trackChanges();
+        first.put("child", child);
+        second.put("child", child);
+        write(first);
+        write(second);
+        assertFalse(first.isDirty());
+        assertFalse(second.isDirty());
+
+        child.put("x", 2);
+        assertTrue(first.isDirty());
+        assertTrue(second.isDirty());
+        assertEquals(2, reread(first).getCompound("child").getInt("x"));
+        assertEquals(2, reread(second).getCompound("child").getInt("x"));
+    }
+
+    @Test
+    public void removedChildStopsDirtyingItsParent() throws IOException {
+        CompoundTag child = Nbt.compound();
+        CompoundTag root = Nbt.compound().trackChanges();
+        root.put("child", child);
+        write(root);
+        root.remove("child");
+        write(root);
+        child.put("x", 1);
+        assertFalse(root.isDirty());
+    }
+
+    @Test
+    public void editsThroughBackingMapAreTracked() throws IOException {
+        CompoundTag root = ReadOptionsTest.sample().trackChanges();
+        Map<String, Tag> backing = root.getBacking();
+        write(root);
+        assertFalse(root.isDirty());
+
+        backing.put("y", new IntTag(3));
+        assertTrue(root.isDirty());
+        assertEquals(3, reread(root).getInt("y"));
+
+        Iterator<Map.Entry<String, Tag>> i = backing.entrySet().iterator();
+        i.next().setValue(new IntTag(4));
+        assertEquals(4, reread(root).getInt("child"));
+        i.remove();
+        assertFalse(reread(root).entries().containsKey("child"));
+
+        backing.remove("names");
+        assertFalse(reread(root).entries().containsKey("names"));
+    }
+
+    @Test
+    public void editsThroughBackingListAreTracked() throws IOException {
+        ListTag<Integer> list = Nbt.list(TagType.INT);
+        list.add(1);
+        CompoundTag root = Nbt.compound().trackChanges();
+        root.put("list", list);
+        List<Tag<Integer>> backing = list.getBacking();
+        write(root);
+        assertFalse(root.isDirty());
+
+        backing.add(new IntTag(2));
+        assertTrue(root.isDirty());
+        assertEquals(2, reread(root).getListTag("list", TagType.INT).backing().size());
+        backing.clear();
+        assertEquals(0, reread(root).getListTag("list", TagType.INT).backing().size());
+    }
+
+    @Test
+    public void iteratorChangesMarkTheCompoundChanged() throws IOException {
+        CompoundTag root = Nbt.compound().trackChanges();
+        root.put("x", 1);
+        root.put("y", 2);
+        write(root);
+        Iterator<Map.Entry<String, Tag>> i = root.iterator();
+        i.next().setValue(new IntTag(3));
+        i.next();
+        i.remove();
+        assertTrue(root.isDirty());
+        CompoundTag written = reread(root);
+        assertEquals(3, written.getInt("x"));
+        assertFalse(written.entries().containsKey("y"));
+    }
+
+    @Test
+    public void viewsOfMutableContainersAreWrittenAsTheyAreNow() throws IOException {
+        CompoundTag compound = Nbt.compound();
+        compound.put("x", 1);
+        ListTag<Integer> list = Nbt.list(TagType.INT);
+        list.add(1);
+        CompoundTag root = Nbt.compound().trackChanges();
+        root.put("compound", compound.immutable());
+        root.put("list", list.immutable());
+        write(root);
+
+        compound.put("x", 2);
+        list.add(2);
+        CompoundTag written = reread(root);
+        assertEquals(2, written.getCompound("compound").getInt("x"));
+        assertEquals(2, written.getListTag("list", TagType.INT).backing().size());
+    }
+}
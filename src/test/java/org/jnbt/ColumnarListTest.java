@@ -0,0 +1,127 @@
+package org.jnbt;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnarListTest {
+
+    private static CompoundTag entity(int i) {
+        CompoundTag entity = Nbt.compound();
+        entity.put("id", i % 3 == 0 ? "pig" : "cow");
+        entity.put("Pos", Nbt.list(TagType.DOUBLE, i + 0.5, 64.0, -i - 0.5));
+        entity.put("Health", Nbt.tag((float) i));
+        entity.put("UUID", new int[]{i, i, i, i});
+        entity.put("Age", (short) i);
+        return entity;
+    }
+
+    // Entities whose first element has an extra key, and with one other odd element
+    private static ListTag<CompoundTag> entities() {
+        ListTag<CompoundTag> list = Nbt.list(TagType.COMPOUND);
+        CompoundTag named = entity(0);
+        named.put("CustomName", "first");
+        list.add(named);
+        for (int i = 1; i < 40; i++) {
+            CompoundTag entity = entity(i);
+            if (i == 20) {
+                entity.put("Pos", Nbt.list(TagType.DOUBLE, 1.0, 2.0));
+            }
+            list.add(entity);
+        }
+        return list;
+    }
+
+    private static ColumnarList stream(ListTag<CompoundTag> list) throws IOException {
+        CompoundTag root = Nbt.compound();
+        root.put("list", list);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Nbt.write("", root, out);
+        NbtReader reader = new NbtReader(new ByteArrayInputStream(out.toByteArray()));
+        reader.nextName();
+        reader.beginCompound();
+        reader.nextName();
+        return ColumnarList.read(reader);
+    }
+
+    @Test
+    public void listsRoundTripFromTreesAndStreams() throws IOException {
+        ListTag<CompoundTag> list = entities();
+        for (ColumnarList columnar : new ColumnarList[]{ColumnarList.of(list), stream(list)}) {
+            assertEquals(list, columnar.toList());
+            List<Tag<CompoundTag>> rows = list.getBacking();
+            assertEquals(rows.size(), columnar.size());
+            for (int row = 0; row < rows.size(); row++) {
+                assertEquals(rows.get(row), columnar.getRow(row));
+                assertEquals(rows.get(row).asCompound().get("Health"), columnar.get(row, "Health"));
+            }
+        }
+    }
+
+    @Test
+    public void schemaIsTheMostCommonShapeOfTheSample() throws IOException {
+        ListTag<CompoundTag> list = entities();
+        ColumnarList fromTree = ColumnarList.of(list);
+        ColumnarList fromStream = stream(list);
+        for (ColumnarList columnar : new ColumnarList[]{fromTree, fromStream}) {
+            assertEquals(Arrays.asList("id", "Pos", "Health", "UUID", "Age"), columnar.getKeys());
+            assertEquals(2, columnar.getIrregularCount());
+            assertFalse(columnar.isRegular(0));
+            assertFalse(columnar.isRegular(20));
+            assertTrue(columnar.isRegular(1));
+            assertEquals(TagType.LIST, columnar.getType("Pos"));
+            assertEquals(TagType.NULL, columnar.getType("CustomName"));
+            assertEquals("first", columnar.getRow(0).getString("CustomName"));
+        }
+        assertEquals(fromTree.toList(), fromStream.toList());
+        assertArrayEquals(fromTree.getStringCodes("id"), fromStream.getStringCodes("id"));
+        assertEquals(fromTree.getDictionary("id"), fromStream.getDictionary("id"));
+    }
+
+    @Test
+    public void columnsHoldTheRegularRows() throws IOException {
+        ColumnarList columnar = stream(entities());
+        double[] x = (double[]) columnar.getComponent("Pos", 0);
+        double[] y = (double[]) columnar.getComponent("Pos", 1);
+        float[] health = columnar.getFloats("Health");
+        short[] age = columnar.getShorts("Age");
+        int[] codes = columnar.getStringCodes("id");
+        for (int row = 1; row < columnar.size(); row++) {
+            if (row == 20) {
+                // Irregular rows hold zero and string code -1
+                assertEquals(0, x[row], 0);
+                assertEquals(-1, codes[row]);
+                continue;
+            }
+            assertEquals(row + 0.5, x[row], 0);
+            assertEquals(64, y[row], 0);
+            assertEquals(row, health[row], 0);
+            assertEquals(row, age[row]);
+            assertEquals(row % 3 == 0 ? "pig" : "cow", columnar.getDictionary("id").get(codes[row]));
+        }
+    }
+
+    @Test
+    public void emptyListsHaveNoColumns() throws IOException {
+        ListTag<CompoundTag> empty = Nbt.list(TagType.COMPOUND);
+        for (ColumnarList columnar : new ColumnarList[]{ColumnarList.of(empty), stream(empty)}) {
+            assertEquals(0, columnar.size());
+            assertTrue(columnar.getKeys().isEmpty());
+            assertEquals(empty, columnar.toList());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void componentsOfOtherColumnsAreRejected() {
+        ColumnarList.of(entities()).getComponent("UUID", 0);
+    }
+}
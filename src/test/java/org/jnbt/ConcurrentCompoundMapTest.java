@@ -0,0 +1,171 @@
+package org.jnbt;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentCompoundMapTest {
+
+    private static final int THREADS = 4;
+
+    // Runs the task on several threads at once, rethrowing the first failure
+    private static void concurrently(ThreadTask task) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    task.run(thread);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    private interface ThreadTask {
+
+        void run(int thread) throws Exception;
+    }
+
+    private static int value(Tag tag) {
+        return ((IntTag) tag).intValue();
+    }
+
+    @Test(timeout = 60000)
+    public void concurrentMergesAreAtomic() throws InterruptedException {
+        ConcurrentCompoundMap map = new ConcurrentCompoundMap(16);
+        concurrently(thread -> {
+            for (int i = 0; i < 10000; i++) {
+                map.merge("count", Nbt.tag(1), (a, b) -> Nbt.tag(value(a) + value(b)));
+                map.compute("key" + i % 8, (k, old) -> Nbt.tag(old == null ? 1 : value(old) + 1));
+            }
+        });
+        assertEquals(THREADS * 10000, value(map.get("count")));
+        for (int i = 0; i < 8; i++) {
+            assertEquals(THREADS * 10000 / 8, value(map.get("key" + i)));
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void insertionOrderIsKeptPerThreadAndOnReplace() throws InterruptedException {
+        ConcurrentCompoundMap map = new ConcurrentCompoundMap(16);
+        map.put("first", Nbt.tag(0));
+        concurrently(thread -> {
+            for (int i = 0; i < 1000; i++) {
+                map.put(thread + ":" + i, Nbt.tag(i));
+                // Replacing keeps the position
+                map.put("first", Nbt.tag(i));
+            }
+        });
+        List<String> keys = new ArrayList<>(map.snapshot().keySet());
+        assertEquals(THREADS * 1000 + 1, keys.size());
+        assertEquals("first", keys.get(0));
+        int[] next = new int[THREADS];
+        for (String key : keys.subList(1, keys.size())) {
+            int thread = Integer.parseInt(key.substring(0, key.indexOf(':')));
+            assertEquals(next[thread]++, Integer.parseInt(key.substring(key.indexOf(':') + 1)));
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void snapshotsNeverSeeHalfOfARemoval() throws InterruptedException {
+        ConcurrentCompoundMap map = new ConcurrentCompoundMap(16);
+        for (int i = 0; i < 1000; i++) {
+            map.put("key" + i, Nbt.tag(i));
+        }
+        concurrently(thread -> {
+            if (thread == 0) {
+                for (int i = 0; i < 1000; i++) {
+                    assertEquals(i, value(map.remove("key" + i)));
+                }
+                return;
+            }
+            // The snapshot's keys are always a suffix of the original order
+            for (int i = 0; i < 200; i++) {
+                List<String> keys = new ArrayList<>(map.snapshot().keySet());
+                if (!keys.isEmpty()) {
+                    int from = Integer.parseInt(keys.get(0).substring(3));
+                    assertEquals(1000 - from, keys.size());
+                    assertEquals("key999", keys.get(keys.size() - 1));
+                }
+            }
+        });
+        assertTrue(map.isEmpty());
+        assertTrue(map.snapshot().isEmpty());
+        assertFalse(map.entrySet().iterator().hasNext());
+    }
+
+    @Test(timeout = 10000, expected = IllegalStateException.class)
+    public void snapshotsInsideComputeAreRefused() {
+        ConcurrentCompoundMap map = new ConcurrentCompoundMap(16);
+        map.put("a", Nbt.tag(1));
+        map.compute("b", (k, old) -> Nbt.tag(map.snapshot().size()));
+    }
+
+    @Test(timeout = 10000)
+    public void writingInsideComputeIsRefused() {
+        ConcurrentCompoundMap map = new ConcurrentCompoundMap(16);
+        CompoundTag tag = new CompoundTag(map);
+        tag.put("a", 1);
+        try {
+            map.compute("b", (k, old) -> {
+                try {
+                    Nbt.write("", tag, new ByteArrayOutputStream());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return Nbt.tag(2);
+            });
+            throw new AssertionError("Wrote from inside compute");
+        } catch (IllegalStateException e) {
+            // The failed compute leaves the map as it was, and usable
+            assertEquals(1, map.size());
+            tag.put("b", 2);
+            assertEquals(2, tag.getInt("b"));
+        }
+    }
+
+    @Test(timeout = 10000, expected = IllegalStateException.class)
+    public void modifyingTheSameMapInsideComputeIsRefused() {
+        ConcurrentCompoundMap map = new ConcurrentCompoundMap(16);
+        map.computeIfAbsent("a", k -> map.put("b", Nbt.tag(1)));
+    }
+
+    @Test(timeout = 10000)
+    public void otherMapsCanBeModifiedInsideCompute() {
+        ConcurrentCompoundMap outer = new ConcurrentCompoundMap(16);
+        ConcurrentCompoundMap inner = new ConcurrentCompoundMap(16);
+        outer.compute("a", (k, old) -> {
+            inner.put("b", Nbt.tag(1));
+            return Nbt.tag(2);
+        });
+        Map<String, Tag> snapshot = inner.snapshot();
+        assertEquals(1, value(snapshot.get("b")));
+        assertEquals(2, value(outer.get("a")));
+    }
+}
@@ -0,0 +1,62 @@
+package org.jnbt;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EncodedCacheTest {
+
+    @After
+    public void reset() {
+        EncodedCache.setMaxBytes(64L * 1024 * 1024);
+        EncodedCache.clear();
+    }
+
+    @Test
+    public void keptEncodingFollowsTheTreeNotItsSource() throws IOException {
+        CompoundTag child = Nbt.compound();
+        child.put("x", 1);
+        CompoundTag root = Nbt.compound();
+        root.put("child", child);
+
+        CompoundTag frozen = root.immutableCopy();
+        frozen.encoded();
+        child.put("x", 2);
+
+        CompoundTag written = ReadOptionsTest.read(ReadOptionsTest.write(frozen), ReadOptions.frozen()).getTag().asCompound();
+        assertEquals(1, written.getCompound("child").getInt("x"));
+    }
+
+    @Test
+    public void writesUseTheKeptEncoding() throws IOException {
+        CompoundTag frozen = ReadOptionsTest.sample().immutableCopy();
+        byte[] before = ReadOptionsTest.write(frozen);
+        frozen.encoded();
+        assertTrue(EncodedCache.size() > 0);
+        assertArrayEquals(before, ReadOptionsTest.write(frozen));
+    }
+
+    @Test
+    public void entriesOfCollectedTreesAreSwept() throws InterruptedException {
+        EncodedCache.clear();
+        for (int i = 0; i < 10000; i++) {
+            CompoundTag tag = Nbt.compound();
+            tag.put("i", i);
+            tag.immutableCopy().encoded();
+        }
+        // Stores process collected entries, so keep storing until the collector has run
+        for (int attempt = 0; attempt < 50 && EncodedCache.queued() > 5000; attempt++) {
+            System.gc();
+            Thread.sleep(20);
+            CompoundTag tag = Nbt.compound();
+            tag.put("attempt", attempt);
+            tag.immutableCopy().encoded();
+        }
+        assertTrue("queued " + EncodedCache.queued(), EncodedCache.queued() <= 5000);
+    }
+}
@@ -0,0 +1,50 @@
+package org.jnbt;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.jnbt.ReadOptionsTest.read;
+
+public class MalformedInputTest {
+
+    // A root compound named "" holding one entry of the given type id, named "a"
+    private static byte[] entry(int type) {
+        return new byte[]{10, 0, 0, (byte) type, 0, 1, 'a', 0, 0, 0, 0, 0};
+    }
+
+    private static void assertRejected(byte[] bytes) {
+        try {
+            read(bytes, ReadOptions.frozen());
+        } catch (IOException expected) {
+            return;
+        }
+        throw new AssertionError("malformed document was read");
+    }
+
+    @Test
+    public void unknownEntryTypeIsRejected() {
+        assertRejected(entry(13));
+        assertRejected(entry(0x80));
+    }
+
+    @Test
+    public void unknownListTypeIsRejected() {
+        assertRejected(new byte[]{10, 0, 0, 9, 0, 1, 'a', 99, 0, 0, 0, 1, 0});
+    }
+
+    @Test
+    public void unknownRootTypeIsRejected() {
+        assertRejected(new byte[]{42, 0, 0});
+        assertRejected(new byte[]{-1, 0, 0});
+    }
+
+    @Test(expected = IOException.class)
+    public void streamReaderRejectsUnknownType() throws IOException {
+        NbtReader reader = new NbtReader(new ByteArrayInputStream(entry(13)));
+        reader.nextName();
+        reader.beginCompound();
+        reader.nextName();
+    }
+}
@@ -0,0 +1,99 @@
+package org.jnbt;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class MetricsTest {
+
+    private final List<NbtMetrics.Report> reads = new ArrayList<>();
+    private final List<NbtMetrics.Report> writes = new ArrayList<>();
+
+    @Before
+    public void install() {
+        NbtMetrics.install(new NbtMetrics() {
+            @Override
+            public void onRead(Report report) {
+                reads.add(report);
+            }
+
+            @Override
+            public void onWrite(Report report) {
+                writes.add(report);
+            }
+        });
+    }
+
+    @After
+    public void uninstall() {
+        NbtMetrics.uninstall();
+    }
+
+    private static CompoundTag document() {
+        CompoundTag root = ReadOptionsTest.sample();
+        root.put("bytes", new byte[5]);
+        root.put("longs", new long[3]);
+        ListTag<CompoundTag> list = Nbt.list(TagType.COMPOUND);
+        CompoundTag nested = Nbt.compound();
+        nested.put("ints", new int[2]);
+        list.add(nested);
+        root.put("list", list);
+        return root;
+    }
+
+    private static void assertSameFigures(NbtMetrics.Report read, NbtMetrics.Report written) {
+        assertEquals(read.getBytes(), written.getBytes());
+        assertEquals(read.getMaxDepth(), written.getMaxDepth());
+        assertEquals(read.getArrayBytes(), written.getArrayBytes());
+        for (int id = 1; id <= 12; id++) {
+            assertEquals(read.getTagCount(TagType.forId(id)), written.getTagCount(TagType.forId(id)));
+        }
+    }
+
+    @Test
+    public void writeReportMatchesReadReport() throws IOException {
+        byte[] bytes = ReadOptionsTest.write(document());
+        ReadOptionsTest.read(bytes, ReadOptions.frozen());
+        assertEquals(1, writes.size());
+        assertEquals(1, reads.size());
+        assertSameFigures(reads.get(0), writes.get(0));
+        assertEquals(bytes.length, writes.get(0).getBytes());
+        assertEquals(3, writes.get(0).getMaxDepth());
+        assertEquals(5 + 24 + 8, writes.get(0).getArrayBytes());
+    }
+
+    @Test
+    public void formatAndParallelWritesAreCounted() throws IOException {
+        ByteArrayOutputStream format = new ByteArrayOutputStream();
+        NbtFormat.BEDROCK.write(document(), format);
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        ParallelWriter.create().write(document(), parallel);
+        NbtFormat.BEDROCK.read(new java.io.ByteArrayInputStream(format.toByteArray()));
+        assertEquals(2, writes.size());
+        assertSameFigures(reads.get(0), writes.get(0));
+        assertEquals(format.size(), writes.get(0).getBytes());
+        assertEquals(parallel.size(), writes.get(1).getBytes());
+        assertEquals(writes.get(0).getTagCount(), writes.get(1).getTagCount());
+    }
+
+    @Test
+    public void bytesAreCountedForAnyDataOutput() throws IOException {
+        File file = File.createTempFile("jnbt-metrics", ".nbt");
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            Nbt.write(document(), out);
+            assertEquals(out.length(), writes.get(0).getBytes());
+        } finally {
+            file.delete();
+        }
+        assertEquals(ReadOptionsTest.write(document()).length, writes.get(0).getBytes());
+    }
+}
@@ -0,0 +1,144 @@
+package org.jnbt;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class NbtCacheTest {
+
+    private static CompoundTag value(int version) {
+        CompoundTag tag = Nbt.compound();
+        tag.put("version", version);
+        tag.put("payload", new int[64]);
+        return tag.immutableCopy();
+    }
+
+    @Test
+    public void demotedEntriesAreHitCold() {
+        long size = NbtSizes.retained(value(0));
+        NbtCache<Integer> cache = new NbtCache<>(size * 4, size * 64, 1);
+        for (int i = 0; i < 32; i++) {
+            cache.put(i, value(i));
+        }
+        assertTrue(cache.getDemotions() > 0);
+        for (int i = 0; i < 32; i++) {
+            assertEquals(i, cache.get(i).getInt("version"));
+        }
+        assertTrue(cache.getColdHits() > 0);
+        assertNull(cache.get(32));
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void defaultStripesKeepEntriesHot() {
+        long size = NbtSizes.retained(value(0));
+        // Room for a few entries in all, which must not be split into stripes too small to hold one
+        NbtCache<Integer> cache = new NbtCache<>(size * 4 + 1024, size * 64);
+        for (int i = 0; i < 3; i++) {
+            cache.put(i, value(i));
+        }
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, cache.get(i).getInt("version"));
+        }
+        assertEquals(0, cache.getDemotions());
+        assertEquals(0, cache.getColdHits());
+        assertEquals(3, cache.getHits());
+    }
+
+    @Test
+    public void defaultStripesLeaveEachSeveralMegabytes() {
+        assertEquals(1, NbtCache.defaultStripes(0));
+        assertEquals(1, NbtCache.defaultStripes(4 << 20));
+        int stripes = NbtCache.defaultStripes(1L << 40);
+        assertEquals(1, Integer.bitCount(stripes));
+        assertTrue(stripes <= Math.max(1, Runtime.getRuntime().availableProcessors() / 4));
+    }
+
+    @Test
+    public void invalidationDuringLoadIsNotCached() throws IOException {
+        NbtCache<Integer> cache = new NbtCache<>(1 << 20, 1 << 20, 1);
+        CompoundTag loaded = cache.get(1, key -> {
+            CompoundTag stale = value(1);
+            cache.invalidate(key);
+            return stale;
+        });
+        assertEquals(1, loaded.getInt("version"));
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    public void writeDuringLoadIsKept() throws IOException {
+        NbtCache<Integer> cache = new NbtCache<>(1 << 20, 1 << 20, 1);
+        CompoundTag newer = value(2);
+        cache.get(1, key -> {
+            CompoundTag stale = value(1);
+            cache.put(key, newer);
+            return stale;
+        });
+        assertSame(newer, cache.get(1));
+    }
+
+    @Test(timeout = 60000)
+    public void concurrentPromotionAndDemotionNeverReviveStaleEntries() throws InterruptedException {
+        long size = NbtSizes.retained(value(0));
+        // Without a hot tier every put is demoted and every hit promoted, all in a single stripe
+        NbtCache<Integer> cache = new NbtCache<>(0, size * 16, 1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        long deadline = System.nanoTime() + 2_000_000_000L;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int key = t;
+            // Each key has a single writer, which checks that what it reads back is never older
+            threads.add(new Thread(() -> {
+                try {
+                    for (int version = 1; System.nanoTime() < deadline; version++) {
+                        cache.put(key, value(version));
+                        CompoundTag read = cache.get(key);
+                        if (read != null && read.getInt("version") != version) {
+                            throw new AssertionError("Read version " + read.getInt("version") + " after writing " + version);
+                        }
+                        cache.invalidate(key);
+                        // Checked repeatedly, as a stale entry would be reinstalled after a decode
+                        for (int i = 0; i < 20; i++) {
+                            read = cache.get(key);
+                            if (read != null) {
+                                throw new AssertionError("Read version " + read.getInt("version") + " after invalidating " + version);
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+            // Readers of the same keys promote their cold entries
+            threads.add(new Thread(() -> {
+                while (System.nanoTime() < deadline && failure.get() == null) {
+                    cache.get(key);
+                }
+            }));
+        }
+        // Churn through other keys so that demotions keep happening
+        threads.add(new Thread(() -> {
+            for (int i = 0; System.nanoTime() < deadline && failure.get() == null; i++) {
+                cache.put(100 + i % 32, value(i));
+            }
+        }));
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+}
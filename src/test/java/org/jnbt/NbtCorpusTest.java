@@ -0,0 +1,42 @@
+package org.jnbt;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NbtCorpusTest {
+
+    @Test
+    public void palettesHaveNoDuplicates() {
+        NbtCorpus corpus = NbtCorpus.seeded(7);
+        int palettes = 0;
+        for (int x = 0; x < 8; x++) {
+            for (int z = 0; z < 8; z++) {
+                if (!corpus.hasChunk(x, z)) {
+                    continue;
+                }
+                for (CompoundTag section : corpus.chunk(x, z).getListTag("sections", TagType.COMPOUND)) {
+                    Set<String> blocks = new HashSet<>();
+                    for (CompoundTag state : section.getCompound("block_states").getListTag("palette", TagType.COMPOUND)) {
+                        assertTrue(state.getString("Name"), blocks.add(state.getString("Name")));
+                    }
+                    Set<String> biomes = new HashSet<>();
+                    for (String biome : section.getCompound("biomes").getListTag("palette", TagType.STRING)) {
+                        assertTrue(biome, biomes.add(biome));
+                    }
+                    palettes++;
+                }
+            }
+        }
+        assertTrue(palettes > 0);
+    }
+
+    @Test
+    public void sameSeedGivesSameChunks() {
+        assertEquals(NbtCorpus.seeded(3).chunk(1, 2), NbtCorpus.seeded(3).chunk(1, 2));
+    }
+}
@@ -0,0 +1,98 @@
+package org.jnbt;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class NbtFormatTest {
+
+    private static final NbtFormat[] FORMATS = {NbtFormat.JAVA, NbtFormat.JAVA_NETWORK, NbtFormat.BEDROCK, NbtFormat.BEDROCK_NETWORK};
+
+    private static CompoundTag nested(String name) {
+        CompoundTag nested = Nbt.compound();
+        nested.put("int", -300);
+        nested.put("name", name);
+        return nested;
+    }
+
+    // Every type, with ints and longs that take several varint bytes, followed by a marker
+    private static CompoundTag document() {
+        CompoundTag root = Nbt.compound();
+        root.put("byte", (byte) -1);
+        root.put("short", (short) 1000);
+        root.put("int", Integer.MIN_VALUE);
+        root.put("long", 1L << 40);
+        root.put("float", 1.5f);
+        root.put("double", -2.25);
+        root.put("string", "héllo");
+        root.put("bytes", new byte[]{1, -2, 3});
+        root.put("ints", new int[]{0, -1, 1 << 20, Integer.MAX_VALUE});
+        root.put("longs", new long[]{Long.MIN_VALUE, 0, 300});
+        root.put("intList", Nbt.list(TagType.INT, 1, -200, 70000));
+        root.put("longList", Nbt.list(TagType.LONG, -1L, 1L << 50));
+        root.put("stringList", Nbt.list(TagType.STRING, "a", "bc"));
+        root.put("compoundList", Nbt.list(TagType.COMPOUND, nested("first"), nested("second")));
+        root.put("compound", nested("nested"));
+        root.put("after", 12345);
+        return root;
+    }
+
+    private static byte[] write(NbtFormat format, Tag tag) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        format.write("root", tag, out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void documentsRoundTripInEveryFormat() throws IOException {
+        CompoundTag document = document();
+        for (NbtFormat format : FORMATS) {
+            RootTag root = format.read(new ByteArrayInputStream(write(format, document)));
+            assertEquals(format.getName(), format.hasNamedRoot() ? "root" : "", root.getName());
+            assertEquals(format.getName(), document, root.getTag());
+        }
+    }
+
+    @Test
+    public void skippedValuesKeepTheStreamInStepInEveryFormat() throws IOException {
+        for (NbtFormat format : FORMATS) {
+            NbtReader reader = format.reader(new ByteArrayInputStream(write(format, document())));
+            reader.nextName();
+            reader.beginCompound();
+            while (true) {
+                String name = reader.nextName();
+                if (name.equals("after")) {
+                    assertEquals(format.getName(), 12345, reader.nextInt());
+                    break;
+                }
+                reader.skipValue();
+            }
+            assertFalse(format.getName(), reader.hasNext());
+            reader.endCompound();
+        }
+    }
+
+    @Test
+    public void partlyReadListsAreSkippedInEveryFormat() throws IOException {
+        for (NbtFormat format : FORMATS) {
+            NbtReader reader = format.reader(new ByteArrayInputStream(write(format, document())));
+            reader.nextName();
+            reader.beginCompound();
+            while (!reader.nextName().equals("intList")) {
+                reader.skipValue();
+            }
+            reader.beginList();
+            assertEquals(format.getName(), 1, reader.nextInt());
+            reader.endList();
+            assertEquals(format.getName(), "longList", reader.nextName());
+            reader.beginList();
+            reader.endList();
+            reader.endCompound();
+        }
+    }
+}
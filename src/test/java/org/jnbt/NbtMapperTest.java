@@ -0,0 +1,73 @@
+package org.jnbt;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.jnbt.ReadOptionsTest.write;
+import static org.junit.Assert.assertEquals;
+
+public class NbtMapperTest {
+
+    static final class Defaults {
+        int a = 5;
+        List<String> tags = new ArrayList<>();
+    }
+
+    static final class Point {
+        final int x;
+        final String name;
+
+        Point(int x, String name) {
+            this.x = x;
+            this.name = name;
+        }
+    }
+
+    private static <T> T stream(NbtMapper<T> mapper, CompoundTag tag) throws IOException {
+        NbtReader reader = new NbtReader(new ByteArrayInputStream(write(tag)));
+        reader.nextName();
+        return mapper.read(reader);
+    }
+
+    @Test
+    public void missingKeysKeepInitialValues() throws IOException {
+        NbtMapper<Defaults> mapper = NbtMapper.forClass(Defaults.class);
+        Defaults fromTree = mapper.apply(Nbt.compound());
+        Defaults fromStream = stream(mapper, Nbt.compound());
+        assertEquals(5, fromTree.a);
+        assertEquals(Collections.emptyList(), fromTree.tags);
+        assertEquals(5, fromStream.a);
+        assertEquals(Collections.emptyList(), fromStream.tags);
+    }
+
+    @Test
+    public void valuesOfAnotherTypeAreSkipped() throws IOException {
+        CompoundTag tag = Nbt.compound();
+        tag.put("a", "text");
+        NbtMapper<Defaults> mapper = NbtMapper.forClass(Defaults.class);
+        assertEquals(5, mapper.apply(tag).a);
+        assertEquals(5, stream(mapper, tag).a);
+    }
+
+    @Test
+    public void treeAndStreamRoundTripAgree() throws IOException {
+        NbtMapper<Point> mapper = NbtMapper.forClass(Point.class);
+        CompoundTag tag = Nbt.compound();
+        mapper.apply(new Point(3, "p"), tag);
+        Point fromTree = mapper.apply(tag);
+        Point fromStream = stream(mapper, tag);
+        assertEquals(3, fromTree.x);
+        assertEquals("p", fromTree.name);
+        assertEquals(3, fromStream.x);
+        assertEquals("p", fromStream.name);
+
+        Point empty = mapper.apply(Nbt.compound());
+        assertEquals(0, empty.x);
+        assertEquals(null, empty.name);
+    }
+}
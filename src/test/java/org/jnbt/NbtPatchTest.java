@@ -0,0 +1,132 @@
+package org.jnbt;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NbtPatchTest {
+
+    private static CompoundTag entity(String id, int health) {
+        CompoundTag tag = Nbt.compound();
+        tag.put("id", id);
+        tag.put("health", health);
+        return tag;
+    }
+
+    private static CompoundTag base() {
+        CompoundTag root = Nbt.compound();
+        root.put("name", "world");
+        root.put("time", 100L);
+        root.put("names", Nbt.list(TagType.STRING, "a", "b", "c", "d"));
+        root.put("entities", Nbt.list(TagType.COMPOUND, entity("pig", 10), entity("cow", 10)));
+        root.put("heights", new int[]{1, 2, 3, 4, 5});
+        CompoundTag nested = Nbt.compound();
+        nested.put("x", 1);
+        nested.put("y", 2);
+        root.put("nested", nested);
+        return root.immutableCopy();
+    }
+
+    private static NbtPatch reencode(NbtPatch patch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        patch.encode(new DataOutputStream(bytes));
+        return NbtPatch.decode(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    // Checks the patch and its decoded encoding both turn before into after, leaving before alone
+    private static NbtPatch check(CompoundTag before, CompoundTag after) throws IOException {
+        CompoundTag copy = before.copy();
+        NbtPatch patch = NbtDiff.diff(before, after);
+        assertEquals(after, patch.apply(before));
+        assertEquals(after, reencode(patch).apply(before));
+        assertEquals(copy, before);
+        return patch;
+    }
+
+    private static List<String> keys(CompoundTag tag) {
+        return new ArrayList<>(tag.entries().keySet());
+    }
+
+    @Test
+    public void identicalTreesGiveAnEmptyPatch() throws IOException {
+        assertTrue(check(base(), base()).isEmpty());
+    }
+
+    @Test
+    public void valuesAreReplacedAddedAndRemoved() throws IOException {
+        CompoundTag after = base().copy();
+        after.put("time", 200L);
+        after.put("name", 5);
+        after.remove("heights");
+        after.put("seed", 42L);
+        CompoundTag nested = after.getCompound("nested").copy();
+        nested.put("z", 3);
+        after.put("nested", nested);
+        check(base(), after);
+    }
+
+    @Test
+    public void listEditsAreSpliced() throws IOException {
+        CompoundTag appended = base().copy();
+        appended.put("names", Nbt.list(TagType.STRING, "a", "b", "c", "d", "e"));
+        assertEquals("splice", check(base(), appended).toString().substring(1, 7));
+
+        CompoundTag inserted = base().copy();
+        inserted.put("names", Nbt.list(TagType.STRING, "a", "x", "y", "b", "c", "d"));
+        check(base(), inserted);
+
+        CompoundTag removed = base().copy();
+        removed.put("names", Nbt.list(TagType.STRING, "a", "d"));
+        check(base(), removed);
+
+        CompoundTag spliced = base().copy();
+        spliced.put("heights", new int[]{1, 2, 9, 5});
+        check(base(), spliced);
+    }
+
+    @Test
+    public void listElementsAreEditedInPlace() throws IOException {
+        CompoundTag after = base().copy();
+        after.put("entities", Nbt.list(TagType.COMPOUND, entity("pig", 10), entity("cow", 4)));
+        NbtPatch patch = check(base(), after);
+        assertEquals(1, patch.size());
+        assertEquals("[put entities[1].health = 4]", patch.toString());
+    }
+
+    @Test
+    public void keyOrderIsNotPartOfTheDiff() throws IOException {
+        CompoundTag before = base();
+        CompoundTag after = Nbt.compound();
+        List<String> order = keys(before);
+        for (int i = order.size() - 1; i >= 0; i--) {
+            after.put(order.get(i), before.get(order.get(i)));
+        }
+        after.put("added", 1);
+        NbtPatch patch = check(before, after);
+        assertEquals(1, patch.size());
+
+        // The base's order is kept and new keys are appended
+        List<String> expected = keys(before);
+        expected.add("added");
+        assertEquals(expected, keys(patch.apply(before)));
+    }
+
+    @Test(expected = IOException.class)
+    public void negativeOperationCountIsRejected() throws IOException {
+        NbtPatch.decode(new DataInputStream(new ByteArrayInputStream(new byte[]{1, -1, -1, -1, -1})));
+    }
+
+    @Test(expected = IOException.class)
+    public void hugeOperationCountFailsAtTheEndOfInput() throws IOException {
+        NbtPatch.decode(new DataInputStream(new ByteArrayInputStream(new byte[]{1, 0x7F, -1, -1, -1})));
+    }
+}
@@ -0,0 +1,121 @@
+package org.jnbt;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class NbtPathTest {
+
+    private static CompoundTag item(String id, int count) {
+        CompoundTag item = Nbt.compound();
+        item.put("id", id);
+        item.put("Count", (byte) count);
+        return item;
+    }
+
+    private static CompoundTag document() {
+        CompoundTag player = Nbt.compound();
+        player.put("id", "player");
+        player.put("OnGround", (byte) 1);
+        player.put("Pos", Nbt.list(TagType.DOUBLE, 1.5, 64.0, -3.5));
+        player.put("Inventory", Nbt.list(TagType.COMPOUND, item("stone", 64), item("diamond", 3), item("stick", 1)));
+        CompoundTag root = Nbt.compound();
+        root.put("player", player);
+        root.put("heights", new int[]{10, 20, 30});
+        root.put("key with spaces", "spaced");
+        root.put("empty", Nbt.list(TagType.COMPOUND));
+        return root;
+    }
+
+    // Evaluates the path over the tree and the stream, which must agree
+    private static List<Tag> select(String path) throws IOException {
+        CompoundTag root = document();
+        NbtPath compiled = NbtPath.compile(path);
+        List<Tag> tree = compiled.select(root);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Nbt.write("", root, out);
+        NbtReader reader = new NbtReader(new ByteArrayInputStream(out.toByteArray()));
+        reader.nextName();
+        assertEquals(path, tree, compiled.select(reader));
+        return tree;
+    }
+
+    private static void assertSelects(String path, Tag... expected) throws IOException {
+        assertEquals(path, Arrays.asList(expected), select(path));
+    }
+
+    @Test
+    public void keysSelectEntries() throws IOException {
+        assertSelects("player.id", Nbt.tag("player"));
+        assertSelects("\"key with spaces\"", Nbt.tag("spaced"));
+        assertSelects("player.Inventory[0].id", Nbt.tag("stone"));
+    }
+
+    @Test
+    public void indexesCountFromEitherEnd() throws IOException {
+        assertSelects("player.Pos[1]", Nbt.tag(64.0));
+        assertSelects("player.Pos[-1]", Nbt.tag(-3.5));
+        assertSelects("heights[0]", Nbt.tag(10));
+        assertSelects("heights[-3]", Nbt.tag(10));
+        assertSelects("player.Inventory[-1].Count", Nbt.tag((byte) 1));
+    }
+
+    @Test
+    public void wildcardsSelectEveryChild() throws IOException {
+        assertSelects("heights[]", Nbt.tag(10), Nbt.tag(20), Nbt.tag(30));
+        assertSelects("player.Inventory[].id", Nbt.tag("stone"), Nbt.tag("diamond"), Nbt.tag("stick"));
+        assertEquals(4, select("player.*").size());
+        assertSelects("player.Inventory[].*", Nbt.tag("stone"), Nbt.tag((byte) 64), Nbt.tag("diamond"),
+                Nbt.tag((byte) 3), Nbt.tag("stick"), Nbt.tag((byte) 1));
+        assertSelects("empty[]");
+    }
+
+    @Test
+    public void recursiveDescentSelectsAtAnyDepth() throws IOException {
+        assertSelects("..id", Nbt.tag("player"), Nbt.tag("stone"), Nbt.tag("diamond"), Nbt.tag("stick"));
+        assertSelects("player..Count", Nbt.tag((byte) 64), Nbt.tag((byte) 3), Nbt.tag((byte) 1));
+    }
+
+    @Test
+    public void filtersSelectMatchingValues() throws IOException {
+        assertSelects("player.Inventory[{id:\"diamond\"}].Count", Nbt.tag((byte) 3));
+        assertSelects("player{OnGround:1b}.id", Nbt.tag("player"));
+        assertSelects("player.Inventory[0]{Count:64b}.id", Nbt.tag("stone"));
+        assertSelects("{player:{Pos:[64.0d]}}.heights[1]", Nbt.tag(20));
+        // Filters compare types, so 1 is not 1b
+        assertSelects("player{OnGround:1}.id");
+        assertSelects("player.Inventory[{id:\"dirt\"}]");
+    }
+
+    @Test
+    public void missingPathsSelectNothing() throws IOException {
+        assertSelects("missing");
+        assertSelects("player.missing.id");
+        assertSelects("player.Pos[3]");
+        assertSelects("player.Pos[-4]");
+        assertSelects("player.id[0]");
+        assertSelects("heights.id");
+        assertSelects("player.id.*");
+        assertSame(NullTag.NULL, NbtPath.compile("player.missing").first(document()));
+        assertEquals(Collections.singletonList(Nbt.tag(1.5)), NbtPath.compile("player.Pos[0]").select(document()));
+    }
+
+    @Test
+    public void pathsAreComparedBySource() {
+        assertEquals(NbtPath.compile("player.Pos[0]"), NbtPath.compile("player.Pos[0]"));
+        assertEquals("player.Pos[0]", NbtPath.compile("player.Pos[0]").toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPathsAreRejected() {
+        NbtPath.compile("player.[");
+    }
+}
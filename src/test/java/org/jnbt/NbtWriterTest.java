@@ -0,0 +1,64 @@
+package org.jnbt;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class NbtWriterTest {
+
+    @Test
+    public void streamedDocumentMatchesTreeEncoding() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        NbtWriter writer = new NbtWriter(bytes);
+        writer.name("").beginCompound();
+        writer.name("child").beginCompound();
+        writer.name("x").writeInt(1);
+        writer.endCompound();
+        writer.name("names").beginList(TagType.STRING, 1);
+        writer.writeString("a");
+        writer.endList();
+        writer.endCompound();
+        assertArrayEquals(ReadOptionsTest.write(ReadOptionsTest.sample()), bytes.toByteArray());
+    }
+
+    @Test
+    public void elementBeyondListSizeIsRejectedWithoutCountingIt() throws IOException {
+        NbtWriter writer = new NbtWriter(new ByteArrayOutputStream());
+        writer.name("").beginList(TagType.INT, 1);
+        writer.writeInt(1);
+        try {
+            writer.writeInt(2);
+            throw new AssertionError("list accepted more elements than its size");
+        } catch (IllegalStateException e) {
+            assertEquals("List is full", e.getMessage());
+        }
+        writer.endList();
+    }
+
+    @Test
+    public void dataStreamsAreAcceptedDirectly() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        NbtWriter writer = new NbtWriter(new DataOutputStream(bytes));
+        writer.name("root").beginCompound();
+        writer.name("x").writeInt(7);
+        writer.endCompound();
+        writer.flush();
+
+        NbtReader reader = new NbtReader(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals("root", reader.nextName());
+        reader.beginCompound();
+        assertEquals("x", reader.nextName());
+        assertEquals(7, reader.nextInt());
+        reader.endCompound();
+
+        reader = new NbtReader(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), ReadOptions.mutable());
+        assertEquals(7, reader.nextTag().asCompound().getInt("x"));
+    }
+}
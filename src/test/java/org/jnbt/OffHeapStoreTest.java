@@ -0,0 +1,96 @@
+package org.jnbt;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapStoreTest {
+
+    private static CompoundTag document(int id, int size) {
+        CompoundTag tag = Nbt.compound();
+        tag.put("id", id);
+        tag.put("name", "document " + id);
+        tag.put("data", new long[size]);
+        return tag;
+    }
+
+    @Test
+    public void storedTreesReadBackInPlaceAndWhole() {
+        try (OffHeapStore store = new OffHeapStore(4096)) {
+            CompoundTag root = ReadOptionsTest.sample();
+            long handle = store.put(root);
+            assertEquals(root, store.get(handle));
+            assertEquals(1, store.view(handle).select("child").select("x").getInt());
+            assertEquals("a", store.view(handle).select("names").select(0).getString());
+            assertFalse(store.view(handle).select("missing").isPresent());
+        }
+    }
+
+    @Test
+    public void handlesOfRemovedDocumentsStayInvalid() {
+        try (OffHeapStore store = new OffHeapStore(4096)) {
+            long first = store.put(document(1, 1));
+            assertTrue(store.remove(first));
+            long second = store.put(document(2, 1));
+            assertFalse(store.remove(first));
+            try {
+                store.view(first);
+                throw new AssertionError("removed document was viewed");
+            } catch (IllegalStateException expected) {
+                // removed
+            }
+            assertEquals(2, store.view(second).select("id").getInt());
+        }
+    }
+
+    @Test
+    public void churnDoesNotGrowAllocatedMemory() {
+        int arenaBytes = 64 << 10;
+        try (OffHeapStore store = new OffHeapStore(arenaBytes)) {
+            SplittableRandom random = new SplittableRandom(1);
+            List<Long> handles = new ArrayList<>();
+            List<Integer> ids = new ArrayList<>();
+            long peak = 0;
+            for (int i = 0; i < 20000; i++) {
+                if (handles.size() >= 40) {
+                    int victim = random.nextInt(handles.size());
+                    assertTrue(store.remove(handles.remove(victim)));
+                    ids.remove(victim);
+                }
+                handles.add(store.put(document(i, random.nextInt(32, 256))));
+                ids.add(i);
+                peak = Math.max(peak, store.getAllocatedBytes());
+                assertTrue(store.getAllocatedBytes() <= 2 * arenaBytes + 3 * store.getLiveBytes());
+            }
+            assertTrue(peak < 8L * arenaBytes);
+            for (int i = 0; i < handles.size(); i++) {
+                assertEquals((int) ids.get(i), store.view(handles.get(i)).select("id").getInt());
+            }
+        }
+    }
+
+    @Test
+    public void viewsSurviveCompaction() {
+        try (OffHeapStore store = new OffHeapStore(16 << 10)) {
+            long kept = store.put(document(0, 100));
+            OffHeapStore.View view = store.view(kept).select("name");
+            List<Long> others = new ArrayList<>();
+            for (int i = 1; i < 40; i++) {
+                others.add(store.put(document(i, 100)));
+            }
+            int arenas = store.getArenaCount();
+            for (long handle : others) {
+                store.remove(handle);
+            }
+            assertTrue(store.getArenaCount() < arenas);
+            assertEquals("document 0", view.getString());
+            assertEquals(document(0, 100), store.get(kept));
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.jnbt;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PackedArraysTest {
+
+    // Counts that end on, just before and just after long boundaries for every width
+    private static final int[] COUNTS = {0, 1, 2, 63, 64, 65, 100, 4096};
+
+    private static int[] values(Random random, int bits, int count) {
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = random.nextInt() >>> 32 - bits;
+        }
+        // The extremes of the width
+        if (count > 1) {
+            values[0] = -1 >>> 32 - bits;
+            values[count - 1] = 0;
+        }
+        return values;
+    }
+
+    // Bit by bit, as the layouts are specified
+    private static long[] reference(int[] values, int bits, boolean padded) {
+        long[] data = new long[PackedArrays.length(values.length, bits, padded)];
+        int perLong = 64 / bits;
+        for (int i = 0; i < values.length; i++) {
+            long start = padded ? (long) (i / perLong) * 64 + (long) (i % perLong) * bits : (long) i * bits;
+            for (int b = 0; b < bits; b++) {
+                if ((values[i] >>> b & 1) != 0) {
+                    long bit = start + b;
+                    data[(int) (bit >>> 6)] |= 1L << (bit & 63);
+                }
+            }
+        }
+        return data;
+    }
+
+    @Test
+    public void everyWidthRoundTripsInBothLayouts() {
+        Random random = new Random(1);
+        for (int bits = 1; bits <= 32; bits++) {
+            for (boolean padded : new boolean[]{true, false}) {
+                for (int count : COUNTS) {
+                    String name = bits + " bits, " + count + " values, " + (padded ? "padded" : "spanning");
+                    int[] values = values(random, bits, count);
+                    long[] data = PackedArrays.pack(values, bits, padded);
+                    assertArrayEquals(name, reference(values, bits, padded), data);
+                    assertArrayEquals(name, values, PackedArrays.unpack(data, bits, count, padded));
+                    assertArrayEquals(name, values, PackedArrays.unpack(PackedArrays.packTag(values, bits, padded), bits, count, padded));
+                    for (int i = 0; i < count; i++) {
+                        assertEquals(name, values[i], PackedArrays.get(data, bits, padded, i));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void unpackingIntoABufferLeavesTheRestAlone() {
+        Random random = new Random(2);
+        for (int bits = 1; bits <= 32; bits++) {
+            for (boolean padded : new boolean[]{true, false}) {
+                int[] values = values(random, bits, 100);
+                long[] data = PackedArrays.pack(values, bits, padded);
+                int[] out = new int[128];
+                Arrays.fill(out, 7);
+                PackedArrays.unpack(data, bits, 100, padded, out);
+                assertArrayEquals(values, Arrays.copyOf(out, 100));
+                assertEquals(7, out[100]);
+                // A prefix reads the same values
+                assertArrayEquals(Arrays.copyOf(values, 37), PackedArrays.unpack(data, bits, 37, padded));
+            }
+        }
+    }
+
+    @Test
+    public void setValuesReadBack() {
+        Random random = new Random(3);
+        for (int bits = 1; bits <= 32; bits++) {
+            for (boolean padded : new boolean[]{true, false}) {
+                int[] values = values(random, bits, 200);
+                long[] data = new long[PackedArrays.length(200, bits, padded)];
+                for (int i = 0; i < values.length; i++) {
+                    PackedArrays.set(data, bits, padded, i, values[i]);
+                }
+                assertArrayEquals(PackedArrays.pack(values, bits, padded), data);
+                // Overwriting clears the old bits, including those in the next long
+                for (int i = 0; i < values.length; i++) {
+                    PackedArrays.set(data, bits, padded, i, values[values.length - 1 - i]);
+                }
+                for (int i = 0; i < values.length; i++) {
+                    assertEquals(values[values.length - 1 - i], PackedArrays.get(data, bits, padded, i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void layoutsAgreeForWidthsDividing64() {
+        Random random = new Random(4);
+        for (int bits : new int[]{1, 2, 4, 8, 16, 32}) {
+            int[] values = values(random, bits, 300);
+            assertArrayEquals(PackedArrays.pack(values, bits, true), PackedArrays.pack(values, bits, false));
+        }
+        // Otherwise the padded layout leaves the high bits of each long unused
+        assertEquals(576, PackedArrays.length(4096, 9, false));
+        assertEquals(586, PackedArrays.length(4096, 9, true));
+    }
+
+    @Test
+    public void bitsForCoversThePalette() {
+        assertEquals(4, PackedArrays.bitsFor(1, 4));
+        assertEquals(4, PackedArrays.bitsFor(16, 4));
+        assertEquals(5, PackedArrays.bitsFor(17, 4));
+        assertEquals(1, PackedArrays.bitsFor(0, 1));
+        assertEquals(1, PackedArrays.bitsFor(2, 1));
+        assertEquals(2, PackedArrays.bitsFor(3, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void valuesWiderThanTheWidthAreRejected() {
+        PackedArrays.pack(new int[]{1, 8, 2}, 3, false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shortDataIsRejected() {
+        PackedArrays.unpack(new long[1], 5, 13, false);
+    }
+}
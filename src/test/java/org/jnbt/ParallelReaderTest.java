@@ -0,0 +1,20 @@
+package org.jnbt;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParallelReaderTest {
+
+    @Test
+    public void parallelDecodingMatchesSequentialDecoding() throws IOException {
+        byte[] bytes = ParallelWriterTest.sequential(ParallelWriterTest.document());
+        RootTag expected = Nbt.read(new ByteArrayInputStream(bytes));
+        RootTag actual = ParallelReader.create().withPool(ParallelWriterTest.POOL).withSplitBytes(1024).read(bytes);
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getTag(), actual.getTag());
+    }
+}
@@ -0,0 +1,67 @@
+package org.jnbt;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ParallelWriterTest {
+
+    // Several workers even on a single processor, so that split tasks run concurrently
+    static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    // Large enough to be split many times over at the smallest split size
+    static CompoundTag document() {
+        NbtCorpus corpus = NbtCorpus.seeded(5);
+        CompoundTag root = Nbt.compound();
+        ListTag<CompoundTag> chunks = Nbt.list(TagType.COMPOUND);
+        for (int x = 0; x < 4; x++) {
+            for (int z = 0; z < 4; z++) {
+                if (corpus.hasChunk(x, z)) {
+                    chunks.add(corpus.chunk(x, z));
+                }
+            }
+        }
+        root.put("chunks", chunks);
+        root.put("player", corpus.player(0));
+        root.put("heights", new long[4096]);
+        return root;
+    }
+
+    static byte[] sequential(CompoundTag tag) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Nbt.write("root", tag, out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void parallelEncodingMatchesSequentialEncoding() throws IOException {
+        CompoundTag tag = document();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelWriter.create().withPool(POOL).withSplitBytes(1024).write("root", tag, out);
+        assertArrayEquals(sequential(tag), out.toByteArray());
+    }
+
+    @Test
+    public void gatheredWritesMatchSequentialEncoding() throws IOException {
+        CompoundTag tag = document();
+        Path file = Files.createTempFile("jnbt-parallel", ".nbt");
+        try {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                long written = ParallelWriter.create().withPool(POOL).withSplitBytes(1024).write("root", tag, channel);
+                assertEquals(Files.size(file), written);
+            }
+            assertArrayEquals(sequential(tag), Files.readAllBytes(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.jnbt;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReadOptionsTest {
+
+    static byte[] write(Tag<?> tag) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Nbt.write(tag, out);
+        return out.toByteArray();
+    }
+
+    static RootTag read(byte[] bytes, ReadOptions options) throws IOException {
+        return Nbt.read(new ByteArrayInputStream(bytes), options);
+    }
+
+    static CompoundTag sample() {
+        CompoundTag child = Nbt.compound();
+        child.put("x", 1);
+        ListTag<String> names = Nbt.list(TagType.STRING);
+        names.add("a");
+        CompoundTag root = Nbt.compound();
+        root.put("child", child);
+        root.put("names", names);
+        return root;
+    }
+
+    @Test
+    public void frozenReadRejectsModification() throws IOException {
+        CompoundTag root = read(write(sample()), ReadOptions.frozen()).getTag().asCompound();
+        assertTrue(root.isFrozen());
+        assertTrue(root.getCompound("child").isFrozen());
+        assertTrue(root.getListTag("names", TagType.STRING).isFrozen());
+        try {
+            root.getCompound("child").put("x", 2);
+            throw new AssertionError("frozen compound was modified");
+        } catch (UnsupportedOperationException expected) {
+            // frozen
+        }
+    }
+
+    @Test
+    public void mutableReadCanBeEditedInPlace() throws IOException {
+        CompoundTag root = read(write(sample()), ReadOptions.mutable()).getTag().asCompound();
+        assertFalse(root.isFrozen());
+        root.getCompound("child").put("x", 2);
+        assertEquals(2, read(write(root), ReadOptions.frozen()).getTag().asCompound().getCompound("child").getInt("x"));
+    }
+
+    @Test
+    public void frozenAndMutableReadsAreEqual() throws IOException {
+        byte[] bytes = write(sample());
+        assertEquals(read(bytes, ReadOptions.frozen()).getTag(), read(bytes, ReadOptions.mutable()).getTag());
+        assertEquals(sample(), read(bytes, ReadOptions.mutable()).getTag());
+    }
+}
@@ -0,0 +1,78 @@
+package org.jnbt;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+public class RegionIndexTest {
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("jnbt-index");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static CompoundTag chunk(String id) {
+        CompoundTag tag = Nbt.compound();
+        tag.put("id", id);
+        return tag;
+    }
+
+    // Sets the compression byte of a chunk, returning the previous one
+    private static byte compression(Path region, int x, int z, byte value) throws IOException {
+        try (FileChannel channel = FileChannel.open(region, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer entry = ByteBuffer.allocate(4);
+            channel.read(entry, 4L * RegionFile.index(x, z));
+            long position = (long) (entry.getInt(0) >>> 8) * RegionFile.SECTOR_BYTES + 4;
+            ByteBuffer old = ByteBuffer.allocate(1);
+            channel.read(old, position);
+            channel.write(ByteBuffer.wrap(new byte[]{value}), position);
+            return old.get(0);
+        }
+    }
+
+    @Test
+    public void chunkThatFailsToReadIsIndexedByTheNextUpdate() throws IOException {
+        Path region = directory.resolve("r.0.0.mca");
+        try (RegionWriter writer = RegionWriter.open(region)) {
+            writer.write(0, 0, chunk("a"));
+            writer.write(1, 0, chunk("b"));
+            writer.commit();
+        }
+        byte original = compression(region, 0, 0, (byte) 99);
+
+        RegionIndex index = RegionIndex.open(directory.resolve("index.dat"), "id");
+        try {
+            index.update(directory);
+            throw new AssertionError("corrupt chunk was indexed");
+        } catch (IOException expected) {
+            // unsupported compression
+        }
+        assertEquals(0, index.find("id", "a").size());
+
+        compression(region, 0, 0, original);
+        index.update(directory);
+        assertEquals(1, index.find("id", "a").size());
+        assertEquals(1, index.find("id", "b").size());
+        assertEquals(0, index.update(directory));
+    }
+}
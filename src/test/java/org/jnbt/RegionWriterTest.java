@@ -0,0 +1,212 @@
+package org.jnbt;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RegionWriterTest {
+
+    private static final int HEADER_BYTES = 2 * RegionFile.SECTOR_BYTES;
+
+    private Path directory;
+    private Path region;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("jnbt-region");
+        region = directory.resolve("r.0.0.mca");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static CompoundTag chunk(String id) {
+        CompoundTag tag = Nbt.compound();
+        tag.put("id", id);
+        return tag;
+    }
+
+    private Path journal() {
+        return directory.resolve("r.0.0.mca.journal");
+    }
+
+    private byte[] header() throws IOException {
+        return Arrays.copyOf(Files.readAllBytes(region), HEADER_BYTES);
+    }
+
+    private void writeHeader(byte[] header) throws IOException {
+        try (FileChannel channel = FileChannel.open(region, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(header);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, buffer.position());
+            }
+        }
+    }
+
+    // A journal as a commit leaves it once synced, before it overwrites the header
+    private void writeJournal(byte[] header, int length) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(header);
+        ByteBuffer record = ByteBuffer.allocate(4 + HEADER_BYTES + 4);
+        record.putInt(0x4E42544A).put(header).putInt((int) crc.getValue());
+        Files.write(journal(), Arrays.copyOf(record.array(), length));
+    }
+
+    @Test
+    public void committedChunksReadBack() throws IOException {
+        try (RegionWriter writer = RegionWriter.open(region)) {
+            writer.write(0, 0, chunk("a"));
+            writer.write(31, 31, chunk("b"));
+            assertEquals(2, writer.getPending());
+            assertEquals(2, writer.commit());
+            assertEquals(0, writer.commit());
+            writer.delete(0, 0);
+            writer.write(5, 7, chunk("c"));
+        }
+        assertFalse(Files.exists(journal()));
+        try (RegionFile file = new RegionFile(region)) {
+            assertFalse(file.hasChunk(0, 0));
+            assertEquals("b", file.read(31, 31).getTag().asCompound().getString("id"));
+            assertEquals("c", file.read(5, 7).getTag().asCompound().getString("id"));
+            assertEquals(0, Files.size(region) % RegionFile.SECTOR_BYTES);
+        }
+    }
+
+    @Test
+    public void oversizedChunksAreStoredExternally() throws IOException {
+        long[] noise = new long[200_000];
+        Random random = new Random(1);
+        for (int i = 0; i < noise.length; i++) {
+            noise[i] = random.nextLong();
+        }
+        CompoundTag large = chunk("large");
+        large.put("noise", noise);
+        Path external = directory.resolve("c.1.2.mcc");
+        try (RegionWriter writer = RegionWriter.open(region)) {
+            writer.write(1, 2, large);
+            writer.commit();
+            assertTrue(Files.exists(external));
+            try (RegionFile file = new RegionFile(region)) {
+                assertArrayEquals(noise, file.read(1, 2).getTag().asCompound().getLongs("noise"));
+            }
+        }
+        // Reopened, the writer still knows the chunk is stored externally
+        try (RegionWriter writer = RegionWriter.open(region)) {
+            writer.write(1, 2, chunk("small"));
+            writer.commit();
+        }
+        assertFalse(Files.exists(external));
+        try (RegionFile file = new RegionFile(region)) {
+            assertEquals("small", file.read(1, 2).getTag().asCompound().getString("id"));
+        }
+    }
+
+    @Test
+    public void openingCompletesTheHeaderFromASyncedJournal() throws IOException {
+        byte[] before;
+        try (RegionWriter writer = RegionWriter.open(region)) {
+            writer.write(0, 0, chunk("a"));
+            writer.commit();
+            before = header();
+            writer.write(1, 0, chunk("b"));
+            writer.commit();
+        }
+        byte[] after = header();
+        // A crash while overwriting the header: the journal is complete, the header half old
+        writeJournal(after, 4 + HEADER_BYTES + 4);
+        byte[] torn = after.clone();
+        System.arraycopy(before, 0, torn, 0, RegionFile.SECTOR_BYTES);
+        writeHeader(torn);
+
+        RegionWriter.open(region).close();
+        assertFalse(Files.exists(journal()));
+        assertArrayEquals(after, header());
+        try (RegionFile file = new RegionFile(region)) {
+            assertEquals("a", file.read(0, 0).getTag().asCompound().getString("id"));
+            assertEquals("b", file.read(1, 0).getTag().asCompound().getString("id"));
+        }
+    }
+
+    @Test
+    public void openingDiscardsAJournalCutShort() throws IOException {
+        byte[] before;
+        try (RegionWriter writer = RegionWriter.open(region)) {
+            writer.write(0, 0, chunk("a"));
+            writer.commit();
+            before = header();
+            writer.write(1, 0, chunk("b"));
+            writer.commit();
+        }
+        // A crash while writing the journal: the header was not touched yet
+        writeJournal(header(), HEADER_BYTES / 2);
+        writeHeader(before);
+
+        try (RegionWriter writer = RegionWriter.open(region)) {
+            assertFalse(Files.exists(journal()));
+            writer.write(2, 0, chunk("c"));
+        }
+        try (RegionFile file = new RegionFile(region)) {
+            assertEquals("a", file.read(0, 0).getTag().asCompound().getString("id"));
+            assertFalse(file.hasChunk(1, 0));
+            assertEquals("c", file.read(2, 0).getTag().asCompound().getString("id"));
+        }
+    }
+
+    @Test
+    public void sectorsOfAFailedCommitAreNotReused() throws IOException {
+        try (RegionWriter writer = RegionWriter.open(region)) {
+            writer.write(0, 0, chunk("a"));
+            writer.commit();
+            int committed = ByteBuffer.wrap(header()).getInt(0) >>> 8;
+
+            // The journal cannot be created, so the commit fails after writing its chunk
+            Files.createDirectories(journal().resolve("blocked"));
+            writer.write(0, 0, chunk("b"));
+            try {
+                writer.commit();
+                throw new AssertionError("Commit should have failed");
+            } catch (IOException e) {
+                assertEquals(1, writer.getPending());
+            }
+            Files.delete(journal().resolve("blocked"));
+            Files.delete(journal());
+
+            writer.write(0, 0, chunk("c"));
+            writer.commit();
+            // Neither the committed sector nor the one the failed commit wrote is reused
+            int location = ByteBuffer.wrap(header()).getInt(0) >>> 8;
+            assertEquals(committed + 2, location);
+        }
+        try (RegionFile file = new RegionFile(region)) {
+            assertEquals("c", file.read(0, 0).getTag().asCompound().getString("id"));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedWritersRejectWrites() throws IOException {
+        RegionWriter writer = RegionWriter.open(region);
+        writer.close();
+        writer.write(0, 0, chunk("a"));
+    }
+}
@@ -0,0 +1,80 @@
+package org.jnbt;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SnbtTest {
+
+    private static CompoundTag edges() {
+        CompoundTag tag = Nbt.compound();
+        tag.put("byte", Byte.MIN_VALUE);
+        tag.put("short", Short.MAX_VALUE);
+        tag.put("int", Integer.MIN_VALUE);
+        tag.put("long", Long.MIN_VALUE);
+        tag.put("floatNaN", Nbt.tag(Float.NaN));
+        tag.put("floatInfinity", Nbt.tag(Float.POSITIVE_INFINITY));
+        tag.put("floatNegativeInfinity", Nbt.tag(Float.NEGATIVE_INFINITY));
+        tag.put("floatMin", Nbt.tag(Float.MIN_VALUE));
+        tag.put("floatNegativeZero", Nbt.tag(-0.0f));
+        tag.put("doubleNaN", Double.NaN);
+        tag.put("doubleInfinity", Double.POSITIVE_INFINITY);
+        tag.put("doubleNegativeInfinity", Double.NEGATIVE_INFINITY);
+        tag.put("doubleMax", Double.MAX_VALUE);
+        tag.put("doubleTiny", 1e-300);
+        tag.put("bytes", new byte[]{Byte.MIN_VALUE, 0, Byte.MAX_VALUE});
+        tag.put("ints", new int[]{Integer.MIN_VALUE, Integer.MAX_VALUE});
+        tag.put("longs", new long[]{Long.MIN_VALUE, Long.MAX_VALUE});
+        tag.put("doubles", Nbt.list(TagType.DOUBLE, Double.NaN, Double.NEGATIVE_INFINITY));
+        // Strings that look like numbers stay strings
+        tag.put("textNaN", "NaNd");
+        tag.put("textInfinity", "Infinity");
+        tag.put("quotes", "it's \"quoted\"");
+        tag.put("", "empty key");
+        return tag;
+    }
+
+    private static void assertRejected(String snbt) {
+        try {
+            Snbt.parse(snbt);
+            throw new AssertionError("Parsed " + snbt);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void printedValuesParseBack() {
+        CompoundTag tag = edges();
+        assertEquals(tag, Snbt.parse(Snbt.toString(tag)));
+        assertEquals(tag, Snbt.parse(Snbt.toPrettyString(tag)));
+    }
+
+    @Test
+    public void nonFiniteValuesNeedTheirSuffix() {
+        assertEquals(Nbt.tag(Float.NaN), Snbt.parse("NaNf"));
+        assertEquals(Nbt.tag(Double.NEGATIVE_INFINITY), Snbt.parse("-Infinityd"));
+        assertEquals(Nbt.tag(Double.POSITIVE_INFINITY), Snbt.parse("+InfinityD"));
+        assertEquals(Nbt.tag("NaN"), Snbt.parse("NaN"));
+        assertEquals(Nbt.tag("Infinity"), Snbt.parse("Infinity"));
+        assertEquals(Nbt.tag("Infinit"), Snbt.parse("Infinit"));
+        assertEquals(Nbt.tag("NaNs"), Snbt.parse("NaNs"));
+    }
+
+    @Test
+    public void arrayBoundsAreAccepted() {
+        assertArrayEquals(new byte[]{-128, 127}, ((ByteArrayTag) Snbt.parse("[B;-128b,127]")).getValue());
+        assertArrayEquals(new int[]{Integer.MIN_VALUE, Integer.MAX_VALUE},
+                ((IntArrayTag) Snbt.parse("[I;-2147483648,2147483647L]")).getValue());
+        assertArrayEquals(new long[]{Long.MAX_VALUE}, ((LongArrayTag) Snbt.parse("[L;9223372036854775807L]")).getValue());
+    }
+
+    @Test
+    public void arrayValuesOutOfRangeAreRejected() {
+        assertRejected("[B;300]");
+        assertRejected("[B;1,-129]");
+        assertRejected("[I;2147483648L]");
+        assertRejected("[I;-2147483649L]");
+    }
+}
@@ -0,0 +1,67 @@
+package org.jnbt;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TagHashTest {
+
+    @Test
+    public void equalTreesHashEqually() {
+        assertEquals(ReadOptionsTest.sample().hashCode(), ReadOptionsTest.sample().immutableCopy().hashCode());
+        assertEquals(ReadOptionsTest.sample(), ReadOptionsTest.sample().immutableCopy());
+    }
+
+    @Test
+    public void immutableCopyFreezesTheWholeTree() {
+        CompoundTag child = Nbt.compound();
+        child.put("x", 1);
+        ListTag<CompoundTag> list = Nbt.list(TagType.COMPOUND);
+        list.add(child);
+        CompoundTag root = Nbt.compound();
+        root.put("child", child);
+        root.put("list", list);
+
+        CompoundTag frozen = root.immutableCopy();
+        assertTrue(frozen.getCompound("child").isFrozen());
+        assertTrue(frozen.getListTag("list", TagType.COMPOUND).isFrozen());
+        assertTrue(frozen.getListTag("list", TagType.COMPOUND).immutableCopy().iterator().next().isFrozen());
+    }
+
+    @Test
+    public void memoizedHashSurvivesChangesToTheOriginal() {
+        CompoundTag child = Nbt.compound();
+        child.put("x", 1);
+        CompoundTag root = Nbt.compound();
+        root.put("child", child);
+
+        CompoundTag key = root.immutableCopy();
+        Map<CompoundTag, String> map = new HashMap<>();
+        map.put(key, "value");
+        int hash = key.hashCode();
+        child.put("x", 2);
+
+        assertEquals(hash, key.hashCode());
+        assertEquals("value", map.get(key));
+        assertEquals(1, key.getCompound("child").getInt("x"));
+        assertNotEquals(root, key);
+    }
+
+    @Test
+    public void immutableCopyOfListFreezesElements() {
+        CompoundTag child = Nbt.compound();
+        child.put("x", 1);
+        ListTag<CompoundTag> list = Nbt.list(TagType.COMPOUND);
+        list.add(child);
+        ListTag<CompoundTag> frozen = list.immutableCopy();
+        int hash = frozen.hashCode();
+        child.put("x", 2);
+        assertEquals(hash, frozen.hashCode());
+        assertEquals(1, frozen.iterator().next().getInt("x"));
+    }
+}
@@ -0,0 +1,51 @@
+package org.jnbt;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.jnbt.ReadOptionsTest.read;
+import static org.jnbt.ReadOptionsTest.write;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TagInternerTest {
+
+    @Test
+    public void equalSubtreesShareOneInstance() throws IOException {
+        CompoundTag root = Nbt.compound();
+        root.put("a", ReadOptionsTest.sample());
+        root.put("b", ReadOptionsTest.sample());
+        TagInterner interner = new TagInterner(1024);
+        CompoundTag interned = read(write(root), ReadOptions.frozen().withInterner(interner)).getTag().asCompound();
+        assertSame(interned.getCompound("a"), interned.getCompound("b"));
+        assertEquals(root, interned);
+        assertTrue(interner.getHits() > 0);
+    }
+
+    @Test
+    public void absentSentinelsAreNeverCanonical() throws IOException {
+        TagInterner interner = new TagInterner(1024);
+        Tag<?>[] sentinels = {CompoundTag.EMPTY, Nbt.compound().getListTag("x", TagType.INT), StringTag.EMPTY,
+                ByteArrayTag.EMPTY, IntArrayTag.EMPTY, LongArrayTag.EMPTY};
+        for (Tag<?> sentinel : sentinels) {
+            assertSame(sentinel, interner.intern(sentinel));
+            assertTrue(sentinel.isAbsent());
+        }
+
+        CompoundTag root = Nbt.compound();
+        root.put("compound", Nbt.compound());
+        root.put("ints", new int[0]);
+        root.put("longs", new long[0]);
+        root.put("bytes", new ByteArrayTag(new byte[0]));
+        root.put("string", "null");
+        CompoundTag interned = interner.intern(read(write(root), ReadOptions.frozen()).getTag().asCompound());
+        assertTrue(interned.getCompound("compound").isPresent());
+        assertTrue(interned.get("ints").isPresent());
+        assertTrue(interned.get("longs").isPresent());
+        assertTrue(interned.get("bytes").isPresent());
+        assertTrue(interned.get("string").isPresent());
+        assertEquals(root, read(write(interned), ReadOptions.frozen()).getTag());
+    }
+}